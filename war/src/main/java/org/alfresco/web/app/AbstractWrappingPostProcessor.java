@@ -0,0 +1,162 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app;
+
+import org.aopalliance.aop.Advice;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+
+/**
+ * Base class of the post processors that wrap or proxy a repository bean when a feature is enabled, so that the
+ * feature needs no redefinition of the repository's beans.
+ * <p>
+ * By default the bean is matched by name. Subclasses return the wrapper from {@link #wrap(Object, String)}, usually
+ * a {@link #proxy(Object, Advice) proxy} of the bean. A post processor is created before the other beans, and
+ * referencing services from it would instantiate them, and the DAOs behind them, before the other post processors
+ * are registered. So the services a wrapper needs are handed to it as {@link #lazyBean(String, Class) factories}
+ * that look them up on first use.
+ * 
+ * @since 6.2.2
+ */
+public abstract class AbstractWrappingPostProcessor implements BeanPostProcessor, BeanFactoryAware
+{
+    private boolean enabled;
+    private String targetBeanName;
+    private BeanFactory beanFactory;
+
+    /**
+     * @param targetBeanName name of the bean wrapped by default
+     */
+    protected AbstractWrappingPostProcessor(String targetBeanName)
+    {
+        this.targetBeanName = targetBeanName;
+    }
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    protected boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    protected void setTargetBeanName(String targetBeanName)
+    {
+        this.targetBeanName = targetBeanName;
+    }
+
+    @Override
+    public void setBeanFactory(BeanFactory beanFactory) throws BeansException
+    {
+        this.beanFactory = beanFactory;
+    }
+
+    protected BeanFactory getBeanFactory()
+    {
+        return beanFactory;
+    }
+
+    /**
+     * @return whether the bean is to be wrapped, by default whether it is the target bean
+     */
+    protected boolean matches(Object bean, String beanName)
+    {
+        return beanName.equals(targetBeanName);
+    }
+
+    /**
+     * @return the bean to use in place of the given one
+     */
+    protected abstract Object wrap(Object bean, String beanName);
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException
+    {
+        return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException
+    {
+        if (!isEnabled() || !matches(bean, beanName))
+        {
+            return bean;
+        }
+        return wrap(bean, beanName);
+    }
+
+    /**
+     * Proxies the implementation class, rather than its interfaces, as the repository injects some beans by class.
+     */
+    protected static Object proxy(Object bean, Advice advice)
+    {
+        ProxyFactory proxyFactory = new ProxyFactory(bean);
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAdvice(advice);
+        return proxyFactory.getProxy();
+    }
+
+    /**
+     * @return a factory that looks the bean up on first use and keeps it
+     */
+    protected <T> ObjectFactory<T> lazyBean(String beanName, Class<T> type)
+    {
+        return new LazyBean<>(beanFactory, beanName, type);
+    }
+
+    private static final class LazyBean<T> implements ObjectFactory<T>
+    {
+        private final BeanFactory beanFactory;
+        private final String beanName;
+        private final Class<T> type;
+        private volatile T bean;
+
+        private LazyBean(BeanFactory beanFactory, String beanName, Class<T> type)
+        {
+            this.beanFactory = beanFactory;
+            this.beanName = beanName;
+            this.type = type;
+        }
+
+        @Override
+        public T getObject() throws BeansException
+        {
+            T result = bean;
+            if (result == null)
+            {
+                result = beanFactory.getBean(beanName, type);
+                bean = result;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.api.nodes;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.alfresco.rest.framework.core.exceptions.InvalidArgumentException;
+
+/**
+ * Opaque continuation token of a keyset page: the sort column and direction it was issued for, and the key of the
+ * last child returned, i.e. the sort value and the child association id.
+ * 
+ * @since 6.2.2
+ */
+final class ChildrenCursor
+{
+    private static final char SEPARATOR = '\n';
+
+    private final String sortColumn;
+    private final boolean ascending;
+    private final long afterId;
+    private final String afterValue;
+
+    ChildrenCursor(String sortColumn, boolean ascending, long afterId, String afterValue)
+    {
+        this.sortColumn = sortColumn;
+        this.ascending = ascending;
+        this.afterId = afterId;
+        this.afterValue = afterValue;
+    }
+
+    String getSortColumn()
+    {
+        return sortColumn;
+    }
+
+    boolean isAscending()
+    {
+        return ascending;
+    }
+
+    long getAfterId()
+    {
+        return afterId;
+    }
+
+    String getAfterValue()
+    {
+        return afterValue;
+    }
+
+    String encode()
+    {
+        String raw = sortColumn + SEPARATOR + (ascending ? 'A' : 'D') + SEPARATOR + afterId + SEPARATOR
+                    + (afterValue == null ? "" : afterValue);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static ChildrenCursor decode(String token)
+    {
+        try
+        {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split(String.valueOf(SEPARATOR), 4);
+            if (parts.length != 4 || !(parts[1].equals("A") || parts[1].equals("D")))
+            {
+                throw new InvalidArgumentException("Invalid cursor: " + token);
+            }
+            return new ChildrenCursor(parts[0], parts[1].equals("A"), Long.parseLong(parts[2]), parts[3]);
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Also covers NumberFormatException
+            throw new InvalidArgumentException("Invalid cursor: " + token);
+        }
+    }
+}
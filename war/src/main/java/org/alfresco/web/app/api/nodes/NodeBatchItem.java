@@ -0,0 +1,81 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.api.nodes;
+
+import org.alfresco.rest.api.model.Node;
+import org.alfresco.rest.framework.resource.UniqueId;
+
+/**
+ * One item of a bulk node read: the requested node id, and either the node or the HTTP status and error key of the
+ * failure for that id.
+ * 
+ * @since 6.2.2
+ */
+public class NodeBatchItem
+{
+    private String id;
+    private int statusCode;
+    private String errorKey;
+    private Node node;
+
+    public NodeBatchItem()
+    {
+    }
+
+    public NodeBatchItem(String id, int statusCode, String errorKey, Node node)
+    {
+        this.id = id;
+        this.statusCode = statusCode;
+        this.errorKey = errorKey;
+        this.node = node;
+    }
+
+    @UniqueId
+    public String getId()
+    {
+        return id;
+    }
+
+    public void setId(String id)
+    {
+        this.id = id;
+    }
+
+    public int getStatusCode()
+    {
+        return statusCode;
+    }
+
+    public String getErrorKey()
+    {
+        return errorKey;
+    }
+
+    public Node getNode()
+    {
+        return node;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.api.nodes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.repo.domain.qname.QNameDAO;
+import org.alfresco.rest.api.Nodes;
+import org.alfresco.rest.api.model.Node;
+import org.alfresco.rest.api.nodes.NodesEntityResource;
+import org.alfresco.rest.framework.WebApiDescription;
+import org.alfresco.rest.framework.core.exceptions.InvalidArgumentException;
+import org.alfresco.rest.framework.resource.RelationshipResource;
+import org.alfresco.rest.framework.resource.actions.interfaces.RelationshipResourceAction;
+import org.alfresco.rest.framework.resource.parameters.CollectionWithPagingInfo;
+import org.alfresco.rest.framework.resource.parameters.Paging;
+import org.alfresco.rest.framework.resource.parameters.Parameters;
+import org.alfresco.rest.framework.resource.parameters.SortColumn;
+import org.alfresco.service.cmr.dictionary.DictionaryService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.Pair;
+import org.alfresco.util.ParameterCheck;
+import org.alfresco.web.app.domain.node.ChildPageDAO;
+import org.alfresco.web.app.domain.node.ChildPageEntity;
+import org.alfresco.web.app.domain.node.ChildPageQueryEntity;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Lists the children of a folder a page at a time using a continuation cursor instead of <code>skipCount</code>.
+ * <p>
+ * <code>GET /nodes/{nodeId}/children-cursor?maxItems=100[&amp;orderBy=name|createdAt [ASC|DESC]][&amp;cursor=...]</code>
+ * <p>
+ * The response context carries a <code>nextCursor</code> while there are more items; passing it back returns the next
+ * page. Each page seeks directly to the key that follows the cursor, so walking forward through a folder with hundreds
+ * of thousands of children costs the same for every page, where <code>/children</code> re-sorts the folder and skips
+ * over the previous pages. Names are compared case-insensitively, on the first 50 characters stored on the child
+ * association, so the order can differ from that of <code>/children?orderBy=name</code>, which collates the whole
+ * <code>cm:name</code> for the locale. Paging by name needs the index created by
+ * <code>alfresco/dbscripts/web/org.alfresco.repo.domain.dialect.Dialect/web-child-page-indexes.sql</code>. Paging by
+ * <code>createdAt</code> cannot use an index: each page sorts the children of the folder on the database, which is
+ * cheaper than <code>/children</code> but grows with the folder. <code>include</code> is supported as for <code>/children</code> and is computed a page at a time by the
+ * {@link NodePageLoader}.
+ * <p>
+ * Children the user cannot read are skipped. To bound the work of one request in a folder where most of them are
+ * hidden, at most <code>maxRowsScanned</code> rows are read per page; when that is reached the page is returned
+ * short, possibly empty, with a <code>nextCursor</code> that continues after the last row read.
+ * 
+ * @since 6.2.2
+ */
+@RelationshipResource(name = "children-cursor", entityResource = NodesEntityResource.class, title = "Folder children (cursor paging)")
+public class NodeChildrenCursorRelation implements RelationshipResourceAction.Read<Node>, InitializingBean
+{
+    public static final String PARAM_CURSOR = "cursor";
+
+    private static final String SORT_NAME = "name";
+    private static final String SORT_CREATED_AT = "createdAt";
+
+    private Nodes nodes;
+    private NodeDAO nodeDAO;
+    private QNameDAO qnameDAO;
+    private ChildPageDAO childPageDAO;
+    private DictionaryService dictionaryService;
+    private PermissionService permissionService;
+    private NodePageLoader nodePageLoader;
+    private int maxRowsScanned = 5000;
+
+    public void setNodes(Nodes nodes)
+    {
+        this.nodes = nodes;
+    }
+
+    public void setNodeDAO(NodeDAO nodeDAO)
+    {
+        this.nodeDAO = nodeDAO;
+    }
+
+    public void setQnameDAO(QNameDAO qnameDAO)
+    {
+        this.qnameDAO = qnameDAO;
+    }
+
+    public void setChildPageDAO(ChildPageDAO childPageDAO)
+    {
+        this.childPageDAO = childPageDAO;
+    }
+
+    public void setDictionaryService(DictionaryService dictionaryService)
+    {
+        this.dictionaryService = dictionaryService;
+    }
+
+    public void setPermissionService(PermissionService permissionService)
+    {
+        this.permissionService = permissionService;
+    }
+
+    public void setNodePageLoader(NodePageLoader nodePageLoader)
+    {
+        this.nodePageLoader = nodePageLoader;
+    }
+
+    /**
+     * @param maxRowsScanned the most child rows read to fill one page
+     */
+    public void setMaxRowsScanned(int maxRowsScanned)
+    {
+        this.maxRowsScanned = maxRowsScanned;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        ParameterCheck.mandatory("nodes", this.nodes);
+        ParameterCheck.mandatory("nodeDAO", this.nodeDAO);
+        ParameterCheck.mandatory("qnameDAO", this.qnameDAO);
+        ParameterCheck.mandatory("childPageDAO", this.childPageDAO);
+        ParameterCheck.mandatory("dictionaryService", this.dictionaryService);
+        ParameterCheck.mandatory("permissionService", this.permissionService);
+        ParameterCheck.mandatory("nodePageLoader", this.nodePageLoader);
+    }
+
+    @Override
+    @WebApiDescription(title = "Return a page of the children of the given folder, continuing from a cursor")
+    public CollectionWithPagingInfo<Node> readAll(String parentFolderNodeId, Parameters parameters)
+    {
+        NodeRef parentNodeRef = nodes.validateOrLookupNode(parentFolderNodeId, null);
+        if (!nodes.nodeMatches(parentNodeRef, Collections.singleton(ContentModel.TYPE_FOLDER), null))
+        {
+            throw new InvalidArgumentException("NodeId of folder is expected: " + parentNodeRef.getId());
+        }
+
+        Paging paging = parameters.getPaging();
+        if (paging.getSkipCount() != 0)
+        {
+            throw new InvalidArgumentException("skipCount is not supported with cursor paging");
+        }
+        int maxItems = paging.getMaxItems();
+
+        String sortColumn = SORT_NAME;
+        boolean ascending = true;
+        List<SortColumn> sorting = parameters.getSorting();
+        if (sorting != null && !sorting.isEmpty())
+        {
+            if (sorting.size() > 1 || !(SORT_NAME.equals(sorting.get(0).column) || SORT_CREATED_AT.equals(sorting.get(0).column)))
+            {
+                throw new InvalidArgumentException("Cursor paging can only be ordered by one of: " + SORT_NAME + ", " + SORT_CREATED_AT);
+            }
+            sortColumn = sorting.get(0).column;
+            ascending = sorting.get(0).asc;
+        }
+
+        ChildPageQueryEntity query = new ChildPageQueryEntity();
+        query.setAscending(ascending);
+        query.setLimit(maxItems + 1);
+
+        String token = parameters.getParameter(PARAM_CURSOR);
+        if (token != null && !token.isEmpty())
+        {
+            ChildrenCursor cursor = ChildrenCursor.decode(token);
+            if (!cursor.getSortColumn().equals(sortColumn) || cursor.isAscending() != ascending)
+            {
+                throw new InvalidArgumentException("The cursor was issued for a different orderBy");
+            }
+            query.setAfterId(cursor.getAfterId());
+            query.setAfterValue(cursor.getAfterValue());
+        }
+
+        Pair<Long, QName> containsQNamePair = qnameDAO.getQName(ContentModel.ASSOC_CONTAINS);
+        if (containsQNamePair == null || maxItems == 0)
+        {
+            return CollectionWithPagingInfo.asPaged(paging, Collections.<Node>emptyList());
+        }
+        query.setParentNodeId(nodeDAO.getNodePair(parentNodeRef).getFirst());
+        query.setAssocTypeQNameId(containsQNamePair.getFirst());
+
+        List<NodeRef> page = new ArrayList<>(maxItems);
+        ChildrenCursor next = null;
+        int scanned = 0;
+
+        // Rows that are not visible to the user are skipped, so keep seeking until the page is full (plus one to know
+        // whether there is a next page), the folder is exhausted or the scan limit is reached.
+        seek:
+        while (true)
+        {
+            List<ChildPageEntity> rows = SORT_NAME.equals(sortColumn)
+                        ? childPageDAO.selectChildrenByName(query)
+                        : childPageDAO.selectChildrenByCreated(query);
+            for (ChildPageEntity row : rows)
+            {
+                QName typeQName = qnameDAO.getQName(row.getTypeQNameId()).getSecond();
+                NodeRef nodeRef = row.getNodeRef();
+                if (isListed(typeQName) && permissionService.hasReadPermission(nodeRef) == AccessStatus.ALLOWED)
+                {
+                    if (page.size() == maxItems)
+                    {
+                        // continue after the row before this one, the last child returned or a hidden one after it
+                        next = new ChildrenCursor(sortColumn, ascending, query.getAfterId(), query.getAfterValue());
+                        break seek;
+                    }
+                    page.add(nodeRef);
+                }
+                query.setAfterId(row.getChildAssocId());
+                query.setAfterValue(sortValue(row, sortColumn));
+            }
+            scanned += rows.size();
+            if (rows.size() < query.getLimit())
+            {
+                break;
+            }
+            if (scanned >= maxRowsScanned)
+            {
+                // continue after the last row read, whether it was returned or not
+                next = new ChildrenCursor(sortColumn, ascending, query.getAfterId(), query.getAfterValue());
+                break;
+            }
+        }
+        boolean hasMoreItems = next != null;
+
+        CursorContext context = new CursorContext(hasMoreItems ? next.encode() : null);
+        List<Node> nodesPage = nodePageLoader.load(page, parentNodeRef, parameters.getInclude(), parameters.getFilter());
+        return CollectionWithPagingInfo.asPaged(paging, nodesPage, hasMoreItems, null, null, context);
+    }
+
+    /**
+     * Same types as listed by <code>/children</code>: documents and folders, except system folders
+     */
+    private boolean isListed(QName typeQName)
+    {
+        if (dictionaryService.isSubClass(typeQName, ContentModel.TYPE_CONTENT))
+        {
+            return true;
+        }
+        return dictionaryService.isSubClass(typeQName, ContentModel.TYPE_FOLDER)
+                    && !dictionaryService.isSubClass(typeQName, ContentModel.TYPE_SYSTEM_FOLDER);
+    }
+
+    private static String sortValue(ChildPageEntity row, String sortColumn)
+    {
+        return SORT_NAME.equals(sortColumn) ? row.getChildNodeName() : row.getAuditCreated();
+    }
+
+    /**
+     * Returned as the <code>context</code> of the list
+     */
+    public static class CursorContext
+    {
+        private final String nextCursor;
+
+        public CursorContext(String nextCursor)
+        {
+            this.nextCursor = nextCursor;
+        }
+
+        public String getNextCursor()
+        {
+            return nextCursor;
+        }
+    }
+}
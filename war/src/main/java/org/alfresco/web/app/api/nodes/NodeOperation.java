@@ -0,0 +1,186 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.api.nodes;
+
+import java.util.List;
+
+import org.alfresco.rest.api.model.Node;
+import org.alfresco.rest.framework.resource.UniqueId;
+
+/**
+ * One operation of a bulk node write, and its result once applied.
+ * <p>
+ * Requested with <code>op</code> (<code>create</code>, <code>update</code>, <code>move</code> or <code>tag</code>):
+ * <ul>
+ *   <li><code>create</code>: <code>parentId</code> and <code>node</code>, optionally a <code>ref</code> that later
+ *       operations can use in place of the new node's id as <code>#ref</code></li>
+ *   <li><code>update</code>: <code>nodeId</code> and <code>node</code></li>
+ *   <li><code>move</code>: <code>nodeId</code>, <code>parentId</code> and optionally <code>name</code></li>
+ *   <li><code>tag</code>: <code>nodeId</code> and <code>tags</code></li>
+ * </ul>
+ * Answered with <code>status</code> (<code>ok</code>, <code>failed</code>, <code>rolledBack</code> or
+ * <code>skipped</code>), the resulting <code>node</code> and, for the failed operation, <code>statusCode</code> and
+ * <code>errorKey</code>.
+ * 
+ * @since 6.2.2
+ */
+public class NodeOperation
+{
+    public static final String OP_CREATE = "create";
+    public static final String OP_UPDATE = "update";
+    public static final String OP_MOVE = "move";
+    public static final String OP_TAG = "tag";
+
+    public static final String STATUS_OK = "ok";
+    public static final String STATUS_FAILED = "failed";
+    public static final String STATUS_ROLLED_BACK = "rolledBack";
+    public static final String STATUS_SKIPPED = "skipped";
+
+    private Integer index;
+    private String op;
+    private String ref;
+    private String nodeId;
+    private String parentId;
+    private String name;
+    private Node node;
+    private List<String> tags;
+
+    private String status;
+    private Integer statusCode;
+    private String errorKey;
+
+    @UniqueId
+    public Integer getIndex()
+    {
+        return index;
+    }
+
+    public void setIndex(Integer index)
+    {
+        this.index = index;
+    }
+
+    public String getOp()
+    {
+        return op;
+    }
+
+    public void setOp(String op)
+    {
+        this.op = op;
+    }
+
+    public String getRef()
+    {
+        return ref;
+    }
+
+    public void setRef(String ref)
+    {
+        this.ref = ref;
+    }
+
+    public String getNodeId()
+    {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId)
+    {
+        this.nodeId = nodeId;
+    }
+
+    public String getParentId()
+    {
+        return parentId;
+    }
+
+    public void setParentId(String parentId)
+    {
+        this.parentId = parentId;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+
+    public Node getNode()
+    {
+        return node;
+    }
+
+    public void setNode(Node node)
+    {
+        this.node = node;
+    }
+
+    public List<String> getTags()
+    {
+        return tags;
+    }
+
+    public void setTags(List<String> tags)
+    {
+        this.tags = tags;
+    }
+
+    public String getStatus()
+    {
+        return status;
+    }
+
+    public Integer getStatusCode()
+    {
+        return statusCode;
+    }
+
+    public String getErrorKey()
+    {
+        return errorKey;
+    }
+
+    void setResult(String status, Node node)
+    {
+        this.status = status;
+        this.node = node;
+        this.statusCode = null;
+        this.errorKey = null;
+    }
+
+    void setFailure(int statusCode, String errorKey)
+    {
+        this.status = STATUS_FAILED;
+        this.node = null;
+        this.statusCode = statusCode;
+        this.errorKey = errorKey;
+    }
+}
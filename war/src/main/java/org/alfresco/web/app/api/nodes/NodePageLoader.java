@@ -0,0 +1,272 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.api.nodes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.repo.model.Repository;
+import org.alfresco.rest.api.Nodes;
+import org.alfresco.rest.api.model.Node;
+import org.alfresco.rest.api.model.NodePermissions;
+import org.alfresco.rest.api.model.PathInfo;
+import org.alfresco.rest.api.model.UserInfo;
+import org.alfresco.rest.framework.jacksonextensions.BeanPropertiesFilter;
+import org.alfresco.service.cmr.dictionary.DictionaryService;
+import org.alfresco.service.cmr.lock.LockService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.ParameterCheck;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Builds the {@link Node} models of a page of nodes, computing the expensive <code>include</code> options once per
+ * page rather than once per node.
+ * <ul>
+ *   <li>The nodes, their properties and aspects are bulk loaded into the node caches with one set of queries before
+ *       any model is built, so the basic fields no longer fetch each node on its own.</li>
+ *   <li><code>isLocked</code> is read from the cached aspects and the lock service, without building the model of the
+ *       node with its include options.</li>
+ *   <li><code>path</code> only depends on the primary parent, so the ancestors are walked once per distinct parent and
+ *       the result is shared by the siblings.</li>
+ *   <li><code>permissions</code> only depends on the ACL, the type and the aspects of a node, so it is evaluated once
+ *       per distinct combination.</li>
+ *   <li><code>allowableOperations</code> also depends on the dynamic authorities of the node, its owner and its lock,
+ *       so it is evaluated once per distinct combination of those as well. Company Home and the folders directly
+ *       below it, where the API refuses <code>delete</code> to some system folders whatever the permissions, are
+ *       evaluated on their own.</li>
+ * </ul>
+ * The <code>fields</code> projection of the request is pushed down: <code>include</code> options whose field is not
+ * selected are not computed, and when none of the fields that need the audit properties, user details or content
+ * data are selected the models are built from the cached type, name and parent alone.
+ * The caller is expected to have checked that the nodes are readable.
+ * 
+ * @since 6.2.2
+ */
+public class NodePageLoader implements InitializingBean
+{
+    /**
+     * Fields of the full model that are not derived from the type, name and parent alone
+     */
+    private static final List<String> LOADED_FIELDS = Arrays.asList(
+                "createdAt", "createdByUser", "modifiedAt", "modifiedByUser", "content");
+
+    private Nodes nodes;
+    private NodeDAO nodeDAO;
+    private NodeService nodeService;
+    private DictionaryService dictionaryService;
+    private NamespaceService namespaceService;
+    private LockService lockService;
+    private Repository repositoryHelper;
+
+    public void setNodes(Nodes nodes)
+    {
+        this.nodes = nodes;
+    }
+
+    public void setNodeDAO(NodeDAO nodeDAO)
+    {
+        this.nodeDAO = nodeDAO;
+    }
+
+    public void setNodeService(NodeService nodeService)
+    {
+        this.nodeService = nodeService;
+    }
+
+    public void setDictionaryService(DictionaryService dictionaryService)
+    {
+        this.dictionaryService = dictionaryService;
+    }
+
+    public void setNamespaceService(NamespaceService namespaceService)
+    {
+        this.namespaceService = namespaceService;
+    }
+
+    public void setLockService(LockService lockService)
+    {
+        this.lockService = lockService;
+    }
+
+    public void setRepositoryHelper(Repository repositoryHelper)
+    {
+        this.repositoryHelper = repositoryHelper;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        ParameterCheck.mandatory("nodes", this.nodes);
+        ParameterCheck.mandatory("nodeDAO", this.nodeDAO);
+        ParameterCheck.mandatory("nodeService", this.nodeService);
+        ParameterCheck.mandatory("dictionaryService", this.dictionaryService);
+        ParameterCheck.mandatory("namespaceService", this.namespaceService);
+        ParameterCheck.mandatory("lockService", this.lockService);
+        ParameterCheck.mandatory("repositoryHelper", this.repositoryHelper);
+    }
+
+    /**
+     * @param nodeRefs          the nodes of the page, in order
+     * @param parentNodeRef     the folder being listed, or <tt>null</tt> if the nodes do not share a parent
+     * @param includeParam      the <code>include</code> option of the request
+     * @param filter            the <code>fields</code> projection of the request, or <tt>null</tt> for all fields
+     * @return                  the models, in the order of <code>nodeRefs</code>
+     */
+    public List<Node> load(List<NodeRef> nodeRefs, NodeRef parentNodeRef, List<String> includeParam, BeanPropertiesFilter filter)
+    {
+        if (filter == null)
+        {
+            filter = BeanPropertiesFilter.ALLOW_ALL;
+        }
+        // Each include option fills the model field of the same name
+        List<String> perNodeInclude = new ArrayList<>();
+        if (includeParam != null)
+        {
+            for (String include : includeParam)
+            {
+                if (filter.isAllowed(include))
+                {
+                    perNodeInclude.add(include);
+                }
+            }
+        }
+        boolean includePath = perNodeInclude.remove(Nodes.PARAM_INCLUDE_PATH);
+        boolean includePermissions = perNodeInclude.remove(Nodes.PARAM_INCLUDE_PERMISSIONS);
+        boolean includeIsLocked = perNodeInclude.remove(Nodes.PARAM_INCLUDE_ISLOCKED);
+        boolean includeAllowableOperations = perNodeInclude.remove(Nodes.PARAM_INCLUDE_ALLOWABLEOPERATIONS);
+        boolean summary = perNodeInclude.isEmpty() && LOADED_FIELDS.stream().noneMatch(filter::isAllowed);
+
+        nodeDAO.cacheNodes(nodeRefs);
+
+        NodeRef companyHome = includeAllowableOperations ? repositoryHelper.getCompanyHome() : null;
+        Map<String, UserInfo> mapUserInfo = new HashMap<>(10);
+        Map<NodeRef, PathInfo> pathByParent = new HashMap<>();
+        Map<SharedKey, NodePermissions> permissionsByKey = new HashMap<>();
+        Map<SharedKey, List<String>> allowableOperationsByKey = new HashMap<>();
+        List<Node> page = new ArrayList<>(nodeRefs.size());
+        for (NodeRef nodeRef : nodeRefs)
+        {
+            QName typeQName = nodeService.getType(nodeRef);
+            Node node = summary
+                        ? summarize(nodeRef, parentNodeRef, typeQName)
+                        : nodes.getFolderOrDocument(nodeRef, parentNodeRef, typeQName, perNodeInclude, mapUserInfo);
+            NodeRef primaryParentRef = includePath || includeAllowableOperations
+                        ? nodeService.getPrimaryParent(nodeRef).getParentRef()
+                        : null;
+            Set<QName> aspects = includePermissions || includeIsLocked || includeAllowableOperations
+                        ? nodeService.getAspects(nodeRef)
+                        : null;
+            Long aclId = includePermissions || includeAllowableOperations
+                        ? nodeDAO.getNodeAclId(nodeDAO.getNodePair(nodeRef).getFirst())
+                        : null;
+            if (includePath)
+            {
+                node.setPath(pathByParent.computeIfAbsent(primaryParentRef, p -> nodes.lookupPathInfo(nodeRef, null)));
+            }
+            if (includePermissions)
+            {
+                SharedKey key = new SharedKey(aclId, typeQName, aspects);
+                node.setPermissions(permissionsByKey.computeIfAbsent(key, k -> nodes.getFolderOrDocument(nodeRef, parentNodeRef,
+                            typeQName, List.of(Nodes.PARAM_INCLUDE_PERMISSIONS), mapUserInfo).getPermissions()));
+            }
+            if (includeIsLocked)
+            {
+                // as Nodes#getFolderOrDocument does
+                node.setIsLocked(aspects.contains(ContentModel.ASPECT_LOCKABLE) && lockService.isLocked(nodeRef));
+            }
+            if (includeAllowableOperations)
+            {
+                boolean special = nodeRef.equals(companyHome) || Objects.equals(primaryParentRef, companyHome);
+                SharedKey key = new SharedKey(aclId, typeQName, aspects,
+                            nodeService.getProperty(nodeRef, ContentModel.PROP_OWNER),
+                            nodeService.getProperty(nodeRef, ContentModel.PROP_CREATOR),
+                            lockService.getLockStatus(nodeRef),
+                            special ? nodeRef : null);
+                // a node without any allowable operation has null, which computeIfAbsent would not keep
+                if (!allowableOperationsByKey.containsKey(key))
+                {
+                    allowableOperationsByKey.put(key, nodes.getFolderOrDocument(nodeRef, parentNodeRef, typeQName,
+                                List.of(Nodes.PARAM_INCLUDE_ALLOWABLEOPERATIONS), mapUserInfo).getAllowableOperations());
+                }
+                node.setAllowableOperations(allowableOperationsByKey.get(key));
+            }
+            page.add(node);
+        }
+        return page;
+    }
+
+    /**
+     * The identity fields of a node, as set by {@link Nodes#getFolderOrDocument}
+     */
+    private Node summarize(NodeRef nodeRef, NodeRef parentNodeRef, QName typeQName)
+    {
+        boolean isFolder = dictionaryService.isSubClass(typeQName, ContentModel.TYPE_FOLDER)
+                    && !dictionaryService.isSubClass(typeQName, ContentModel.TYPE_SYSTEM_FOLDER);
+        Node node = new Node();
+        node.setNodeRef(nodeRef);
+        node.setName((String) nodeService.getProperty(nodeRef, ContentModel.PROP_NAME));
+        node.setNodeType(typeQName.toPrefixString(namespaceService));
+        node.setIsFolder(isFolder);
+        node.setIsFile(!isFolder && dictionaryService.isSubClass(typeQName, ContentModel.TYPE_CONTENT));
+        node.setParentId(parentNodeRef != null ? parentNodeRef : nodeService.getPrimaryParent(nodeRef).getParentRef());
+        return node;
+    }
+
+    /**
+     * The values an include option depends on, for nodes that can share its result
+     */
+    private static final class SharedKey
+    {
+        private final Object[] values;
+
+        private SharedKey(Object... values)
+        {
+            this.values = values;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            return this == obj || (obj instanceof SharedKey && Arrays.equals(values, ((SharedKey) obj).values));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Arrays.hashCode(values);
+        }
+    }
+}
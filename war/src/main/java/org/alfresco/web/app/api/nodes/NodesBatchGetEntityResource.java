@@ -0,0 +1,181 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.api.nodes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.repo.security.permissions.AccessDeniedException;
+import org.alfresco.rest.api.Nodes;
+import org.alfresco.rest.api.model.Node;
+import org.alfresco.rest.framework.WebApiDescription;
+import org.alfresco.rest.framework.core.exceptions.ApiException;
+import org.alfresco.rest.framework.core.exceptions.EntityNotFoundException;
+import org.alfresco.rest.framework.core.exceptions.InvalidArgumentException;
+import org.alfresco.rest.framework.core.exceptions.PermissionDeniedException;
+import org.alfresco.rest.framework.resource.EntityResource;
+import org.alfresco.rest.framework.resource.actions.interfaces.EntityResourceAction;
+import org.alfresco.rest.framework.resource.parameters.Parameters;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.util.ParameterCheck;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Reads the metadata of several nodes in one request, replacing a fan-out of <code>GET /nodes/{nodeId}</code> calls.
+ * <p>
+ * <code>POST /nodes-batch-get[?include=...]</code> with a body of <code>[{"id":"..."}, ...]</code>. Every item is
+ * answered, in request order, with either the node or the status code and error key of the failure for that id, and
+ * the request itself succeeds with 200. The nodes are bulk loaded and resolved in the request's single transaction, and
+ * their models are built as one page by the {@link NodePageLoader}.
+ * 
+ * @since 6.2.2
+ */
+@EntityResource(name = "nodes-batch-get", title = "Bulk node reads")
+public class NodesBatchGetEntityResource implements EntityResourceAction.Create<NodeBatchItem>, InitializingBean
+{
+    private Nodes nodes;
+    private NodeDAO nodeDAO;
+    private PermissionService permissionService;
+    private NodePageLoader nodePageLoader;
+    private int maxItems = 200;
+
+    public void setNodes(Nodes nodes)
+    {
+        this.nodes = nodes;
+    }
+
+    public void setNodeDAO(NodeDAO nodeDAO)
+    {
+        this.nodeDAO = nodeDAO;
+    }
+
+    public void setPermissionService(PermissionService permissionService)
+    {
+        this.permissionService = permissionService;
+    }
+
+    public void setNodePageLoader(NodePageLoader nodePageLoader)
+    {
+        this.nodePageLoader = nodePageLoader;
+    }
+
+    /**
+     * Maximum number of ids in one request
+     */
+    public void setMaxItems(int maxItems)
+    {
+        this.maxItems = maxItems;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        ParameterCheck.mandatory("nodes", this.nodes);
+        ParameterCheck.mandatory("nodeDAO", this.nodeDAO);
+        ParameterCheck.mandatory("permissionService", this.permissionService);
+        ParameterCheck.mandatory("nodePageLoader", this.nodePageLoader);
+    }
+
+    @Override
+    @WebApiDescription(title = "Get the metadata of several nodes", successStatus = HttpServletResponse.SC_OK)
+    public List<NodeBatchItem> create(List<NodeBatchItem> requested, Parameters parameters)
+    {
+        if (requested.size() > maxItems)
+        {
+            throw new InvalidArgumentException("At most " + maxItems + " nodes can be read in one request");
+        }
+
+        // Load the requested nodes with one set of queries before resolving them one by one
+        List<NodeRef> candidates = new ArrayList<>(requested.size());
+        for (NodeBatchItem item : requested)
+        {
+            String id = item.getId();
+            if (id != null && !id.isEmpty() && !id.startsWith("-"))
+            {
+                candidates.add(new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, id));
+            }
+        }
+        nodeDAO.cacheNodes(candidates);
+
+        // Resolve the ids, keeping the failures, then build all readable nodes as one page
+        NodeBatchItem[] results = new NodeBatchItem[requested.size()];
+        Map<Integer, NodeRef> readable = new LinkedHashMap<>();
+        for (int i = 0; i < results.length; i++)
+        {
+            String id = requested.get(i).getId();
+            try
+            {
+                if (id == null || id.isEmpty())
+                {
+                    throw new InvalidArgumentException("Missing node id");
+                }
+                NodeRef nodeRef = nodes.validateOrLookupNode(id, null);
+                if (permissionService.hasReadPermission(nodeRef) != AccessStatus.ALLOWED)
+                {
+                    throw new PermissionDeniedException();
+                }
+                readable.put(i, nodeRef);
+            }
+            catch (EntityNotFoundException e)
+            {
+                results[i] = new NodeBatchItem(id, HttpServletResponse.SC_NOT_FOUND, e.getMsgId(), null);
+            }
+            catch (PermissionDeniedException e)
+            {
+                results[i] = new NodeBatchItem(id, HttpServletResponse.SC_FORBIDDEN, e.getMsgId(), null);
+            }
+            catch (AccessDeniedException e)
+            {
+                results[i] = new NodeBatchItem(id, HttpServletResponse.SC_FORBIDDEN, new PermissionDeniedException().getMsgId(), null);
+            }
+            catch (ApiException e)
+            {
+                results[i] = new NodeBatchItem(id, HttpServletResponse.SC_BAD_REQUEST, e.getMsgId(), null);
+            }
+        }
+
+        // The fields projection applies to the items, so the nodes are only built when they are selected
+        boolean withNodes = parameters.getFilter() == null || parameters.getFilter().isAllowed("node");
+        List<Node> loaded = withNodes
+                    ? nodePageLoader.load(new ArrayList<>(readable.values()), null, parameters.getInclude(), null)
+                    : null;
+        int n = 0;
+        for (Integer i : readable.keySet())
+        {
+            results[i] = new NodeBatchItem(requested.get(i).getId(), HttpServletResponse.SC_OK, null, withNodes ? loaded.get(n++) : null);
+        }
+        return Arrays.asList(results);
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.api.nodes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.transaction.SystemException;
+import javax.transaction.UserTransaction;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.security.permissions.AccessDeniedException;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.rest.api.Nodes;
+import org.alfresco.rest.api.Tags;
+import org.alfresco.rest.api.model.Node;
+import org.alfresco.rest.api.model.Tag;
+import org.alfresco.rest.framework.WebApiDescription;
+import org.alfresco.rest.framework.core.exceptions.ApiException;
+import org.alfresco.rest.framework.core.exceptions.ConstraintViolatedException;
+import org.alfresco.rest.framework.core.exceptions.EntityNotFoundException;
+import org.alfresco.rest.framework.core.exceptions.InvalidArgumentException;
+import org.alfresco.rest.framework.core.exceptions.PermissionDeniedException;
+import org.alfresco.rest.framework.resource.EntityResource;
+import org.alfresco.rest.framework.resource.actions.interfaces.EntityResourceAction;
+import org.alfresco.rest.framework.resource.parameters.Parameters;
+import org.alfresco.util.ParameterCheck;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Applies an ordered list of node operations in one request, replacing a separate POST or PUT, with its own
+ * transaction and commit, per node.
+ * <p>
+ * <code>POST /nodes-batch-write[?include=...&amp;autoRename=true]</code> with a body of {@link NodeOperation}s. The
+ * operations are applied in order in transactions of <code>chunkSize</code> operations, so the node, property and
+ * audit writes of a chunk are flushed together at its commit. If an operation fails, its chunk is rolled back: the
+ * operations of the chunk before it are answered as rolled back and the ones after it as skipped, while the
+ * operations of the earlier chunks stay committed and are answered as ok. Every operation is answered with its status
+ * and the request itself succeeds with 200. A concurrency failure is not answered this way but rethrown, so that the
+ * framework retries the chunk.
+ * <p>
+ * The framework applies the request in one transaction, which holds its database connection until the response is
+ * written. The chunks are therefore driven from outside it, by the
+ * {@link org.alfresco.web.app.servlet.NodesBatchWriteFilter}: it passes the request to the framework once per chunk,
+ * each time in a transaction of its own, between {@link #beginChunks()} and {@link #endChunks()}. A request that does
+ * not come through the filter is applied as a single chunk, all or nothing.
+ * <p>
+ * A <code>ref</code> may be defined once per batch, by a <code>create</code>, before the operations that use it.
+ * 
+ * @since 6.2.2
+ */
+@EntityResource(name = "nodes-batch-write", title = "Bulk node writes")
+public class NodesBatchWriteEntityResource implements EntityResourceAction.Create<NodeOperation>, InitializingBean
+{
+    private static final Log logger = LogFactory.getLog(NodesBatchWriteEntityResource.class);
+
+    private static final String REF_PREFIX = "#";
+
+    private Nodes nodes;
+    private Tags tags;
+    private int chunkSize = 100;
+    private int maxItems = 1000;
+
+    private final ThreadLocal<Chunks> chunks = new ThreadLocal<>();
+
+    public void setNodes(Nodes nodes)
+    {
+        this.nodes = nodes;
+    }
+
+    public void setTags(Tags tags)
+    {
+        this.tags = tags;
+    }
+
+    /**
+     * Number of operations committed together, when the request comes through the filter
+     */
+    public void setChunkSize(int chunkSize)
+    {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Maximum number of operations in one request
+     */
+    public void setMaxItems(int maxItems)
+    {
+        this.maxItems = maxItems;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        ParameterCheck.mandatory("nodes", this.nodes);
+        ParameterCheck.mandatory("tags", this.tags);
+        if (chunkSize < 1)
+        {
+            throw new IllegalArgumentException("chunkSize must be at least 1");
+        }
+    }
+
+    /**
+     * Applies the batches of the current thread a chunk per call of {@link #create}, until {@link #endChunks()}.
+     */
+    public void beginChunks()
+    {
+        chunks.set(new Chunks());
+    }
+
+    /**
+     * @return <tt>true</tt> if the last call of {@link #create} committed its chunk and left operations to apply
+     */
+    public boolean hasMoreChunks()
+    {
+        Chunks batch = chunks.get();
+        if (batch == null || !batch.advanced)
+        {
+            return false;
+        }
+        batch.advanced = false;
+        return batch.committed < batch.size;
+    }
+
+    public void endChunks()
+    {
+        chunks.remove();
+    }
+
+    @Override
+    @WebApiDescription(title = "Create, update, move and tag several nodes", successStatus = HttpServletResponse.SC_OK)
+    public List<NodeOperation> create(List<NodeOperation> operations, Parameters parameters)
+    {
+        if (operations.size() > maxItems)
+        {
+            throw new InvalidArgumentException("At most " + maxItems + " operations can be applied in one request");
+        }
+        Set<String> defined = new HashSet<>();
+        for (NodeOperation operation : operations)
+        {
+            validate(operation, defined);
+        }
+
+        // Each call applies the next chunk, the framework parses the body again for each of them
+        Chunks batch = chunks.get();
+        int start = batch == null ? 0 : batch.committed;
+        int end = batch == null ? operations.size() : Math.min(start + chunkSize, operations.size());
+        Map<String, String> refs = batch == null ? new HashMap<>() : new HashMap<>(batch.refs);
+        for (int i = 0; i < start; i++)
+        {
+            operations.get(i).setResult(NodeOperation.STATUS_OK, batch.results.get(i));
+        }
+        int failed = -1;
+        for (int i = start; i < end && failed < 0; i++)
+        {
+            NodeOperation operation = operations.get(i);
+            try
+            {
+                operation.setResult(NodeOperation.STATUS_OK, apply(operation, refs, parameters));
+            }
+            catch (RuntimeException e)
+            {
+                if (RetryingTransactionHelper.extractRetryCause(e) != null)
+                {
+                    throw e;
+                }
+                failed = i;
+                rollback(e);
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug("Operation " + i + " failed, rolled back operations " + start + " to " + (end - 1), e);
+                }
+                operation.setFailure(statusCodeOf(e), e instanceof ApiException ? ((ApiException) e).getMsgId() : null);
+            }
+        }
+        for (int i = start; i < operations.size(); i++)
+        {
+            if (failed >= 0 ? i != failed : i >= end)
+            {
+                // the operations after the chunk are applied by the next call, if there is one
+                operations.get(i).setResult(i < failed ? NodeOperation.STATUS_ROLLED_BACK : NodeOperation.STATUS_SKIPPED, null);
+            }
+        }
+        for (int i = 0; i < operations.size(); i++)
+        {
+            operations.get(i).setIndex(i);
+        }
+        if (batch != null && failed < 0)
+        {
+            commitChunk(batch, operations, end, refs);
+        }
+        return operations;
+    }
+
+    /**
+     * Moves the next call of {@link #create} past the chunk once its transaction has committed. A chunk that is
+     * rolled back, to be retried or not, leaves the batch where it was.
+     */
+    private void commitChunk(final Chunks batch, List<NodeOperation> operations, final int end,
+                final Map<String, String> refs)
+    {
+        final List<Node> results = new ArrayList<>(end);
+        for (int i = 0; i < end; i++)
+        {
+            results.add(operations.get(i).getNode());
+        }
+        final int size = operations.size();
+        bindListener(new TransactionListenerAdapter()
+        {
+            @Override
+            public void afterCommit()
+            {
+                batch.committed = end;
+                batch.size = size;
+                batch.refs = refs;
+                batch.results = results;
+                batch.advanced = true;
+            }
+        });
+    }
+
+    /**
+     * Binds a listener to the transaction the framework runs the request in
+     */
+    void bindListener(TransactionListenerAdapter listener)
+    {
+        AlfrescoTransactionSupport.bindListener(listener);
+    }
+
+    private Node apply(NodeOperation operation, Map<String, String> refs, Parameters parameters)
+    {
+        switch (operation.getOp())
+        {
+            case NodeOperation.OP_CREATE:
+                Node created = nodes.createNode(resolve(refs, operation.getParentId()), operation.getNode(), parameters);
+                if (operation.getRef() != null)
+                {
+                    refs.put(operation.getRef(), created.getNodeId());
+                }
+                return created;
+            case NodeOperation.OP_UPDATE:
+                return nodes.updateNode(resolve(refs, operation.getNodeId()), operation.getNode(), parameters);
+            case NodeOperation.OP_MOVE:
+                return nodes.moveOrCopyNode(resolve(refs, operation.getNodeId()), resolve(refs, operation.getParentId()),
+                            operation.getName(), parameters, false);
+            default:
+                List<Tag> tagList = new ArrayList<>(operation.getTags().size());
+                for (String tag : operation.getTags())
+                {
+                    tagList.add(new Tag(null, tag));
+                }
+                tags.addTags(resolve(refs, operation.getNodeId()), tagList);
+                return null;
+        }
+    }
+
+    /**
+     * Marks the request's transaction for rollback, so that the framework rolls it back instead of committing it and
+     * still returns the statuses of the operations.
+     */
+    private void rollback(RuntimeException cause)
+    {
+        UserTransaction txn = getActiveTransaction();
+        if (txn == null)
+        {
+            throw cause;
+        }
+        try
+        {
+            txn.setRollbackOnly();
+        }
+        catch (SystemException e)
+        {
+            throw new AlfrescoRuntimeException("Failed to roll back the batch", e);
+        }
+    }
+
+    /**
+     * @return the transaction the framework runs the request in
+     */
+    UserTransaction getActiveTransaction()
+    {
+        return RetryingTransactionHelper.getActiveUserTransaction();
+    }
+
+    private static String resolve(Map<String, String> refs, String id)
+    {
+        if (id.startsWith(REF_PREFIX))
+        {
+            String nodeId = refs.get(id.substring(REF_PREFIX.length()));
+            if (nodeId == null)
+            {
+                throw new InvalidArgumentException("Unknown ref: " + id);
+            }
+            return nodeId;
+        }
+        return id;
+    }
+
+    private static void validate(NodeOperation operation, Set<String> defined)
+    {
+        String op = operation.getOp();
+        if (NodeOperation.OP_CREATE.equals(op))
+        {
+            require(operation.getParentId() != null && operation.getNode() != null, "create requires parentId and node");
+        }
+        else if (NodeOperation.OP_UPDATE.equals(op))
+        {
+            require(operation.getNodeId() != null && operation.getNode() != null, "update requires nodeId and node");
+        }
+        else if (NodeOperation.OP_MOVE.equals(op))
+        {
+            require(operation.getNodeId() != null && operation.getParentId() != null, "move requires nodeId and parentId");
+        }
+        else if (NodeOperation.OP_TAG.equals(op))
+        {
+            require(operation.getNodeId() != null && operation.getTags() != null && !operation.getTags().isEmpty(), "tag requires nodeId and tags");
+        }
+        else
+        {
+            throw new InvalidArgumentException("Unknown op: " + op);
+        }
+        for (String id : new String[] {operation.getNodeId(), operation.getParentId()})
+        {
+            if (id != null && id.startsWith(REF_PREFIX))
+            {
+                require(defined.contains(id.substring(REF_PREFIX.length())), "Unknown ref: " + id);
+            }
+        }
+        if (operation.getRef() != null)
+        {
+            require(NodeOperation.OP_CREATE.equals(op), "ref can only be set on create");
+            require(defined.add(operation.getRef()), "Duplicate ref: " + operation.getRef());
+        }
+    }
+
+    private static void require(boolean condition, String message)
+    {
+        if (!condition)
+        {
+            throw new InvalidArgumentException(message);
+        }
+    }
+
+    private static int statusCodeOf(RuntimeException e)
+    {
+        if (e instanceof EntityNotFoundException)
+        {
+            return HttpServletResponse.SC_NOT_FOUND;
+        }
+        if (e instanceof PermissionDeniedException || e instanceof AccessDeniedException)
+        {
+            return HttpServletResponse.SC_FORBIDDEN;
+        }
+        if (e instanceof ConstraintViolatedException)
+        {
+            return HttpServletResponse.SC_CONFLICT;
+        }
+        if (e instanceof ApiException)
+        {
+            return HttpServletResponse.SC_BAD_REQUEST;
+        }
+        return HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+    }
+
+    /**
+     * The progress of a batch applied in chunks
+     */
+    private static final class Chunks
+    {
+        private int committed;
+        private int size;
+        private Map<String, String> refs = new HashMap<>();
+        private List<Node> results = new ArrayList<>();
+        private boolean advanced;
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.api.uploads;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.alfresco.rest.framework.core.exceptions.ConstraintViolatedException;
+import org.alfresco.rest.framework.core.exceptions.EntityNotFoundException;
+import org.alfresco.rest.framework.core.exceptions.InvalidArgumentException;
+import org.alfresco.service.cmr.repository.NodeRef;
+
+/**
+ * Server side state of an upload session: the temporary file the chunks are written into, at their offset, and the
+ * chunks received so far.
+ * <p>
+ * Chunk writes share a read lock, so they can run concurrently. Beginning the commit and closing the session take the
+ * write lock, so they wait for the chunks being written and no chunk can be written into a file that is being stored
+ * or deleted. The chunks received, and the chunks being written, are guarded by <code>received</code>.
+ * 
+ * @since 6.2.2
+ */
+class PendingUpload
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String id;
+    private final String owner;
+    private final NodeRef parentNodeRef;
+    private final String name;
+    private final String nodeType;
+    private final long size;
+    private final long chunkSize;
+    private final int chunkCount;
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final BitSet received;
+    private final BitSet writing;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile long lastAccess;
+    private boolean committing;
+    private boolean closed;
+
+    PendingUpload(String id, String owner, NodeRef parentNodeRef, String name, String nodeType, long size, long chunkSize, File file)
+                throws IOException
+    {
+        this.id = id;
+        this.owner = owner;
+        this.parentNodeRef = parentNodeRef;
+        this.name = name;
+        this.nodeType = nodeType;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+        this.file = file;
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        try
+        {
+            this.randomAccessFile.setLength(size);
+        }
+        catch (IOException e)
+        {
+            randomAccessFile.close();
+            throw e;
+        }
+        this.channel = randomAccessFile.getChannel();
+        this.received = new BitSet(chunkCount);
+        this.writing = new BitSet(chunkCount);
+        this.lastAccess = System.currentTimeMillis();
+    }
+
+    String getId()
+    {
+        return id;
+    }
+
+    String getOwner()
+    {
+        return owner;
+    }
+
+    NodeRef getParentNodeRef()
+    {
+        return parentNodeRef;
+    }
+
+    String getName()
+    {
+        return name;
+    }
+
+    String getNodeType()
+    {
+        return nodeType;
+    }
+
+    File getFile()
+    {
+        return file;
+    }
+
+    long getLastAccess()
+    {
+        return lastAccess;
+    }
+
+    /**
+     * Writes chunk <code>index</code> from the stream at its offset in the file. Chunks can be written concurrently
+     * and in any order, and a chunk can be written again after a failed attempt. A chunk that is already being written
+     * is refused, as the two writes would interleave in the file.
+     */
+    void writeChunk(int index, InputStream in) throws IOException
+    {
+        if (index < 0 || index >= chunkCount)
+        {
+            throw new InvalidArgumentException("Chunk index must be between 0 and " + (chunkCount - 1));
+        }
+        lock.readLock().lock();
+        try
+        {
+            if (closed)
+            {
+                throw new EntityNotFoundException(id);
+            }
+            if (committing)
+            {
+                throw new InvalidArgumentException("Upload session " + id + " is being committed");
+            }
+            lastAccess = System.currentTimeMillis();
+            synchronized (received)
+            {
+                if (writing.get(index))
+                {
+                    throw new ConstraintViolatedException("Chunk " + index + " of upload session " + id
+                                + " is being written");
+                }
+                // a chunk being written again is not received until it has been written in full
+                writing.set(index);
+                received.clear(index);
+            }
+            try
+            {
+                write(index, in);
+                synchronized (received)
+                {
+                    received.set(index);
+                }
+            }
+            finally
+            {
+                synchronized (received)
+                {
+                    writing.clear(index);
+                }
+            }
+            lastAccess = System.currentTimeMillis();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void write(int index, InputStream in) throws IOException
+    {
+        long offset = index * chunkSize;
+        long expected = Math.min(chunkSize, size - offset);
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        byte[] bytes = buffer.array();
+        long written = 0;
+        int read;
+        while ((read = in.read(bytes)) != -1)
+        {
+            if (written + read > expected)
+            {
+                throw new InvalidArgumentException("Chunk " + index + " must be " + expected + " bytes");
+            }
+            buffer.position(0).limit(read);
+            long position = offset + written;
+            while (buffer.hasRemaining())
+            {
+                position += channel.write(buffer, position);
+            }
+            written += read;
+        }
+        if (written != expected)
+        {
+            throw new InvalidArgumentException("Chunk " + index + " must be " + expected + " bytes, received " + written);
+        }
+    }
+
+    /**
+     * Stops accepting chunks, once all of them have been received. Waits for the chunks being written.
+     */
+    void beginCommit()
+    {
+        lock.writeLock().lock();
+        try
+        {
+            if (closed)
+            {
+                throw new EntityNotFoundException(id);
+            }
+            if (committing)
+            {
+                throw new InvalidArgumentException("Upload session " + id + " is being committed");
+            }
+            synchronized (received)
+            {
+                if (received.cardinality() != chunkCount)
+                {
+                    throw new InvalidArgumentException("Upload session " + id + " has received " + received.cardinality()
+                                + " of " + chunkCount + " chunks");
+                }
+            }
+            committing = true;
+            lastAccess = System.currentTimeMillis();
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Accepts chunks again, after a commit that rolled back
+     */
+    void cancelCommit()
+    {
+        lock.writeLock().lock();
+        try
+        {
+            committing = false;
+            lastAccess = System.currentTimeMillis();
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return <tt>true</tt> if the session is being committed, in which case it is not idle
+     */
+    boolean isCommitting()
+    {
+        lock.readLock().lock();
+        try
+        {
+            return committing;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Closes and deletes the file, once the chunks being written are done
+     */
+    void close()
+    {
+        lock.writeLock().lock();
+        try
+        {
+            closeLocked();
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Closes the session unless a chunk is being written or it is being committed
+     * 
+     * @return <tt>true</tt> if the session was closed
+     */
+    boolean closeIfIdle()
+    {
+        if (!lock.writeLock().tryLock())
+        {
+            return false;
+        }
+        try
+        {
+            if (committing)
+            {
+                return false;
+            }
+            closeLocked();
+            return true;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void closeLocked()
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        try
+        {
+            randomAccessFile.close();
+        }
+        catch (IOException e)
+        {
+            // Deleted below regardless
+        }
+        file.delete();
+    }
+
+    UploadSession toModel()
+    {
+        List<Integer> chunks = new ArrayList<>();
+        synchronized (received)
+        {
+            for (int i = received.nextSetBit(0); i >= 0; i = received.nextSetBit(i + 1))
+            {
+                chunks.add(i);
+            }
+        }
+        UploadSession model = new UploadSession();
+        model.setId(id);
+        model.setParentId(parentNodeRef.getId());
+        model.setName(name);
+        model.setNodeType(nodeType);
+        model.setSize(size);
+        model.setChunkSize(chunkSize);
+        model.setChunkCount(chunkCount);
+        model.setReceivedChunks(chunks);
+        return model;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.api.uploads;
+
+import java.util.List;
+
+import org.alfresco.rest.framework.resource.UniqueId;
+
+/**
+ * An upload session: where the file will be created, its size and how it is split into chunks, and, when read back,
+ * which chunks have been received so far.
+ * 
+ * @since 6.2.2
+ */
+public class UploadSession
+{
+    private String id;
+    private String parentId;
+    private String name;
+    private String nodeType;
+    private Long size;
+    private Long chunkSize;
+    private Integer chunkCount;
+    private List<Integer> receivedChunks;
+
+    @UniqueId
+    public String getId()
+    {
+        return id;
+    }
+
+    public void setId(String id)
+    {
+        this.id = id;
+    }
+
+    public String getParentId()
+    {
+        return parentId;
+    }
+
+    public void setParentId(String parentId)
+    {
+        this.parentId = parentId;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+
+    public String getNodeType()
+    {
+        return nodeType;
+    }
+
+    public void setNodeType(String nodeType)
+    {
+        this.nodeType = nodeType;
+    }
+
+    public Long getSize()
+    {
+        return size;
+    }
+
+    public void setSize(Long size)
+    {
+        this.size = size;
+    }
+
+    public Long getChunkSize()
+    {
+        return chunkSize;
+    }
+
+    public void setChunkSize(Long chunkSize)
+    {
+        this.chunkSize = chunkSize;
+    }
+
+    public Integer getChunkCount()
+    {
+        return chunkCount;
+    }
+
+    public void setChunkCount(Integer chunkCount)
+    {
+        this.chunkCount = chunkCount;
+    }
+
+    public List<Integer> getReceivedChunks()
+    {
+        return receivedChunks;
+    }
+
+    public void setReceivedChunks(List<Integer> receivedChunks)
+    {
+        this.receivedChunks = receivedChunks;
+    }
+}
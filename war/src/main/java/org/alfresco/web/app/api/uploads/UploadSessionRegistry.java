@@ -0,0 +1,247 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.api.uploads;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.rest.framework.core.exceptions.ConstraintViolatedException;
+import org.alfresco.rest.framework.core.exceptions.EntityNotFoundException;
+import org.alfresco.rest.framework.core.exceptions.InvalidArgumentException;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.util.TempFileProvider;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Holds the open upload sessions of this server.
+ * <p>
+ * Sessions live in memory with their chunks in a file under the long life temporary directory, which the temporary
+ * file cleaner leaves alone for longer than the idle timeout, so all the requests of a session must reach the same
+ * server. A session that receives no chunk for <code>idleTimeoutMinutes</code> is discarded with its file by a
+ * background check, unless a chunk is being written or it is being committed.
+ * <p>
+ * Files are limited to <code>maxSize</code> bytes, and there can be at most <code>maxSessions</code> open sessions,
+ * <code>maxSessionsPerUser</code> of them for one user.
+ * 
+ * @since 6.2.2
+ */
+public class UploadSessionRegistry
+{
+    private static final Log logger = LogFactory.getLog(UploadSessionRegistry.class);
+
+    private static final String TEMP_DIR = "upload-sessions";
+
+    private long defaultChunkSize = 8L * 1024 * 1024;
+    private long maxChunkSize = 64L * 1024 * 1024;
+    private long maxSize = 10L * 1024 * 1024 * 1024;
+    private int maxSessions = 100;
+    private int maxSessionsPerUser = 10;
+    private long idleTimeoutMinutes = 60;
+
+    private final ConcurrentMap<String, PendingUpload> sessions = new ConcurrentHashMap<>();
+    private ScheduledExecutorService expiry;
+
+    public void setDefaultChunkSize(long defaultChunkSize)
+    {
+        this.defaultChunkSize = defaultChunkSize;
+    }
+
+    public void setMaxChunkSize(long maxChunkSize)
+    {
+        this.maxChunkSize = maxChunkSize;
+    }
+
+    /**
+     * Maximum size of an uploaded file in bytes, 0 for no limit
+     */
+    public void setMaxSize(long maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    public void setMaxSessions(int maxSessions)
+    {
+        this.maxSessions = maxSessions;
+    }
+
+    public void setMaxSessionsPerUser(int maxSessionsPerUser)
+    {
+        this.maxSessionsPerUser = maxSessionsPerUser;
+    }
+
+    public void setIdleTimeoutMinutes(long idleTimeoutMinutes)
+    {
+        this.idleTimeoutMinutes = idleTimeoutMinutes;
+    }
+
+    public void init()
+    {
+        expiry = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "UploadSessionExpiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long periodSeconds = Math.max(1, Math.min(60, TimeUnit.MINUTES.toSeconds(idleTimeoutMinutes) / 4));
+        expiry.scheduleWithFixedDelay(this::expireIdleSessions, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    PendingUpload open(String owner, NodeRef parentNodeRef, String name, String nodeType, long size, Long chunkSize)
+    {
+        if (size <= 0 || (maxSize > 0 && size > maxSize))
+        {
+            throw new InvalidArgumentException("size must be between 1 and " + (maxSize > 0 ? maxSize : Long.MAX_VALUE));
+        }
+        long effectiveChunkSize = chunkSize == null ? defaultChunkSize : chunkSize;
+        if (effectiveChunkSize <= 0 || effectiveChunkSize > maxChunkSize)
+        {
+            throw new InvalidArgumentException("chunkSize must be between 1 and " + maxChunkSize);
+        }
+        if (size / effectiveChunkSize >= Integer.MAX_VALUE)
+        {
+            throw new InvalidArgumentException("chunkSize is too small for a file of " + size + " bytes");
+        }
+
+        // Checked before the file is allocated, and again when the session is registered
+        synchronized (sessions)
+        {
+            checkCapacity(owner);
+        }
+        String id = UUID.randomUUID().toString();
+        File file = TempFileProvider.createTempFile(id, ".bin", TempFileProvider.getLongLifeTempDir(TEMP_DIR));
+        PendingUpload session;
+        try
+        {
+            session = new PendingUpload(id, owner, parentNodeRef, name, nodeType, size, effectiveChunkSize, file);
+        }
+        catch (IOException e)
+        {
+            file.delete();
+            throw new AlfrescoRuntimeException("Failed to allocate " + size + " bytes for upload session " + id, e);
+        }
+        synchronized (sessions)
+        {
+            try
+            {
+                checkCapacity(owner);
+            }
+            catch (ConstraintViolatedException e)
+            {
+                session.close();
+                throw e;
+            }
+            sessions.put(id, session);
+        }
+        return session;
+    }
+
+    private void checkCapacity(String owner)
+    {
+        if (sessions.size() >= maxSessions)
+        {
+            throw new ConstraintViolatedException("Too many upload sessions in progress");
+        }
+        int owned = 0;
+        for (PendingUpload session : sessions.values())
+        {
+            if (session.getOwner().equals(owner))
+            {
+                owned++;
+            }
+        }
+        if (owned >= maxSessionsPerUser)
+        {
+            throw new ConstraintViolatedException("Too many upload sessions in progress for " + owner);
+        }
+    }
+
+    /**
+     * @throws EntityNotFoundException if there is no such session, or it belongs to another user
+     */
+    PendingUpload get(String id, String owner)
+    {
+        PendingUpload session = sessions.get(id);
+        if (session == null || !session.getOwner().equals(owner))
+        {
+            throw new EntityNotFoundException(id);
+        }
+        return session;
+    }
+
+    void close(PendingUpload session)
+    {
+        if (sessions.remove(session.getId(), session))
+        {
+            session.close();
+        }
+    }
+
+    void expireIdleSessions()
+    {
+        try
+        {
+            long cutoff = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(idleTimeoutMinutes);
+            for (PendingUpload session : sessions.values())
+            {
+                if (session.getLastAccess() < cutoff && session.closeIfIdle())
+                {
+                    sessions.remove(session.getId(), session);
+                    if (logger.isDebugEnabled())
+                    {
+                        logger.debug("Discarded idle upload session " + session.getId());
+                    }
+                }
+            }
+        }
+        catch (RuntimeException e)
+        {
+            // Never let an exception cancel the scheduled check
+            logger.warn("Failed to discard idle upload sessions", e);
+        }
+    }
+
+    /**
+     * Stops the idle session check and discards all open sessions
+     */
+    public void destroy()
+    {
+        if (expiry != null)
+        {
+            expiry.shutdownNow();
+        }
+        for (PendingUpload session : sessions.values())
+        {
+            close(session);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.api.uploads;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.rest.api.Nodes;
+import org.alfresco.rest.api.model.Node;
+import org.alfresco.rest.framework.BinaryProperties;
+import org.alfresco.rest.framework.Operation;
+import org.alfresco.rest.framework.WebApiDescription;
+import org.alfresco.rest.framework.WebApiParam;
+import org.alfresco.rest.framework.core.ResourceParameter;
+import org.alfresco.rest.framework.core.exceptions.InvalidArgumentException;
+import org.alfresco.rest.framework.core.exceptions.PermissionDeniedException;
+import org.alfresco.rest.framework.resource.EntityResource;
+import org.alfresco.rest.framework.resource.actions.interfaces.BinaryResourceAction;
+import org.alfresco.rest.framework.resource.actions.interfaces.EntityResourceAction;
+import org.alfresco.rest.framework.resource.content.BasicContentInfo;
+import org.alfresco.rest.framework.resource.parameters.Parameters;
+import org.alfresco.rest.framework.webscripts.WithResponse;
+import org.alfresco.service.cmr.repository.ContentService;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.util.ParameterCheck;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Resumable, parallel uploads of large files.
+ * <ul>
+ *   <li><code>POST /upload-sessions</code> with <code>parentId</code>, <code>name</code>, <code>size</code> and
+ *       optionally <code>nodeType</code> and <code>chunkSize</code> opens a session.</li>
+ *   <li><code>PUT /upload-sessions/{id}/content?chunk=n</code> uploads chunk <code>n</code>, i.e. the bytes from
+ *       <code>n * chunkSize</code>. Chunks can be sent concurrently and in any order; a chunk whose request failed is
+ *       simply sent again.</li>
+ *   <li><code>GET /upload-sessions/{id}</code> lists the chunks received, to resume an interrupted upload.</li>
+ *   <li><code>POST /upload-sessions/{id}/commit</code> creates the file from the chunks, with the same options as
+ *       creating a node, and returns it.</li>
+ *   <li><code>DELETE /upload-sessions/{id}</code> abandons the session.</li>
+ * </ul>
+ * The chunks are written at their offset in a temporary file; nothing is created in the repository until the commit.
+ * 
+ * @since 6.2.2
+ */
+@EntityResource(name = "upload-sessions", title = "Upload sessions")
+public class UploadSessionsEntityResource implements EntityResourceAction.Create<UploadSession>, EntityResourceAction.ReadById<UploadSession>,
+            EntityResourceAction.Delete, BinaryResourceAction.Update<UploadSession>, InitializingBean
+{
+    public static final String PARAM_CHUNK = "chunk";
+
+    private static final String DEFAULT_NODE_TYPE = "cm:content";
+
+    private Nodes nodes;
+    private ContentService contentService;
+    private PermissionService permissionService;
+    private UploadSessionRegistry uploadSessionRegistry;
+
+    public void setNodes(Nodes nodes)
+    {
+        this.nodes = nodes;
+    }
+
+    public void setContentService(ContentService contentService)
+    {
+        this.contentService = contentService;
+    }
+
+    public void setPermissionService(PermissionService permissionService)
+    {
+        this.permissionService = permissionService;
+    }
+
+    public void setUploadSessionRegistry(UploadSessionRegistry uploadSessionRegistry)
+    {
+        this.uploadSessionRegistry = uploadSessionRegistry;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        ParameterCheck.mandatory("nodes", this.nodes);
+        ParameterCheck.mandatory("contentService", this.contentService);
+        ParameterCheck.mandatory("permissionService", this.permissionService);
+        ParameterCheck.mandatory("uploadSessionRegistry", this.uploadSessionRegistry);
+    }
+
+    @Override
+    @WebApiDescription(title = "Open an upload session")
+    public List<UploadSession> create(List<UploadSession> sessions, Parameters parameters)
+    {
+        List<UploadSession> result = new ArrayList<>(sessions.size());
+        for (UploadSession session : sessions)
+        {
+            if (session.getParentId() == null || session.getName() == null || session.getSize() == null)
+            {
+                throw new InvalidArgumentException("parentId, name and size are required");
+            }
+            NodeRef parentNodeRef = nodes.validateOrLookupNode(session.getParentId(), null);
+            if (!nodes.nodeMatches(parentNodeRef, Collections.singleton(ContentModel.TYPE_FOLDER), null))
+            {
+                throw new InvalidArgumentException("NodeId of folder is expected: " + parentNodeRef.getId());
+            }
+            // Fail now rather than after the whole file has been sent
+            if (permissionService.hasPermission(parentNodeRef, PermissionService.ADD_CHILDREN) != AccessStatus.ALLOWED)
+            {
+                throw new PermissionDeniedException();
+            }
+            String nodeType = session.getNodeType() != null ? session.getNodeType() : DEFAULT_NODE_TYPE;
+            result.add(uploadSessionRegistry.open(AuthenticationUtil.getFullyAuthenticatedUser(), parentNodeRef, session.getName(),
+                        nodeType, session.getSize(), session.getChunkSize()).toModel());
+        }
+        return result;
+    }
+
+    @Override
+    @WebApiDescription(title = "Get an upload session and the chunks it has received")
+    public UploadSession readById(String id, Parameters parameters)
+    {
+        return uploadSessionRegistry.get(id, AuthenticationUtil.getFullyAuthenticatedUser()).toModel();
+    }
+
+    @Override
+    @WebApiDescription(title = "Abandon an upload session")
+    public void delete(String id, Parameters parameters)
+    {
+        uploadSessionRegistry.close(uploadSessionRegistry.get(id, AuthenticationUtil.getFullyAuthenticatedUser()));
+    }
+
+    @Override
+    @WebApiDescription(title = "Upload a chunk")
+    @BinaryProperties({"content"})
+    public UploadSession updateProperty(String id, BasicContentInfo contentInfo, InputStream stream, Parameters parameters)
+    {
+        PendingUpload session = uploadSessionRegistry.get(id, AuthenticationUtil.getFullyAuthenticatedUser());
+        String chunk = parameters.getParameter(PARAM_CHUNK);
+        if (chunk == null)
+        {
+            throw new InvalidArgumentException("The chunk parameter is required");
+        }
+        try
+        {
+            session.writeChunk(Integer.parseInt(chunk), stream);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new InvalidArgumentException("Invalid chunk: " + chunk);
+        }
+        catch (IOException e)
+        {
+            throw new AlfrescoRuntimeException("Failed to write chunk " + chunk + " of upload session " + id, e);
+        }
+        return session.toModel();
+    }
+
+    @Operation("commit")
+    @WebApiDescription(title = "Create the file from the uploaded chunks", successStatus = HttpServletResponse.SC_CREATED)
+    @WebApiParam(name = "session", title = "Unused, may be empty", kind = ResourceParameter.KIND.HTTP_BODY_OBJECT)
+    public Node commit(String id, UploadSession session, Parameters parameters, WithResponse withResponse)
+    {
+        final PendingUpload pending = uploadSessionRegistry.get(id, AuthenticationUtil.getFullyAuthenticatedUser());
+        pending.beginCommit();
+
+        // The file is kept until the node has been committed, the transaction may be retried
+        AlfrescoTransactionSupport.bindListener(new TransactionListenerAdapter()
+        {
+            @Override
+            public void afterCommit()
+            {
+                uploadSessionRegistry.close(pending);
+            }
+
+            @Override
+            public void afterRollback()
+            {
+                pending.cancelCommit();
+            }
+        });
+
+        Node nodeInfo = new Node();
+        nodeInfo.setName(pending.getName());
+        nodeInfo.setNodeType(pending.getNodeType());
+        Node created = nodes.createNode(pending.getParentNodeRef().getId(), nodeInfo, parameters);
+
+        NodeRef nodeRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, created.getNodeId());
+        ContentWriter writer = contentService.getWriter(nodeRef, ContentModel.PROP_CONTENT, true);
+        writer.guessMimetype(created.getName());
+        writer.putContent(pending.getFile());
+
+        return nodes.getFolderOrDocument(created.getNodeId(), parameters);
+    }
+}
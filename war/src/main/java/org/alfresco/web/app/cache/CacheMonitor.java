@@ -0,0 +1,125 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.cache;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.alfresco.web.app.metrics.MetricsCollector;
+import org.alfresco.web.app.metrics.OpenMetricsWriter;
+
+/**
+ * Keeps track of the {@link MonitoredSimpleCache}s in the repository and exports their size, hit, miss, eviction and
+ * load figures, together with the sizes last recommended by the {@link CacheSizeAdvisor}.
+ * 
+ * @since 6.2.2
+ */
+public class CacheMonitor implements MetricsCollector
+{
+    private static final String[] CACHE = {"cache"};
+
+    private final ConcurrentNavigableMap<String, MonitoredSimpleCache<?, ?>> caches = new ConcurrentSkipListMap<>();
+    private final Map<String, Integer> recommendedMaxItems = new ConcurrentHashMap<>();
+
+    public void register(MonitoredSimpleCache<?, ?> cache)
+    {
+        caches.put(cache.getCacheName(), cache);
+    }
+
+    public Collection<MonitoredSimpleCache<?, ?>> getCaches()
+    {
+        return caches.values();
+    }
+
+    void setRecommendedMaxItems(String cacheName, int maxItems)
+    {
+        recommendedMaxItems.put(cacheName, maxItems);
+    }
+
+    @Override
+    public void collect(OpenMetricsWriter writer) throws IOException
+    {
+        if (caches.isEmpty())
+        {
+            return;
+        }
+        writer.beginGauge("alfresco_cache_size", "Entries in a shared cache");
+        for (MonitoredSimpleCache<?, ?> cache : caches.values())
+        {
+            writer.sample("alfresco_cache_size", CACHE, new String[] {cache.getCacheName()}, cache.getSize());
+        }
+        writer.beginGauge("alfresco_cache_max_items", "Configured maximum entries of a shared cache");
+        for (MonitoredSimpleCache<?, ?> cache : caches.values())
+        {
+            if (cache.isBounded())
+            {
+                writer.sample("alfresco_cache_max_items", CACHE, new String[] {cache.getCacheName()},
+                        cache.getMaxItems());
+            }
+        }
+        writer.beginCounter("alfresco_cache_hits", "Lookups answered by a shared cache");
+        for (MonitoredSimpleCache<?, ?> cache : caches.values())
+        {
+            writer.sample("alfresco_cache_hits_total", CACHE, new String[] {cache.getCacheName()}, cache.getHits());
+        }
+        writer.beginCounter("alfresco_cache_misses", "Lookups not answered by a shared cache");
+        for (MonitoredSimpleCache<?, ?> cache : caches.values())
+        {
+            writer.sample("alfresco_cache_misses_total", CACHE, new String[] {cache.getCacheName()},
+                    cache.getMisses());
+        }
+        writer.beginCounter("alfresco_cache_evictions", "Entries evicted or expired from a shared cache");
+        for (MonitoredSimpleCache<?, ?> cache : caches.values())
+        {
+            writer.sample("alfresco_cache_evictions_total", CACHE, new String[] {cache.getCacheName()},
+                    cache.getEvictions());
+        }
+        writer.beginCounter("alfresco_cache_loads", "Values loaded into a shared cache after a miss");
+        for (MonitoredSimpleCache<?, ?> cache : caches.values())
+        {
+            writer.sample("alfresco_cache_loads_total", CACHE, new String[] {cache.getCacheName()}, cache.getLoads());
+        }
+        writer.beginCounter("alfresco_cache_load_seconds", "Time between a miss and the load of the missing value");
+        for (MonitoredSimpleCache<?, ?> cache : caches.values())
+        {
+            writer.sample("alfresco_cache_load_seconds_total", CACHE, new String[] {cache.getCacheName()},
+                    cache.getLoadNanos() / 1e9);
+        }
+        if (!recommendedMaxItems.isEmpty())
+        {
+            writer.beginGauge("alfresco_cache_recommended_max_items", "Maximum entries recommended by the advisor");
+            for (Map.Entry<String, Integer> entry : recommendedMaxItems.entrySet())
+            {
+                writer.sample("alfresco_cache_recommended_max_items", CACHE, new String[] {entry.getKey()},
+                        entry.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Recommends <code>cache.&lt;name&gt;.maxItems</code> values from the working sets observed by the
+ * {@link CacheMonitor}, and optionally applies them.
+ * <p>
+ * Each run looks at the activity since the previous run. A cache that evicted entries while full is too small and is
+ * recommended to grow by {@link #setGrowthFactor(double) growthFactor}, up to
+ * {@link #setMaxItemsCeiling(int) maxItemsCeiling}. A cache that evicted nothing and stayed below half of its limit is
+ * recommended to shrink to its observed size plus 25% headroom. Caches with fewer than
+ * {@link #setMinLookups(long) minLookups} lookups in the period are left alone.
+ * <p>
+ * Recommendations are logged in <code>alfresco-global.properties</code> form. With <code>apply</code> set, growth is
+ * applied to the live cache immediately; shrinking is never applied automatically as it would discard the working
+ * set.
+ * 
+ * @since 6.2.2
+ */
+public class CacheSizeAdvisor
+{
+    private static final Log logger = LogFactory.getLog(CacheSizeAdvisor.class);
+
+    private CacheMonitor cacheMonitor;
+    private boolean apply;
+    private double growthFactor = 1.5;
+    private int maxItemsCeiling = 1000000;
+    private long minLookups = 1000;
+
+    private final Map<String, Snapshot> previous = new HashMap<>();
+
+    public void setCacheMonitor(CacheMonitor cacheMonitor)
+    {
+        this.cacheMonitor = cacheMonitor;
+    }
+
+    public void setApply(boolean apply)
+    {
+        this.apply = apply;
+    }
+
+    public void setGrowthFactor(double growthFactor)
+    {
+        this.growthFactor = growthFactor;
+    }
+
+    public void setMaxItemsCeiling(int maxItemsCeiling)
+    {
+        this.maxItemsCeiling = maxItemsCeiling;
+    }
+
+    public void setMinLookups(long minLookups)
+    {
+        this.minLookups = minLookups;
+    }
+
+    public synchronized void advise()
+    {
+        for (MonitoredSimpleCache<?, ?> cache : cacheMonitor.getCaches())
+        {
+            if (!cache.isBounded())
+            {
+                continue;
+            }
+            Snapshot current = new Snapshot(cache);
+            Snapshot last = previous.put(cache.getCacheName(), current);
+            if (last == null)
+            {
+                continue;
+            }
+            long lookups = (current.hits - last.hits) + (current.misses - last.misses);
+            if (lookups < minLookups)
+            {
+                continue;
+            }
+            long evictions = current.evictions - last.evictions;
+            int maxItems = cache.getMaxItems();
+            int size = cache.getSize();
+
+            int recommended = maxItems;
+            if (evictions > 0 && size >= maxItems * 0.95)
+            {
+                recommended = (int) Math.min((long) maxItemsCeiling, Math.round(maxItems * growthFactor));
+            }
+            else if (evictions == 0 && size < maxItems / 2)
+            {
+                // the floor of 100 must not turn a shrink of a small cache into growth
+                recommended = Math.min(Math.min(maxItems, maxItemsCeiling),
+                        Math.max(100, (int) Math.round(size * 1.25)));
+            }
+            if (recommended == maxItems)
+            {
+                continue;
+            }
+
+            cacheMonitor.setRecommendedMaxItems(cache.getCacheName(), recommended);
+            if (logger.isInfoEnabled())
+            {
+                double hitRatio = (double) (current.hits - last.hits) / lookups;
+                logger.info("Cache " + cache.getCacheName() + " (size " + size + ", hit ratio "
+                        + String.format("%.3f", hitRatio) + ", " + evictions + " evictions): recommend cache."
+                        + cache.getCacheName() + ".maxItems=" + recommended);
+            }
+            if (apply && recommended > maxItems)
+            {
+                cache.resize(recommended);
+                if (logger.isInfoEnabled())
+                {
+                    logger.info("Resized cache " + cache.getCacheName() + " from " + maxItems + " to " + recommended);
+                }
+            }
+        }
+    }
+
+    private static class Snapshot
+    {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+
+        Snapshot(MonitoredSimpleCache<?, ?> cache)
+        {
+            this.hits = cache.getHits();
+            this.misses = cache.getMisses();
+            this.evictions = cache.getEvictions();
+        }
+    }
+}
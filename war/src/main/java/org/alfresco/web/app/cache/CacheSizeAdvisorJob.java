@@ -0,0 +1,53 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.cache;
+
+import org.quartz.Job;
+import org.quartz.JobDataMap;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+
+/**
+ * Quartz job that runs the {@link CacheSizeAdvisor} held in its job data under <code>cacheSizeAdvisor</code>.
+ * 
+ * @since 6.2.2
+ */
+public class CacheSizeAdvisorJob implements Job
+{
+    private static final String KEY_CACHE_SIZE_ADVISOR = "cacheSizeAdvisor";
+
+    @Override
+    public void execute(JobExecutionContext context) throws JobExecutionException
+    {
+        JobDataMap jobData = context.getJobDetail().getJobDataMap();
+        Object advisor = jobData.get(KEY_CACHE_SIZE_ADVISOR);
+        if (!(advisor instanceof CacheSizeAdvisor))
+        {
+            throw new JobExecutionException("Missing job data: " + KEY_CACHE_SIZE_ADVISOR);
+        }
+        ((CacheSizeAdvisor) advisor).advise();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.cache;
+
+import java.io.Serializable;
+
+import org.alfresco.repo.cache.DefaultSimpleCache;
+import org.alfresco.web.app.AbstractWrappingPostProcessor;
+
+/**
+ * Wraps every {@link DefaultSimpleCache} created by the repository <code>cacheFactory</code> in a
+ * {@link MonitoredSimpleCache} and registers it with the {@link CacheMonitor}. The caches are normally injected as
+ * <code>SimpleCache</code>, so the wrapper is transparent to the transactional caches and DAOs using them.
+ * 
+ * @since 6.2.2
+ */
+public class MonitoredCachePostProcessor extends AbstractWrappingPostProcessor
+{
+    private CacheMonitor cacheMonitor;
+
+    public MonitoredCachePostProcessor()
+    {
+        super(null);
+    }
+
+    public void setCacheMonitor(CacheMonitor cacheMonitor)
+    {
+        this.cacheMonitor = cacheMonitor;
+    }
+
+    @Override
+    protected boolean matches(Object bean, String beanName)
+    {
+        return bean instanceof DefaultSimpleCache;
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected Object wrap(Object bean, String beanName)
+    {
+        DefaultSimpleCache<Serializable, Object> cache = (DefaultSimpleCache) bean;
+        String cacheName = cache.getCacheName() == null ? beanName : cache.getCacheName();
+        MonitoredSimpleCache<Serializable, Object> monitored = new MonitoredSimpleCache<>(cacheName, cache);
+        cacheMonitor.register(monitored);
+        return monitored;
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.cache;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.alfresco.repo.cache.DefaultSimpleCache;
+import org.alfresco.repo.cache.SimpleCache;
+
+/**
+ * A {@link SimpleCache} wrapper around a {@link DefaultSimpleCache} that counts hits, misses, loads and evictions.
+ * <p>
+ * Evictions cannot be observed directly on the underlying cache, so they are derived: every put of a key that was not
+ * present adds an entry, every successful remove or clear takes entries away, and whatever is missing from the current
+ * size has been evicted (or has expired). Loads are timed from a miss to the put of the same key on the same thread,
+ * which is how <code>TransactionalCache</code> and the DAO caches populate the shared caches.
+ * <p>
+ * The delegate can be replaced with a larger one at runtime by {@link #resize(int)}. Writes share a read lock that
+ * the resize takes exclusively, so no put or remove can land on the old delegate once its entries have been copied.
+ * 
+ * @since 6.2.2
+ */
+public class MonitoredSimpleCache<K extends Serializable, V extends Object> implements SimpleCache<K, V>
+{
+    private final String cacheName;
+    private volatile DefaultSimpleCache<K, V> delegate;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder added = new LongAdder();
+    private final LongAdder removed = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+
+    private final ReadWriteLock delegateLock = new ReentrantReadWriteLock();
+
+    /**
+     * Hash of the key missed last on this thread and the time of the miss. Only the hash is kept so that the thread
+     * does not hold on to the key, or to anything of this webapp, once it goes back to its pool.
+     */
+    private final ThreadLocal<long[]> pendingLoad = ThreadLocal.withInitial(() -> new long[2]);
+
+    public MonitoredSimpleCache(String cacheName, DefaultSimpleCache<K, V> delegate)
+    {
+        this.cacheName = cacheName;
+        this.delegate = delegate;
+    }
+
+    public String getCacheName()
+    {
+        return cacheName;
+    }
+
+    public int getMaxItems()
+    {
+        return delegate.getMaxItems();
+    }
+
+    public boolean isBounded()
+    {
+        return delegate.isUseMaxItems();
+    }
+
+    public int getSize()
+    {
+        return delegate.getKeys().size();
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    public long getLoads()
+    {
+        return loads.sum();
+    }
+
+    public long getLoadNanos()
+    {
+        return loadNanos.sum();
+    }
+
+    /**
+     * @return the number of entries that left the cache without being removed or cleared
+     */
+    public long getEvictions()
+    {
+        return Math.max(0, added.sum() - removed.sum() - getSize());
+    }
+
+    @Override
+    public boolean contains(K key)
+    {
+        return delegate.contains(key);
+    }
+
+    @Override
+    public Collection<K> getKeys()
+    {
+        return delegate.getKeys();
+    }
+
+    @Override
+    public V get(K key)
+    {
+        V value = delegate.get(key);
+        if (value == null)
+        {
+            misses.increment();
+            long[] load = pendingLoad.get();
+            load[0] = key.hashCode();
+            load[1] = System.nanoTime();
+        }
+        else
+        {
+            hits.increment();
+        }
+        return value;
+    }
+
+    @Override
+    public void put(K key, V value)
+    {
+        delegateLock.readLock().lock();
+        try
+        {
+            DefaultSimpleCache<K, V> cache = delegate;
+            if (!cache.contains(key))
+            {
+                added.increment();
+            }
+            cache.put(key, value);
+        }
+        finally
+        {
+            delegateLock.readLock().unlock();
+        }
+
+        long[] load = pendingLoad.get();
+        if (load[1] != 0L)
+        {
+            if (load[0] == key.hashCode())
+            {
+                loads.increment();
+                loadNanos.add(System.nanoTime() - load[1]);
+            }
+            load[1] = 0L;
+        }
+    }
+
+    @Override
+    public void remove(K key)
+    {
+        delegateLock.readLock().lock();
+        try
+        {
+            DefaultSimpleCache<K, V> cache = delegate;
+            if (cache.contains(key))
+            {
+                removed.increment();
+            }
+            cache.remove(key);
+        }
+        finally
+        {
+            delegateLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear()
+    {
+        delegateLock.readLock().lock();
+        try
+        {
+            DefaultSimpleCache<K, V> cache = delegate;
+            removed.add(cache.getKeys().size());
+            cache.clear();
+        }
+        finally
+        {
+            delegateLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the underlying cache with one bounded to <code>maxItems</code>, carrying over the current entries.
+     * Puts, removes and clears wait for the copy, so none of them is lost.
+     */
+    public void resize(int maxItems)
+    {
+        delegateLock.writeLock().lock();
+        try
+        {
+            resizeLocked(maxItems);
+        }
+        finally
+        {
+            delegateLock.writeLock().unlock();
+        }
+    }
+
+    private void resizeLocked(int maxItems)
+    {
+        DefaultSimpleCache<K, V> current = delegate;
+        DefaultSimpleCache<K, V> resized = new DefaultSimpleCache<>(maxItems, current.isUseMaxItems(),
+                current.getTTLSecs(), current.getMaxIdleSecs(), cacheName);
+        int copied = 0;
+        for (K key : current.getKeys())
+        {
+            if (copied >= maxItems)
+            {
+                break;
+            }
+            V value = current.get(key);
+            if (value != null)
+            {
+                resized.put(key, value);
+                copied++;
+            }
+        }
+        delegate = resized;
+        // Entries not copied over were dropped deliberately and are not evictions
+        removed.add(current.getKeys().size() - copied);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MonitoredSimpleCache[" + cacheName + ", " + delegate + "]";
+    }
+}
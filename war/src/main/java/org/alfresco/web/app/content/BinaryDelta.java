@@ -0,0 +1,214 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.content;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A compact binary delta between two versions of a file.
+ * <p>
+ * The target is described as copies of ranges of the base and literal bytes. Matches are found by indexing the base
+ * in blocks of {@link #BLOCK_SIZE} bytes and sliding a rolling hash over the target, then extending each match as far
+ * as the bytes agree. The instructions are deflated. This suits text-like content where most of a new version is
+ * copied from the previous one.
+ * 
+ * @since 6.2.2
+ */
+final class BinaryDelta
+{
+    static final int BLOCK_SIZE = 32;
+
+    private static final int MAGIC = 0x41444c54;
+    private static final byte VERSION = 1;
+    private static final byte OP_END = 0;
+    private static final byte OP_COPY = 1;
+    private static final byte OP_ADD = 2;
+    private static final int PRIME = 31;
+
+    private BinaryDelta()
+    {
+    }
+
+    /**
+     * @return the delta that rebuilds <code>target</code> from <code>base</code>
+     */
+    static byte[] encode(byte[] base, byte[] target) throws IOException
+    {
+        Map<Integer, Integer> index = new HashMap<>(base.length / BLOCK_SIZE * 2 + 1);
+        for (int offset = 0; offset + BLOCK_SIZE <= base.length; offset += BLOCK_SIZE)
+        {
+            index.putIfAbsent(hash(base, offset), offset);
+        }
+        int highPower = 1;
+        for (int k = 1; k < BLOCK_SIZE; k++)
+        {
+            highPower *= PRIME;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, target.length / 8));
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes)))
+        {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(target.length);
+
+            int addStart = 0;
+            int i = 0;
+            int h = target.length >= BLOCK_SIZE ? hash(target, 0) : 0;
+            while (i + BLOCK_SIZE <= target.length)
+            {
+                Integer match = index.get(h);
+                if (match != null && regionMatches(base, match, target, i, BLOCK_SIZE))
+                {
+                    int baseStart = match;
+                    int targetStart = i;
+                    // Take back literal bytes that also match, then extend forwards
+                    while (baseStart > 0 && targetStart > addStart && base[baseStart - 1] == target[targetStart - 1])
+                    {
+                        baseStart--;
+                        targetStart--;
+                    }
+                    int end = i + BLOCK_SIZE;
+                    int baseEnd = match + BLOCK_SIZE;
+                    while (end < target.length && baseEnd < base.length && base[baseEnd] == target[end])
+                    {
+                        end++;
+                        baseEnd++;
+                    }
+                    writeAdd(out, target, addStart, targetStart);
+                    out.writeByte(OP_COPY);
+                    out.writeInt(baseStart);
+                    out.writeInt(end - targetStart);
+                    i = end;
+                    addStart = end;
+                    if (i + BLOCK_SIZE <= target.length)
+                    {
+                        h = hash(target, i);
+                    }
+                }
+                else
+                {
+                    if (i + BLOCK_SIZE < target.length)
+                    {
+                        h = (h - target[i] * highPower) * PRIME + target[i + BLOCK_SIZE];
+                    }
+                    i++;
+                }
+            }
+            writeAdd(out, target, addStart, target.length);
+            out.writeByte(OP_END);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the target rebuilt from <code>base</code> and a delta produced by {@link #encode(byte[], byte[])}
+     */
+    static byte[] decode(byte[] base, InputStream delta) throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(delta)))
+        {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION)
+            {
+                throw new IOException("Not a binary delta");
+            }
+            byte[] target = new byte[in.readInt()];
+            int position = 0;
+            byte op;
+            while ((op = in.readByte()) != OP_END)
+            {
+                if (op == OP_COPY)
+                {
+                    int offset = in.readInt();
+                    int length = in.readInt();
+                    System.arraycopy(base, offset, target, position, length);
+                    position += length;
+                }
+                else if (op == OP_ADD)
+                {
+                    int length = in.readInt();
+                    in.readFully(target, position, length);
+                    position += length;
+                }
+                else
+                {
+                    throw new IOException("Corrupt binary delta, unknown instruction " + op);
+                }
+            }
+            if (position != target.length)
+            {
+                throw new IOException("Corrupt binary delta, rebuilt " + position + " of " + target.length + " bytes");
+            }
+            return target;
+        }
+    }
+
+    static byte[] decode(byte[] base, byte[] delta) throws IOException
+    {
+        return decode(base, new ByteArrayInputStream(delta));
+    }
+
+    private static void writeAdd(DataOutputStream out, byte[] target, int start, int end) throws IOException
+    {
+        if (end > start)
+        {
+            out.writeByte(OP_ADD);
+            out.writeInt(end - start);
+            out.write(target, start, end - start);
+        }
+    }
+
+    private static int hash(byte[] bytes, int offset)
+    {
+        int h = 0;
+        for (int k = 0; k < BLOCK_SIZE; k++)
+        {
+            h = h * PRIME + bytes[offset + k];
+        }
+        return h;
+    }
+
+    private static boolean regionMatches(byte[] a, int aOffset, byte[] b, int bOffset, int length)
+    {
+        for (int k = 0; k < length; k++)
+        {
+            if (a[aOffset + k] != b[bOffset + k])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
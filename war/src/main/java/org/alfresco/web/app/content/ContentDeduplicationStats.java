@@ -0,0 +1,93 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.content;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.alfresco.web.app.metrics.MetricsCollector;
+import org.alfresco.web.app.metrics.OpenMetricsWriter;
+
+/**
+ * Counters of the {@link DeduplicatingContentStore}: how much content was hashed and how long it took, i.e. what the
+ * deduplication adds to the write path, and how many writes and bytes were saved.
+ * 
+ * @since 6.2.2
+ */
+public class ContentDeduplicationStats implements MetricsCollector
+{
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+    private final LongAdder bytesHashed = new LongAdder();
+    private final LongAdder hashNanos = new LongAdder();
+    private final LongAdder lookupNanos = new LongAdder();
+
+    void recordWrite(long bytes, long hashTimeNanos, long lookupTimeNanos, boolean duplicate)
+    {
+        writes.increment();
+        bytesHashed.add(bytes);
+        hashNanos.add(hashTimeNanos);
+        lookupNanos.add(lookupTimeNanos);
+        if (duplicate)
+        {
+            deduplicated.increment();
+            bytesSaved.add(bytes);
+        }
+    }
+
+    public long getWrites()
+    {
+        return writes.sum();
+    }
+
+    public long getDeduplicated()
+    {
+        return deduplicated.sum();
+    }
+
+    public long getBytesSaved()
+    {
+        return bytesSaved.sum();
+    }
+
+    @Override
+    public void collect(OpenMetricsWriter writer) throws IOException
+    {
+        writer.beginCounter("alfresco_content_dedup_writes", "Content writes hashed for deduplication");
+        writer.sample("alfresco_content_dedup_writes_total", writes.sum());
+        writer.beginCounter("alfresco_content_dedup_hits", "Content writes replaced by existing content");
+        writer.sample("alfresco_content_dedup_hits_total", deduplicated.sum());
+        writer.beginCounter("alfresco_content_dedup_saved_bytes", "Bytes not stored because identical content existed");
+        writer.sample("alfresco_content_dedup_saved_bytes_total", bytesSaved.sum());
+        writer.beginCounter("alfresco_content_dedup_hashed_bytes", "Bytes hashed while being written");
+        writer.sample("alfresco_content_dedup_hashed_bytes_total", bytesHashed.sum());
+        writer.beginCounter("alfresco_content_dedup_hash_seconds", "Time spent hashing content while it was written");
+        writer.sample("alfresco_content_dedup_hash_seconds_total", hashNanos.sum() / 1e9);
+        writer.beginCounter("alfresco_content_dedup_lookup_seconds", "Time spent looking up and recording content hashes");
+        writer.sample("alfresco_content_dedup_lookup_seconds_total", lookupNanos.sum() / 1e9);
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.content;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.alfresco.repo.content.ContentContext;
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.repo.domain.contentdata.ContentDataDAO;
+import org.alfresco.repo.lock.JobLockService;
+import org.alfresco.repo.lock.LockAcquisitionException;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport.TxnReadState;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.ObjectFactory;
+
+/**
+ * A content store that avoids storing the same content twice.
+ * <p>
+ * New content is hashed while it is written (see {@link DeduplicatingContentWriter}). If content with the same hash
+ * and size was written before and is still in the store, the node is given that content URL and the new copy is
+ * deleted once the transaction commits. The hashes are kept with the attribute service:
+ * <ul>
+ *   <li>hash and size to the content URL holding that content,</li>
+ *   <li>content URL to its hash and size, so that both rows are removed when the content is deleted,</li>
+ *   <li>content URL to the time it was last reused,</li>
+ *   <li>content URL to the time its deletion was refused, until it is deleted.</li>
+ * </ul>
+ * The content URLs themselves are reference counted by the repository: nodes already share them (copies and versions
+ * do) and a URL only becomes an orphan for the content store cleaners once no content data references it. What this
+ * store has to guard against is the cleaner deleting content that a transaction is in the middle of reusing, which it
+ * cannot see until that transaction commits. Registering, reusing and deleting content with a given hash are therefore
+ * serialised with a cluster wide job lock, the reuse is recorded in its own transaction before the content is
+ * reused, and {@link #delete(String)} refuses to delete content reused within the protection period. The refused
+ * content is deleted later by {@link #purgeDeferred()}, unless the repository references it again by then, which is
+ * also what happens when the transaction that reused it rolls back.
+ * <p>
+ * Registering runs in its own transaction too, so identical content written at the same time by two transactions
+ * cannot make the writing transaction fail on the unique key of the hash row: the loser of the insert is retried, finds
+ * the winner's row and reuses its content. If the lock cannot be obtained the new content is simply kept.
+ * 
+ * @since 6.2.2
+ */
+public class DeduplicatingContentStore implements ContentStore
+{
+    private static final Log logger = LogFactory.getLog(DeduplicatingContentStore.class);
+
+    static final String ATTR_CONTENT_HASH = ".contentDeduplicationHash";
+    static final String ATTR_CONTENT_URL = ".contentDeduplicationUrl";
+    static final String ATTR_CONTENT_REUSED = ".contentDeduplicationReused";
+    static final String ATTR_CONTENT_DEFERRED = ".contentDeduplicationDeferred";
+
+    private static final long LOCK_TTL = 30000L;
+    private static final long LOCK_RETRY_WAIT = 50L;
+    private static final int LOCK_RETRY_COUNT = 100;
+
+    private final ContentStore delegate;
+    private final ObjectFactory<AttributeService> attributeService;
+    private final ObjectFactory<TransactionService> transactionService;
+    private final ObjectFactory<JobLockService> jobLockService;
+    private final ObjectFactory<ContentDataDAO> contentDataDAO;
+    private final ContentDeduplicationStats stats;
+    private final String hashAlgorithm;
+    private final long minSize;
+    private long reuseProtectMillis = 24L * 60 * 60 * 1000;
+
+    /**
+     * @param delegate              the store holding the content
+     * @param attributeService      looked up on first use, the store is created before the attribute service
+     * @param transactionService    looked up on first use
+     * @param jobLockService        looked up on first use
+     * @param contentDataDAO        looked up on first use
+     * @param stats                 the counters to update
+     * @param hashAlgorithm         a {@link MessageDigest} algorithm
+     * @param minSize               content smaller than this is stored as is
+     */
+    public DeduplicatingContentStore(ContentStore delegate, ObjectFactory<AttributeService> attributeService,
+                ObjectFactory<TransactionService> transactionService, ObjectFactory<JobLockService> jobLockService,
+                ObjectFactory<ContentDataDAO> contentDataDAO, ContentDeduplicationStats stats, String hashAlgorithm,
+                long minSize)
+    {
+        this.delegate = delegate;
+        this.attributeService = attributeService;
+        this.transactionService = transactionService;
+        this.jobLockService = jobLockService;
+        this.contentDataDAO = contentDataDAO;
+        this.stats = stats;
+        this.hashAlgorithm = hashAlgorithm;
+        this.minSize = minSize;
+        newDigest();
+    }
+
+    /**
+     * How long after it was last reused content is protected from deletion. It has to be longer than any transaction
+     * that writes content. Defaults to one day.
+     */
+    public void setReuseProtectMillis(long reuseProtectMillis)
+    {
+        this.reuseProtectMillis = reuseProtectMillis;
+    }
+
+    private MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance(hashAlgorithm);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalArgumentException("Unknown hash algorithm: " + hashAlgorithm, e);
+        }
+    }
+
+    @Override
+    public boolean isContentUrlSupported(String contentUrl)
+    {
+        return delegate.isContentUrlSupported(contentUrl);
+    }
+
+    @Override
+    public boolean isWriteSupported()
+    {
+        return delegate.isWriteSupported();
+    }
+
+    @Override
+    public long getSpaceFree()
+    {
+        return delegate.getSpaceFree();
+    }
+
+    @Override
+    public long getSpaceTotal()
+    {
+        return delegate.getSpaceTotal();
+    }
+
+    @Override
+    public String getRootLocation()
+    {
+        return delegate.getRootLocation();
+    }
+
+    @Override
+    public boolean exists(String contentUrl)
+    {
+        return delegate.exists(contentUrl);
+    }
+
+    @Override
+    public ContentReader getReader(String contentUrl)
+    {
+        return delegate.getReader(contentUrl);
+    }
+
+    /**
+     * Deletes the content unless it was reused within the protection period. The hash rows of deleted content are
+     * removed so that later writes do not look for it.
+     * <p>
+     * The content store cleaner forgets a URL once it has asked the store to delete it, whatever the answer, so
+     * content that is not deleted is recorded here and deleted by {@link #purgeDeferred()} once it can be.
+     */
+    @Override
+    public boolean delete(final String contentUrl)
+    {
+        Boolean deleted = deleteUnlessReused(contentUrl);
+        if (deleted == null)
+        {
+            logger.warn("Not deleting " + contentUrl + " yet: it was reused recently, or is being reused");
+            inTransaction(() ->
+            {
+                attributeService.getObject().setAttribute(System.currentTimeMillis(), ATTR_CONTENT_DEFERRED,
+                            contentUrl);
+                return null;
+            }, false);
+            return false;
+        }
+        return deleted;
+    }
+
+    /**
+     * Deletes the content whose deletion was refused, once it is no longer protected. Content that the repository
+     * references again, or lists as an orphan again, is left to the repository and its cleaner.
+     * <p>
+     * A URL is only looked at once it was refused longer than the protection period ago, by when the transaction of
+     * the cleaner that asked for its deletion is over.
+     */
+    public void purgeDeferred()
+    {
+        final long refusedBefore = System.currentTimeMillis() - reuseProtectMillis;
+        final List<String> deferred = inTransaction(() ->
+        {
+            List<String> urls = new ArrayList<>();
+            attributeService.getObject().getAttributes((id, value, keys) ->
+            {
+                if ((Long) value < refusedBefore)
+                {
+                    urls.add((String) keys[1]);
+                }
+                return true;
+            }, ATTR_CONTENT_DEFERRED);
+            return urls;
+        }, true);
+        int purged = 0;
+        for (final String contentUrl : deferred)
+        {
+            try
+            {
+                boolean known = inTransaction(
+                            () -> contentDataDAO.getObject().getContentUrl(contentUrl) != null, true);
+                if (!known && deleteUnlessReused(contentUrl) == null)
+                {
+                    continue;
+                }
+                inTransaction(() ->
+                {
+                    attributeService.getObject().removeAttribute(ATTR_CONTENT_DEFERRED, contentUrl);
+                    return null;
+                }, false);
+                if (!known)
+                {
+                    purged++;
+                }
+            }
+            catch (RuntimeException e)
+            {
+                logger.warn("Failed to delete " + contentUrl + ", will try again", e);
+            }
+        }
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Deleted " + purged + " of " + deferred.size() + " deferred content URLs");
+        }
+    }
+
+    /**
+     * @return whether the content was deleted, or <tt>null</tt> if it was reused within the protection period or the
+     *         lock of its hash could not be obtained
+     */
+    private Boolean deleteUnlessReused(final String contentUrl)
+    {
+        final String hashRef = inTransaction(
+                    () -> (String) attributeService.getObject().getAttribute(ATTR_CONTENT_URL, contentUrl), true);
+        if (hashRef == null)
+        {
+            // Written before deduplication was enabled, too small or a discarded duplicate
+            return delegate.delete(contentUrl);
+        }
+        int separator = hashRef.lastIndexOf(':');
+        final String hashKey = hashRef.substring(0, separator);
+        final long size = Long.parseLong(hashRef.substring(separator + 1));
+        Boolean unregistered = underLock(hashKey, () -> inTransaction(() ->
+        {
+            AttributeService attributes = attributeService.getObject();
+            Long reused = (Long) attributes.getAttribute(ATTR_CONTENT_REUSED, contentUrl);
+            if (reused != null && reused > System.currentTimeMillis() - reuseProtectMillis)
+            {
+                return false;
+            }
+            unregister(attributes, contentUrl, hashKey, size);
+            return true;
+        }, false));
+        if (!Boolean.TRUE.equals(unregistered))
+        {
+            return null;
+        }
+        return delegate.delete(contentUrl);
+    }
+
+    @Override
+    public ContentWriter getWriter(ContentContext context)
+    {
+        ContentWriter writer = delegate.getWriter(context);
+        if (context.getContentUrl() != null)
+        {
+            // The caller chose the URL, e.g. an import, so it must be kept
+            return writer;
+        }
+        return new DeduplicatingContentWriter(this, writer, newDigest());
+    }
+
+    /**
+     * Called once new content has been written.
+     * 
+     * @return the URL of existing identical content to use instead, or <tt>null</tt> to keep the new content
+     */
+    String deduplicate(final String contentUrl, final long size, byte[] hash, long hashNanos)
+    {
+        if (size < minSize || !isReadWriteTransaction())
+        {
+            return null;
+        }
+        long start = System.nanoTime();
+        final String hashKey = toHex(hash);
+        String existing;
+        try
+        {
+            existing = underLock(hashKey, () -> inTransaction(() -> register(contentUrl, hashKey, size), false));
+        }
+        catch (RuntimeException e)
+        {
+            logger.warn("Failed to look up identical content, keeping " + contentUrl, e);
+            existing = null;
+        }
+        boolean duplicate = existing != null && !existing.equals(contentUrl);
+        if (duplicate)
+        {
+            deleteAfterCommit(contentUrl);
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Replaced " + contentUrl + " with identical content " + existing + " (" + size + " bytes)");
+            }
+        }
+        stats.recordWrite(size, hashNanos, System.nanoTime() - start, duplicate);
+        return duplicate ? existing : null;
+    }
+
+    /**
+     * Looks up content with the given hash and size, recording its reuse, or registers the new content if there is
+     * none. Runs in its own transaction under the lock of the hash.
+     * 
+     * @return the URL the content is to be stored at
+     */
+    private String register(String contentUrl, String hashKey, long size)
+    {
+        AttributeService attributes = attributeService.getObject();
+        String existing = (String) attributes.getAttribute(ATTR_CONTENT_HASH, hashKey, size);
+        if (existing != null && !existing.equals(contentUrl))
+        {
+            if (delegate.exists(existing))
+            {
+                attributes.setAttribute(System.currentTimeMillis(), ATTR_CONTENT_REUSED, existing);
+                return existing;
+            }
+            // Removed from the store without going through it
+            unregister(attributes, existing, hashKey, size);
+        }
+        attributes.setAttribute(contentUrl, ATTR_CONTENT_HASH, hashKey, size);
+        attributes.setAttribute(hashKey + ':' + size, ATTR_CONTENT_URL, contentUrl);
+        return contentUrl;
+    }
+
+    private static void unregister(AttributeService attributes, String contentUrl, String hashKey, long size)
+    {
+        if (contentUrl.equals(attributes.getAttribute(ATTR_CONTENT_HASH, hashKey, size)))
+        {
+            attributes.removeAttribute(ATTR_CONTENT_HASH, hashKey, size);
+        }
+        attributes.removeAttribute(ATTR_CONTENT_URL, contentUrl);
+        attributes.removeAttribute(ATTR_CONTENT_REUSED, contentUrl);
+        attributes.removeAttribute(ATTR_CONTENT_DEFERRED, contentUrl);
+    }
+
+    /**
+     * Runs the work in a new transaction. A duplicate key from a concurrent insert of the same row is one of the
+     * failures the transaction helper retries.
+     */
+    private <T> T inTransaction(RetryingTransactionCallback<T> work, boolean readOnly)
+    {
+        return transactionService.getObject().getRetryingTransactionHelper().doInTransaction(work, readOnly, true);
+    }
+
+    /**
+     * @return the result of the work, or <tt>null</tt> if the lock of the hash could not be obtained
+     */
+    private <T> T underLock(String hashKey, Supplier<T> work)
+    {
+        QName lockQName = QName.createQName(NamespaceService.SYSTEM_MODEL_1_0_URI, "contentDeduplication." + hashKey);
+        JobLockService locks = jobLockService.getObject();
+        String lockToken;
+        try
+        {
+            lockToken = locks.getLock(lockQName, LOCK_TTL, LOCK_RETRY_WAIT, LOCK_RETRY_COUNT);
+        }
+        catch (LockAcquisitionException e)
+        {
+            logger.warn("Timed out waiting for the lock of " + hashKey);
+            return null;
+        }
+        try
+        {
+            return work.get();
+        }
+        finally
+        {
+            locks.releaseLock(lockToken, lockQName);
+        }
+    }
+
+    boolean isReadWriteTransaction()
+    {
+        return AlfrescoTransactionSupport.getTransactionReadState() == TxnReadState.TXN_READ_WRITE;
+    }
+
+    /**
+     * Deletes the copy that was replaced by identical content once the transaction commits. On rollback it is deleted
+     * with the other new content of the transaction.
+     */
+    void deleteAfterCommit(final String duplicateUrl)
+    {
+        AlfrescoTransactionSupport.bindListener(new TransactionListenerAdapter()
+        {
+            @Override
+            public void afterCommit()
+            {
+                delegate.delete(duplicateUrl);
+            }
+        });
+    }
+
+    private static String toHex(byte[] bytes)
+    {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+        {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DeduplicatingContentStore[delegate=" + delegate + "]";
+    }
+}
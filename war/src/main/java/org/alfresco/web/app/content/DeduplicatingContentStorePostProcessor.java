@@ -0,0 +1,112 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.content;
+
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.repo.domain.contentdata.ContentDataDAO;
+import org.alfresco.repo.lock.JobLockService;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.web.app.AbstractWrappingPostProcessor;
+
+/**
+ * Wraps the repository's content store bean in a {@link DeduplicatingContentStore} when content deduplication is
+ * enabled. The store is normally injected as <code>ContentStore</code>, so the wrapper is transparent to the content
+ * service and the content store cleaner. The content whose deletion the store refused is purged through
+ * {@link #purgeDeferred()}, which the {@link DeduplicatedContentPurgeJob} runs.
+ * 
+ * @since 6.2.2
+ */
+public class DeduplicatingContentStorePostProcessor extends AbstractWrappingPostProcessor
+{
+    private String hashAlgorithm = "SHA-256";
+    private long minSize;
+    private long reuseProtectMillis = 24L * 60 * 60 * 1000;
+    private ContentDeduplicationStats stats;
+    private volatile DeduplicatingContentStore store;
+
+    public DeduplicatingContentStorePostProcessor()
+    {
+        super("fileContentStore");
+    }
+
+    public void setStoreBeanName(String storeBeanName)
+    {
+        setTargetBeanName(storeBeanName);
+    }
+
+    public void setHashAlgorithm(String hashAlgorithm)
+    {
+        this.hashAlgorithm = hashAlgorithm;
+    }
+
+    public void setMinSize(long minSize)
+    {
+        this.minSize = minSize;
+    }
+
+    public void setReuseProtectMillis(long reuseProtectMillis)
+    {
+        this.reuseProtectMillis = reuseProtectMillis;
+    }
+
+    public void setStats(ContentDeduplicationStats stats)
+    {
+        this.stats = stats;
+    }
+
+    @Override
+    protected boolean matches(Object bean, String beanName)
+    {
+        return super.matches(bean, beanName) && bean instanceof ContentStore;
+    }
+
+    @Override
+    protected Object wrap(Object bean, String beanName)
+    {
+        DeduplicatingContentStore store = new DeduplicatingContentStore((ContentStore) bean,
+                lazyBean("attributeService", AttributeService.class),
+                lazyBean("transactionService", TransactionService.class),
+                lazyBean("jobLockService", JobLockService.class),
+                lazyBean("contentDataDAO", ContentDataDAO.class), stats, hashAlgorithm, minSize);
+        store.setReuseProtectMillis(reuseProtectMillis);
+        this.store = store;
+        return store;
+    }
+
+    /**
+     * Deletes the content whose deletion the store refused, see {@link DeduplicatingContentStore#purgeDeferred()}.
+     * Does nothing when the store is not wrapped.
+     */
+    public void purgeDeferred()
+    {
+        DeduplicatingContentStore store = this.store;
+        if (store != null)
+        {
+            store.purgeDeferred();
+        }
+    }
+}
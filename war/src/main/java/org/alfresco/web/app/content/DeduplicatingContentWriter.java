@@ -0,0 +1,326 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.content;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.alfresco.repo.content.MimetypeServiceAware;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentStreamListener;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.service.cmr.repository.MimetypeService;
+import org.springframework.util.FileCopyUtils;
+
+/**
+ * Hashes the content as it is written to the underlying writer. When the stream is closed the
+ * {@link DeduplicatingContentStore} is asked for existing identical content; if there is some, this writer reports
+ * its URL from then on, so the node references the existing content instead of the copy just written.
+ * <p>
+ * The listeners added to this writer, e.g. the one that sets the content property of the node, are called after the
+ * lookup. Content written through {@link #getFileChannel(boolean)} is not hashed and keeps its own URL.
+ * <p>
+ * The content service hands its mimetype service to writers that are {@link MimetypeServiceAware}; it is passed on to
+ * the underlying writer, which needs it for {@link #guessMimetype(String)} and {@link #guessEncoding()}.
+ * 
+ * @since 6.2.2
+ */
+class DeduplicatingContentWriter implements ContentWriter, ContentStreamListener, MimetypeServiceAware
+{
+    private final DeduplicatingContentStore store;
+    private final ContentWriter delegate;
+    private final MessageDigest digest;
+    private final List<ContentStreamListener> listeners = new ArrayList<>(2);
+    private long hashNanos;
+    private boolean hashed = true;
+    private volatile String existingContentUrl;
+
+    DeduplicatingContentWriter(DeduplicatingContentStore store, ContentWriter delegate, MessageDigest digest)
+    {
+        this.store = store;
+        this.delegate = delegate;
+        this.digest = digest;
+        delegate.addListener(this);
+    }
+
+    private void hash(byte[] bytes, int offset, int length)
+    {
+        long start = System.nanoTime();
+        digest.update(bytes, offset, length);
+        hashNanos += System.nanoTime() - start;
+    }
+
+    private void hash(ByteBuffer buffer)
+    {
+        long start = System.nanoTime();
+        digest.update(buffer);
+        hashNanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void contentStreamClosed() throws ContentIOException
+    {
+        if (hashed)
+        {
+            existingContentUrl = store.deduplicate(delegate.getContentUrl(), delegate.getSize(), digest.digest(), hashNanos);
+        }
+        for (ContentStreamListener listener : listeners)
+        {
+            listener.contentStreamClosed();
+        }
+    }
+
+    @Override
+    public void addListener(ContentStreamListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    @Override
+    public boolean isChannelOpen()
+    {
+        return delegate.isChannelOpen();
+    }
+
+    @Override
+    public String getContentUrl()
+    {
+        String contentUrl = existingContentUrl;
+        return contentUrl != null ? contentUrl : delegate.getContentUrl();
+    }
+
+    @Override
+    public ContentData getContentData()
+    {
+        if (existingContentUrl == null)
+        {
+            return delegate.getContentData();
+        }
+        return new ContentData(existingContentUrl, getMimetype(), getSize(), getEncoding(), getLocale());
+    }
+
+    @Override
+    public long getSize()
+    {
+        return delegate.getSize();
+    }
+
+    @Override
+    public String getMimetype()
+    {
+        return delegate.getMimetype();
+    }
+
+    @Override
+    public void setMimetype(String mimetype)
+    {
+        delegate.setMimetype(mimetype);
+    }
+
+    @Override
+    public String getEncoding()
+    {
+        return delegate.getEncoding();
+    }
+
+    @Override
+    public void setEncoding(String encoding)
+    {
+        delegate.setEncoding(encoding);
+    }
+
+    @Override
+    public Locale getLocale()
+    {
+        return delegate.getLocale();
+    }
+
+    @Override
+    public void setLocale(Locale locale)
+    {
+        delegate.setLocale(locale);
+    }
+
+    @Override
+    public ContentReader getReader() throws ContentIOException
+    {
+        // The copy just written is only deleted after commit, so it stays readable in this transaction
+        return delegate.getReader();
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+        return delegate.isClosed();
+    }
+
+    @Override
+    public WritableByteChannel getWritableChannel() throws ContentIOException
+    {
+        final WritableByteChannel channel = delegate.getWritableChannel();
+        return new WritableByteChannel()
+        {
+            @Override
+            public int write(ByteBuffer src) throws IOException
+            {
+                ByteBuffer written = src.duplicate();
+                int count = channel.write(src);
+                written.limit(written.position() + count);
+                hash(written);
+                return count;
+            }
+
+            @Override
+            public boolean isOpen()
+            {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException
+            {
+                channel.close();
+            }
+        };
+    }
+
+    @Override
+    public FileChannel getFileChannel(boolean truncate) throws ContentIOException
+    {
+        hashed = false;
+        return delegate.getFileChannel(truncate);
+    }
+
+    @Override
+    public OutputStream getContentOutputStream() throws ContentIOException
+    {
+        return new FilterOutputStream(delegate.getContentOutputStream())
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                out.write(b);
+                hash(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException
+            {
+                out.write(b, off, len);
+                hash(b, off, len);
+            }
+        };
+    }
+
+    @Override
+    public void putContent(ContentReader reader) throws ContentIOException
+    {
+        putContent(reader.getContentInputStream());
+    }
+
+    @Override
+    public void putContent(InputStream is) throws ContentIOException
+    {
+        try
+        {
+            FileCopyUtils.copy(is, getContentOutputStream());
+        }
+        catch (IOException e)
+        {
+            throw new ContentIOException("Failed to copy content from input stream: \n   writer: " + this, e);
+        }
+    }
+
+    @Override
+    public void putContent(File file) throws ContentIOException
+    {
+        try
+        {
+            putContent(new FileInputStream(file));
+        }
+        catch (IOException e)
+        {
+            throw new ContentIOException("Failed to copy content from file: \n   writer: " + this + "\n   file: " + file, e);
+        }
+    }
+
+    @Override
+    public void putContent(String content) throws ContentIOException
+    {
+        try
+        {
+            String encoding = getEncoding();
+            byte[] bytes = encoding == null ? content.getBytes() : content.getBytes(encoding);
+            putContent(new ByteArrayInputStream(bytes));
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new ContentIOException("Failed to encode content: \n   writer: " + this, e);
+        }
+    }
+
+    @Override
+    public void setMimetypeService(MimetypeService mimetypeService)
+    {
+        if (delegate instanceof MimetypeServiceAware)
+        {
+            ((MimetypeServiceAware) delegate).setMimetypeService(mimetypeService);
+        }
+    }
+
+    @Override
+    public void guessMimetype(String filename)
+    {
+        delegate.guessMimetype(filename);
+    }
+
+    @Override
+    public void guessEncoding()
+    {
+        delegate.guessEncoding();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DeduplicatingContentWriter[delegate=" + delegate + ", existingContentUrl=" + existingContentUrl + "]";
+    }
+}
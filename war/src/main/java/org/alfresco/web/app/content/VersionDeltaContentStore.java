@@ -0,0 +1,668 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.content;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.content.ContentContext;
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.repo.content.NodeContentContext;
+import org.alfresco.repo.content.filestore.FileContentReader;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport.TxnReadState;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.TempFileProvider;
+import org.alfresco.util.TraceableThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.util.FileCopyUtils;
+
+/**
+ * A content store that keeps older versions of text-like documents as binary deltas.
+ * <p>
+ * When new content is committed for a versionable node, the content it replaced, which the previous version still
+ * references, is re-encoded in the background as a {@link BinaryDelta} against the new content. The latest content
+ * is therefore always stored in full, and each older version is a delta against its successor. Every
+ * <code>snapshotInterval</code> replacements the previous content is kept in full instead, so rebuilding any
+ * version applies at most <code>snapshotInterval</code> deltas. Content URLs do not change: the deltas are written
+ * under new URLs and mapped from the original ones with the attribute service. The full content a delta replaced is
+ * kept for <code>supersededRetentionMillis</code>, as readers may have opened it before it was encoded, and is then
+ * deleted by {@link #purgeSuperseded()}.
+ * <p>
+ * Reading a delta encoded URL rebuilds it into a temporary file; the most recently rebuilt ones are kept. Deleting a
+ * URL that other deltas are based on is deferred until they have been deleted too.
+ * <p>
+ * The mapping is loaded into concurrent maps on first use. Other repository servers sharing the store encode content
+ * too, so a URL that is neither mapped nor in the underlying store is looked up in its row before it is given up on,
+ * and deletions decide from the rows of the URL rather than from the maps. Reads do not lock, and the attribute
+ * service and the underlying store are never called with a lock held. The encoder thread is stopped when the store
+ * is destroyed.
+ * 
+ * @since 6.2.2
+ */
+public class VersionDeltaContentStore implements ContentStore, DisposableBean
+{
+    private static final Log logger = LogFactory.getLog(VersionDeltaContentStore.class);
+
+    static final String ATTR_DELTA = ".versionDelta";
+    static final String ATTR_RETAINED = ".versionDeltaRetained";
+    static final String ATTR_CHAIN = ".versionDeltaChain";
+    static final String ATTR_BASE = ".versionDeltaBase";
+    static final String ATTR_SUPERSEDED = ".versionDeltaSuperseded";
+
+    private static final int REBUILT_CACHE_SIZE = 16;
+
+    private final ContentStore delegate;
+    private final ObjectFactory<AttributeService> attributeService;
+    private final ObjectFactory<NodeService> nodeService;
+    private final ObjectFactory<TransactionService> transactionService;
+    private final ThreadPoolExecutor encoder;
+
+    private int snapshotInterval = 10;
+    private long minSize = 64 * 1024;
+    private long maxSize = 32 * 1024 * 1024;
+    private double maxRatio = 0.5;
+    private long supersededRetentionMillis = 60L * 60 * 1000;
+    private List<String> mimetypes = Arrays.asList("text/", "application/xml", "application/json", "application/x-yaml");
+
+    /** null until loaded */
+    private final AtomicReference<Mapping> mapping = new AtomicReference<>();
+    /**
+     * Rebuilt content, evicted oldest first. Evicted files are left to the temporary file cleaner, as a reader may
+     * still be about to open them.
+     */
+    private final Map<String, File> rebuilt = new ConcurrentHashMap<>();
+    private final Queue<String> rebuiltOrder = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The services are looked up on first use, the store is created before them.
+     */
+    public VersionDeltaContentStore(ContentStore delegate, ObjectFactory<AttributeService> attributeService,
+                ObjectFactory<NodeService> nodeService, ObjectFactory<TransactionService> transactionService)
+    {
+        this.delegate = delegate;
+        this.attributeService = attributeService;
+        this.nodeService = nodeService;
+        this.transactionService = transactionService;
+        TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+        threadFactory.setThreadDaemon(true);
+        threadFactory.setNamePrefix("VersionDeltaEncoder");
+        // Encoding is an optimisation, replacements that do not fit in the queue keep their full content
+        this.encoder = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(1000),
+                    threadFactory, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * Number of consecutive deltas after which the replaced content is kept in full
+     */
+    public void setSnapshotInterval(int snapshotInterval)
+    {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    public void setMinSize(long minSize)
+    {
+        this.minSize = minSize;
+    }
+
+    /**
+     * Largest content to encode; both versions are held in memory while encoding
+     */
+    public void setMaxSize(long maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * A delta larger than this fraction of the content it replaces is not kept
+     */
+    public void setMaxRatio(double maxRatio)
+    {
+        this.maxRatio = maxRatio;
+    }
+
+    /**
+     * How long the full content of a version is kept after it was encoded, for the readers that opened it before
+     */
+    public void setSupersededRetentionMillis(long supersededRetentionMillis)
+    {
+        this.supersededRetentionMillis = supersededRetentionMillis;
+    }
+
+    /**
+     * Mimetypes, or mimetype prefixes ending with <code>/</code>, of the content to encode
+     */
+    public void setMimetypes(List<String> mimetypes)
+    {
+        this.mimetypes = mimetypes;
+    }
+
+    /**
+     * Stops the encoder. Replacements still queued keep their full content.
+     */
+    @Override
+    public void destroy() throws Exception
+    {
+        encoder.shutdownNow();
+        if (!encoder.awaitTermination(10, TimeUnit.SECONDS))
+        {
+            logger.warn("The version delta encoder did not stop within 10 seconds");
+        }
+        if (delegate instanceof DisposableBean)
+        {
+            ((DisposableBean) delegate).destroy();
+        }
+    }
+
+    @Override
+    public boolean isContentUrlSupported(String contentUrl)
+    {
+        return delegate.isContentUrlSupported(contentUrl);
+    }
+
+    @Override
+    public boolean isWriteSupported()
+    {
+        return delegate.isWriteSupported();
+    }
+
+    @Override
+    public long getSpaceFree()
+    {
+        return delegate.getSpaceFree();
+    }
+
+    @Override
+    public long getSpaceTotal()
+    {
+        return delegate.getSpaceTotal();
+    }
+
+    @Override
+    public String getRootLocation()
+    {
+        return delegate.getRootLocation();
+    }
+
+    @Override
+    public boolean exists(String contentUrl)
+    {
+        Mapping mapping = load();
+        if (mapping.retained.contains(contentUrl))
+        {
+            return false;
+        }
+        return mapping.deltas.containsKey(contentUrl) || delegate.exists(contentUrl)
+                    || learn(mapping, contentUrl) != null;
+    }
+
+    @Override
+    public ContentReader getReader(String contentUrl)
+    {
+        if (lookup(contentUrl) == null)
+        {
+            return delegate.getReader(contentUrl);
+        }
+        File file = rebuilt.get(contentUrl);
+        if (file != null && file.exists())
+        {
+            return new FileContentReader(file, contentUrl);
+        }
+        try
+        {
+            file = TempFileProvider.createTempFile("versiondelta-", ".bin");
+            FileCopyUtils.copy(rebuild(contentUrl, 0), file);
+            if (rebuilt.put(contentUrl, file) == null)
+            {
+                rebuiltOrder.add(contentUrl);
+            }
+            while (rebuilt.size() > REBUILT_CACHE_SIZE)
+            {
+                String eldest = rebuiltOrder.poll();
+                if (eldest == null)
+                {
+                    break;
+                }
+                rebuilt.remove(eldest);
+            }
+            return new FileContentReader(file, contentUrl);
+        }
+        catch (IOException e)
+        {
+            throw new ContentIOException("Failed to rebuild delta encoded content " + contentUrl, e);
+        }
+    }
+
+    private byte[] rebuild(String contentUrl, int depth) throws IOException
+    {
+        DeltaEntry entry = lookup(contentUrl);
+        if (entry == null)
+        {
+            return FileCopyUtils.copyToByteArray(delegate.getReader(contentUrl).getContentInputStream());
+        }
+        if (depth > snapshotInterval + 100)
+        {
+            throw new IOException("Delta chain of " + contentUrl + " is too long");
+        }
+        byte[] base = rebuild(entry.baseUrl, depth + 1);
+        return BinaryDelta.decode(base, delegate.getReader(entry.deltaUrl).getContentInputStream());
+    }
+
+    @Override
+    public ContentWriter getWriter(ContentContext context)
+    {
+        final ContentWriter writer = delegate.getWriter(context);
+        if (!(context instanceof NodeContentContext) || context.getExistingContentReader() == null)
+        {
+            return writer;
+        }
+        final NodeContentContext nodeContext = (NodeContentContext) context;
+        final ContentReader replaced = context.getExistingContentReader();
+        if (replaced.getContentUrl() == null || !isEncodable(replaced.getMimetype(), replaced.getSize()))
+        {
+            return writer;
+        }
+        writer.addListener(() ->
+        {
+            if (AlfrescoTransactionSupport.getTransactionReadState() != TxnReadState.TXN_READ_WRITE)
+            {
+                return;
+            }
+            AlfrescoTransactionSupport.bindListener(new TransactionListenerAdapter()
+            {
+                @Override
+                public void afterCommit()
+                {
+                    encoder.execute(() -> encode(nodeContext.getNodeRef(), nodeContext.getPropertyQName(),
+                                replaced.getContentUrl(), writer.getContentUrl()));
+                }
+            });
+        });
+        return writer;
+    }
+
+    private boolean isEncodable(String mimetype, long size)
+    {
+        if (mimetype == null || size < minSize || size > maxSize)
+        {
+            return false;
+        }
+        for (String type : mimetypes)
+        {
+            if (type.endsWith("/") ? mimetype.startsWith(type) : mimetype.equals(type))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Re-encodes the content replaced on a node as a delta against the content that replaced it
+     */
+    void encode(final NodeRef nodeRef, final QName propertyQName, final String replacedUrl, final String baseUrl)
+    {
+        try
+        {
+            DeltaEntry created = AuthenticationUtil.runAsSystem(() -> transactionService.getObject().getRetryingTransactionHelper()
+                        .doInTransaction(() -> encodeInTxn(nodeRef, propertyQName, replacedUrl, baseUrl), false, true));
+            if (created != null)
+            {
+                Mapping mapping = load();
+                mapping.dependents.merge(baseUrl, 1, Integer::sum);
+                mapping.deltas.put(replacedUrl, created);
+                // The full content is left to purgeSuperseded, readers may have it open
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug("Encoded " + replacedUrl + " as a delta against " + baseUrl);
+                }
+            }
+        }
+        catch (RuntimeException e)
+        {
+            logger.warn("Failed to delta encode " + replacedUrl + " against " + baseUrl, e);
+        }
+    }
+
+    private DeltaEntry encodeInTxn(NodeRef nodeRef, QName propertyQName, String replacedUrl, String baseUrl) throws IOException
+    {
+        Mapping mapping = load();
+        if (replacedUrl.equals(baseUrl) || mapping.deltas.containsKey(replacedUrl) || mapping.deltas.containsKey(baseUrl))
+        {
+            return null;
+        }
+        NodeService nodes = nodeService.getObject();
+        if (!nodes.exists(nodeRef) || !nodes.hasAspect(nodeRef, ContentModel.ASPECT_VERSIONABLE))
+        {
+            return null;
+        }
+        ContentData current = (ContentData) nodes.getProperty(nodeRef, propertyQName);
+        if (current == null || !baseUrl.equals(current.getContentUrl()))
+        {
+            // Replaced again since, the next encoding covers it
+            return null;
+        }
+
+        AttributeService attributes = attributeService.getObject();
+        Integer chain = (Integer) attributes.getAttribute(ATTR_CHAIN, nodeRef.toString());
+        if (chain != null && chain >= snapshotInterval)
+        {
+            attributes.setAttribute(0, ATTR_CHAIN, nodeRef.toString());
+            return null;
+        }
+
+        byte[] target = FileCopyUtils.copyToByteArray(delegate.getReader(replacedUrl).getContentInputStream());
+        byte[] base = FileCopyUtils.copyToByteArray(delegate.getReader(baseUrl).getContentInputStream());
+        byte[] delta = BinaryDelta.encode(base, target);
+        if (delta.length > target.length * maxRatio)
+        {
+            attributes.setAttribute(0, ATTR_CHAIN, nodeRef.toString());
+            return null;
+        }
+        ContentWriter writer = delegate.getWriter(new ContentContext(null, null));
+        writer.putContent(new ByteArrayInputStream(delta));
+
+        DeltaEntry entry = new DeltaEntry(writer.getContentUrl(), baseUrl);
+        attributes.setAttribute(entry.toString(), ATTR_DELTA, replacedUrl);
+        attributes.setAttribute(Boolean.TRUE, ATTR_BASE, baseUrl, replacedUrl);
+        attributes.setAttribute(System.currentTimeMillis(), ATTR_SUPERSEDED, replacedUrl);
+        attributes.setAttribute(chain == null ? 1 : chain + 1, ATTR_CHAIN, nodeRef.toString());
+        return entry;
+    }
+
+    /**
+     * Deletes the full content of the versions encoded longer than <code>supersededRetentionMillis</code> ago
+     */
+    public void purgeSuperseded()
+    {
+        final long encodedBefore = System.currentTimeMillis() - supersededRetentionMillis;
+        final List<String> superseded = new ArrayList<>();
+        transactionService.getObject().getRetryingTransactionHelper().doInTransaction(() ->
+        {
+            superseded.clear();
+            attributeService.getObject().getAttributes((Long id, Serializable value, Serializable[] keys) ->
+            {
+                if ((Long) value < encodedBefore)
+                {
+                    superseded.add((String) keys[1]);
+                }
+                return true;
+            }, ATTR_SUPERSEDED);
+            return null;
+        }, true, true);
+        for (String contentUrl : superseded)
+        {
+            try
+            {
+                delegate.delete(contentUrl);
+                inTxn(() -> attributeService.getObject().removeAttribute(ATTR_SUPERSEDED, contentUrl));
+            }
+            catch (RuntimeException e)
+            {
+                logger.warn("Failed to delete the full content of " + contentUrl + ", will try again", e);
+            }
+        }
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Deleted the full content of " + superseded.size() + " delta encoded versions");
+        }
+    }
+
+    @Override
+    public boolean delete(final String contentUrl)
+    {
+        Mapping mapping = load();
+        refresh(mapping, contentUrl);
+        // Deciding to retain a base and releasing it after its last dependent happen under the same key
+        boolean[] retain = {false, false};
+        mapping.dependents.computeIfPresent(contentUrl, (url, count) ->
+        {
+            retain[0] = true;
+            retain[1] = mapping.retained.add(url);
+            return count;
+        });
+        if (retain[0])
+        {
+            if (retain[1])
+            {
+                inTxn(() -> attributeService.getObject().setAttribute(Boolean.TRUE, ATTR_RETAINED, contentUrl));
+            }
+            return true;
+        }
+        if (mapping.retained.remove(contentUrl))
+        {
+            inTxn(() -> attributeService.getObject().removeAttribute(ATTR_RETAINED, contentUrl));
+        }
+        DeltaEntry entry = mapping.deltas.remove(contentUrl);
+        if (entry == null)
+        {
+            return delegate.delete(contentUrl);
+        }
+        inTxn(() ->
+        {
+            attributeService.getObject().removeAttribute(ATTR_DELTA, contentUrl);
+            attributeService.getObject().removeAttribute(ATTR_BASE, entry.baseUrl, contentUrl);
+        });
+        File file = rebuilt.remove(contentUrl);
+        if (file != null)
+        {
+            file.delete();
+        }
+        delegate.delete(entry.deltaUrl);
+
+        mapping.dependents.computeIfPresent(entry.baseUrl, (url, count) -> count > 1 ? count - 1 : null);
+        // The base may have been retained, or have other deltas, on another server
+        refresh(mapping, entry.baseUrl);
+        if (mapping.retained.contains(entry.baseUrl) && !mapping.dependents.containsKey(entry.baseUrl))
+        {
+            delete(entry.baseUrl);
+        }
+        return true;
+    }
+
+    /**
+     * @return the delta of the URL, looked up in its row if it is neither mapped nor in the underlying store
+     */
+    private DeltaEntry lookup(String contentUrl)
+    {
+        Mapping mapping = load();
+        DeltaEntry entry = mapping.deltas.get(contentUrl);
+        if (entry == null && !delegate.exists(contentUrl))
+        {
+            entry = learn(mapping, contentUrl);
+        }
+        return entry;
+    }
+
+    /**
+     * Maps the URL from its row, which another server may have written since the mapping was loaded
+     */
+    private DeltaEntry learn(Mapping mapping, String contentUrl)
+    {
+        String value = transactionService.getObject().getRetryingTransactionHelper().doInTransaction(
+                    () -> (String) attributeService.getObject().getAttribute(ATTR_DELTA, contentUrl), true, true);
+        return learn(mapping, contentUrl, value);
+    }
+
+    private static DeltaEntry learn(Mapping mapping, String contentUrl, String value)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+        DeltaEntry entry = DeltaEntry.parse(value);
+        if (mapping.deltas.putIfAbsent(contentUrl, entry) == null)
+        {
+            mapping.dependents.merge(entry.baseUrl, 1, Integer::sum);
+        }
+        return mapping.deltas.get(contentUrl);
+    }
+
+    /**
+     * Brings the mapping of a URL about to be deleted in line with its rows: its delta, whether it is retained and
+     * the deltas based on it. A URL is only deleted once it is an orphan, so no delta is being based on it meanwhile.
+     */
+    private void refresh(Mapping mapping, String contentUrl)
+    {
+        // delta rows by URL, this one's first, then of the URLs based on it
+        final Map<String, String> rows = new LinkedHashMap<>();
+        boolean retained = transactionService.getObject().getRetryingTransactionHelper().doInTransaction(() ->
+        {
+            rows.clear();
+            AttributeService attributes = attributeService.getObject();
+            rows.put(contentUrl, (String) attributes.getAttribute(ATTR_DELTA, contentUrl));
+            attributes.getAttributes((Long id, Serializable value, Serializable[] keys) ->
+            {
+                rows.put((String) keys[2], null);
+                return true;
+            }, ATTR_BASE, contentUrl);
+            for (Map.Entry<String, String> row : rows.entrySet())
+            {
+                if (row.getValue() == null && !mapping.deltas.containsKey(row.getKey()))
+                {
+                    row.setValue((String) attributes.getAttribute(ATTR_DELTA, row.getKey()));
+                }
+            }
+            return attributes.getAttribute(ATTR_RETAINED, contentUrl) != null;
+        }, true, true);
+        rows.forEach((url, value) -> learn(mapping, url, value));
+        if (retained)
+        {
+            mapping.retained.add(contentUrl);
+        }
+        final int dependents = rows.size() - 1;
+        mapping.dependents.compute(contentUrl, (url, count) -> dependents == 0 ? null : dependents);
+    }
+
+    private void inTxn(Runnable work)
+    {
+        transactionService.getObject().getRetryingTransactionHelper().doInTransaction(() ->
+        {
+            work.run();
+            return null;
+        }, false, true);
+    }
+
+    /**
+     * Loads the mapping on first use. Concurrent first callers may each read it, the first one to finish is kept.
+     */
+    private Mapping load()
+    {
+        Mapping loaded = mapping.get();
+        if (loaded != null)
+        {
+            return loaded;
+        }
+        final Mapping read = new Mapping();
+        transactionService.getObject().getRetryingTransactionHelper().doInTransaction(() ->
+        {
+            AttributeService attributes = attributeService.getObject();
+            attributes.getAttributes((Long id, Serializable value, Serializable[] keys) ->
+            {
+                DeltaEntry entry = DeltaEntry.parse((String) value);
+                read.deltas.put((String) keys[1], entry);
+                read.dependents.merge(entry.baseUrl, 1, Integer::sum);
+                return true;
+            }, ATTR_DELTA);
+            attributes.getAttributes((Long id, Serializable value, Serializable[] keys) ->
+            {
+                read.retained.add((String) keys[1]);
+                return true;
+            }, ATTR_RETAINED);
+            return null;
+        }, true, true);
+        return mapping.compareAndSet(null, read) ? read : mapping.get();
+    }
+
+    private static final class Mapping
+    {
+        /** original URL to delta */
+        private final Map<String, DeltaEntry> deltas = new ConcurrentHashMap<>();
+        /** base URL to the number of deltas based on it */
+        private final ConcurrentHashMap<String, Integer> dependents = new ConcurrentHashMap<>();
+        /** deleted URLs kept as a base */
+        private final Set<String> retained = ConcurrentHashMap.newKeySet();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "VersionDeltaContentStore[delegate=" + delegate + "]";
+    }
+
+    private static final class DeltaEntry
+    {
+        private final String deltaUrl;
+        private final String baseUrl;
+
+        private DeltaEntry(String deltaUrl, String baseUrl)
+        {
+            this.deltaUrl = deltaUrl;
+            this.baseUrl = baseUrl;
+        }
+
+        private static DeltaEntry parse(String value)
+        {
+            int split = value.indexOf('\n');
+            return new DeltaEntry(value.substring(0, split), value.substring(split + 1));
+        }
+
+        @Override
+        public String toString()
+        {
+            return deltaUrl + '\n' + baseUrl;
+        }
+    }
+}
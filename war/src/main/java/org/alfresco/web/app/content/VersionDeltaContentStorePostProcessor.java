@@ -0,0 +1,133 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.content;
+
+import java.util.Arrays;
+
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.web.app.AbstractWrappingPostProcessor;
+
+/**
+ * Wraps the repository's content store bean in a {@link VersionDeltaContentStore} when delta encoding of versions
+ * is enabled. The full content of encoded versions is purged through {@link #purgeSuperseded()}, which the
+ * {@link VersionDeltaPurgeJob} runs.
+ * 
+ * @since 6.2.2
+ */
+public class VersionDeltaContentStorePostProcessor extends AbstractWrappingPostProcessor
+{
+    private int snapshotInterval = 10;
+    private long minSize = 64 * 1024;
+    private long maxSize = 32 * 1024 * 1024;
+    private double maxRatio = 0.5;
+    private long supersededRetentionMillis = 60L * 60 * 1000;
+    private String[] mimetypes;
+    private volatile VersionDeltaContentStore store;
+
+    public VersionDeltaContentStorePostProcessor()
+    {
+        super("fileContentStore");
+    }
+
+    public void setStoreBeanName(String storeBeanName)
+    {
+        setTargetBeanName(storeBeanName);
+    }
+
+    public void setSnapshotInterval(int snapshotInterval)
+    {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    public void setMinSize(long minSize)
+    {
+        this.minSize = minSize;
+    }
+
+    public void setMaxSize(long maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    public void setMaxRatio(double maxRatio)
+    {
+        this.maxRatio = maxRatio;
+    }
+
+    public void setSupersededRetentionMillis(long supersededRetentionMillis)
+    {
+        this.supersededRetentionMillis = supersededRetentionMillis;
+    }
+
+    /**
+     * Comma separated in a property placeholder
+     */
+    public void setMimetypes(String[] mimetypes)
+    {
+        this.mimetypes = mimetypes;
+    }
+
+    @Override
+    protected boolean matches(Object bean, String beanName)
+    {
+        return super.matches(bean, beanName) && bean instanceof ContentStore;
+    }
+
+    @Override
+    protected Object wrap(Object bean, String beanName)
+    {
+        VersionDeltaContentStore store = new VersionDeltaContentStore((ContentStore) bean,
+                lazyBean("attributeService", AttributeService.class), lazyBean("nodeService", NodeService.class),
+                lazyBean("transactionService", TransactionService.class));
+        store.setSnapshotInterval(snapshotInterval);
+        store.setMinSize(minSize);
+        store.setMaxSize(maxSize);
+        store.setMaxRatio(maxRatio);
+        store.setSupersededRetentionMillis(supersededRetentionMillis);
+        if (mimetypes != null)
+        {
+            store.setMimetypes(Arrays.asList(mimetypes));
+        }
+        this.store = store;
+        return store;
+    }
+
+    /**
+     * Deletes the full content of the encoded versions, see {@link VersionDeltaContentStore#purgeSuperseded()}.
+     * Does nothing when the store is not wrapped.
+     */
+    public void purgeSuperseded()
+    {
+        VersionDeltaContentStore store = this.store;
+        if (store != null)
+        {
+            store.purgeSuperseded();
+        }
+    }
+}
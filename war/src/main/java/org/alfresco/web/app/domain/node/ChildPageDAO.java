@@ -0,0 +1,51 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.domain.node;
+
+import java.util.List;
+
+/**
+ * Keyset (seek) queries over the <code>cm:contains</code> children of a folder.
+ * <p>
+ * Each query reads at most <code>limit</code> rows that follow the given key, so the cost of a page does not depend on
+ * how deep into the folder it is. The key always ends with the child association id, which makes it unique.
+ * 
+ * @since 6.2.2
+ */
+public interface ChildPageDAO
+{
+    /**
+     * Children ordered by their lower-cased <code>cm:name</code> (as stored on the child association) and
+     * association id
+     */
+    List<ChildPageEntity> selectChildrenByName(ChildPageQueryEntity query);
+
+    /**
+     * Children ordered by their <code>cm:created</code> date and association id. Children without a created date come
+     * first in ascending order, with <code>"0"</code> as their {@link ChildPageEntity#getAuditCreated() sort value}.
+     */
+    List<ChildPageEntity> selectChildrenByCreated(ChildPageQueryEntity query);
+}
@@ -0,0 +1,138 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.domain.node;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+
+/**
+ * A child of a folder as selected by a keyset page query: the child association, the sort keys and enough of the
+ * child node to build its <code>NodeRef</code> without another lookup.
+ * 
+ * @since 6.2.2
+ */
+public class ChildPageEntity
+{
+    private Long childAssocId;
+    private String childNodeName;
+    private Long nodeId;
+    private String storeProtocol;
+    private String storeIdentifier;
+    private String uuid;
+    private Long typeQNameId;
+    private String auditCreated;
+
+    public Long getChildAssocId()
+    {
+        return childAssocId;
+    }
+
+    public void setChildAssocId(Long childAssocId)
+    {
+        this.childAssocId = childAssocId;
+    }
+
+    public String getChildNodeName()
+    {
+        return childNodeName;
+    }
+
+    public void setChildNodeName(String childNodeName)
+    {
+        this.childNodeName = childNodeName;
+    }
+
+    public Long getNodeId()
+    {
+        return nodeId;
+    }
+
+    public void setNodeId(Long nodeId)
+    {
+        this.nodeId = nodeId;
+    }
+
+    public String getStoreProtocol()
+    {
+        return storeProtocol;
+    }
+
+    public void setStoreProtocol(String storeProtocol)
+    {
+        this.storeProtocol = storeProtocol;
+    }
+
+    public String getStoreIdentifier()
+    {
+        return storeIdentifier;
+    }
+
+    public void setStoreIdentifier(String storeIdentifier)
+    {
+        this.storeIdentifier = storeIdentifier;
+    }
+
+    public String getUuid()
+    {
+        return uuid;
+    }
+
+    public void setUuid(String uuid)
+    {
+        this.uuid = uuid;
+    }
+
+    public Long getTypeQNameId()
+    {
+        return typeQNameId;
+    }
+
+    public void setTypeQNameId(Long typeQNameId)
+    {
+        this.typeQNameId = typeQNameId;
+    }
+
+    public String getAuditCreated()
+    {
+        return auditCreated;
+    }
+
+    public void setAuditCreated(String auditCreated)
+    {
+        this.auditCreated = auditCreated;
+    }
+
+    public NodeRef getNodeRef()
+    {
+        return new NodeRef(new StoreRef(storeProtocol, storeIdentifier), uuid);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ChildPageEntity[childAssocId=" + childAssocId + ", nodeId=" + nodeId + ", name=" + childNodeName + "]";
+    }
+}
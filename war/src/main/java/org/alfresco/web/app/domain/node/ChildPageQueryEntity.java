@@ -0,0 +1,102 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.domain.node;
+
+/**
+ * Parameters of a keyset page query. The page starts strictly after the (<code>afterValue</code>,
+ * <code>afterId</code>) key in the requested direction, or at the first child when <code>afterId</code> is null.
+ * 
+ * @since 6.2.2
+ */
+public class ChildPageQueryEntity
+{
+    private Long parentNodeId;
+    private Long assocTypeQNameId;
+    private boolean ascending = true;
+    private String afterValue;
+    private Long afterId;
+    private int limit;
+
+    public Long getParentNodeId()
+    {
+        return parentNodeId;
+    }
+
+    public void setParentNodeId(Long parentNodeId)
+    {
+        this.parentNodeId = parentNodeId;
+    }
+
+    public Long getAssocTypeQNameId()
+    {
+        return assocTypeQNameId;
+    }
+
+    public void setAssocTypeQNameId(Long assocTypeQNameId)
+    {
+        this.assocTypeQNameId = assocTypeQNameId;
+    }
+
+    public boolean isAscending()
+    {
+        return ascending;
+    }
+
+    public void setAscending(boolean ascending)
+    {
+        this.ascending = ascending;
+    }
+
+    public String getAfterValue()
+    {
+        return afterValue;
+    }
+
+    public void setAfterValue(String afterValue)
+    {
+        this.afterValue = afterValue;
+    }
+
+    public Long getAfterId()
+    {
+        return afterId;
+    }
+
+    public void setAfterId(Long afterId)
+    {
+        this.afterId = afterId;
+    }
+
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    public void setLimit(int limit)
+    {
+        this.limit = limit;
+    }
+}
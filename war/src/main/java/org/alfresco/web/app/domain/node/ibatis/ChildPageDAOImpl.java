@@ -0,0 +1,64 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.domain.node.ibatis;
+
+import java.util.List;
+
+import org.alfresco.web.app.domain.node.ChildPageDAO;
+import org.alfresco.web.app.domain.node.ChildPageEntity;
+import org.alfresco.web.app.domain.node.ChildPageQueryEntity;
+import org.mybatis.spring.SqlSessionTemplate;
+
+/**
+ * iBatis-specific implementation of the keyset child page queries. The page size is part of the SQL, with the row
+ * limit clause of the database dialect, so the database plans and reads a page rather than the rest of the folder.
+ * 
+ * @since 6.2.2
+ */
+public class ChildPageDAOImpl implements ChildPageDAO
+{
+    private static final String SELECT_CHILDREN_BY_NAME = "alfresco.web.node.page.select_ChildrenByName";
+    private static final String SELECT_CHILDREN_BY_CREATED = "alfresco.web.node.page.select_ChildrenByCreated";
+
+    private SqlSessionTemplate template;
+
+    public final void setSqlSessionTemplate(SqlSessionTemplate sqlSessionTemplate)
+    {
+        this.template = sqlSessionTemplate;
+    }
+
+    @Override
+    public List<ChildPageEntity> selectChildrenByName(ChildPageQueryEntity query)
+    {
+        return template.selectList(SELECT_CHILDREN_BY_NAME, query);
+    }
+
+    @Override
+    public List<ChildPageEntity> selectChildrenByCreated(ChildPageQueryEntity query)
+    {
+        return template.selectList(SELECT_CHILDREN_BY_CREATED, query);
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.download;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.cmr.download.DownloadService;
+import org.alfresco.service.cmr.download.DownloadStatus;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.util.TraceableThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Pushes the status of downloads to clients subscribed with server-sent events.
+ * <p>
+ * Subscribers are asynchronous requests, so they hold no thread while they wait. A single thread reads the status
+ * of every download with subscribers each <code>pollInterval</code> milliseconds, in one transaction, and writes an
+ * event to the subscribers whose download changed. A <code>status</code> event carries the same fields as the
+ * download of the public API. The stream ends after the download reaches a final status, or is deleted, and a
+ * comment is sent every <code>heartbeatInterval</code> milliseconds to keep idle connections open through proxies.
+ * <p>
+ * Servlet 3.0 writes block, so events are written by a pool of <code>writerThreads</code>, one write per subscriber
+ * at a time. A subscriber whose last write has not finished is skipped, and dropped once the write has taken longer
+ * than <code>writeTimeout</code> milliseconds, which completes its request and so closes the connection. A slow client
+ * therefore holds up at most one writer thread, for a bounded time, and never the polling thread.
+ * 
+ * @since 6.2.2
+ */
+public class DownloadProgressPublisher implements InitializingBean, DisposableBean
+{
+    private static final Log logger = LogFactory.getLog(DownloadProgressPublisher.class);
+
+    private boolean enabled;
+    private long pollInterval = 250L;
+    private long heartbeatInterval = 15000L;
+    private long timeout = 600000L;
+    private int maxSubscribers = 10000;
+    private long writeTimeout = 10000L;
+    private int writerThreads = 4;
+    private DownloadService downloadService;
+    private NodeService nodeService;
+    private RetryingTransactionHelper transactionHelper;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService scheduler;
+    private ExecutorService writers;
+    private long lastHeartbeat;
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setPollInterval(long pollInterval)
+    {
+        this.pollInterval = pollInterval;
+    }
+
+    public void setHeartbeatInterval(long heartbeatInterval)
+    {
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    public void setTimeout(long timeout)
+    {
+        this.timeout = timeout;
+    }
+
+    public void setMaxSubscribers(int maxSubscribers)
+    {
+        this.maxSubscribers = maxSubscribers;
+    }
+
+    public void setWriteTimeout(long writeTimeout)
+    {
+        this.writeTimeout = writeTimeout;
+    }
+
+    public void setWriterThreads(int writerThreads)
+    {
+        this.writerThreads = writerThreads;
+    }
+
+    public void setDownloadService(DownloadService downloadService)
+    {
+        this.downloadService = downloadService;
+    }
+
+    public void setNodeService(NodeService nodeService)
+    {
+        this.nodeService = nodeService;
+    }
+
+    public void setTransactionHelper(RetryingTransactionHelper transactionHelper)
+    {
+        this.transactionHelper = transactionHelper;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        if (!enabled)
+        {
+            return;
+        }
+        TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+        threadFactory.setThreadDaemon(true);
+        threadFactory.setNamePrefix("DownloadProgressPublisher");
+        scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        TraceableThreadFactory writerThreadFactory = new TraceableThreadFactory();
+        writerThreadFactory.setThreadDaemon(true);
+        writerThreadFactory.setNamePrefix("DownloadProgressWriter");
+        writers = Executors.newFixedThreadPool(writerThreads, writerThreadFactory);
+        scheduler.scheduleWithFixedDelay(this::publish, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy()
+    {
+        if (scheduler != null)
+        {
+            scheduler.shutdownNow();
+        }
+        if (writers != null)
+        {
+            writers.shutdownNow();
+        }
+        for (Subscriber subscriber : subscribers)
+        {
+            subscriber.complete();
+        }
+    }
+
+    /**
+     * Adds the request to the subscribers of the download. The request must have been started in asynchronous mode
+     * with the response headers of an event stream set, and nothing written yet.
+     * 
+     * @return <tt>false</tt> if there are too many subscribers already
+     */
+    public boolean subscribe(NodeRef downloadNode, AsyncContext asyncContext) throws IOException
+    {
+        if (subscribers.size() >= maxSubscribers)
+        {
+            return false;
+        }
+        Subscriber subscriber = new Subscriber(downloadNode, asyncContext);
+        asyncContext.setTimeout(timeout);
+        // reconnect quickly if the stream is dropped before the download has finished
+        asyncContext.getResponse().getWriter().write("retry: 2000\n\n");
+        asyncContext.getResponse().flushBuffer();
+        asyncContext.addListener(subscriber);
+        subscribers.add(subscriber);
+        return true;
+    }
+
+    public int getSubscriberCount()
+    {
+        return subscribers.size();
+    }
+
+    void publish()
+    {
+        if (subscribers.isEmpty())
+        {
+            return;
+        }
+        try
+        {
+            Map<NodeRef, DownloadStatus> statuses = AuthenticationUtil.runAsSystem(() -> transactionHelper
+                    .doInTransaction(this::readStatuses, true, false));
+
+            long now = System.currentTimeMillis();
+            boolean heartbeat = now - lastHeartbeat >= heartbeatInterval;
+            if (heartbeat)
+            {
+                lastHeartbeat = now;
+            }
+            for (Iterator<Subscriber> it = subscribers.iterator(); it.hasNext();)
+            {
+                Subscriber subscriber = it.next();
+                if (subscriber.done)
+                {
+                    it.remove();
+                }
+                else if (subscriber.beginWrite(now))
+                {
+                    write(subscriber, statuses.get(subscriber.downloadNode), heartbeat);
+                }
+                else if (subscriber.isWritingSince(now - writeTimeout))
+                {
+                    if (logger.isDebugEnabled())
+                    {
+                        logger.debug("Dropping subscriber of download " + subscriber.downloadNode
+                                + ", a write has taken more than " + writeTimeout + "ms");
+                    }
+                    subscriber.complete();
+                    it.remove();
+                }
+            }
+        }
+        catch (RuntimeException e)
+        {
+            logger.warn("Unable to publish download progress", e);
+        }
+    }
+
+    private void write(Subscriber subscriber, DownloadStatus status, boolean heartbeat)
+    {
+        try
+        {
+            writers.execute(() -> {
+                try
+                {
+                    subscriber.publish(status, heartbeat);
+                }
+                finally
+                {
+                    subscriber.endWrite();
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            // shutting down
+            subscriber.endWrite();
+        }
+    }
+
+    private Map<NodeRef, DownloadStatus> readStatuses()
+    {
+        Map<NodeRef, DownloadStatus> statuses = new HashMap<>();
+        for (Subscriber subscriber : subscribers)
+        {
+            NodeRef downloadNode = subscriber.downloadNode;
+            if (!statuses.containsKey(downloadNode))
+            {
+                statuses.put(downloadNode,
+                        nodeService.exists(downloadNode) ? downloadService.getDownloadStatus(downloadNode) : null);
+            }
+        }
+        return statuses;
+    }
+
+    static boolean isFinal(DownloadStatus.Status status)
+    {
+        return status == DownloadStatus.Status.DONE || status == DownloadStatus.Status.CANCELLED
+                || status == DownloadStatus.Status.MAX_CONTENT_SIZE_EXCEEDED;
+    }
+
+    static String toJson(NodeRef downloadNode, DownloadStatus status)
+    {
+        return "{\"id\":\"" + downloadNode.getId() + "\",\"status\":\"" + status.getStatus()
+                + "\",\"bytesAdded\":" + status.getDone() + ",\"totalBytes\":" + status.getTotal()
+                + ",\"filesAdded\":" + status.getFilesAdded() + ",\"totalFiles\":" + status.getTotalFiles() + "}";
+    }
+
+    private final class Subscriber implements AsyncListener
+    {
+        private final NodeRef downloadNode;
+        private final AsyncContext asyncContext;
+        private final AtomicLong writeStarted = new AtomicLong();
+        private String lastEvent;
+        private volatile boolean done;
+
+        private Subscriber(NodeRef downloadNode, AsyncContext asyncContext)
+        {
+            this.downloadNode = downloadNode;
+            this.asyncContext = asyncContext;
+        }
+
+        /**
+         * @return <tt>false</tt> if the last write has not finished
+         */
+        boolean beginWrite(long now)
+        {
+            return writeStarted.compareAndSet(0L, now);
+        }
+
+        void endWrite()
+        {
+            writeStarted.set(0L);
+        }
+
+        boolean isWritingSince(long time)
+        {
+            long started = writeStarted.get();
+            return started != 0L && started < time;
+        }
+
+        /**
+         * @return <tt>false</tt> once the stream has ended
+         */
+        boolean publish(DownloadStatus status, boolean heartbeat)
+        {
+            if (done)
+            {
+                return false;
+            }
+            try
+            {
+                PrintWriter writer = asyncContext.getResponse().getWriter();
+                if (status == null)
+                {
+                    writer.write("event: deleted\ndata: {\"id\":\"" + downloadNode.getId() + "\"}\n\n");
+                    complete();
+                    return false;
+                }
+                String event = toJson(downloadNode, status);
+                if (!event.equals(lastEvent))
+                {
+                    lastEvent = event;
+                    writer.write("event: status\ndata: " + event + "\n\n");
+                }
+                else if (heartbeat)
+                {
+                    writer.write(": keep-alive\n\n");
+                }
+                writer.flush();
+                if (writer.checkError())
+                {
+                    throw new IOException("Subscriber of download " + downloadNode + " disconnected");
+                }
+                if (isFinal(status.getStatus()))
+                {
+                    complete();
+                    return false;
+                }
+                return true;
+            }
+            catch (IOException | IllegalStateException e)
+            {
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug("Dropping subscriber of download " + downloadNode + ": " + e.getMessage());
+                }
+                complete();
+                return false;
+            }
+        }
+
+        void complete()
+        {
+            if (!done)
+            {
+                done = true;
+                try
+                {
+                    asyncContext.complete();
+                }
+                catch (IllegalStateException e)
+                {
+                    // already completed by the container
+                }
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event)
+        {
+            done = true;
+            subscribers.remove(this);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event)
+        {
+            complete();
+            subscribers.remove(this);
+        }
+
+        @Override
+        public void onError(AsyncEvent event)
+        {
+            complete();
+            subscribers.remove(this);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event)
+        {
+        }
+    }
+}
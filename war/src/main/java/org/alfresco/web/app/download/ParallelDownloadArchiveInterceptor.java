@@ -0,0 +1,60 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.download;
+
+import org.alfresco.service.cmr.action.Action;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Builds the archive of the download action with the {@link ParallelDownloadArchiver} in place of the exporter of
+ * the action itself.
+ * 
+ * @since 6.2.2
+ */
+public class ParallelDownloadArchiveInterceptor implements MethodInterceptor
+{
+    private final ParallelDownloadArchiver archiver;
+
+    public ParallelDownloadArchiveInterceptor(ParallelDownloadArchiver archiver)
+    {
+        this.archiver = archiver;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable
+    {
+        Object[] args = invocation.getArguments();
+        if (!"execute".equals(invocation.getMethod().getName()) || args.length != 2
+                || !(args[0] instanceof Action) || !(args[1] instanceof NodeRef))
+        {
+            return invocation.proceed();
+        }
+        archiver.archive((NodeRef) args[1]);
+        return null;
+    }
+}
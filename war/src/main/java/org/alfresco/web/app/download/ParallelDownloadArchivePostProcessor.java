@@ -0,0 +1,98 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.download;
+
+import org.alfresco.web.app.AbstractWrappingPostProcessor;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Proxies the action that creates download archives so that the archives are built by the
+ * {@link ParallelDownloadArchiver} when that is enabled. The action service looks its executers up by bean name, so
+ * the proxy replaces the action wherever it runs.
+ * 
+ * @since 6.2.2
+ */
+public class ParallelDownloadArchivePostProcessor extends AbstractWrappingPostProcessor implements DisposableBean
+{
+    private int threads = 4;
+    private int readAhead = 32;
+    private long maxBufferedSize = 1048576L;
+    private long maxContentSize = -1L;
+    private long cancellationCheckInterval = 500L;
+    private ParallelDownloadArchiver archiver;
+
+    public ParallelDownloadArchivePostProcessor()
+    {
+        super("createDownloadArchiveAction");
+    }
+
+    public void setActionBeanName(String actionBeanName)
+    {
+        setTargetBeanName(actionBeanName);
+    }
+
+    public void setThreads(int threads)
+    {
+        this.threads = threads;
+    }
+
+    public void setReadAhead(int readAhead)
+    {
+        this.readAhead = readAhead;
+    }
+
+    public void setMaxBufferedSize(long maxBufferedSize)
+    {
+        this.maxBufferedSize = maxBufferedSize;
+    }
+
+    public void setMaxContentSize(long maxContentSize)
+    {
+        this.maxContentSize = maxContentSize;
+    }
+
+    public void setCancellationCheckInterval(long cancellationCheckInterval)
+    {
+        this.cancellationCheckInterval = cancellationCheckInterval;
+    }
+
+    @Override
+    protected Object wrap(Object bean, String beanName)
+    {
+        archiver = new ParallelDownloadArchiver(getBeanFactory(), threads, readAhead, maxBufferedSize, maxContentSize,
+                cancellationCheckInterval);
+        return proxy(bean, new ParallelDownloadArchiveInterceptor(archiver));
+    }
+
+    @Override
+    public void destroy()
+    {
+        if (archiver != null)
+        {
+            archiver.shutdown();
+        }
+    }
+}
@@ -0,0 +1,528 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.download;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.download.DownloadStorage;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.cmr.download.DownloadRequest;
+import org.alfresco.service.cmr.download.DownloadStatus;
+import org.alfresco.service.cmr.model.FileFolderService;
+import org.alfresco.service.cmr.model.FileInfo;
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentService;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.service.cmr.repository.MimetypeService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.util.TempFileProvider;
+import org.alfresco.util.TraceableThreadFactory;
+import org.alfresco.web.app.metrics.Counter;
+import org.alfresco.web.app.metrics.Histogram;
+import org.alfresco.web.app.metrics.MetricFamily;
+import org.alfresco.web.app.metrics.MetricsRegistry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.BeanFactory;
+
+/**
+ * Builds the ZIP file of a download with the content read ahead in parallel.
+ * <p>
+ * The requested nodes are walked first, which gives the totals for the status and the order of the entries. A pool
+ * of <code>threads</code> then reads the content of up to <code>readAhead</code> files ahead of the writer, which
+ * adds them to the archive in order. Files larger than <code>maxBufferedSize</code> are not read ahead but streamed by
+ * the writer when their turn comes, so the memory held is bounded. Content that is compressed already, such as JPEG
+ * images, video or Office Open XML documents, is stored without compression, with its CRC computed by the pool.
+ * <p>
+ * The archive is built as the owner of the download, as the download action does. If it cannot be built the download
+ * is marked as cancelled.
+ * <p>
+ * Cancellation is checked between files, at most every <code>cancellationCheckInterval</code> milliseconds, and the
+ * status is updated at the same points.
+ * 
+ * @since 6.2.2
+ */
+public class ParallelDownloadArchiver
+{
+    private static final Log logger = LogFactory.getLog(ParallelDownloadArchiver.class);
+
+    private static final Set<String> COMPRESSED_MIMETYPES = Set.of("image/jpeg", "image/png", "image/gif",
+            "image/webp", "application/zip", "application/x-zip-compressed", "application/gzip", "application/x-gzip",
+            "application/x-7z-compressed", "application/x-rar-compressed", "application/java-archive");
+    private static final String[] COMPRESSED_MIMETYPE_PREFIXES = {"video/", "audio/",
+            "application/vnd.openxmlformats-officedocument.", "application/vnd.oasis.opendocument."};
+
+    private static final double[] ARCHIVE_BUCKETS = {0.1, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300, 600};
+
+    private final BeanFactory beanFactory;
+    private final ExecutorService readers;
+    private final int readAhead;
+    private final long maxBufferedSize;
+    private final long maxContentSize;
+    private final long cancellationCheckInterval;
+
+    private volatile MetricFamily<Histogram> archiveSeconds;
+    private volatile MetricFamily<Counter> archivedBytes;
+
+    /**
+     * The services are looked up on first use, the archiver is created before them.
+     */
+    public ParallelDownloadArchiver(BeanFactory beanFactory, int threads, int readAhead, long maxBufferedSize,
+            long maxContentSize, long cancellationCheckInterval)
+    {
+        this.beanFactory = beanFactory;
+        this.readAhead = Math.max(readAhead, threads);
+        this.maxBufferedSize = maxBufferedSize;
+        this.maxContentSize = maxContentSize;
+        this.cancellationCheckInterval = cancellationCheckInterval;
+        TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+        threadFactory.setThreadDaemon(true);
+        threadFactory.setNamePrefix("DownloadArchiveReader");
+        this.readers = Executors.newFixedThreadPool(threads, threadFactory);
+    }
+
+    /**
+     * Builds the archive of the download node and writes it as its content, as the owner of the download.
+     */
+    public void archive(NodeRef downloadNode)
+    {
+        DownloadStorage downloadStorage = beanFactory.getBean("downloadStorage", DownloadStorage.class);
+        RetryingTransactionHelper txnHelper = beanFactory.getBean("retryingTransactionHelper",
+                RetryingTransactionHelper.class);
+        DownloadRequest request = txnHelper.doInTransaction(() -> downloadStorage.getDownloadRequest(downloadNode),
+                true, true);
+        AuthenticationUtil.runAs(() -> {
+            archive(downloadStorage, txnHelper, downloadNode, request);
+            return null;
+        }, request.getOwner());
+    }
+
+    private void archive(DownloadStorage downloadStorage, RetryingTransactionHelper txnHelper, NodeRef downloadNode,
+            DownloadRequest request)
+    {
+        long start = System.nanoTime();
+        List<Entry> entries = txnHelper.doInTransaction(() -> walk(request), true, true);
+        long totalBytes = 0;
+        long totalFiles = 0;
+        for (Entry entry : entries)
+        {
+            if (entry.reader != null)
+            {
+                totalBytes += entry.reader.getSize();
+                totalFiles++;
+            }
+        }
+
+        Progress progress = new Progress(downloadStorage, txnHelper, downloadNode, totalBytes, totalFiles);
+        if (maxContentSize >= 0 && totalBytes > maxContentSize)
+        {
+            progress.update(DownloadStatus.Status.MAX_CONTENT_SIZE_EXCEEDED, 0, 0);
+            return;
+        }
+        progress.update(DownloadStatus.Status.IN_PROGRESS, 0, 0);
+
+        File zipFile = TempFileProvider.createTempFile("download-", ".zip");
+        try
+        {
+            if (!write(entries, zipFile, progress))
+            {
+                progress.update(DownloadStatus.Status.CANCELLED, progress.bytes, progress.files);
+                return;
+            }
+            txnHelper.doInTransaction(() -> {
+                ContentWriter writer = beanFactory.getBean("contentService", ContentService.class)
+                        .getWriter(downloadNode, ContentModel.PROP_CONTENT, true);
+                writer.setMimetype(MimetypeService.MIMETYPE_BINARY);
+                writer.setEncoding("UTF-8");
+                writer.putContent(zipFile);
+                return null;
+            }, false, true);
+            progress.update(DownloadStatus.Status.DONE, progress.bytes, progress.files);
+        }
+        catch (IOException e)
+        {
+            failed(progress, downloadNode, e);
+            throw new ContentIOException("Unable to archive download " + downloadNode, e);
+        }
+        catch (RuntimeException e)
+        {
+            failed(progress, downloadNode, e);
+            throw e;
+        }
+        finally
+        {
+            zipFile.delete();
+            record(System.nanoTime() - start, progress.bytes);
+        }
+
+        if (logger.isDebugEnabled())
+        {
+            double seconds = (System.nanoTime() - start) / 1e9;
+            logger.debug("Archived " + progress.files + " files, " + progress.bytes + " bytes of download "
+                    + downloadNode + " in " + seconds + "s, " + (long) (progress.files / seconds) + " files/s");
+        }
+    }
+
+    /**
+     * Ends a download that could not be archived. {@link DownloadStatus.Status} has no failed state, cancelled is the
+     * terminal state that is not done, so clients stop polling.
+     */
+    private static void failed(Progress progress, NodeRef downloadNode, Exception cause)
+    {
+        logger.error("Unable to archive download " + downloadNode + ": " + cause.getMessage());
+        try
+        {
+            progress.update(DownloadStatus.Status.CANCELLED, progress.bytes, progress.files);
+        }
+        catch (RuntimeException e)
+        {
+            logger.error("Unable to update the status of download " + downloadNode + ": " + e.getMessage());
+        }
+    }
+
+    private List<Entry> walk(DownloadRequest request)
+    {
+        FileFolderService fileFolderService = beanFactory.getBean("FileFolderService", FileFolderService.class);
+        ContentService contentService = beanFactory.getBean("ContentService", ContentService.class);
+        List<Entry> entries = new ArrayList<>();
+        Deque<Object[]> pending = new ArrayDeque<>();
+        NodeRef[] requested = request.getRequetedNodeRefs();
+        for (int i = requested.length - 1; i >= 0; i--)
+        {
+            pending.push(new Object[] {"", fileFolderService.getFileInfo(requested[i])});
+        }
+        while (!pending.isEmpty())
+        {
+            Object[] next = pending.pop();
+            String parentPath = (String) next[0];
+            FileInfo info = (FileInfo) next[1];
+            if (info == null || info.isLink())
+            {
+                continue;
+            }
+            String path = parentPath + info.getName();
+            if (info.isFolder())
+            {
+                entries.add(new Entry(path + "/", null));
+                List<FileInfo> children = fileFolderService.list(info.getNodeRef());
+                children.sort((a, b) -> a.getName().compareToIgnoreCase(b.getName()));
+                for (int i = children.size() - 1; i >= 0; i--)
+                {
+                    pending.push(new Object[] {path + "/", children.get(i)});
+                }
+            }
+            else
+            {
+                ContentReader reader = contentService.getReader(info.getNodeRef(), ContentModel.PROP_CONTENT);
+                if (reader != null && reader.exists())
+                {
+                    entries.add(new Entry(path, reader));
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return <tt>false</tt> if the download was cancelled
+     */
+    private boolean write(List<Entry> entries, File zipFile, Progress progress) throws IOException
+    {
+        List<Future<ReadAhead>> buffered = new ArrayList<>(entries.size());
+        int submitted = 0;
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(zipFile)))
+        {
+            for (int i = 0; i < entries.size(); i++)
+            {
+                // keep the pool busy up to readAhead files ahead of the writer
+                for (; submitted < entries.size() && submitted < i + readAhead; submitted++)
+                {
+                    buffered.add(readAhead(entries.get(submitted)));
+                }
+                if (progress.isCancelled())
+                {
+                    return false;
+                }
+
+                Entry entry = entries.get(i);
+                ZipEntry zipEntry = new ZipEntry(entry.path);
+                if (entry.reader == null)
+                {
+                    zip.putNextEntry(zipEntry);
+                    zip.closeEntry();
+                    continue;
+                }
+                ReadAhead read = get(buffered.get(i));
+                buffered.set(i, null);
+                if (read != null && read.stored)
+                {
+                    // stored as it is: no deflate pass, and no data descriptor as the sizes and CRC are known
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setSize(read.size);
+                    zipEntry.setCompressedSize(read.size);
+                    zipEntry.setCrc(read.crc);
+                }
+                zip.putNextEntry(zipEntry);
+                if (read != null && read.bytes != null)
+                {
+                    zip.write(read.bytes);
+                }
+                else
+                {
+                    try (InputStream in = entry.reader.getReader().getContentInputStream())
+                    {
+                        in.transferTo(zip);
+                    }
+                }
+                zip.closeEntry();
+                progress.added(entry.reader.getSize());
+            }
+        }
+        finally
+        {
+            for (Future<ReadAhead> future : buffered)
+            {
+                if (future != null)
+                {
+                    future.cancel(true);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads content that is compressed already ahead of the writer, to be stored: small files are buffered with
+     * their CRC, larger ones only have their CRC computed and are streamed again by the writer. Other small files are
+     * buffered to be deflated, other large files are left to the writer.
+     */
+    private Future<ReadAhead> readAhead(Entry entry)
+    {
+        if (entry.reader == null)
+        {
+            return null;
+        }
+        boolean store = isCompressed(entry.reader.getMimetype());
+        boolean buffer = entry.reader.getSize() <= maxBufferedSize;
+        if (!store && !buffer)
+        {
+            return null;
+        }
+        return readers.submit(() -> {
+            ContentReader reader = entry.reader.getReader();
+            try (CheckedInputStream in = new CheckedInputStream(reader.getContentInputStream(), new CRC32()))
+            {
+                if (buffer)
+                {
+                    byte[] bytes = in.readAllBytes();
+                    return store ? new ReadAhead(bytes, bytes.length, in.getChecksum().getValue())
+                            : new ReadAhead(bytes);
+                }
+                long size = in.transferTo(OutputStream.nullOutputStream());
+                return new ReadAhead(null, size, in.getChecksum().getValue());
+            }
+        });
+    }
+
+    private static ReadAhead get(Future<ReadAhead> future) throws IOException
+    {
+        if (future == null)
+        {
+            return null;
+        }
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading download content", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException("Unable to read download content", e.getCause());
+        }
+    }
+
+    static boolean isCompressed(String mimetype)
+    {
+        if (mimetype == null)
+        {
+            return false;
+        }
+        if (COMPRESSED_MIMETYPES.contains(mimetype))
+        {
+            return true;
+        }
+        for (String prefix : COMPRESSED_MIMETYPE_PREFIXES)
+        {
+            if (mimetype.startsWith(prefix))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void record(long nanos, long bytes)
+    {
+        if (archiveSeconds == null)
+        {
+            MetricsRegistry metricsRegistry = beanFactory.getBean("metricsRegistry", MetricsRegistry.class);
+            archivedBytes = metricsRegistry.counter("alfresco_download_archive_bytes",
+                    "Content bytes added to download archives");
+            archiveSeconds = metricsRegistry.histogram("alfresco_download_archive_seconds",
+                    "Time taken to build download archives", ARCHIVE_BUCKETS);
+        }
+        archiveSeconds.labels().observeNanos(nanos);
+        archivedBytes.labels().inc(bytes);
+    }
+
+    public void shutdown()
+    {
+        readers.shutdownNow();
+    }
+
+    private static final class Entry
+    {
+        private final String path;
+        private final ContentReader reader;
+
+        private Entry(String path, ContentReader reader)
+        {
+            this.path = path;
+            this.reader = reader;
+        }
+    }
+
+    /**
+     * Content read ahead of the writer. The size and CRC are set for content to be stored.
+     */
+    private static final class ReadAhead
+    {
+        private final byte[] bytes;
+        private final long size;
+        private final long crc;
+        private final boolean stored;
+
+        private ReadAhead(byte[] bytes)
+        {
+            this.bytes = bytes;
+            this.size = bytes.length;
+            this.crc = 0;
+            this.stored = false;
+        }
+
+        private ReadAhead(byte[] bytes, long size, long crc)
+        {
+            this.bytes = bytes;
+            this.size = size;
+            this.crc = crc;
+            this.stored = true;
+        }
+    }
+
+    /**
+     * Status of the download, written in its own transaction so that it is visible while the archive is built.
+     */
+    private final class Progress
+    {
+        private final DownloadStorage downloadStorage;
+        private final RetryingTransactionHelper txnHelper;
+        private final NodeRef downloadNode;
+        private final long totalBytes;
+        private final long totalFiles;
+        private long bytes;
+        private long files;
+        private long lastCheck;
+
+        private Progress(DownloadStorage downloadStorage, RetryingTransactionHelper txnHelper, NodeRef downloadNode,
+                long totalBytes, long totalFiles)
+        {
+            this.downloadStorage = downloadStorage;
+            this.txnHelper = txnHelper;
+            this.downloadNode = downloadNode;
+            this.totalBytes = totalBytes;
+            this.totalFiles = totalFiles;
+            this.lastCheck = System.currentTimeMillis();
+        }
+
+        void added(long size)
+        {
+            bytes += size;
+            files++;
+        }
+
+        /**
+         * Checks for cancellation, and updates the status, if the interval has passed since the last check.
+         */
+        boolean isCancelled()
+        {
+            long now = System.currentTimeMillis();
+            if (now - lastCheck < cancellationCheckInterval)
+            {
+                return false;
+            }
+            lastCheck = now;
+            if (txnHelper.doInTransaction(() -> downloadStorage.isCancelled(downloadNode), true, true))
+            {
+                return true;
+            }
+            update(DownloadStatus.Status.IN_PROGRESS, bytes, files);
+            return false;
+        }
+
+        void update(DownloadStatus.Status status, long done, long filesDone)
+        {
+            DownloadStatus downloadStatus = new DownloadStatus(status, done, totalBytes, filesDone, totalFiles);
+            txnHelper.doInTransaction(() -> {
+                downloadStorage.updateStatus(downloadNode, downloadStatus);
+                return null;
+            }, false, true);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.logging;
+
+import org.apache.log4j.LogManager;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+
+/**
+ * Keeps the asynchronous logging profile of {@link AsyncPropertyConfigurator} in place for the life of the webapp.
+ * <p>
+ * <code>Log4JHierarchyInit</code> loads the <code>log4j.properties</code> files of extensions and modules with the
+ * plain <code>PropertyConfigurator</code>, so the profile is applied again once that bean has initialised and when
+ * the context has been refreshed. When the context closes the appenders are put back on the root logger and the
+ * dispatcher thread is stopped, so that it does not outlive an undeployed webapp.
+ * <p>
+ * Does nothing unless the profile was selected with <code>-Dlog4j.configuratorClass</code>.
+ * 
+ * @since 6.2.2
+ */
+public class AsyncLoggingLifecycle implements BeanPostProcessor, ApplicationListener<ContextRefreshedEvent>,
+        DisposableBean
+{
+    private String hierarchyInitBeanName = "log4JHierarchyInit";
+
+    public void setHierarchyInitBeanName(String hierarchyInitBeanName)
+    {
+        this.hierarchyInitBeanName = hierarchyInitBeanName;
+    }
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException
+    {
+        return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException
+    {
+        if (hierarchyInitBeanName.equals(beanName))
+        {
+            AsyncPropertyConfigurator.reapply(LogManager.getLoggerRepository());
+        }
+        return bean;
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event)
+    {
+        AsyncPropertyConfigurator.reapply(LogManager.getLoggerRepository());
+    }
+
+    @Override
+    public void destroy()
+    {
+        if (AsyncPropertyConfigurator.isSelected())
+        {
+            AsyncPropertyConfigurator.removeProfile(LogManager.getLoggerRepository());
+        }
+    }
+}
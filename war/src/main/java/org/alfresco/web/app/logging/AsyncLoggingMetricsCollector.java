@@ -0,0 +1,69 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.logging;
+
+import java.io.IOException;
+
+import org.alfresco.web.app.metrics.MetricsCollector;
+import org.alfresco.web.app.metrics.OpenMetricsWriter;
+
+/**
+ * Exports the buffer usage and discarded event count of the active {@link BoundedAsyncAppender}s, so that a busy node
+ * losing debug output can be spotted.
+ * 
+ * @since 6.2.2
+ */
+public class AsyncLoggingMetricsCollector implements MetricsCollector
+{
+    private static final String[] APPENDER = {"appender"};
+
+    @Override
+    public void collect(OpenMetricsWriter writer) throws IOException
+    {
+        if (BoundedAsyncAppender.getActiveAppenders().isEmpty())
+        {
+            return;
+        }
+        writer.beginGauge("log4j_async_queue_size", "Logging events waiting to be written");
+        for (BoundedAsyncAppender appender : BoundedAsyncAppender.getActiveAppenders())
+        {
+            writer.sample("log4j_async_queue_size", APPENDER, new String[] {appender.getName()},
+                    appender.getQueueSize());
+        }
+        writer.beginGauge("log4j_async_queue_capacity", "Size of the asynchronous logging buffer");
+        for (BoundedAsyncAppender appender : BoundedAsyncAppender.getActiveAppenders())
+        {
+            writer.sample("log4j_async_queue_capacity", APPENDER, new String[] {appender.getName()},
+                    appender.getBufferSize());
+        }
+        writer.beginCounter("log4j_async_discarded_events", "Logging events discarded because the buffer was full");
+        for (BoundedAsyncAppender appender : BoundedAsyncAppender.getActiveAppenders())
+        {
+            writer.sample("log4j_async_discarded_events_total", APPENDER, new String[] {appender.getName()},
+                    appender.getDiscardedCount());
+        }
+    }
+}
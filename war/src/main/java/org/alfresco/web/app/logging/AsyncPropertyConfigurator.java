@@ -0,0 +1,199 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.logging;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.Layout;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.PropertyConfigurator;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.helpers.OptionConverter;
+import org.apache.log4j.spi.LoggerRepository;
+
+/**
+ * A {@link PropertyConfigurator} implementing the asynchronous logging profile. Select it by starting the JVM with
+ * <pre>-Dlog4j.configuratorClass=org.alfresco.web.app.logging.AsyncPropertyConfigurator</pre>
+ * <p>
+ * The usual <code>log4j.properties</code> is applied first. Then the root logger appenders named in
+ * <code>log4j.async.appenders</code> are detached and re-attached behind one {@link BoundedAsyncAppender}, configured
+ * from the <code>log4j.async.*</code> properties. With <code>log4j.async.reusableLayout=true</code> their pattern
+ * layouts are also replaced by {@link ReusableSanitizingPatternLayout}s using the same conversion pattern.
+ * 
+ * @since 6.2.2
+ */
+public class AsyncPropertyConfigurator extends PropertyConfigurator
+{
+    private static final String PREFIX = "log4j.async.";
+    private static final String ASYNC_APPENDER_NAME = "Async";
+
+    /**
+     * The <code>log4j.async.*</code> properties of the last configuration, so that the profile can be applied again
+     * after another configurator has reset the root logger.
+     */
+    private static volatile Properties asyncProperties;
+
+    @Override
+    public void doConfigure(Properties properties, LoggerRepository hierarchy)
+    {
+        super.doConfigure(properties, hierarchy);
+
+        Properties async = new Properties();
+        for (String name : properties.stringPropertyNames())
+        {
+            if (name.startsWith(PREFIX))
+            {
+                async.setProperty(name, properties.getProperty(name));
+            }
+        }
+        asyncProperties = async;
+        applyProfile(async, hierarchy);
+    }
+
+    /**
+     * @return <tt>true</tt> if the profile was selected, i.e. this configurator configured log4j
+     */
+    public static boolean isSelected()
+    {
+        return asyncProperties != null;
+    }
+
+    /**
+     * Applies the profile again if it was selected. Alfresco loads the <code>log4j.properties</code> of extensions
+     * and modules with the plain {@link PropertyConfigurator}, which closes the asynchronous appender when a file sets
+     * the root logger and attaches the appenders it names directly to it.
+     */
+    public static void reapply(LoggerRepository hierarchy)
+    {
+        Properties async = asyncProperties;
+        if (async != null)
+        {
+            applyProfile(async, hierarchy);
+        }
+    }
+
+    /**
+     * Puts the appenders back on the root logger and stops the asynchronous appender, flushing the events it holds.
+     * Logging stays available, synchronously, to whatever runs after the webapp has been stopped.
+     */
+    public static void removeProfile(LoggerRepository hierarchy)
+    {
+        Logger root = hierarchy.getRootLogger();
+        Appender appender = root.getAppender(ASYNC_APPENDER_NAME);
+        if (!(appender instanceof BoundedAsyncAppender))
+        {
+            return;
+        }
+        BoundedAsyncAppender async = (BoundedAsyncAppender) appender;
+        List<Appender> children = new ArrayList<>();
+        for (Enumeration<?> all = async.getAllAppenders(); all != null && all.hasMoreElements();)
+        {
+            children.add((Appender) all.nextElement());
+        }
+        for (Appender child : children)
+        {
+            root.addAppender(child);
+        }
+        root.removeAppender(async);
+        async.stop();
+    }
+
+    private static synchronized void applyProfile(Properties properties, LoggerRepository hierarchy)
+    {
+        String names = properties.getProperty(PREFIX + "appenders");
+        if (names == null || names.trim().isEmpty())
+        {
+            LogLog.warn("No " + PREFIX + "appenders configured, logging stays synchronous");
+            return;
+        }
+
+        Logger root = hierarchy.getRootLogger();
+        Appender existing = root.getAppender(ASYNC_APPENDER_NAME);
+        boolean reusableLayout = OptionConverter.toBoolean(properties.getProperty(PREFIX + "reusableLayout"), true);
+        List<Appender> wrapped = new ArrayList<>();
+        for (String name : names.split(","))
+        {
+            Appender appender = root.getAppender(name.trim());
+            if (appender == null || appender instanceof BoundedAsyncAppender)
+            {
+                // appenders already behind the asynchronous one are no longer attached to the root logger
+                if (!(existing instanceof BoundedAsyncAppender)
+                        || ((BoundedAsyncAppender) existing).getAppender(name.trim()) == null)
+                {
+                    LogLog.warn("Root logger has no appender named " + name.trim() + ", not made asynchronous");
+                }
+                continue;
+            }
+            if (reusableLayout)
+            {
+                Layout layout = appender.getLayout();
+                if (layout instanceof PatternLayout && !(layout instanceof ReusableSanitizingPatternLayout))
+                {
+                    appender.setLayout(
+                            new ReusableSanitizingPatternLayout(((PatternLayout) layout).getConversionPattern()));
+                }
+            }
+            wrapped.add(appender);
+        }
+        if (wrapped.isEmpty())
+        {
+            return;
+        }
+
+        BoundedAsyncAppender async;
+        if (existing instanceof BoundedAsyncAppender)
+        {
+            async = (BoundedAsyncAppender) existing;
+        }
+        else
+        {
+            async = new BoundedAsyncAppender();
+            async.setName(ASYNC_APPENDER_NAME);
+            async.setBufferSize(OptionConverter.toInt(properties.getProperty(PREFIX + "bufferSize"), 8192));
+            async.setDiscardThreshold(properties.getProperty(PREFIX + "discardThreshold", "WARN"));
+            async.setMaxBlockMillis(Long.parseLong(properties.getProperty(PREFIX + "maxBlockMillis", "500").trim()));
+            async.setLocationInfo(OptionConverter.toBoolean(properties.getProperty(PREFIX + "locationInfo"), false));
+            async.activateOptions();
+            root.addAppender(async);
+        }
+        for (Appender appender : wrapped)
+        {
+            root.removeAppender(appender);
+            Appender replaced = async.getAppender(appender.getName());
+            if (replaced != null)
+            {
+                async.removeAppender(replaced);
+                replaced.close();
+            }
+            async.addAppender(appender);
+        }
+    }
+}
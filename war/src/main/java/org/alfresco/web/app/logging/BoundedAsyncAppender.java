@@ -0,0 +1,389 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.logging;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.helpers.AppenderAttachableImpl;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.AppenderAttachable;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * An asynchronous appender with a bounded buffer and an explicit overflow policy.
+ * <p>
+ * Request threads only capture the thread dependent parts of the event (NDC, MDC, thread name, rendered message) and
+ * hand it to a single dispatcher thread which runs the layouts and the attached appenders. When the buffer is full:
+ * <ul>
+ * <li>events less severe than <code>DiscardThreshold</code> (default WARN) are discarded immediately;</li>
+ * <li>other events wait up to <code>MaxBlockMillis</code> (default 500) for space and are discarded after that. A
+ * negative value blocks until there is space, i.e. never loses warnings and errors.</li>
+ * </ul>
+ * Discarded events are counted and reported by the dispatcher as a single WARN summary once the buffer drains.
+ * <p>
+ * Unlike the log4j <code>AsyncAppender</code> this appender is normally set up by the
+ * {@link AsyncPropertyConfigurator}, so the existing properties based configuration can stay as it is.
+ * 
+ * @since 6.2.2
+ */
+public class BoundedAsyncAppender extends AppenderSkeleton implements AppenderAttachable
+{
+    private static final List<BoundedAsyncAppender> ACTIVE = new CopyOnWriteArrayList<>();
+    private static final int MAX_BATCH = 256;
+
+    private final AppenderAttachableImpl appenders = new AppenderAttachableImpl();
+    private final AtomicLong discarded = new AtomicLong();
+
+    private int bufferSize = 8192;
+    private Level discardThreshold = Level.WARN;
+    private long maxBlockMillis = 500;
+    private boolean locationInfo;
+
+    private BlockingQueue<LoggingEvent> queue;
+    private Thread dispatcher;
+
+    /**
+     * @return the appenders currently running, for monitoring
+     */
+    public static List<BoundedAsyncAppender> getActiveAppenders()
+    {
+        return ACTIVE;
+    }
+
+    public void setBufferSize(int bufferSize)
+    {
+        this.bufferSize = bufferSize;
+    }
+
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+
+    public void setDiscardThreshold(String discardThreshold)
+    {
+        this.discardThreshold = Level.toLevel(discardThreshold, Level.WARN);
+    }
+
+    public void setMaxBlockMillis(long maxBlockMillis)
+    {
+        this.maxBlockMillis = maxBlockMillis;
+    }
+
+    public void setLocationInfo(boolean locationInfo)
+    {
+        this.locationInfo = locationInfo;
+    }
+
+    /**
+     * @return the events waiting to be dispatched
+     */
+    public int getQueueSize()
+    {
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * @return the events discarded since the appender was started
+     */
+    public long getDiscardedCount()
+    {
+        return discarded.get();
+    }
+
+    @Override
+    public void activateOptions()
+    {
+        queue = new ArrayBlockingQueue<>(bufferSize);
+        dispatcher = new Thread(new Dispatcher(), "log4j-async-" + getName());
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        ACTIVE.add(this);
+    }
+
+    /**
+     * Deliberately not synchronized, unlike {@link AppenderSkeleton#doAppend(LoggingEvent)}: the queue is thread safe
+     * and request threads must not serialise on this appender.
+     */
+    @Override
+    public void doAppend(LoggingEvent event)
+    {
+        if (closed || !isAsSevereAsThreshold(event.getLevel()))
+        {
+            return;
+        }
+        Filter filter = getFirstFilter();
+        while (filter != null)
+        {
+            switch (filter.decide(event))
+            {
+                case Filter.DENY:
+                    return;
+                case Filter.ACCEPT:
+                    filter = null;
+                    break;
+                default:
+                    filter = filter.getNext();
+            }
+        }
+        append(event);
+    }
+
+    @Override
+    protected void append(LoggingEvent event)
+    {
+        if (queue == null)
+        {
+            // Not activated, fall back to synchronous dispatch
+            dispatch(event);
+            return;
+        }
+
+        // Capture everything that depends on the calling thread before the event is queued
+        event.getNDC();
+        event.getThreadName();
+        event.getMDCCopy();
+        event.getRenderedMessage();
+        event.getThrowableStrRep();
+        if (locationInfo)
+        {
+            event.getLocationInformation();
+        }
+
+        if (queue.offer(event))
+        {
+            return;
+        }
+        if (event.getLevel().isGreaterOrEqual(discardThreshold) && maxBlockMillis != 0)
+        {
+            try
+            {
+                if (maxBlockMillis < 0)
+                {
+                    queue.put(event);
+                    return;
+                }
+                if (queue.offer(event, maxBlockMillis, TimeUnit.MILLISECONDS))
+                {
+                    return;
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        discarded.incrementAndGet();
+    }
+
+    private void dispatch(LoggingEvent event)
+    {
+        synchronized (appenders)
+        {
+            appenders.appendLoopOnAppenders(event);
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        if (closed)
+        {
+            return;
+        }
+        stop();
+        synchronized (appenders)
+        {
+            @SuppressWarnings("unchecked")
+            Enumeration<Appender> all = appenders.getAllAppenders();
+            while (all != null && all.hasMoreElements())
+            {
+                all.nextElement().close();
+            }
+        }
+    }
+
+    /**
+     * Stops the dispatcher thread once it has written the events already queued, without closing the attached
+     * appenders. Events appended after this are discarded.
+     */
+    public void stop()
+    {
+        closed = true;
+        ACTIVE.remove(this);
+        if (dispatcher != null)
+        {
+            dispatcher.interrupt();
+            try
+            {
+                dispatcher.join(5000);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            dispatcher = null;
+        }
+    }
+
+    @Override
+    public boolean requiresLayout()
+    {
+        return false;
+    }
+
+    @Override
+    public void addAppender(Appender newAppender)
+    {
+        synchronized (appenders)
+        {
+            appenders.addAppender(newAppender);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Enumeration getAllAppenders()
+    {
+        synchronized (appenders)
+        {
+            return appenders.getAllAppenders();
+        }
+    }
+
+    @Override
+    public Appender getAppender(String name)
+    {
+        synchronized (appenders)
+        {
+            return appenders.getAppender(name);
+        }
+    }
+
+    @Override
+    public boolean isAttached(Appender appender)
+    {
+        synchronized (appenders)
+        {
+            return appenders.isAttached(appender);
+        }
+    }
+
+    @Override
+    public void removeAllAppenders()
+    {
+        synchronized (appenders)
+        {
+            appenders.removeAllAppenders();
+        }
+    }
+
+    @Override
+    public void removeAppender(Appender appender)
+    {
+        synchronized (appenders)
+        {
+            appenders.removeAppender(appender);
+        }
+    }
+
+    @Override
+    public void removeAppender(String name)
+    {
+        synchronized (appenders)
+        {
+            appenders.removeAppender(name);
+        }
+    }
+
+    private class Dispatcher implements Runnable
+    {
+        private long reported;
+
+        @Override
+        public void run()
+        {
+            List<LoggingEvent> batch = new ArrayList<>(MAX_BATCH);
+            boolean running = true;
+            while (running)
+            {
+                try
+                {
+                    batch.add(queue.take());
+                }
+                catch (InterruptedException e)
+                {
+                    running = false;
+                }
+                queue.drainTo(batch, MAX_BATCH - batch.size());
+                try
+                {
+                    for (LoggingEvent event : batch)
+                    {
+                        dispatch(event);
+                    }
+                    reportDiscarded();
+                }
+                catch (RuntimeException e)
+                {
+                    LogLog.error("Failed to dispatch logging events in " + getName(), e);
+                }
+                batch.clear();
+            }
+            // Flush what is left on shutdown
+            queue.drainTo(batch);
+            for (LoggingEvent event : batch)
+            {
+                dispatch(event);
+            }
+        }
+
+        private void reportDiscarded()
+        {
+            long total = discarded.get();
+            if (total != reported && queue.isEmpty())
+            {
+                Logger logger = Logger.getLogger(BoundedAsyncAppender.class);
+                dispatch(new LoggingEvent(Logger.class.getName(), logger, Level.WARN, "Discarded "
+                        + (total - reported) + " logging events because the buffer of " + getName() + " was full",
+                        null));
+                reported = total;
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.logging;
+
+import java.util.UUID;
+
+import org.apache.log4j.MDC;
+
+/**
+ * Access to the correlation ID of the request being processed by the current thread.
+ * <p>
+ * The ID is held in the log4j {@link MDC} under {@link #MDC_KEY}, so it is available to layouts as
+ * <code>%X{correlationId}</code> and to the {@link JsonLayout}, and is copied onto the events queued by the
+ * {@link BoundedAsyncAppender}.
+ * 
+ * @since 6.2.2
+ */
+public final class CorrelationId
+{
+    public static final String HEADER = "X-Correlation-ID";
+    public static final String MDC_KEY = "correlationId";
+
+    private static final int MAX_LENGTH = 64;
+
+    private CorrelationId()
+    {
+    }
+
+    /**
+     * @return the correlation ID of the current thread, or <code>null</code> outside a request
+     */
+    public static String get()
+    {
+        Object id = MDC.get(MDC_KEY);
+        return id == null ? null : id.toString();
+    }
+
+    public static void set(String id)
+    {
+        MDC.put(MDC_KEY, id);
+    }
+
+    public static void clear()
+    {
+        MDC.remove(MDC_KEY);
+    }
+
+    public static String generate()
+    {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Accepts IDs from clients only if they are short and made of characters that are safe to log and to forward in
+     * a header.
+     */
+    public static boolean isValid(String id)
+    {
+        if (id == null || id.isEmpty() || id.length() > MAX_LENGTH)
+        {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i++)
+        {
+            char c = id.charAt(i);
+            if (!(Character.isLetterOrDigit(c) && c < 128) && c != '-' && c != '_' && c != '.')
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.logging;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.params.DefaultHttpParams;
+import org.apache.commons.httpclient.params.HostParams;
+import org.apache.commons.httpclient.params.HttpParams;
+
+/**
+ * Sends the {@link CorrelationId} of the calling thread on outbound commons-httpclient requests.
+ * <p>
+ * {@link #install()} replaces the JVM wide default headers, which every commons-httpclient 3 client inherits unless
+ * it sets its own, with a collection that adds an <code>X-Correlation-ID</code> header when it is iterated by a thread
+ * with a correlation ID bound. This is how the ID reaches the Solr client, which is created inside the search
+ * subsystem and cannot be configured from the webapp. The client copies the default headers onto each method on the
+ * thread executing it, so background jobs and other threads outside a request send no header at all.
+ * 
+ * @since 6.2.2
+ */
+public final class CorrelationIdHeader
+{
+    private CorrelationIdHeader()
+    {
+    }
+
+    /**
+     * Installs the correlation ID into the default host parameters, keeping any default headers already configured.
+     */
+    @SuppressWarnings("unchecked")
+    public static synchronized void install()
+    {
+        HttpParams defaults = DefaultHttpParams.getDefaultParams();
+        Object existing = defaults.getParameter(HostParams.DEFAULT_HEADERS);
+        if (existing instanceof DefaultHeaders)
+        {
+            return;
+        }
+        List<Header> headers = new ArrayList<>();
+        if (existing instanceof Collection)
+        {
+            headers.addAll((Collection<Header>) existing);
+        }
+        defaults.setParameter(HostParams.DEFAULT_HEADERS, new DefaultHeaders(headers));
+    }
+
+    /**
+     * The configured default headers followed, on threads with a correlation ID, by the header carrying it.
+     */
+    static class DefaultHeaders extends AbstractCollection<Header>
+    {
+        private final List<Header> headers;
+
+        DefaultHeaders(List<Header> headers)
+        {
+            this.headers = Collections.unmodifiableList(headers);
+        }
+
+        @Override
+        public Iterator<Header> iterator()
+        {
+            String id = CorrelationId.get();
+            if (id == null)
+            {
+                return headers.iterator();
+            }
+            List<Header> withId = new ArrayList<>(headers.size() + 1);
+            withId.addAll(headers);
+            withId.add(new Header(CorrelationId.HEADER, id));
+            return withId.iterator();
+        }
+
+        @Override
+        public int size()
+        {
+            return CorrelationId.get() == null ? headers.size() : headers.size() + 1;
+        }
+    }
+}
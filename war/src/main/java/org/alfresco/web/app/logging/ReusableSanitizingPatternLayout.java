@@ -0,0 +1,121 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.logging;
+
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.helpers.FormattingInfo;
+import org.apache.log4j.helpers.PatternConverter;
+import org.apache.log4j.helpers.PatternParser;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * A {@link PatternLayout} that neutralises line breaks in the message (<code>%m</code>) to stop log forging through
+ * user supplied values, without allocating an intermediate copy of the message.
+ * <p>
+ * The message is appended to the layout's reused buffer in runs between line breaks, which are replaced with
+ * <code>_</code>. This is not garbage free: <code>Layout.format</code> returns a new String for every line, and the
+ * other converters, such as dates, allocate as before. Behind the {@link BoundedAsyncAppender} that work happens on
+ * the dispatcher thread rather than on the request threads. Stack traces are written by the appender and are not
+ * affected.
+ * 
+ * @since 6.2.2
+ */
+public class ReusableSanitizingPatternLayout extends PatternLayout
+{
+    public ReusableSanitizingPatternLayout()
+    {
+        super();
+    }
+
+    public ReusableSanitizingPatternLayout(String pattern)
+    {
+        super(pattern);
+    }
+
+    @Override
+    protected PatternParser createPatternParser(String pattern)
+    {
+        return new SanitizingPatternParser(pattern);
+    }
+
+    private static class SanitizingPatternParser extends PatternParser
+    {
+        SanitizingPatternParser(String pattern)
+        {
+            super(pattern);
+        }
+
+        @Override
+        protected void finalizeConverter(char c)
+        {
+            if (c == 'm')
+            {
+                addConverter(new SanitizingMessageConverter(formattingInfo));
+            }
+            else
+            {
+                super.finalizeConverter(c);
+            }
+        }
+    }
+
+    private static class SanitizingMessageConverter extends PatternConverter
+    {
+        SanitizingMessageConverter(FormattingInfo formattingInfo)
+        {
+            super(formattingInfo);
+        }
+
+        @Override
+        public void format(StringBuffer sbuf, LoggingEvent event)
+        {
+            String message = event.getRenderedMessage();
+            if (message == null)
+            {
+                return;
+            }
+            int start = 0;
+            for (int i = 0; i < message.length(); i++)
+            {
+                char c = message.charAt(i);
+                if (c == '\r' || c == '\n')
+                {
+                    sbuf.append(message, start, i).append('_');
+                    start = i + 1;
+                }
+            }
+            sbuf.append(message, start, message.length());
+        }
+
+        @Override
+        protected String convert(LoggingEvent event)
+        {
+            StringBuffer sbuf = new StringBuffer();
+            format(sbuf, event);
+            return sbuf.toString();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.metrics;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+
+import org.alfresco.repo.cache.CacheStatistics;
+import org.alfresco.repo.cache.OperationStats;
+import org.alfresco.repo.cache.TransactionStats.OpType;
+
+/**
+ * Exports the {@link CacheStatistics} gathered by <code>TransactionalCache</code> instances. Statistics are only
+ * gathered for caches configured with <code>cache.&lt;name&gt;.tx.statsEnabled=true</code>.
+ * <p>
+ * Unlike the other collectors this one is not lock-free: {@link CacheStatistics#allResults()} copies the statistics
+ * under the read lock of <code>InMemoryCacheStatistics</code>, and transactions take the write lock of that lock to
+ * record their statistics when they commit. A scrape therefore briefly delays the commits of transactions that used a
+ * cache with statistics enabled, for the time it takes to copy one map per cache. There is no lock-free source of the
+ * same statistics.
+ * 
+ * @since 6.2.2
+ */
+public class CacheStatisticsMetricsCollector implements MetricsCollector
+{
+    private static final String[] CACHE_OP = {"cache", "op"};
+
+    private CacheStatistics cacheStatistics;
+
+    public void setCacheStatistics(CacheStatistics cacheStatistics)
+    {
+        this.cacheStatistics = cacheStatistics;
+    }
+
+    @Override
+    public void collect(OpenMetricsWriter writer) throws IOException
+    {
+        Map<String, Map<OpType, OperationStats>> results = cacheStatistics.allResults();
+        if (results.isEmpty())
+        {
+            return;
+        }
+        writer.beginCounter("alfresco_cache_operations", "Operations on a transactional cache by type");
+        for (Map.Entry<String, Map<OpType, OperationStats>> cache : results.entrySet())
+        {
+            for (Map.Entry<OpType, OperationStats> op : cache.getValue().entrySet())
+            {
+                writer.sample("alfresco_cache_operations_total", CACHE_OP,
+                        new String[] {cache.getKey(), op.getKey().name().toLowerCase(Locale.ENGLISH)},
+                        op.getValue().getCount());
+            }
+        }
+        writer.beginCounter("alfresco_cache_operation_seconds", "Time spent in operations on a transactional cache");
+        for (Map.Entry<String, Map<OpType, OperationStats>> cache : results.entrySet())
+        {
+            for (Map.Entry<OpType, OperationStats> op : cache.getValue().entrySet())
+            {
+                writer.sample("alfresco_cache_operation_seconds_total", CACHE_OP,
+                        new String[] {cache.getKey(), op.getKey().name().toLowerCase(Locale.ENGLISH)},
+                        op.getValue().getTotalTime() / 1e9);
+            }
+        }
+    }
+}
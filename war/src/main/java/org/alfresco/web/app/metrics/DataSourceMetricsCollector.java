@@ -0,0 +1,64 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.metrics;
+
+import java.io.IOException;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp2.BasicDataSource;
+
+/**
+ * Exports the connection pool figures of the repository data source. Only the DBCP pool configured by the repository
+ * is understood; a container managed data source looked up through JNDI is silently skipped.
+ * 
+ * @since 6.2.2
+ */
+public class DataSourceMetricsCollector implements MetricsCollector
+{
+    private DataSource dataSource;
+
+    public void setDataSource(DataSource dataSource)
+    {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public void collect(OpenMetricsWriter writer) throws IOException
+    {
+        if (!(dataSource instanceof BasicDataSource))
+        {
+            return;
+        }
+        BasicDataSource pool = (BasicDataSource) dataSource;
+        writer.beginGauge("db_pool_active_connections", "Connections currently borrowed from the pool");
+        writer.sample("db_pool_active_connections", pool.getNumActive());
+        writer.beginGauge("db_pool_idle_connections", "Idle connections in the pool");
+        writer.sample("db_pool_idle_connections", pool.getNumIdle());
+        writer.beginGauge("db_pool_max_connections", "Maximum size of the pool");
+        writer.sample("db_pool_max_connections", pool.getMaxTotal());
+    }
+}
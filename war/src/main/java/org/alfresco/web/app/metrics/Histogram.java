@@ -0,0 +1,104 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.metrics;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-bucket latency histogram. Observations are recorded in nanoseconds and exposed in seconds.
+ * <p>
+ * Buckets are held as individual {@link LongAdder}s, so recording never contends with other recording threads or
+ * with a concurrent scrape. A scrape may observe a bucket increment before the matching sum increment; this is
+ * acceptable for monitoring purposes and is the price of never locking.
+ * 
+ * @since 6.2.2
+ */
+public class Histogram
+{
+    /** Default bucket bounds in seconds, suitable for HTTP request and SQL statement latencies */
+    public static final double[] DEFAULT_BUCKETS = {0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+
+    private final double[] bounds;
+    private final long[] boundsNanos;
+    private final LongAdder[] buckets;
+    private final LongAdder sumNanos = new LongAdder();
+
+    public Histogram(double[] bounds)
+    {
+        this.bounds = bounds.clone();
+        this.boundsNanos = new long[bounds.length];
+        for (int i = 0; i < bounds.length; i++)
+        {
+            boundsNanos[i] = (long) (bounds[i] * 1_000_000_000L);
+        }
+        // The last bucket is +Inf
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++)
+        {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void observeNanos(long nanos)
+    {
+        int i = 0;
+        while (i < boundsNanos.length && nanos > boundsNanos[i])
+        {
+            i++;
+        }
+        buckets[i].increment();
+        sumNanos.add(nanos);
+    }
+
+    public long getCount()
+    {
+        long count = 0;
+        for (LongAdder bucket : buckets)
+        {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public double getSumSeconds()
+    {
+        return sumNanos.sum() / 1e9;
+    }
+
+    void write(OpenMetricsWriter writer, String name, String[] labelNames, String[] labelValues) throws IOException
+    {
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length; i++)
+        {
+            cumulative += buckets[i].sum();
+            String le = i < bounds.length ? OpenMetricsWriter.formatValue(bounds[i]) : "+Inf";
+            writer.sample(name + "_bucket", labelNames, labelValues, "le", le, cumulative);
+        }
+        writer.sample(name + "_count", labelNames, labelValues, cumulative);
+        writer.sample(name + "_sum", labelNames, labelValues, getSumSeconds());
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.metrics;
+
+import java.io.IOException;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+/**
+ * Exports heap, garbage collection, thread and class loading figures from the platform MXBeans.
+ * 
+ * @since 6.2.2
+ */
+public class JvmMetricsCollector implements MetricsCollector
+{
+    private static final String[] AREA = {"area"};
+    private static final String[] GC = {"gc"};
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+    private final List<GarbageCollectorMXBean> garbageCollectors = ManagementFactory.getGarbageCollectorMXBeans();
+
+    @Override
+    public void collect(OpenMetricsWriter writer) throws IOException
+    {
+        MemoryUsage heap = memory.getHeapMemoryUsage();
+        MemoryUsage nonHeap = memory.getNonHeapMemoryUsage();
+        writer.beginGauge("jvm_memory_used_bytes", "Used bytes of a given JVM memory area");
+        writer.sample("jvm_memory_used_bytes", AREA, new String[] {"heap"}, heap.getUsed());
+        writer.sample("jvm_memory_used_bytes", AREA, new String[] {"nonheap"}, nonHeap.getUsed());
+        writer.beginGauge("jvm_memory_committed_bytes", "Committed bytes of a given JVM memory area");
+        writer.sample("jvm_memory_committed_bytes", AREA, new String[] {"heap"}, heap.getCommitted());
+        writer.sample("jvm_memory_committed_bytes", AREA, new String[] {"nonheap"}, nonHeap.getCommitted());
+        writer.beginGauge("jvm_memory_max_bytes", "Max bytes of a given JVM memory area");
+        writer.sample("jvm_memory_max_bytes", AREA, new String[] {"heap"}, heap.getMax());
+
+        writer.beginCounter("jvm_gc_collections", "Number of collections of a given JVM garbage collector");
+        for (GarbageCollectorMXBean gc : garbageCollectors)
+        {
+            writer.sample("jvm_gc_collections_total", GC, new String[] {gc.getName()}, gc.getCollectionCount());
+        }
+        writer.beginCounter("jvm_gc_collection_seconds", "Time spent in a given JVM garbage collector");
+        for (GarbageCollectorMXBean gc : garbageCollectors)
+        {
+            writer.sample("jvm_gc_collection_seconds_total", GC, new String[] {gc.getName()},
+                    gc.getCollectionTime() / 1000.0);
+        }
+
+        writer.beginGauge("jvm_threads_current", "Current thread count of the JVM");
+        writer.sample("jvm_threads_current", threads.getThreadCount());
+        writer.beginGauge("jvm_threads_daemon", "Daemon thread count of the JVM");
+        writer.sample("jvm_threads_daemon", threads.getDaemonThreadCount());
+        writer.beginGauge("jvm_threads_peak", "Peak thread count of the JVM");
+        writer.sample("jvm_threads_peak", threads.getPeakThreadCount());
+
+        writer.beginGauge("jvm_classes_loaded", "The number of classes that are currently loaded in the JVM");
+        writer.sample("jvm_classes_loaded", classLoading.getLoadedClassCount());
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.metrics;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A named group of metrics of the same type that differ only by their label values.
+ * <p>
+ * Children are created on first use and never removed, so callers should only use labels with a small, bounded set of
+ * values (servlet names, cache names, statement ids) and never user supplied data.
+ * 
+ * @param <T> the metric type of the children
+ * @since 6.2.2
+ */
+public abstract class MetricFamily<T>
+{
+    private final String name;
+    private final String help;
+    private final String[] labelNames;
+    private final ConcurrentMap<List<String>, T> children = new ConcurrentHashMap<>();
+
+    protected MetricFamily(String name, String help, String... labelNames)
+    {
+        this.name = name;
+        this.help = help;
+        this.labelNames = labelNames;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getHelp()
+    {
+        return help;
+    }
+
+    /**
+     * @param labelValues one value per label name given at construction
+     * @return the child for the given label values, created if required
+     */
+    public T labels(String... labelValues)
+    {
+        if (labelValues.length != labelNames.length)
+        {
+            throw new IllegalArgumentException("Metric " + name + " expects " + labelNames.length + " label values");
+        }
+        List<String> key = Arrays.asList(labelValues);
+        T child = children.get(key);
+        if (child == null)
+        {
+            child = children.computeIfAbsent(key, k -> newChild());
+        }
+        return child;
+    }
+
+    void write(OpenMetricsWriter writer) throws IOException
+    {
+        writeHeader(writer);
+        for (Map.Entry<List<String>, T> entry : children.entrySet())
+        {
+            List<String> values = entry.getKey();
+            writeChild(writer, labelNames, values.toArray(new String[values.size()]), entry.getValue());
+        }
+    }
+
+    protected abstract T newChild();
+
+    protected abstract void writeHeader(OpenMetricsWriter writer) throws IOException;
+
+    protected abstract void writeChild(OpenMetricsWriter writer, String[] labelNames, String[] labelValues, T child)
+            throws IOException;
+
+    static class CounterFamily extends MetricFamily<Counter>
+    {
+        CounterFamily(String name, String help, String... labelNames)
+        {
+            super(name, help, labelNames);
+        }
+
+        @Override
+        protected Counter newChild()
+        {
+            return new Counter();
+        }
+
+        @Override
+        protected void writeHeader(OpenMetricsWriter writer) throws IOException
+        {
+            writer.beginCounter(getName(), getHelp());
+        }
+
+        @Override
+        protected void writeChild(OpenMetricsWriter writer, String[] labelNames, String[] labelValues, Counter child)
+                throws IOException
+        {
+            writer.sample(getName() + "_total", labelNames, labelValues, child.get());
+        }
+    }
+
+    static class HistogramFamily extends MetricFamily<Histogram>
+    {
+        private final double[] buckets;
+
+        HistogramFamily(String name, String help, double[] buckets, String... labelNames)
+        {
+            super(name, help, labelNames);
+            this.buckets = buckets;
+        }
+
+        @Override
+        protected Histogram newChild()
+        {
+            return new Histogram(buckets);
+        }
+
+        @Override
+        protected void writeHeader(OpenMetricsWriter writer) throws IOException
+        {
+            writer.beginHistogram(getName(), getHelp());
+        }
+
+        @Override
+        protected void writeChild(OpenMetricsWriter writer, String[] labelNames, String[] labelValues, Histogram child)
+                throws IOException
+        {
+            child.write(writer, getName(), labelNames, labelValues);
+        }
+    }
+}
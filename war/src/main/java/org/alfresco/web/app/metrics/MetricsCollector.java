@@ -0,0 +1,42 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.metrics;
+
+import java.io.IOException;
+
+/**
+ * A source of metric families that is asked to write its current values each time the {@link MetricsRegistry} is
+ * scraped.
+ * <p>
+ * Implementations are called on the scrape thread and must not block on locks held by request threads. Reading
+ * atomics, adders or MXBean attributes is fine; taking a snapshot that requires synchronisation is not.
+ * 
+ * @since 6.2.2
+ */
+public interface MetricsCollector
+{
+    void collect(OpenMetricsWriter writer) throws IOException;
+}
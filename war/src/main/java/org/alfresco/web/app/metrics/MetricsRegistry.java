@@ -0,0 +1,150 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Central registry of the metrics exported by the <code>/metrics</code> servlet.
+ * <p>
+ * Components either record into families owned by the registry ({@link #counter}, {@link #histogram}) or register a
+ * {@link MetricsCollector} that reads existing statistics on demand. Recording uses adders only, and scraping walks
+ * concurrent collections without taking locks, so a scrape of the registry's families never stalls request threads
+ * and vice versa. Collectors read their sources the way those sources allow; the ones that take a lock say so.
+ * 
+ * @since 6.2.2
+ */
+public class MetricsRegistry
+{
+    private static final Log logger = LogFactory.getLog(MetricsRegistry.class);
+
+    private final ConcurrentNavigableMap<String, MetricFamily<?>> families = new ConcurrentSkipListMap<>();
+    private final List<MetricsCollector> collectors = new CopyOnWriteArrayList<>();
+    private boolean enabled = true;
+    private boolean authenticationRequired = true;
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Whether the <code>/metrics</code> servlet requires administrator credentials.
+     */
+    public void setAuthenticationRequired(boolean authenticationRequired)
+    {
+        this.authenticationRequired = authenticationRequired;
+    }
+
+    public boolean isAuthenticationRequired()
+    {
+        return authenticationRequired;
+    }
+
+    /**
+     * Sets collectors from Spring configuration, in addition to any registered programmatically.
+     */
+    public void setCollectors(List<MetricsCollector> collectors)
+    {
+        this.collectors.addAll(collectors);
+    }
+
+    public void register(MetricsCollector collector)
+    {
+        collectors.add(collector);
+    }
+
+    public MetricFamily<Counter> counter(String name, String help, String... labelNames)
+    {
+        return family(new MetricFamily.CounterFamily(name, help, labelNames));
+    }
+
+    public MetricFamily<Histogram> histogram(String name, String help, String... labelNames)
+    {
+        return histogram(name, help, Histogram.DEFAULT_BUCKETS, labelNames);
+    }
+
+    public MetricFamily<Histogram> histogram(String name, String help, double[] buckets, String... labelNames)
+    {
+        return family(new MetricFamily.HistogramFamily(name, help, buckets, labelNames));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> MetricFamily<T> family(MetricFamily<T> family)
+    {
+        MetricFamily<?> existing = families.putIfAbsent(family.getName(), family);
+        return existing == null ? family : (MetricFamily<T>) existing;
+    }
+
+    /**
+     * Writes every family and collector to the given writer, terminated by the OpenMetrics <code># EOF</code> marker.
+     * A failing collector is logged and skipped so that one broken source does not blank the whole scrape; the family
+     * it was writing is dropped, the families it completed before failing are kept.
+     */
+    public void scrape(Writer out) throws IOException
+    {
+        OpenMetricsWriter writer = new OpenMetricsWriter(out);
+        for (MetricFamily<?> family : families.values())
+        {
+            family.write(writer);
+        }
+        writer.commit();
+        for (MetricsCollector collector : collectors)
+        {
+            try
+            {
+                collector.collect(writer);
+                writer.commit();
+            }
+            catch (IOException e)
+            {
+                throw e;
+            }
+            catch (RuntimeException e)
+            {
+                writer.discard();
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug("Metrics collector " + collector.getClass().getName() + " failed", e);
+                }
+            }
+        }
+        writer.eof();
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes metric families in the OpenMetrics text exposition format.
+ * <p>
+ * A family is started with one of the <code>begin</code> methods and is followed by its samples. Label names and
+ * values are passed as parallel arrays so that callers can reuse them between scrapes.
+ * <p>
+ * Each family is buffered until the next one begins or it is {@link #commit() committed}, so that a source failing
+ * half way through a family can {@link #discard()} it rather than leave a partial family in the output.
+ * 
+ * @since 6.2.2
+ */
+public class OpenMetricsWriter
+{
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static final String[] NO_LABELS = new String[0];
+
+    private final Writer out;
+    private final StringBuilder buffer = new StringBuilder(1024);
+
+    public OpenMetricsWriter(Writer out)
+    {
+        this.out = out;
+    }
+
+    public void beginGauge(String name, String help) throws IOException
+    {
+        begin(name, "gauge", help);
+    }
+
+    public void beginCounter(String name, String help) throws IOException
+    {
+        begin(name, "counter", help);
+    }
+
+    public void beginHistogram(String name, String help) throws IOException
+    {
+        begin(name, "histogram", help);
+    }
+
+    public void sample(String name, double value) throws IOException
+    {
+        sample(name, NO_LABELS, NO_LABELS, value);
+    }
+
+    public void sample(String name, String labelName, String labelValue, double value) throws IOException
+    {
+        sample(name, new String[] {labelName}, new String[] {labelValue}, value);
+    }
+
+    public void sample(String name, String[] labelNames, String[] labelValues, double value) throws IOException
+    {
+        buffer.append(name);
+        writeLabels(labelNames, labelValues, null, null);
+        buffer.append(' ');
+        buffer.append(formatValue(value));
+        buffer.append('\n');
+    }
+
+    /**
+     * Writes a sample with an extra trailing label, as used by the <code>le</code> label of histogram buckets.
+     */
+    public void sample(String name, String[] labelNames, String[] labelValues, String extraName, String extraValue,
+            double value) throws IOException
+    {
+        buffer.append(name);
+        writeLabels(labelNames, labelValues, extraName, extraValue);
+        buffer.append(' ');
+        buffer.append(formatValue(value));
+        buffer.append('\n');
+    }
+
+    /**
+     * Writes out the family in progress.
+     */
+    public void commit() throws IOException
+    {
+        out.append(buffer);
+        buffer.setLength(0);
+    }
+
+    /**
+     * Drops the family in progress, the families written before it are kept.
+     */
+    public void discard()
+    {
+        buffer.setLength(0);
+    }
+
+    public void eof() throws IOException
+    {
+        commit();
+        out.write("# EOF\n");
+        out.flush();
+    }
+
+    private void begin(String name, String type, String help) throws IOException
+    {
+        commit();
+        buffer.append("# TYPE ");
+        buffer.append(name);
+        buffer.append(' ');
+        buffer.append(type);
+        buffer.append('\n');
+        if (help != null)
+        {
+            buffer.append("# HELP ");
+            buffer.append(name);
+            buffer.append(' ');
+            writeEscaped(help, false);
+            buffer.append('\n');
+        }
+    }
+
+    private void writeLabels(String[] labelNames, String[] labelValues, String extraName, String extraValue)
+            throws IOException
+    {
+        if (labelNames.length == 0 && extraName == null)
+        {
+            return;
+        }
+        buffer.append('{');
+        for (int i = 0; i < labelNames.length; i++)
+        {
+            if (i > 0)
+            {
+                buffer.append(',');
+            }
+            writeLabel(labelNames[i], labelValues[i]);
+        }
+        if (extraName != null)
+        {
+            if (labelNames.length > 0)
+            {
+                buffer.append(',');
+            }
+            writeLabel(extraName, extraValue);
+        }
+        buffer.append('}');
+    }
+
+    private void writeLabel(String name, String value) throws IOException
+    {
+        buffer.append(name);
+        buffer.append("=\"");
+        writeEscaped(value == null ? "" : value, true);
+        buffer.append('"');
+    }
+
+    private void writeEscaped(String s, boolean quotes) throws IOException
+    {
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            switch (c)
+            {
+                case '\\':
+                    buffer.append("\\\\");
+                    break;
+                case '\n':
+                    buffer.append("\\n");
+                    break;
+                case '"':
+                    buffer.append(quotes ? "\\\"" : "\"");
+                    break;
+                default:
+                    buffer.append(c);
+            }
+        }
+    }
+
+    static String formatValue(double value)
+    {
+        if (value == Double.POSITIVE_INFINITY)
+        {
+            return "+Inf";
+        }
+        if (value == Double.NEGATIVE_INFINITY)
+        {
+            return "-Inf";
+        }
+        if (Double.isNaN(value))
+        {
+            return "NaN";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15)
+        {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.alfresco.web.app.AbstractWrappingPostProcessor;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.session.SqlSessionFactory;
+
+/**
+ * Adds MyBatis {@link Interceptor}s to every {@link SqlSessionFactory} created by the repository, without having to
+ * redefine the factory beans themselves. Interceptors are applied when sessions are opened, so adding them after the
+ * factory has been built is safe.
+ * 
+ * @see StatementTimingInterceptor
+ * @since 6.2.2
+ */
+public class SqlSessionFactoryMetricsPostProcessor extends AbstractWrappingPostProcessor
+{
+    private List<Interceptor> interceptors = new ArrayList<>();
+
+    public SqlSessionFactoryMetricsPostProcessor()
+    {
+        super(null);
+        setEnabled(true);
+    }
+
+    public void setInterceptors(List<Interceptor> interceptors)
+    {
+        this.interceptors = interceptors;
+    }
+
+    @Override
+    protected boolean matches(Object bean, String beanName)
+    {
+        return bean instanceof SqlSessionFactory;
+    }
+
+    @Override
+    protected Object wrap(Object bean, String beanName)
+    {
+        for (Interceptor interceptor : interceptors)
+        {
+            ((SqlSessionFactory) bean).getConfiguration().addInterceptor(interceptor);
+        }
+        return bean;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.metrics;
+
+import java.util.Locale;
+
+import org.apache.ibatis.mapping.MappedStatement;
+
+/**
+ * Records a latency histogram per iBatis mapped statement.
+ * 
+ * @since 6.2.2
+ */
+public class StatementMetrics implements StatementListener
+{
+    private MetricsRegistry metricsRegistry;
+    private StatementTimingInterceptor statementTimingInterceptor;
+    private MetricFamily<Histogram> statements;
+
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry)
+    {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    public void setStatementTimingInterceptor(StatementTimingInterceptor statementTimingInterceptor)
+    {
+        this.statementTimingInterceptor = statementTimingInterceptor;
+    }
+
+    public void init()
+    {
+        if (metricsRegistry.isEnabled())
+        {
+            statements = metricsRegistry.histogram("alfresco_sql_statement_seconds",
+                    "Execution time of iBatis mapped statements", "statement", "type");
+            statementTimingInterceptor.addListener(this);
+        }
+    }
+
+    @Override
+    public void statementExecuted(MappedStatement statement, long nanos)
+    {
+        statements.labels(statement.getId(), statement.getSqlCommandType().name().toLowerCase(Locale.ENGLISH))
+                .observeNanos(nanos);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.metrics;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ * MyBatis plugin that times every mapped statement executed by the repository DAOs and hands the timings to the
+ * registered {@link StatementListener}s. The repository no longer uses Hibernate, so the iBatis statement id is the
+ * finest grain of database statistics available.
+ * <p>
+ * Executors are only wrapped while at least one listener is registered; with no listener the plugin costs nothing.
+ * Executors are created per session, so a listener registered during startup applies to all subsequent sessions.
+ * 
+ * @since 6.2.2
+ */
+@Intercepts({
+    @Signature(type = Executor.class, method = "query",
+            args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+    @Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class})})
+public class StatementTimingInterceptor implements Interceptor
+{
+    private final List<StatementListener> listeners = new CopyOnWriteArrayList<>();
+
+    public void addListener(StatementListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable
+    {
+        MappedStatement statement = (MappedStatement) invocation.getArgs()[0];
+        long start = System.nanoTime();
+        try
+        {
+            return invocation.proceed();
+        }
+        finally
+        {
+            long nanos = System.nanoTime() - start;
+            for (StatementListener listener : listeners)
+            {
+                listener.statementExecuted(statement, nanos);
+            }
+        }
+    }
+
+    @Override
+    public Object plugin(Object target)
+    {
+        return listeners.isEmpty() ? target : Plugin.wrap(target, this);
+    }
+
+    @Override
+    public void setProperties(Properties properties)
+    {
+    }
+}
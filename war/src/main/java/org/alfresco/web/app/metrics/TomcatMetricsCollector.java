@@ -0,0 +1,120 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Exports the connector thread pool and request processor figures that Tomcat publishes under the
+ * <code>Catalina</code> JMX domain. When the webapp is deployed in a container without these MBeans the collector
+ * writes nothing.
+ * 
+ * @since 6.2.2
+ */
+public class TomcatMetricsCollector implements MetricsCollector
+{
+    private static final String[] NAME = {"name"};
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private final ObjectName threadPools;
+    private final ObjectName requestProcessors;
+
+    public TomcatMetricsCollector()
+    {
+        try
+        {
+            threadPools = new ObjectName("Catalina:type=ThreadPool,name=*");
+            requestProcessors = new ObjectName("Catalina:type=GlobalRequestProcessor,name=*");
+        }
+        catch (JMException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void collect(OpenMetricsWriter writer) throws IOException
+    {
+        Set<ObjectName> pools = server.queryNames(threadPools, null);
+        if (!pools.isEmpty())
+        {
+            writeAttribute(writer, pools, "tomcat_threads_current", "currentThreadCount", "Current connector threads");
+            writeAttribute(writer, pools, "tomcat_threads_busy", "currentThreadsBusy", "Busy connector threads");
+            writeAttribute(writer, pools, "tomcat_threads_max", "maxThreads", "Maximum connector threads");
+            writeAttribute(writer, pools, "tomcat_connections_current", "connectionCount", "Open connections");
+        }
+        Set<ObjectName> processors = server.queryNames(requestProcessors, null);
+        if (!processors.isEmpty())
+        {
+            writeCounter(writer, processors, "tomcat_requests", "requestCount", "Requests processed by a connector");
+            writeCounter(writer, processors, "tomcat_errors", "errorCount",
+                    "Requests that resulted in an error on a connector");
+            writeCounter(writer, processors, "tomcat_bytes_sent", "bytesSent", "Bytes sent by a connector");
+        }
+    }
+
+    private void writeAttribute(OpenMetricsWriter writer, Set<ObjectName> names, String metric, String attribute,
+            String help) throws IOException
+    {
+        writer.beginGauge(metric, help);
+        writeSamples(writer, names, metric, attribute);
+    }
+
+    private void writeCounter(OpenMetricsWriter writer, Set<ObjectName> names, String metric, String attribute,
+            String help) throws IOException
+    {
+        writer.beginCounter(metric, help);
+        writeSamples(writer, names, metric + "_total", attribute);
+    }
+
+    private void writeSamples(OpenMetricsWriter writer, Set<ObjectName> names, String metric, String attribute)
+            throws IOException
+    {
+        for (ObjectName name : names)
+        {
+            Object value;
+            try
+            {
+                value = server.getAttribute(name, attribute);
+            }
+            catch (JMException e)
+            {
+                continue;
+            }
+            if (value instanceof Number)
+            {
+                writer.sample(metric, NAME, new String[] {ObjectName.unquote(name.getKeyProperty("name"))},
+                        ((Number) value).doubleValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.profiling;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * State of one request being tracked by the {@link SlowRequestMonitor}.
+ * <p>
+ * SQL statistics are only written by the request thread itself and need no synchronisation. Stack samples are written
+ * by the sampler thread and read by the request thread when it completes, so they are guarded by the instance lock.
+ * Until the request becomes slow, the only cost is the creation of this object and one map update per statement.
+ * 
+ * @since 6.2.2
+ */
+public class InFlightRequest
+{
+    private static final int MAX_DISTINCT_STACKS = 50;
+    private static final int MAX_DISTINCT_STATEMENTS = 200;
+
+    final Thread thread;
+    final long startNanos;
+    final long startMillis;
+    final String method;
+    final String uri;
+    final String correlationId;
+
+    private volatile boolean slow;
+    private int samples;
+    private final Map<String, Integer> stacks = new HashMap<>();
+    private final Map<String, long[]> statements = new LinkedHashMap<>();
+
+    InFlightRequest(Thread thread, String method, String uri, String correlationId)
+    {
+        this.thread = thread;
+        this.startNanos = System.nanoTime();
+        this.startMillis = System.currentTimeMillis();
+        this.method = method;
+        this.uri = uri;
+        this.correlationId = correlationId;
+    }
+
+    boolean isSlow()
+    {
+        return slow;
+    }
+
+    /**
+     * Called by the sampler thread.
+     */
+    synchronized void addSample(String collapsedStack)
+    {
+        slow = true;
+        samples++;
+        Integer count = stacks.get(collapsedStack);
+        if (count != null)
+        {
+            stacks.put(collapsedStack, count + 1);
+        }
+        else if (stacks.size() < MAX_DISTINCT_STACKS)
+        {
+            stacks.put(collapsedStack, 1);
+        }
+    }
+
+    synchronized int getSampleCount()
+    {
+        return samples;
+    }
+
+    synchronized Map<String, Integer> getStacks()
+    {
+        return new HashMap<>(stacks);
+    }
+
+    /**
+     * Called by the request thread only.
+     */
+    void addStatement(String statementId, long nanos)
+    {
+        long[] stats = statements.get(statementId);
+        if (stats == null)
+        {
+            if (statements.size() >= MAX_DISTINCT_STATEMENTS)
+            {
+                return;
+            }
+            stats = new long[2];
+            statements.put(statementId, stats);
+        }
+        stats[0]++;
+        stats[1] += nanos;
+    }
+
+    Map<String, long[]> getStatements()
+    {
+        return statements;
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.profiling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.alfresco.web.app.metrics.StatementListener;
+import org.alfresco.web.app.metrics.StatementTimingInterceptor;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.ibatis.mapping.MappedStatement;
+
+/**
+ * Tracks the requests in flight and profiles those that run longer than a threshold.
+ * <p>
+ * A single sampler thread wakes up every <code>sampleIntervalMs</code> and captures the stack of each request thread
+ * that has been running for more than <code>thresholdMs</code>. The SQL statements issued by each request thread are
+ * counted as they execute. When a request that was sampled completes, a {@link SlowRequestRecord} with its aggregated
+ * stacks and statement counts is written to a fixed size ring buffer, overwriting the oldest record.
+ * <p>
+ * Requests that complete below the threshold are never sampled; they only pay for a map insert and removal, and a
+ * map update per SQL statement.
+ * 
+ * @since 6.2.2
+ */
+public class SlowRequestMonitor implements StatementListener
+{
+    private static final Log logger = LogFactory.getLog(SlowRequestMonitor.class);
+
+    private boolean enabled;
+    private long thresholdMs = 2000;
+    private long sampleIntervalMs = 100;
+    private int maxStackDepth = 32;
+    private int bufferSize = 200;
+    private StatementTimingInterceptor statementTimingInterceptor;
+
+    private final ConcurrentMap<Thread, InFlightRequest> inFlight = new ConcurrentHashMap<>();
+    private final ThreadLocal<InFlightRequest> current = new ThreadLocal<>();
+    private final AtomicLong written = new AtomicLong();
+    private AtomicReferenceArray<SlowRequestRecord> records;
+    private ScheduledExecutorService sampler;
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setThresholdMs(long thresholdMs)
+    {
+        this.thresholdMs = thresholdMs;
+    }
+
+    public void setSampleIntervalMs(long sampleIntervalMs)
+    {
+        this.sampleIntervalMs = sampleIntervalMs;
+    }
+
+    public void setMaxStackDepth(int maxStackDepth)
+    {
+        this.maxStackDepth = maxStackDepth;
+    }
+
+    public void setBufferSize(int bufferSize)
+    {
+        this.bufferSize = bufferSize;
+    }
+
+    public void setStatementTimingInterceptor(StatementTimingInterceptor statementTimingInterceptor)
+    {
+        this.statementTimingInterceptor = statementTimingInterceptor;
+    }
+
+    public void init()
+    {
+        if (!enabled)
+        {
+            return;
+        }
+        records = new AtomicReferenceArray<>(bufferSize);
+        statementTimingInterceptor.addListener(this);
+        sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "SlowRequestSampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(this::sample, sampleIntervalMs, sampleIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void destroy()
+    {
+        if (sampler != null)
+        {
+            sampler.shutdownNow();
+        }
+    }
+
+    /**
+     * Starts tracking a request on the current thread.
+     */
+    public InFlightRequest begin(String method, String uri, String correlationId)
+    {
+        Thread thread = Thread.currentThread();
+        InFlightRequest request = new InFlightRequest(thread, method, uri, correlationId);
+        inFlight.put(thread, request);
+        current.set(request);
+        return request;
+    }
+
+    /**
+     * Stops tracking the request and records it if it was sampled.
+     */
+    public void end(InFlightRequest request, int status)
+    {
+        inFlight.remove(request.thread);
+        current.remove();
+        if (!request.isSlow())
+        {
+            return;
+        }
+
+        long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - request.startNanos);
+        List<SlowRequestRecord.StackSample> stacks = new ArrayList<>();
+        for (Map.Entry<String, Integer> stack : request.getStacks().entrySet())
+        {
+            stacks.add(new SlowRequestRecord.StackSample(stack.getKey(), stack.getValue()));
+        }
+        stacks.sort(Comparator.comparingInt(SlowRequestRecord.StackSample::getCount).reversed());
+        List<SlowRequestRecord.StatementStats> statements = new ArrayList<>();
+        for (Map.Entry<String, long[]> statement : request.getStatements().entrySet())
+        {
+            long[] stats = statement.getValue();
+            statements.add(new SlowRequestRecord.StatementStats(statement.getKey(), stats[0], stats[1] / 1e6));
+        }
+        statements.sort(Comparator.comparingDouble(SlowRequestRecord.StatementStats::getTotalMs).reversed());
+
+        SlowRequestRecord record = new SlowRequestRecord(request.startMillis, durationMs, request.method, request.uri,
+                status, request.correlationId, request.thread.getName(), request.getSampleCount(), stacks, statements);
+        records.set((int) (written.getAndIncrement() % bufferSize), record);
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Slow request " + request.method + " " + request.uri + " took " + durationMs + " ms ("
+                    + statements.size() + " distinct statements)");
+        }
+    }
+
+    @Override
+    public void statementExecuted(MappedStatement statement, long nanos)
+    {
+        InFlightRequest request = current.get();
+        if (request != null)
+        {
+            request.addStatement(statement.getId(), nanos);
+        }
+    }
+
+    /**
+     * @param limit         the maximum number of records to return
+     * @param minDurationMs only return requests that took at least this long
+     * @return the recorded slow requests, newest first
+     */
+    public List<SlowRequestRecord> getRecords(int limit, long minDurationMs)
+    {
+        if (records == null)
+        {
+            return Collections.emptyList();
+        }
+        List<SlowRequestRecord> result = new ArrayList<>();
+        long last = written.get();
+        for (long i = last - 1; i >= 0 && i >= last - bufferSize && result.size() < limit; i--)
+        {
+            SlowRequestRecord record = records.get((int) (i % bufferSize));
+            if (record != null && record.getDurationMs() >= minDurationMs)
+            {
+                result.add(record);
+            }
+        }
+        return result;
+    }
+
+    private void sample()
+    {
+        try
+        {
+            long threshold = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(thresholdMs);
+            for (InFlightRequest request : inFlight.values())
+            {
+                if (request.startNanos <= threshold)
+                {
+                    request.addSample(collapse(request.thread.getStackTrace()));
+                }
+            }
+        }
+        catch (RuntimeException e)
+        {
+            // Never let an exception cancel the scheduled sampling
+            logger.warn("Slow request sampling failed", e);
+        }
+    }
+
+    /**
+     * Collapses the innermost <code>maxStackDepth</code> frames into one line, outermost frame first.
+     */
+    private String collapse(StackTraceElement[] frames)
+    {
+        StringBuilder sb = new StringBuilder(1024);
+        int depth = Math.min(frames.length, maxStackDepth);
+        for (int i = depth - 1; i >= 0; i--)
+        {
+            StackTraceElement frame = frames[i];
+            sb.append(frame.getClassName()).append('.').append(frame.getMethodName());
+            if (frame.getLineNumber() > 0)
+            {
+                sb.append(':').append(frame.getLineNumber());
+            }
+            if (i > 0)
+            {
+                sb.append(';');
+            }
+        }
+        return sb.toString();
+    }
+}
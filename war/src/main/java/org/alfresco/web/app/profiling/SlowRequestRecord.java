@@ -0,0 +1,171 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.profiling;
+
+import java.util.List;
+
+/**
+ * Compact, immutable record of a request that exceeded the slow request threshold, as returned by the
+ * <code>/slowrequests</code> servlet.
+ * 
+ * @since 6.2.2
+ */
+public class SlowRequestRecord
+{
+    private final long startTime;
+    private final long durationMs;
+    private final String method;
+    private final String uri;
+    private final int status;
+    private final String correlationId;
+    private final String threadName;
+    private final int sampleCount;
+    private final List<StackSample> stacks;
+    private final List<StatementStats> statements;
+
+    SlowRequestRecord(long startTime, long durationMs, String method, String uri, int status, String correlationId,
+            String threadName, int sampleCount, List<StackSample> stacks, List<StatementStats> statements)
+    {
+        this.startTime = startTime;
+        this.durationMs = durationMs;
+        this.method = method;
+        this.uri = uri;
+        this.status = status;
+        this.correlationId = correlationId;
+        this.threadName = threadName;
+        this.sampleCount = sampleCount;
+        this.stacks = stacks;
+        this.statements = statements;
+    }
+
+    public long getStartTime()
+    {
+        return startTime;
+    }
+
+    public long getDurationMs()
+    {
+        return durationMs;
+    }
+
+    public String getMethod()
+    {
+        return method;
+    }
+
+    public String getUri()
+    {
+        return uri;
+    }
+
+    public int getStatus()
+    {
+        return status;
+    }
+
+    public String getCorrelationId()
+    {
+        return correlationId;
+    }
+
+    public String getThreadName()
+    {
+        return threadName;
+    }
+
+    public int getSampleCount()
+    {
+        return sampleCount;
+    }
+
+    public List<StackSample> getStacks()
+    {
+        return stacks;
+    }
+
+    public List<StatementStats> getStatements()
+    {
+        return statements;
+    }
+
+    /**
+     * A collapsed stack (outermost frame first, frames separated by <code>;</code>) and the number of samples that
+     * found the request thread in it.
+     */
+    public static class StackSample
+    {
+        private final String stack;
+        private final int count;
+
+        StackSample(String stack, int count)
+        {
+            this.stack = stack;
+            this.count = count;
+        }
+
+        public String getStack()
+        {
+            return stack;
+        }
+
+        public int getCount()
+        {
+            return count;
+        }
+    }
+
+    /**
+     * Executions and total time of one iBatis mapped statement issued by the request thread.
+     */
+    public static class StatementStats
+    {
+        private final String statement;
+        private final long count;
+        private final double totalMs;
+
+        StatementStats(String statement, long count, double totalMs)
+        {
+            this.statement = statement;
+            this.count = count;
+            this.totalMs = totalMs;
+        }
+
+        public String getStatement()
+        {
+            return statement;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public double getTotalMs()
+        {
+            return totalMs;
+        }
+    }
+}
@@ -0,0 +1,554 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.rendition;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.model.RenditionModel;
+import org.alfresco.repo.content.ContentServicePolicies;
+import org.alfresco.repo.policy.Behaviour.NotificationFrequency;
+import org.alfresco.repo.policy.JavaBehaviour;
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.util.ParameterCheck;
+import org.alfresco.util.TempFileProvider;
+import org.alfresco.web.app.metrics.MetricsCollector;
+import org.alfresco.web.app.metrics.OpenMetricsWriter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Two tier cache of rendition responses. Entries are kept in memory up to <code>memoryMaxBytes</code>; the least
+ * recently used ones are then moved to files in a long life temporary directory, which the temporary file cleaner
+ * leaves alone and which holds up to <code>diskMaxBytes</code> before the least recently used files are deleted. A
+ * disk hit moves the entry back to memory. The maps are guarded by the monitor of the cache, and files are only
+ * written, read and deleted without holding it.
+ * <p>
+ * Keys include the content URL of the source node, so a changed source can never be answered from an entry made for
+ * its previous content. Content updates of a source or of one of its renditions also drop the entries of the source
+ * straight away so they do not hold space until they are evicted.
+ * 
+ * @since 6.2.2
+ */
+public class RenditionCache implements ContentServicePolicies.OnContentUpdatePolicy, MetricsCollector,
+        InitializingBean, DisposableBean
+{
+    private static final Log logger = LogFactory.getLog(RenditionCache.class);
+
+    private static final String CACHE_DIR = "rendition-cache";
+
+    private boolean enabled;
+    private long memoryMaxBytes = 64L * 1024 * 1024;
+    private long diskMaxBytes = 1024L * 1024 * 1024;
+    private int maxEntrySize = 2 * 1024 * 1024;
+    private PolicyComponent policyComponent;
+    private NodeService nodeService;
+
+    private File cacheDir;
+    private final LinkedHashMap<String, CachedRendition> memory = new LinkedHashMap<>(256, 0.75f, true);
+    private final LinkedHashMap<String, CachedRendition> disk = new LinkedHashMap<>(256, 0.75f, true);
+    /** evicted from memory, their files being written */
+    private final Map<String, CachedRendition> spilling = new HashMap<>();
+    private final Map<NodeRef, Set<String>> keysByNode = new HashMap<>();
+
+    private final AtomicLong memoryBytes = new AtomicLong();
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setMemoryMaxBytes(long memoryMaxBytes)
+    {
+        this.memoryMaxBytes = memoryMaxBytes;
+    }
+
+    public void setDiskMaxBytes(long diskMaxBytes)
+    {
+        this.diskMaxBytes = diskMaxBytes;
+    }
+
+    public void setMaxEntrySize(int maxEntrySize)
+    {
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    public int getMaxEntrySize()
+    {
+        return maxEntrySize;
+    }
+
+    public void setPolicyComponent(PolicyComponent policyComponent)
+    {
+        this.policyComponent = policyComponent;
+    }
+
+    public void setNodeService(NodeService nodeService)
+    {
+        this.nodeService = nodeService;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws IOException
+    {
+        ParameterCheck.mandatory("policyComponent", policyComponent);
+        ParameterCheck.mandatory("nodeService", nodeService);
+        if (!enabled)
+        {
+            return;
+        }
+
+        cacheDir = TempFileProvider.getLongLifeTempDir(CACHE_DIR);
+        // files of a previous run are not indexed
+        deleteFiles();
+
+        policyComponent.bindClassBehaviour(ContentServicePolicies.OnContentUpdatePolicy.QNAME,
+                ContentModel.TYPE_CONTENT,
+                new JavaBehaviour(this, "onContentUpdate", NotificationFrequency.TRANSACTION_COMMIT));
+    }
+
+    @Override
+    public void destroy()
+    {
+        synchronized (this)
+        {
+            memory.clear();
+            spilling.clear();
+            disk.clear();
+            keysByNode.clear();
+        }
+        if (cacheDir != null)
+        {
+            deleteFiles();
+        }
+    }
+
+    /**
+     * Builds the key of a rendition response.
+     * 
+     * @param nodeRef the source node
+     * @param contentUrl the content URL of the source node
+     * @param renditionId the rendition name, e.g. <code>doclib</code>
+     * @param attachment whether the response is sent as an attachment
+     */
+    public static String key(NodeRef nodeRef, String contentUrl, String renditionId, boolean attachment)
+    {
+        return nodeRef + "|" + contentUrl + "|" + renditionId + "|" + (attachment ? "a" : "d");
+    }
+
+    /**
+     * Builds the entity tag of a rendition response, stable for as long as the key is.
+     */
+    public static String etag(String key)
+    {
+        return "\"" + UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+
+    /**
+     * @return the cached response, or <tt>null</tt>
+     */
+    public CachedRendition get(String key)
+    {
+        CachedRendition cached;
+        synchronized (this)
+        {
+            cached = memory.get(key);
+            if (cached == null)
+            {
+                // still in memory while its file is written
+                cached = spilling.get(key);
+            }
+            if (cached != null)
+            {
+                memoryHits.increment();
+                return cached;
+            }
+            cached = disk.get(key);
+        }
+        if (cached == null)
+        {
+            misses.increment();
+            return null;
+        }
+
+        byte[] bytes;
+        try
+        {
+            bytes = Files.readAllBytes(cached.file.toPath());
+        }
+        catch (IOException e)
+        {
+            // evicted while it was read
+            misses.increment();
+            return null;
+        }
+        diskHits.increment();
+        CachedRendition promoted = new CachedRendition(cached.nodeRef, cached.mimetype, cached.contentDisposition,
+                bytes, null);
+        Changes changes = new Changes();
+        synchronized (this)
+        {
+            if (disk.get(key) == cached)
+            {
+                removeFromDisk(key, changes);
+                addToMemory(key, promoted, changes);
+            }
+        }
+        apply(changes);
+        return promoted;
+    }
+
+    /**
+     * Adds a response. Responses larger than <code>maxEntrySize</code> are ignored.
+     */
+    public void put(String key, NodeRef nodeRef, String mimetype, String contentDisposition, byte[] bytes)
+    {
+        if (bytes.length > maxEntrySize || bytes.length > memoryMaxBytes)
+        {
+            return;
+        }
+        CachedRendition cached = new CachedRendition(nodeRef, mimetype, contentDisposition, bytes, null);
+        Changes changes = new Changes();
+        synchronized (this)
+        {
+            remove(key, changes);
+            addToMemory(key, cached, changes);
+        }
+        apply(changes);
+        stores.increment();
+    }
+
+    /**
+     * Drops every response cached for the node.
+     */
+    public void invalidate(NodeRef nodeRef)
+    {
+        Changes changes = new Changes();
+        synchronized (this)
+        {
+            Set<String> keys = keysByNode.remove(nodeRef);
+            if (keys == null)
+            {
+                return;
+            }
+            for (String key : keys)
+            {
+                removeFromMemory(key);
+                spilling.remove(key);
+                removeFromDisk(key, changes);
+            }
+        }
+        apply(changes);
+        invalidations.increment();
+    }
+
+    @Override
+    public void onContentUpdate(NodeRef nodeRef, boolean newContent)
+    {
+        invalidate(nodeRef);
+        if (nodeService.exists(nodeRef) && (nodeService.hasAspect(nodeRef, RenditionModel.ASPECT_RENDITION)
+                || nodeService.hasAspect(nodeRef, RenditionModel.ASPECT_RENDITION2)))
+        {
+            ChildAssociationRef parent = nodeService.getPrimaryParent(nodeRef);
+            if (parent != null && parent.getParentRef() != null)
+            {
+                invalidate(parent.getParentRef());
+            }
+        }
+    }
+
+    /**
+     * Moves the least recently used entries out of memory. The ones that fit on disk are left in {@link #spilling}
+     * for their files to be written without holding the monitor.
+     */
+    private void addToMemory(String key, CachedRendition cached, Changes changes)
+    {
+        memory.put(key, cached);
+        memoryBytes.addAndGet(cached.getSize());
+        keysByNode.computeIfAbsent(cached.nodeRef, n -> new HashSet<>()).add(key);
+
+        Iterator<Map.Entry<String, CachedRendition>> eldest = memory.entrySet().iterator();
+        while (memoryBytes.get() > memoryMaxBytes && eldest.hasNext())
+        {
+            Map.Entry<String, CachedRendition> entry = eldest.next();
+            eldest.remove();
+            memoryBytes.addAndGet(-entry.getValue().getSize());
+            if (diskMaxBytes < entry.getValue().getSize())
+            {
+                unindex(entry.getKey(), entry.getValue().nodeRef);
+                evictions.increment();
+                continue;
+            }
+            spilling.put(entry.getKey(), entry.getValue());
+            changes.spills.add(new AbstractMap.SimpleImmutableEntry<>(entry));
+        }
+    }
+
+    /**
+     * Writes the files of the spilled entries and deletes the files of the removed ones, outside the monitor.
+     */
+    private void apply(Changes changes)
+    {
+        for (Map.Entry<String, CachedRendition> spill : changes.spills)
+        {
+            spill(spill.getKey(), spill.getValue(), changes.deletions);
+        }
+        for (File file : changes.deletions)
+        {
+            deleteFile(file);
+        }
+    }
+
+    private void spill(String key, CachedRendition cached, List<File> deletions)
+    {
+        File file = new File(cacheDir, UUID.randomUUID().toString());
+        try
+        {
+            writeFile(file, cached.bytes);
+        }
+        catch (IOException e)
+        {
+            logger.warn("Unable to move rendition cache entry to " + file + ": " + e.getMessage());
+            deletions.add(file);
+            synchronized (this)
+            {
+                if (spilling.remove(key, cached))
+                {
+                    unindex(key, cached.nodeRef);
+                    evictions.increment();
+                }
+            }
+            return;
+        }
+        synchronized (this)
+        {
+            if (!spilling.remove(key, cached))
+            {
+                // replaced or invalidated while it was written
+                deletions.add(file);
+                return;
+            }
+            disk.put(key, new CachedRendition(cached.nodeRef, cached.mimetype, cached.contentDisposition, null, file,
+                    cached.bytes.length));
+            diskBytes.addAndGet(cached.getSize());
+
+            Iterator<Map.Entry<String, CachedRendition>> eldest = disk.entrySet().iterator();
+            while (diskBytes.get() > diskMaxBytes && eldest.hasNext())
+            {
+                Map.Entry<String, CachedRendition> entry = eldest.next();
+                eldest.remove();
+                diskBytes.addAndGet(-entry.getValue().getSize());
+                deletions.add(entry.getValue().file);
+                unindex(entry.getKey(), entry.getValue().nodeRef);
+                evictions.increment();
+            }
+        }
+    }
+
+    private void remove(String key, Changes changes)
+    {
+        CachedRendition removed = removeFromMemory(key);
+        if (removed == null)
+        {
+            removed = spilling.remove(key);
+        }
+        if (removed == null)
+        {
+            removed = removeFromDisk(key, changes);
+        }
+        if (removed != null)
+        {
+            unindex(key, removed.nodeRef);
+        }
+    }
+
+    void writeFile(File file, byte[] bytes) throws IOException
+    {
+        Files.write(file.toPath(), bytes);
+    }
+
+    private CachedRendition removeFromMemory(String key)
+    {
+        CachedRendition removed = memory.remove(key);
+        if (removed != null)
+        {
+            memoryBytes.addAndGet(-removed.getSize());
+        }
+        return removed;
+    }
+
+    private CachedRendition removeFromDisk(String key, Changes changes)
+    {
+        CachedRendition removed = disk.remove(key);
+        if (removed != null)
+        {
+            diskBytes.addAndGet(-removed.getSize());
+            changes.deletions.add(removed.file);
+        }
+        return removed;
+    }
+
+    private void unindex(String key, NodeRef nodeRef)
+    {
+        Set<String> keys = keysByNode.get(nodeRef);
+        if (keys != null && keys.remove(key) && keys.isEmpty())
+        {
+            keysByNode.remove(nodeRef);
+        }
+    }
+
+    private void deleteFiles()
+    {
+        File[] files = cacheDir.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                deleteFile(file);
+            }
+        }
+    }
+
+    private static void deleteFile(File file)
+    {
+        if (!file.delete() && file.exists())
+        {
+            logger.debug("Unable to delete rendition cache file " + file);
+        }
+    }
+
+    @Override
+    public void collect(OpenMetricsWriter writer) throws IOException
+    {
+        writer.beginCounter("alfresco_rendition_cache_hits", "Rendition responses served from the cache");
+        writer.sample("alfresco_rendition_cache_hits_total", "tier", "memory", memoryHits.sum());
+        writer.sample("alfresco_rendition_cache_hits_total", "tier", "disk", diskHits.sum());
+        writer.beginCounter("alfresco_rendition_cache_misses", "Rendition responses not found in the cache");
+        writer.sample("alfresco_rendition_cache_misses_total", misses.sum());
+        writer.beginCounter("alfresco_rendition_cache_stores", "Rendition responses added to the cache");
+        writer.sample("alfresco_rendition_cache_stores_total", stores.sum());
+        writer.beginCounter("alfresco_rendition_cache_evictions", "Rendition responses evicted from the disk tier");
+        writer.sample("alfresco_rendition_cache_evictions_total", evictions.sum());
+        writer.beginCounter("alfresco_rendition_cache_invalidations", "Nodes whose cached renditions were dropped");
+        writer.sample("alfresco_rendition_cache_invalidations_total", invalidations.sum());
+        writer.beginGauge("alfresco_rendition_cache_bytes", "Size of the cached rendition responses");
+        writer.sample("alfresco_rendition_cache_bytes", "tier", "memory", memoryBytes.get());
+        writer.sample("alfresco_rendition_cache_bytes", "tier", "disk", diskBytes.get());
+    }
+
+    /**
+     * The files to write and delete once the monitor is released
+     */
+    private static final class Changes
+    {
+        private final List<Map.Entry<String, CachedRendition>> spills = new ArrayList<>();
+        private final List<File> deletions = new ArrayList<>();
+    }
+
+    /**
+     * A cached rendition response, held either in memory or in a file of the disk tier.
+     */
+    public static final class CachedRendition
+    {
+        private final NodeRef nodeRef;
+        private final String mimetype;
+        private final String contentDisposition;
+        private final byte[] bytes;
+        private final File file;
+        private final long size;
+
+        private CachedRendition(NodeRef nodeRef, String mimetype, String contentDisposition, byte[] bytes, File file)
+        {
+            this(nodeRef, mimetype, contentDisposition, bytes, file, bytes.length);
+        }
+
+        private CachedRendition(NodeRef nodeRef, String mimetype, String contentDisposition, byte[] bytes, File file,
+                long size)
+        {
+            this.nodeRef = nodeRef;
+            this.mimetype = mimetype;
+            this.contentDisposition = contentDisposition;
+            this.bytes = bytes;
+            this.file = file;
+            this.size = size;
+        }
+
+        public String getMimetype()
+        {
+            return mimetype;
+        }
+
+        public String getContentDisposition()
+        {
+            return contentDisposition;
+        }
+
+        /**
+         * @return the content, only held by entries returned from {@link RenditionCache#get(String)}
+         */
+        public byte[] getBytes()
+        {
+            return bytes;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+    }
+}
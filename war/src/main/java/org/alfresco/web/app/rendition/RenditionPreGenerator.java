@@ -0,0 +1,448 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.rendition;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.model.RenditionModel;
+import org.alfresco.repo.content.ContentServicePolicies;
+import org.alfresco.repo.policy.Behaviour.NotificationFrequency;
+import org.alfresco.repo.policy.JavaBehaviour;
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.repo.rendition2.RenditionService2;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.ParameterCheck;
+import org.alfresco.util.TraceableThreadFactory;
+import org.alfresco.web.app.metrics.MetricsCollector;
+import org.alfresco.web.app.metrics.OpenMetricsWriter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Requests the configured renditions of new content in the background, so that the first user to view a document
+ * does not wait for its thumbnail.
+ * <p>
+ * Content updates are queued once their transaction has committed. A node is queued at most once, so repeated
+ * updates before its turn cost nothing. The queue is bounded and ordered by priority: a node somebody is looking at
+ * is moved ahead of the background work with {@link #prioritise(NodeRef)}, and renditions that were requested
+ * explicitly are taken off it with {@link #cancel(NodeRef, Collection)}. Worker threads take up to
+ * <code>batchSize</code> nodes at a time and request their missing renditions in a single transaction. This only
+ * defers the requests to the commit of that transaction, when {@link RenditionService2} sends them one by one; it
+ * saves a transaction per node, not transform calls.
+ * <p>
+ * Only renditions that do not exist yet are requested. {@link RenditionService2} already brings existing renditions
+ * up to date when the content of their source changes.
+ * 
+ * @since 6.2.2
+ */
+public class RenditionPreGenerator implements ContentServicePolicies.OnContentUpdatePolicy, MetricsCollector,
+        InitializingBean, DisposableBean
+{
+    private static final Log logger = LogFactory.getLog(RenditionPreGenerator.class);
+
+    private static final String KEY_UPDATED_NODES = RenditionPreGenerator.class.getName() + ".updatedNodes";
+
+    /** Order of the queue, highest priority first */
+    public enum Priority
+    {
+        INTERACTIVE, BACKGROUND
+    }
+
+    private boolean enabled;
+    private String[] renditionNames = {"doclib"};
+    private int capacity = 10000;
+    private int batchSize = 20;
+    private int threads = 1;
+    private PolicyComponent policyComponent;
+    private NodeService nodeService;
+    private RenditionService2 renditionService2;
+    private TransactionService transactionService;
+
+    private final PriorityBlockingQueue<Task> queue = new PriorityBlockingQueue<>();
+    private final ConcurrentHashMap<NodeRef, Task> pending = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running;
+
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder prioritised = new LongAdder();
+    private final LongAdder requested = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * @param renditionNames names of the renditions to create, e.g. <code>doclib,pdf</code>
+     */
+    public void setRenditionNames(String[] renditionNames)
+    {
+        this.renditionNames = renditionNames;
+    }
+
+    public void setCapacity(int capacity)
+    {
+        this.capacity = capacity;
+    }
+
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = batchSize;
+    }
+
+    public void setThreads(int threads)
+    {
+        this.threads = threads;
+    }
+
+    public void setPolicyComponent(PolicyComponent policyComponent)
+    {
+        this.policyComponent = policyComponent;
+    }
+
+    public void setNodeService(NodeService nodeService)
+    {
+        this.nodeService = nodeService;
+    }
+
+    public void setRenditionService2(RenditionService2 renditionService2)
+    {
+        this.renditionService2 = renditionService2;
+    }
+
+    public void setTransactionService(TransactionService transactionService)
+    {
+        this.transactionService = transactionService;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        ParameterCheck.mandatory("policyComponent", policyComponent);
+        ParameterCheck.mandatory("nodeService", nodeService);
+        ParameterCheck.mandatory("renditionService2", renditionService2);
+        ParameterCheck.mandatory("transactionService", transactionService);
+        if (!enabled)
+        {
+            return;
+        }
+
+        policyComponent.bindClassBehaviour(ContentServicePolicies.OnContentUpdatePolicy.QNAME,
+                ContentModel.TYPE_CONTENT,
+                new JavaBehaviour(this, "onContentUpdate", NotificationFrequency.TRANSACTION_COMMIT));
+
+        TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+        threadFactory.setThreadDaemon(true);
+        threadFactory.setNamePrefix("RenditionPreGenerator");
+        running = true;
+        for (int i = 0; i < threads; i++)
+        {
+            Thread worker = threadFactory.newThread(this::work);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    @Override
+    public void destroy()
+    {
+        running = false;
+        for (Thread worker : workers)
+        {
+            worker.interrupt();
+        }
+        workers.clear();
+        queue.clear();
+        pending.clear();
+    }
+
+    @Override
+    public void onContentUpdate(NodeRef nodeRef, boolean newContent)
+    {
+        if (!nodeService.exists(nodeRef) || nodeService.hasAspect(nodeRef, RenditionModel.ASPECT_RENDITION)
+                || nodeService.hasAspect(nodeRef, RenditionModel.ASPECT_RENDITION2))
+        {
+            return;
+        }
+
+        Set<NodeRef> updated = AlfrescoTransactionSupport.getResource(KEY_UPDATED_NODES);
+        if (updated == null)
+        {
+            updated = ConcurrentHashMap.newKeySet();
+            AlfrescoTransactionSupport.bindResource(KEY_UPDATED_NODES, updated);
+            final Set<NodeRef> nodeRefs = updated;
+            AlfrescoTransactionSupport.bindListener(new TransactionListenerAdapter()
+            {
+                @Override
+                public void afterCommit()
+                {
+                    for (NodeRef nodeRef : nodeRefs)
+                    {
+                        enqueue(nodeRef, Priority.BACKGROUND);
+                    }
+                }
+            });
+        }
+        updated.add(nodeRef);
+    }
+
+    /**
+     * Queues a node, unless it is queued already or the queue is full.
+     */
+    public synchronized void enqueue(NodeRef nodeRef, Priority priority)
+    {
+        if (!running)
+        {
+            return;
+        }
+        Task existing = pending.get(nodeRef);
+        if (existing != null)
+        {
+            // renditions cancelled since it was queued are needed again for the new content
+            existing.renditionNames.addAll(Arrays.asList(renditionNames));
+            deduplicated.increment();
+            if (priority.compareTo(existing.priority) < 0)
+            {
+                requeue(existing, priority);
+            }
+            return;
+        }
+        if (queue.size() >= capacity)
+        {
+            dropped.increment();
+            return;
+        }
+        Set<String> names = ConcurrentHashMap.newKeySet();
+        names.addAll(Arrays.asList(renditionNames));
+        Task task = new Task(nodeRef, names, priority, sequence.incrementAndGet());
+        pending.put(nodeRef, task);
+        queue.add(task);
+        queued.increment();
+    }
+
+    /**
+     * Moves a queued node ahead of the background work.
+     */
+    public synchronized void prioritise(NodeRef nodeRef)
+    {
+        Task existing = pending.get(nodeRef);
+        if (existing != null && existing.priority != Priority.INTERACTIVE)
+        {
+            requeue(existing, Priority.INTERACTIVE);
+            prioritised.increment();
+        }
+    }
+
+    /**
+     * Takes renditions of a node off the queue, for example because they are being requested explicitly. The node
+     * is taken out once none of its renditions are left.
+     */
+    public synchronized void cancel(NodeRef nodeRef, Collection<String> names)
+    {
+        Task existing = pending.get(nodeRef);
+        if (existing != null)
+        {
+            existing.renditionNames.removeAll(names);
+            if (existing.renditionNames.isEmpty())
+            {
+                pending.remove(nodeRef);
+                queue.remove(existing);
+            }
+        }
+    }
+
+    /**
+     * @return the renditions still to be requested for a queued node, or <tt>null</tt> if it is not queued
+     */
+    synchronized Set<String> getQueuedRenditions(NodeRef nodeRef)
+    {
+        Task existing = pending.get(nodeRef);
+        return existing == null ? null : Set.copyOf(existing.renditionNames);
+    }
+
+    private void requeue(Task existing, Priority priority)
+    {
+        if (queue.remove(existing))
+        {
+            // keeps its position among the tasks of the new priority
+            Task task = new Task(existing.nodeRef, existing.renditionNames, priority, existing.sequence);
+            pending.put(task.nodeRef, task);
+            queue.add(task);
+        }
+    }
+
+    private void work()
+    {
+        List<Task> batch = new ArrayList<>(batchSize);
+        while (running)
+        {
+            try
+            {
+                batch.add(queue.take());
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            List<Task> tasks = new ArrayList<>(batch.size());
+            synchronized (this)
+            {
+                for (Task task : batch)
+                {
+                    if (pending.remove(task.nodeRef, task))
+                    {
+                        tasks.add(task);
+                    }
+                }
+            }
+            batch.clear();
+
+            try
+            {
+                AuthenticationUtil.runAsSystem(() -> transactionService.getRetryingTransactionHelper()
+                        .doInTransaction(() -> render(tasks), false, true));
+            }
+            catch (RuntimeException e)
+            {
+                failed.add(tasks.size());
+                logger.warn("Unable to request renditions of " + tasks.size() + " nodes: " + e.getMessage());
+            }
+        }
+    }
+
+    private Void render(List<Task> tasks)
+    {
+        if (!renditionService2.isEnabled())
+        {
+            return null;
+        }
+        for (Task task : tasks)
+        {
+            NodeRef nodeRef = task.nodeRef;
+            if (!nodeService.exists(nodeRef))
+            {
+                continue;
+            }
+            Serializable content = nodeService.getProperty(nodeRef, ContentModel.PROP_CONTENT);
+            if (!(content instanceof ContentData) || ((ContentData) content).getContentUrl() == null)
+            {
+                continue;
+            }
+            ContentData contentData = (ContentData) content;
+            Set<String> supported = renditionService2.getRenditionDefinitionRegistry2()
+                    .getRenditionNamesFrom(contentData.getMimetype(), contentData.getSize());
+            for (String renditionName : task.renditionNames)
+            {
+                if (supported.contains(renditionName) && !hasRendition(nodeRef, renditionName))
+                {
+                    renditionService2.render(nodeRef, renditionName);
+                    requested.increment();
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean hasRendition(NodeRef nodeRef, String renditionName)
+    {
+        QName assocName = QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, renditionName);
+        return !nodeService.getChildAssocs(nodeRef, RenditionModel.ASSOC_RENDITION, assocName).isEmpty();
+    }
+
+    @Override
+    public void collect(OpenMetricsWriter writer) throws IOException
+    {
+        writer.beginGauge("alfresco_rendition_pregeneration_queue_size", "Nodes waiting for their renditions");
+        writer.sample("alfresco_rendition_pregeneration_queue_size", queue.size());
+        writer.beginCounter("alfresco_rendition_pregeneration_queued", "Nodes queued for rendition pre-generation");
+        writer.sample("alfresco_rendition_pregeneration_queued_total", queued.sum());
+        writer.beginCounter("alfresco_rendition_pregeneration_deduplicated", "Updates of nodes that were queued already");
+        writer.sample("alfresco_rendition_pregeneration_deduplicated_total", deduplicated.sum());
+        writer.beginCounter("alfresco_rendition_pregeneration_dropped", "Updates not queued because the queue was full");
+        writer.sample("alfresco_rendition_pregeneration_dropped_total", dropped.sum());
+        writer.beginCounter("alfresco_rendition_pregeneration_prioritised", "Queued nodes moved ahead for a viewer");
+        writer.sample("alfresco_rendition_pregeneration_prioritised_total", prioritised.sum());
+        writer.beginCounter("alfresco_rendition_pregeneration_requested", "Renditions requested ahead of time");
+        writer.sample("alfresco_rendition_pregeneration_requested_total", requested.sum());
+        writer.beginCounter("alfresco_rendition_pregeneration_failed", "Nodes whose batch could not be requested");
+        writer.sample("alfresco_rendition_pregeneration_failed_total", failed.sum());
+    }
+
+    private static final class Task implements Comparable<Task>
+    {
+        private final NodeRef nodeRef;
+        /** shared by the requeued copies of the task */
+        private final Set<String> renditionNames;
+        private final Priority priority;
+        private final long sequence;
+
+        private Task(NodeRef nodeRef, Set<String> renditionNames, Priority priority, long sequence)
+        {
+            this.nodeRef = nodeRef;
+            this.renditionNames = renditionNames;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Task other)
+        {
+            int result = priority.compareTo(other.priority);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.rendition;
+
+import org.alfresco.repo.rendition2.RenditionDefinition2;
+import org.alfresco.repo.rendition2.RenditionService2;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.web.app.AbstractWrappingPostProcessor;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.beans.factory.ObjectFactory;
+
+/**
+ * Proxies the rendition service bean so that {@link RenditionService2#render(NodeRef, String)} goes through the
+ * {@link RenditionRequestRegistry} when request coalescing is enabled, and so that the registry hears of transforms that
+ * failed through <code>consume</code> and <code>failure</code>. The implementation class is proxied, rather
+ * than the interface, because beans are injected with it.
+ * 
+ * @since 6.2.2
+ */
+public class RenditionRequestCoalescingPostProcessor extends AbstractWrappingPostProcessor
+{
+    public RenditionRequestCoalescingPostProcessor()
+    {
+        super("renditionService2");
+    }
+
+    public void setServiceBeanName(String serviceBeanName)
+    {
+        setTargetBeanName(serviceBeanName);
+    }
+
+    @Override
+    protected boolean matches(Object bean, String beanName)
+    {
+        return super.matches(bean, beanName) && bean instanceof RenditionService2;
+    }
+
+    @Override
+    protected Object wrap(Object bean, String beanName)
+    {
+        return proxy(bean, new CoalescingInterceptor(lazyBean("renditionRequestRegistry",
+                RenditionRequestRegistry.class)));
+    }
+
+    static final class CoalescingInterceptor implements MethodInterceptor
+    {
+        private final ObjectFactory<RenditionRequestRegistry> registry;
+
+        CoalescingInterceptor(ObjectFactory<RenditionRequestRegistry> registry)
+        {
+            this.registry = registry;
+        }
+
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable
+        {
+            Object[] args = invocation.getArguments();
+            String methodName = invocation.getMethod().getName();
+            if (("consume".equals(methodName) || "failure".equals(methodName)) && args.length == 4
+                    && args[0] instanceof NodeRef && args[2] instanceof RenditionDefinition2)
+            {
+                return consume(invocation, (NodeRef) args[0], (RenditionDefinition2) args[2],
+                        "failure".equals(methodName) || args[1] == null);
+            }
+            if (!"render".equals(invocation.getMethod().getName()) || args.length != 2
+                    || !(args[0] instanceof NodeRef) || !(args[1] instanceof String))
+            {
+                return invocation.proceed();
+            }
+
+            NodeRef sourceNodeRef = (NodeRef) args[0];
+            String renditionName = (String) args[1];
+            RenditionRequestRegistry requests = registry.getObject();
+            if (!requests.begin(sourceNodeRef, renditionName))
+            {
+                return null;
+            }
+            try
+            {
+                return invocation.proceed();
+            }
+            catch (Throwable e)
+            {
+                requests.abort(sourceNodeRef, renditionName);
+                throw e;
+            }
+        }
+
+        /**
+         * A transform result without content, or a call of <code>failure</code>, means the transform failed. The
+         * rendition is not written then, so the request is completed here rather than by the content update.
+         */
+        private Object consume(MethodInvocation invocation, NodeRef sourceNodeRef,
+                RenditionDefinition2 renditionDefinition, boolean failure) throws Throwable
+        {
+            RenditionRequestRegistry requests = registry.getObject();
+            String renditionName = renditionDefinition.getRenditionName();
+            try
+            {
+                Object result = invocation.proceed();
+                if (failure)
+                {
+                    requests.fail(sourceNodeRef, renditionName);
+                }
+                return result;
+            }
+            catch (Throwable e)
+            {
+                requests.fail(sourceNodeRef, renditionName);
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.rendition;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.model.RenditionModel;
+import org.alfresco.repo.content.ContentServicePolicies;
+import org.alfresco.repo.policy.Behaviour.NotificationFrequency;
+import org.alfresco.repo.policy.JavaBehaviour;
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.util.ParameterCheck;
+import org.alfresco.web.app.metrics.MetricsCollector;
+import org.alfresco.web.app.metrics.OpenMetricsWriter;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Single-flight registry of rendition requests. The first request for a rendition of a given version of the source
+ * content is let through and recorded as in flight; further requests for the same rendition and content are
+ * coalesced into it until the rendition has been written or <code>timeout</code> milliseconds have passed. Readers
+ * can wait for an in-flight rendition with {@link #await(NodeRef, String, long)}.
+ * <p>
+ * A request whose transaction rolls back is removed again, so it does not hold back the next one. Completion is
+ * taken from content updates of rendition nodes, after their transaction has committed, and from
+ * {@link #fail(NodeRef, String)} when the rendition service is told that the transform failed.
+ * 
+ * @since 6.2.2
+ */
+public class RenditionRequestRegistry implements ContentServicePolicies.OnContentUpdatePolicy, MetricsCollector,
+        InitializingBean
+{
+    private static final String KEY_COMPLETED = RenditionRequestRegistry.class.getName() + ".completed";
+
+    private boolean enabled;
+    private long timeout = 120000L;
+    private PolicyComponent policyComponent;
+    private NodeService nodeService;
+
+    private final Map<Key, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder started = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder savedNanos = new LongAdder();
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setTimeout(long timeout)
+    {
+        this.timeout = timeout;
+    }
+
+    public void setPolicyComponent(PolicyComponent policyComponent)
+    {
+        this.policyComponent = policyComponent;
+    }
+
+    public void setNodeService(NodeService nodeService)
+    {
+        this.nodeService = nodeService;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        ParameterCheck.mandatory("policyComponent", policyComponent);
+        ParameterCheck.mandatory("nodeService", nodeService);
+        if (enabled)
+        {
+            policyComponent.bindClassBehaviour(ContentServicePolicies.OnContentUpdatePolicy.QNAME,
+                    ContentModel.TYPE_CONTENT,
+                    new JavaBehaviour(this, "onContentUpdate", NotificationFrequency.TRANSACTION_COMMIT));
+        }
+    }
+
+    /**
+     * Records a request for a rendition of the current content of the source.
+     * 
+     * @return <tt>true</tt> if the caller must request the rendition, <tt>false</tt> if the request was coalesced
+     *         into one that is already in flight
+     */
+    public boolean begin(NodeRef sourceNodeRef, String renditionName)
+    {
+        Serializable content = nodeService.getProperty(sourceNodeRef, ContentModel.PROP_CONTENT);
+        String contentUrl = content instanceof ContentData ? ((ContentData) content).getContentUrl() : null;
+        Key key = new Key(sourceNodeRef, renditionName);
+        long now = System.nanoTime();
+        InFlight[] created = new InFlight[1];
+        inFlight.compute(key, (k, existing) -> {
+            if (existing != null && Objects.equals(existing.contentUrl, contentUrl) && !isExpired(existing, now))
+            {
+                existing.coalesced.incrementAndGet();
+                return existing;
+            }
+            if (existing != null)
+            {
+                // superseded by newer content, or given up on
+                if (isExpired(existing, now))
+                {
+                    expired.increment();
+                }
+                existing.done.complete(null);
+            }
+            created[0] = new InFlight(contentUrl, now);
+            return created[0];
+        });
+
+        if (created[0] == null)
+        {
+            coalesced.increment();
+            return false;
+        }
+        started.increment();
+        final InFlight request = created[0];
+        if (AlfrescoTransactionSupport.getTransactionId() != null)
+        {
+            AlfrescoTransactionSupport.bindListener(new TransactionListenerAdapter()
+            {
+                @Override
+                public void afterRollback()
+                {
+                    abort(key, request);
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Removes a request that could not be made, see {@link #begin(NodeRef, String)}.
+     */
+    public void abort(NodeRef sourceNodeRef, String renditionName)
+    {
+        Key key = new Key(sourceNodeRef, renditionName);
+        InFlight request = inFlight.get(key);
+        if (request != null)
+        {
+            abort(key, request);
+        }
+    }
+
+    private void abort(Key key, InFlight request)
+    {
+        if (inFlight.remove(key, request))
+        {
+            request.done.complete(null);
+        }
+    }
+
+    /**
+     * Completes a request whose transform failed, once the current transaction has ended, so that readers waiting
+     * for it go on to the placeholder instead of waiting for the timeout.
+     */
+    public void fail(final NodeRef sourceNodeRef, final String renditionName)
+    {
+        if (AlfrescoTransactionSupport.getTransactionId() == null)
+        {
+            failed(sourceNodeRef, renditionName);
+            return;
+        }
+        AlfrescoTransactionSupport.bindListener(new TransactionListenerAdapter()
+        {
+            @Override
+            public void afterCommit()
+            {
+                failed(sourceNodeRef, renditionName);
+            }
+
+            @Override
+            public void afterRollback()
+            {
+                failed(sourceNodeRef, renditionName);
+            }
+        });
+    }
+
+    private void failed(NodeRef sourceNodeRef, String renditionName)
+    {
+        Key key = new Key(sourceNodeRef, renditionName);
+        InFlight request = inFlight.get(key);
+        if (request != null && inFlight.remove(key, request))
+        {
+            failures.increment();
+            request.done.complete(null);
+        }
+    }
+
+    /**
+     * @return <tt>true</tt> if a rendition of the source is in flight, without waiting for it
+     */
+    public boolean isInFlight(NodeRef sourceNodeRef, String renditionName)
+    {
+        InFlight request = inFlight.get(new Key(sourceNodeRef, renditionName));
+        return request != null && !isExpired(request, System.nanoTime());
+    }
+
+    /**
+     * Waits until the rendition of the source that is in flight has been written, if there is one.
+     * 
+     * @return <tt>true</tt> if there was a rendition in flight and it completed in time
+     */
+    public boolean await(NodeRef sourceNodeRef, String renditionName, long maxWaitMillis)
+    {
+        InFlight request = inFlight.get(new Key(sourceNodeRef, renditionName));
+        if (request == null || isExpired(request, System.nanoTime()))
+        {
+            return false;
+        }
+        waits.increment();
+        try
+        {
+            request.done.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+            return true;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch (ExecutionException | TimeoutException e)
+        {
+            return false;
+        }
+    }
+
+    @Override
+    public void onContentUpdate(NodeRef nodeRef, boolean newContent)
+    {
+        if (!nodeService.exists(nodeRef) || !(nodeService.hasAspect(nodeRef, RenditionModel.ASPECT_RENDITION2)
+                || nodeService.hasAspect(nodeRef, RenditionModel.ASPECT_RENDITION)))
+        {
+            return;
+        }
+        ChildAssociationRef parent = nodeService.getPrimaryParent(nodeRef);
+        if (parent == null || parent.getParentRef() == null)
+        {
+            return;
+        }
+        Key key = new Key(parent.getParentRef(), parent.getQName().getLocalName());
+        if (!inFlight.containsKey(key))
+        {
+            return;
+        }
+
+        Set<Key> keys = AlfrescoTransactionSupport.getResource(KEY_COMPLETED);
+        if (keys == null)
+        {
+            keys = ConcurrentHashMap.newKeySet();
+            AlfrescoTransactionSupport.bindResource(KEY_COMPLETED, keys);
+            final Set<Key> completedKeys = keys;
+            AlfrescoTransactionSupport.bindListener(new TransactionListenerAdapter()
+            {
+                @Override
+                public void afterCommit()
+                {
+                    for (Key completedKey : completedKeys)
+                    {
+                        complete(completedKey);
+                    }
+                }
+            });
+        }
+        keys.add(key);
+    }
+
+    private void complete(Key key)
+    {
+        InFlight request = inFlight.remove(key);
+        if (request != null)
+        {
+            completed.increment();
+            savedNanos.add(request.coalesced.get() * (System.nanoTime() - request.startNanos));
+            request.done.complete(null);
+        }
+    }
+
+    private boolean isExpired(InFlight request, long now)
+    {
+        return now - request.startNanos > TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    @Override
+    public void collect(OpenMetricsWriter writer) throws IOException
+    {
+        writer.beginGauge("alfresco_rendition_requests_in_flight", "Renditions requested and not written yet");
+        writer.sample("alfresco_rendition_requests_in_flight", inFlight.size());
+        writer.beginCounter("alfresco_rendition_requests_started", "Rendition requests passed on to the transformers");
+        writer.sample("alfresco_rendition_requests_started_total", started.sum());
+        writer.beginCounter("alfresco_rendition_requests_coalesced",
+                "Rendition requests attached to one already in flight");
+        writer.sample("alfresco_rendition_requests_coalesced_total", coalesced.sum());
+        writer.beginCounter("alfresco_rendition_requests_completed", "Renditions in flight that were written");
+        writer.sample("alfresco_rendition_requests_completed_total", completed.sum());
+        writer.beginCounter("alfresco_rendition_requests_expired", "Renditions in flight that timed out");
+        writer.sample("alfresco_rendition_requests_expired_total", expired.sum());
+        writer.beginCounter("alfresco_rendition_requests_failed", "Renditions in flight whose transform failed");
+        writer.sample("alfresco_rendition_requests_failed_total", failures.sum());
+        writer.beginCounter("alfresco_rendition_requests_waits", "Reads that waited for a rendition in flight");
+        writer.sample("alfresco_rendition_requests_waits_total", waits.sum());
+        writer.beginCounter("alfresco_rendition_requests_saved_seconds",
+                "Transform time not spent because requests were coalesced");
+        writer.sample("alfresco_rendition_requests_saved_seconds_total", savedNanos.sum() / 1e9);
+    }
+
+    private static final class Key
+    {
+        private final NodeRef sourceNodeRef;
+        private final String renditionName;
+
+        private Key(NodeRef sourceNodeRef, String renditionName)
+        {
+            this.sourceNodeRef = sourceNodeRef;
+            this.renditionName = renditionName;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+            Key other = (Key) obj;
+            return sourceNodeRef.equals(other.sourceNodeRef) && renditionName.equals(other.renditionName);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return sourceNodeRef.hashCode() * 31 + renditionName.hashCode();
+        }
+    }
+
+    private static final class InFlight
+    {
+        private final String contentUrl;
+        private final long startNanos;
+        private final AtomicInteger coalesced = new AtomicInteger();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private InFlight(String contentUrl, long startNanos)
+        {
+            this.contentUrl = contentUrl;
+            this.startNanos = startNanos;
+        }
+    }
+}
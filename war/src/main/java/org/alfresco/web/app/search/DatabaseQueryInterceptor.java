@@ -0,0 +1,68 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.search;
+
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Replaces the searches of requests routed by the {@link DatabaseQueryRouter}.
+ * 
+ * @since 6.2.2
+ */
+public class DatabaseQueryInterceptor implements MethodInterceptor
+{
+    private final DatabaseQueryRouter router;
+
+    public DatabaseQueryInterceptor(DatabaseQueryRouter router)
+    {
+        this.router = router;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable
+    {
+        Object[] args = invocation.getArguments();
+        if (!"query".equals(invocation.getMethod().getName()) || args.length != 1
+                || !(args[0] instanceof SearchParameters))
+        {
+            return invocation.proceed();
+        }
+        SearchParameters sp = (SearchParameters) args[0];
+        SearchParameters routed = router.route(sp);
+        if (routed == sp)
+        {
+            return invocation.proceed();
+        }
+        // the arguments of the invocation are passed on as they are, so replacing one replaces it for the target
+        args[0] = routed;
+        ResultSet results = (ResultSet) invocation.proceed();
+        router.answered(results);
+        return results;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.search;
+
+import org.alfresco.web.app.AbstractWrappingPostProcessor;
+
+/**
+ * Proxies the search service behind the public one so that the searches of requests routed by the
+ * {@link DatabaseQueryRouter} are answered from the database.
+ * 
+ * @since 6.2.2
+ */
+public class DatabaseQueryPostProcessor extends AbstractWrappingPostProcessor
+{
+    private DatabaseQueryRouter router;
+
+    public DatabaseQueryPostProcessor()
+    {
+        super("searchService");
+    }
+
+    public void setSearchServiceBeanName(String searchServiceBeanName)
+    {
+        setTargetBeanName(searchServiceBeanName);
+    }
+
+    public void setRouter(DatabaseQueryRouter router)
+    {
+        this.router = router;
+    }
+
+    @Override
+    protected boolean isEnabled()
+    {
+        return router.isEnabled();
+    }
+
+    @Override
+    protected Object wrap(Object bean, String beanName)
+    {
+        return proxy(bean, new DatabaseQueryInterceptor(router));
+    }
+}
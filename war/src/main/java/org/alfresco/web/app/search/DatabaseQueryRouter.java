@@ -0,0 +1,230 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.search;
+
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.alfresco.repo.search.impl.solr.SolrJSONResultSet;
+import org.alfresco.service.cmr.search.QueryConsistency;
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchService;
+import org.alfresco.web.app.metrics.MetricsCollector;
+import org.alfresco.web.app.metrics.OpenMetricsWriter;
+
+/**
+ * Routes simple <code>/queries</code> requests of the public API to the database instead of Solr, so that their
+ * results include changes the index has not tracked yet.
+ * <p>
+ * A request is routed when all of these hold:
+ * <ul>
+ * <li>it is a <code>GET</code> of <code>/queries/nodes</code>, <code>/queries/sites</code> or
+ * <code>/queries/people</code></li>
+ * <li>it has no parameters other than <code>term</code>, <code>skipCount</code>, <code>maxItems</code>,
+ * <code>fields</code> and <code>alf_ticket</code>, so no <code>rootNodeId</code>, <code>nodeType</code> or
+ * <code>orderBy</code></li>
+ * <li>the term is a single word of 3 to 100 letters, digits, <code>.</code>, <code>_</code> or <code>-</code>,
+ * optionally ending with <code>*</code></li>
+ * </ul>
+ * The search made by the API for a routed request is replaced with a prefix match on database columns: the name of
+ * content and folders, the short name of sites, and the user name, first name or last name of people. Nodes are
+ * filtered as the API filters them: <code>TYPE</code> includes subtypes, so renditions, ratings and discussion
+ * posts are excluded by type, as are hidden nodes and nodes created by the system. The query runs with
+ * {@link QueryConsistency#TRANSACTIONAL_IF_POSSIBLE}, so a query the database cannot answer still goes to Solr.
+ * <p>
+ * The replaced query does not match titles, descriptions or content, which is the price of the consistent answer.
+ * Most databases also compare case-sensitively, where Solr does not. The term is therefore matched as typed, in
+ * lower case, in upper case and capitalised, so a name in mixed case, such as <code>MyReport.pdf</code>, is only
+ * found by a term typed with the same case.
+ * 
+ * @since 6.2.2
+ */
+public class DatabaseQueryRouter implements MetricsCollector
+{
+    private static final Pattern QUERIES_PATH = Pattern
+            .compile("^/-default-/public/alfresco/versions/1/queries/(nodes|sites|people)$");
+    private static final Pattern TERM = Pattern.compile("^([\\p{L}\\p{N}][\\p{L}\\p{N}._-]{2,99})\\*?$");
+    private static final Set<String> PARAMETERS = Set.of("term", "skipCount", "maxItems", "fields", "alf_ticket");
+
+    private static final ThreadLocal<String> ROUTED_QUERY = new ThreadLocal<>();
+
+    private boolean enabled;
+
+    private final LongAdder routed = new LongAdder();
+    private final LongAdder database = new LongAdder();
+    private final LongAdder solr = new LongAdder();
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Routes the searches made on the current thread to the database if the request qualifies.
+     * 
+     * @return <tt>true</tt> if the request was routed, in which case {@link #end()} must be called after it
+     */
+    public boolean begin(HttpServletRequest req)
+    {
+        if (!enabled || !"GET".equals(req.getMethod()) || req.getPathInfo() == null)
+        {
+            return false;
+        }
+        Matcher path = QUERIES_PATH.matcher(req.getPathInfo());
+        if (!path.matches())
+        {
+            return false;
+        }
+        for (Enumeration<String> names = req.getParameterNames(); names.hasMoreElements();)
+        {
+            if (!PARAMETERS.contains(names.nextElement()))
+            {
+                return false;
+            }
+        }
+        String term = req.getParameter("term");
+        Matcher matcher = term == null ? null : TERM.matcher(term);
+        if (matcher == null || !matcher.matches())
+        {
+            return false;
+        }
+        ROUTED_QUERY.set(query(path.group(1), matcher.group(1)));
+        routed.increment();
+        return true;
+    }
+
+    public void end()
+    {
+        ROUTED_QUERY.remove();
+    }
+
+    static String query(String route, String term)
+    {
+        Set<String> terms = caseVariants(term);
+        switch (route)
+        {
+        case "nodes":
+            return "(TYPE:\"cm:content\" OR TYPE:\"cm:folder\") AND " + prefixMatch(terms, "cm:name")
+                    + " AND NOT TYPE:\"cm:thumbnail\" AND NOT TYPE:\"cm:failedThumbnail\""
+                    + " AND NOT TYPE:\"cm:rating\" AND NOT TYPE:\"fm:post\" AND NOT ASPECT:\"sys:hidden\""
+                    + " AND NOT =cm:creator:\"System\"";
+        case "sites":
+            return "TYPE:\"st:site\" AND " + prefixMatch(terms, "cm:name");
+        default:
+            return "TYPE:\"cm:person\" AND " + prefixMatch(terms, "cm:userName", "cm:firstName", "cm:lastName");
+        }
+    }
+
+    static Set<String> caseVariants(String term)
+    {
+        Set<String> terms = new LinkedHashSet<>();
+        terms.add(term);
+        terms.add(term.toLowerCase(Locale.ROOT));
+        terms.add(term.toUpperCase(Locale.ROOT));
+        terms.add(term.substring(0, 1).toUpperCase(Locale.ROOT) + term.substring(1).toLowerCase(Locale.ROOT));
+        return terms;
+    }
+
+    private static String prefixMatch(Set<String> terms, String... properties)
+    {
+        StringBuilder query = new StringBuilder("(");
+        for (String property : properties)
+        {
+            for (String term : terms)
+            {
+                if (query.length() > 1)
+                {
+                    query.append(" OR ");
+                }
+                query.append('=').append(property).append(":\"").append(term).append("*\"");
+            }
+        }
+        return query.append(')').toString();
+    }
+
+    /**
+     * @return whether the next search of the current thread is to be answered from the database
+     */
+    static boolean isRouting()
+    {
+        return ROUTED_QUERY.get() != null;
+    }
+
+    /**
+     * @return the parameters to search with in place of those of the API, or the same parameters if the current
+     *         request is not routed. A request is routed for its first search only.
+     */
+    SearchParameters route(SearchParameters sp)
+    {
+        String query = ROUTED_QUERY.get();
+        if (query == null)
+        {
+            return sp;
+        }
+        ROUTED_QUERY.remove();
+        SearchParameters routedSp = sp.copy();
+        routedSp.setLanguage(SearchService.LANGUAGE_FTS_ALFRESCO);
+        routedSp.setQuery(query);
+        routedSp.setQueryConsistency(QueryConsistency.TRANSACTIONAL_IF_POSSIBLE);
+        return routedSp;
+    }
+
+    void answered(ResultSet results)
+    {
+        if (results instanceof SolrJSONResultSet)
+        {
+            solr.increment();
+        }
+        else
+        {
+            database.increment();
+        }
+    }
+
+    @Override
+    public void collect(OpenMetricsWriter writer) throws IOException
+    {
+        writer.beginCounter("alfresco_search_db_routed", "Queries requests routed to the database");
+        writer.sample("alfresco_search_db_routed_total", routed.sum());
+        writer.beginCounter("alfresco_search_db_answered", "Routed queries by the engine that answered them");
+        writer.sample("alfresco_search_db_answered_total", "engine", "db", database.sum());
+        writer.sample("alfresco_search_db_answered_total", "engine", "solr", solr.sum());
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.search;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.repo.domain.node.Transaction;
+import org.alfresco.repo.search.impl.solr.SolrJSONResultSet;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.QueryConsistency;
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchService;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.ParameterCheck;
+import org.alfresco.util.TraceableThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Lets callers wait until the index has tracked a database transaction, typically the one reported by the
+ * {@link WriteTransactionRecorder} for a write, instead of sleeping and retrying their searches.
+ * <p>
+ * Solr tracks transactions in the order of their commit time, not of their id: a transaction that started first may
+ * commit after one with a higher id. So a transaction counts as tracked once the last transaction the index reports
+ * has a later commit time, or the same commit time and an id at least as high. The commit times are read from the
+ * database.
+ * <p>
+ * Waiters are futures, so they hold no thread. While there are any, a single thread asks Solr for the last
+ * transaction it has indexed every <code>pollInterval</code> milliseconds, with a one row query whose response
+ * carries it, and completes the waiters for the transactions up to it. The last value seen is also used to complete
+ * waiters straight away when their transaction is already indexed.
+ * 
+ * @since 6.2.2
+ */
+public class IndexTransactionBarrier implements InitializingBean, DisposableBean
+{
+    private static final Log logger = LogFactory.getLog(IndexTransactionBarrier.class);
+
+    /** Where the index is when searches are not answered by Solr */
+    private static final Position DATABASE = new Position(Long.MAX_VALUE, Long.MAX_VALUE);
+
+    private boolean enabled;
+    private long pollInterval = 200L;
+    private long maxWait = 60000L;
+    private SearchService searchService;
+    private TransactionService transactionService;
+    private NodeDAO nodeDAO;
+
+    private final ConcurrentNavigableMap<Position, Queue<CompletableFuture<Boolean>>> waiters = new ConcurrentSkipListMap<>();
+    private volatile Position lastIndexed = new Position(-1L, -1L);
+    private ScheduledExecutorService scheduler;
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setPollInterval(long pollInterval)
+    {
+        this.pollInterval = pollInterval;
+    }
+
+    public void setMaxWait(long maxWait)
+    {
+        this.maxWait = maxWait;
+    }
+
+    public long getMaxWait()
+    {
+        return maxWait;
+    }
+
+    public void setSearchService(SearchService searchService)
+    {
+        this.searchService = searchService;
+    }
+
+    public void setTransactionService(TransactionService transactionService)
+    {
+        this.transactionService = transactionService;
+    }
+
+    public void setNodeDAO(NodeDAO nodeDAO)
+    {
+        this.nodeDAO = nodeDAO;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        if (!enabled)
+        {
+            return;
+        }
+        ParameterCheck.mandatory("searchService", searchService);
+        ParameterCheck.mandatory("transactionService", transactionService);
+        ParameterCheck.mandatory("nodeDAO", nodeDAO);
+
+        TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+        threadFactory.setThreadDaemon(true);
+        threadFactory.setNamePrefix("IndexTransactionBarrier");
+        scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        scheduler.scheduleWithFixedDelay(this::poll, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy()
+    {
+        if (scheduler != null)
+        {
+            scheduler.shutdownNow();
+        }
+        for (Queue<CompletableFuture<Boolean>> queue : waiters.values())
+        {
+            queue.forEach(future -> future.cancel(false));
+        }
+    }
+
+    /**
+     * @return the last transaction the index was seen to have tracked, -1 if it has not been asked yet
+     */
+    public long getLastIndexedTxnId()
+    {
+        return lastIndexed.txnId;
+    }
+
+    /**
+     * @return a future completed with <tt>true</tt> once the index has tracked the transaction, or with
+     *         <tt>false</tt> straight away when there is no such committed transaction. The caller applies its own
+     *         timeout to it, cancelling or completing it on timeout releases the waiter.
+     */
+    public CompletableFuture<Boolean> await(long txnId)
+    {
+        Long commitTime = getCommitTime(txnId);
+        if (commitTime == null)
+        {
+            return CompletableFuture.completedFuture(false);
+        }
+        Position position = new Position(commitTime, txnId);
+        if (position.compareTo(lastIndexed) <= 0)
+        {
+            return CompletableFuture.completedFuture(true);
+        }
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        waiters.computeIfAbsent(position, p -> new ConcurrentLinkedQueue<>()).add(future);
+        // the index may have moved on before the waiter was added
+        if (position.compareTo(lastIndexed) <= 0)
+        {
+            future.complete(true);
+        }
+        return future;
+    }
+
+    void poll()
+    {
+        if (waiters.isEmpty())
+        {
+            return;
+        }
+        try
+        {
+            readLastIndexedTxnId();
+            ConcurrentNavigableMap<Position, Queue<CompletableFuture<Boolean>>> reached = waiters.headMap(lastIndexed,
+                    true);
+            for (Map.Entry<Position, Queue<CompletableFuture<Boolean>>> entry : reached.entrySet())
+            {
+                entry.getValue().forEach(future -> future.complete(true));
+                reached.remove(entry.getKey());
+            }
+            // drop the waiters that timed out
+            for (Map.Entry<Position, Queue<CompletableFuture<Boolean>>> entry : waiters.entrySet())
+            {
+                Queue<CompletableFuture<Boolean>> queue = entry.getValue();
+                queue.removeIf(CompletableFuture::isDone);
+                if (queue.isEmpty())
+                {
+                    waiters.remove(entry.getKey(), queue);
+                }
+            }
+        }
+        catch (RuntimeException e)
+        {
+            logger.warn("Unable to read the last indexed transaction", e);
+        }
+    }
+
+    /**
+     * Asks the index for the last transaction it has tracked.
+     * 
+     * @return the transaction id, or {@link Long#MAX_VALUE} when searches are not answered by Solr
+     */
+    public long readLastIndexedTxnId()
+    {
+        long indexed = AuthenticationUtil.runAsSystem(this::queryLastIndexedTxnId);
+        Position position;
+        if (indexed == Long.MAX_VALUE)
+        {
+            position = DATABASE;
+        }
+        else
+        {
+            Long commitTime = indexed < 0 ? null : getCommitTime(indexed);
+            if (commitTime == null)
+            {
+                return indexed;
+            }
+            position = new Position(commitTime, indexed);
+        }
+        synchronized (this)
+        {
+            if (position.compareTo(lastIndexed) > 0)
+            {
+                lastIndexed = position;
+            }
+        }
+        return indexed;
+    }
+
+    long queryLastIndexedTxnId()
+    {
+        SearchParameters sp = new SearchParameters();
+        sp.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+        sp.setLanguage(SearchService.LANGUAGE_FTS_ALFRESCO);
+        sp.setQuery("ISNODE:T");
+        sp.setMaxItems(1);
+        sp.setQueryConsistency(QueryConsistency.EVENTUAL);
+        ResultSet results = searchService.query(sp);
+        try
+        {
+            if (results instanceof SolrJSONResultSet)
+            {
+                Long indexed = ((SolrJSONResultSet) results).getLastIndexedTxId();
+                return indexed == null ? -1L : indexed;
+            }
+            // not answered by Solr, so the results were read from the database
+            return Long.MAX_VALUE;
+        }
+        finally
+        {
+            results.close();
+        }
+    }
+
+    /**
+     * @return the commit time of the transaction, <tt>null</tt> if there is no such transaction
+     */
+    Long getCommitTime(final long txnId)
+    {
+        return transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+            Transaction txn = nodeDAO.getTxnById(txnId);
+            return txn == null ? null : txn.getCommitTimeMs();
+        }, true, false);
+    }
+
+    /**
+     * A transaction in the order Solr tracks them in
+     */
+    private static final class Position implements Comparable<Position>
+    {
+        private final long commitTime;
+        private final long txnId;
+
+        private Position(long commitTime, long txnId)
+        {
+            this.commitTime = commitTime;
+            this.txnId = txnId;
+        }
+
+        @Override
+        public int compareTo(Position other)
+        {
+            int result = Long.compare(commitTime, other.commitTime);
+            return result != 0 ? result : Long.compare(txnId, other.txnId);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            return obj instanceof Position && compareTo((Position) obj) == 0;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Long.hashCode(commitTime) * 31 + Long.hashCode(txnId);
+        }
+    }
+}
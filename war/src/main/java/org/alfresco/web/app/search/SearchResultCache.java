@@ -0,0 +1,402 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.search;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.repo.search.impl.solr.SolrJSONResultSet;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.tenant.TenantUtil;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.search.QueryConsistency;
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchParameters.SortDefinition;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.util.ParameterCheck;
+import org.alfresco.util.TraceableThreadFactory;
+import org.alfresco.web.app.metrics.MetricsCollector;
+import org.alfresco.web.app.metrics.OpenMetricsWriter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.extensions.surf.util.I18NUtil;
+
+/**
+ * Cache of the Solr results of the public API search and queries endpoints, for dashboards that run the same
+ * searches over and over.
+ * <p>
+ * Solr applies the permissions of the caller to the results, so entries are keyed by the normalised search
+ * parameters together with the tenant, the locale, the user and the authorisations of the caller, as Solr filters
+ * on owner as well as on authority. Results are only cached for requests registered with {@link #begin()}, and only
+ * when they were answered by Solr, transactional queries are never cached. Nor are the searches the
+ * {@link DatabaseQueryRouter} is about to answer from the database, whichever of the two proxies of the search
+ * service is the outer one. The key is built field by field from the
+ * search parameters; the facet, range, interval, statistics and highlight requests are compared through their
+ * string forms. Searches with query parameter definitions are not cached.
+ * <p>
+ * An entry is a {@link SearchResultSnapshot} of the results, and each hit is answered with a new result set over it,
+ * so callers never share a result set.
+ * <p>
+ * Entries are only as fresh as the index: they are all dropped when the last transaction tracked by the index
+ * changes. That is checked every <code>checkInterval</code> milliseconds with the {@link IndexTransactionBarrier},
+ * and whenever a search reports another transaction. The size is bounded by an estimate of the memory held by the
+ * results, least recently used entries are evicted first.
+ * 
+ * @since 6.2.2
+ */
+public class SearchResultCache implements MetricsCollector, InitializingBean, DisposableBean
+{
+    private static final Log logger = LogFactory.getLog(SearchResultCache.class);
+
+    private static final ThreadLocal<Boolean> CACHEABLE = new ThreadLocal<>();
+
+    private static final int ENTRY_WEIGHT = 1024;
+    private static final int ROW_WEIGHT = 256;
+
+    private boolean enabled;
+    private long maxWeight = 64L * 1024 * 1024;
+    private long checkInterval = 1000L;
+    private PermissionService permissionService;
+    private NodeService nodeService;
+    private NodeDAO nodeDAO;
+    private IndexTransactionBarrier indexTransactionBarrier;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private volatile long indexedTxnId = -1L;
+    private ScheduledExecutorService scheduler;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setMaxWeight(long maxWeight)
+    {
+        this.maxWeight = maxWeight;
+    }
+
+    public void setCheckInterval(long checkInterval)
+    {
+        this.checkInterval = checkInterval;
+    }
+
+    public void setPermissionService(PermissionService permissionService)
+    {
+        this.permissionService = permissionService;
+    }
+
+    public void setNodeService(NodeService nodeService)
+    {
+        this.nodeService = nodeService;
+    }
+
+    public void setNodeDAO(NodeDAO nodeDAO)
+    {
+        this.nodeDAO = nodeDAO;
+    }
+
+    public void setIndexTransactionBarrier(IndexTransactionBarrier indexTransactionBarrier)
+    {
+        this.indexTransactionBarrier = indexTransactionBarrier;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        if (!enabled)
+        {
+            return;
+        }
+        ParameterCheck.mandatory("permissionService", permissionService);
+        ParameterCheck.mandatory("nodeService", nodeService);
+        ParameterCheck.mandatory("nodeDAO", nodeDAO);
+        ParameterCheck.mandatory("indexTransactionBarrier", indexTransactionBarrier);
+
+        TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+        threadFactory.setThreadDaemon(true);
+        threadFactory.setNamePrefix("SearchResultCache");
+        scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        scheduler.scheduleWithFixedDelay(this::checkIndex, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy()
+    {
+        if (scheduler != null)
+        {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Lets the searches made on the current thread be cached, until {@link #end()}.
+     */
+    public void begin()
+    {
+        CACHEABLE.set(Boolean.TRUE);
+    }
+
+    public void end()
+    {
+        CACHEABLE.remove();
+    }
+
+    /**
+     * @return the cache key of the search for the current user, or <tt>null</tt> if it is not to be cached
+     */
+    String key(SearchParameters sp)
+    {
+        if (!enabled || CACHEABLE.get() == null || DatabaseQueryRouter.isRouting()
+                || AuthenticationUtil.isRunAsUserTheSystemUser()
+                || sp.getQueryConsistency() == QueryConsistency.TRANSACTIONAL
+                || sp.getQueryConsistency() == QueryConsistency.TRANSACTIONAL_IF_POSSIBLE
+                || sp.getQueryParameterDefinitions().length > 0)
+        {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(512);
+        append(key, "tenant", TenantUtil.getCurrentDomain());
+        append(key, "locale", I18NUtil.getLocale());
+        append(key, "user", AuthenticationUtil.getRunAsUser());
+        append(key, "authorisations", new TreeSet<>(permissionService.getAuthorisations()));
+        append(key, "language", sp.getLanguage());
+        append(key, "query", sp.getQuery() == null ? null : sp.getQuery().trim().replaceAll("\\s+", " "));
+        append(key, "stores", sp.getStores());
+        append(key, "consistency", sp.getQueryConsistency());
+        append(key, "skipCount", sp.getSkipCount());
+        append(key, "maxItems", sp.getMaxItems());
+        append(key, "limitBy", sp.getLimitBy());
+        append(key, "limit", sp.getLimit());
+        append(key, "maxPermissionChecks", sp.getMaxPermissionChecks());
+        append(key, "maxPermissionCheckTimeMillis", sp.getMaxPermissionCheckTimeMillis());
+        append(key, "permissionEvaluation", sp.getPermissionEvaluation());
+        append(key, "sort", sort(sp.getSortDefinitions()));
+        append(key, "locales", sp.getLocales());
+        append(key, "mlAnalysisMode", sp.getMlAnalaysisMode());
+        append(key, "namespace", sp.getNamespace());
+        append(key, "defaultFieldName", sp.getDefaultFieldName());
+        append(key, "defaultOperator", sp.getDefaultOperator());
+        append(key, "defaultFTSOperator", sp.getDefaultFTSOperator());
+        append(key, "defaultFTSFieldOperator", sp.getDefaultFTSFieldOperator());
+        append(key, "textAttributes", sp.getTextAttributes());
+        append(key, "queryTemplates", sorted(sp.getQueryTemplates()));
+        append(key, "filterQueries", sp.getFilterQueries());
+        append(key, "fieldFacets", sp.getFieldFacets());
+        append(key, "facetQueries", sp.getFacetQueries());
+        append(key, "pivots", sp.getPivots());
+        append(key, "stats", sp.getStats());
+        append(key, "ranges", sp.getRanges());
+        append(key, "interval", sp.getInterval());
+        append(key, "highlight", sp.getHighlight());
+        append(key, "spellCheck", sp.isSpellCheck());
+        append(key, "searchTerm", sp.getSearchTerm());
+        append(key, "timezone", sp.getTimezone());
+        append(key, "excludeTenantFilter", sp.getExcludeTenantFilter());
+        append(key, "sinceTxId", sp.getSinceTxId());
+        append(key, "extraParameters", sorted(sp.getExtraParameters()));
+        return key.toString();
+    }
+
+    private static void append(StringBuilder key, String name, Object value)
+    {
+        key.append(name).append('=').append(value).append('\n');
+    }
+
+    private static Map<String, String> sorted(Map<String, String> map)
+    {
+        return map == null ? null : new TreeMap<>(map);
+    }
+
+    private static String sort(List<SortDefinition> sortDefinitions)
+    {
+        StringBuilder sort = new StringBuilder();
+        for (SortDefinition definition : sortDefinitions)
+        {
+            sort.append(definition.getSortType()).append(' ').append(definition.getField()).append(' ')
+                    .append(definition.isAscending() ? "asc" : "desc").append(',');
+        }
+        return sort.toString();
+    }
+
+    /**
+     * @param sp the parameters of the search being answered
+     * @return a new result set over the cached results, or <tt>null</tt> if there are none
+     */
+    ResultSet get(String key, SearchParameters sp)
+    {
+        SearchResultSnapshot snapshot = null;
+        synchronized (entries)
+        {
+            Entry entry = entries.get(key);
+            if (entry != null)
+            {
+                snapshot = entry.snapshot;
+            }
+        }
+        if (snapshot == null)
+        {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return snapshot.newResultSet(sp, nodeService, nodeDAO);
+    }
+
+    void put(String key, ResultSet results)
+    {
+        if (!(results instanceof SolrJSONResultSet))
+        {
+            return;
+        }
+        Long txnId = ((SolrJSONResultSet) results).getLastIndexedTxId();
+        if (txnId == null)
+        {
+            return;
+        }
+        advance(txnId);
+        long entryWeight = ENTRY_WEIGHT + 2L * key.length() + (long) ROW_WEIGHT * results.length();
+        if (entryWeight > maxWeight)
+        {
+            return;
+        }
+        SearchResultSnapshot snapshot = new SearchResultSnapshot((SolrJSONResultSet) results);
+        synchronized (entries)
+        {
+            if (txnId != indexedTxnId)
+            {
+                // the index moved on since the search ran
+                return;
+            }
+            Entry previous = entries.put(key, new Entry(snapshot, entryWeight));
+            weight += entryWeight - (previous == null ? 0 : previous.weight);
+            for (Iterator<Entry> it = entries.values().iterator(); weight > maxWeight && it.hasNext();)
+            {
+                Entry eldest = it.next();
+                it.remove();
+                weight -= eldest.weight;
+                evictions.increment();
+            }
+        }
+    }
+
+    private void checkIndex()
+    {
+        try
+        {
+            advance(indexTransactionBarrier.readLastIndexedTxnId());
+        }
+        catch (RuntimeException e)
+        {
+            logger.warn("Unable to read the last indexed transaction", e);
+        }
+    }
+
+    /**
+     * Drops all entries when the last indexed transaction has changed. The index tracks transactions in the order of
+     * their commit time, so a change to a lower id is a change as well.
+     */
+    private void advance(long txnId)
+    {
+        if (txnId == indexedTxnId)
+        {
+            return;
+        }
+        synchronized (entries)
+        {
+            if (txnId == indexedTxnId)
+            {
+                return;
+            }
+            indexedTxnId = txnId;
+            if (!entries.isEmpty())
+            {
+                entries.clear();
+                weight = 0;
+                invalidations.increment();
+            }
+        }
+    }
+
+    @Override
+    public void collect(OpenMetricsWriter writer) throws IOException
+    {
+        int size;
+        long bytes;
+        synchronized (entries)
+        {
+            size = entries.size();
+            bytes = weight;
+        }
+        writer.beginCounter("alfresco_search_cache_hits", "Searches answered from the search result cache");
+        writer.sample("alfresco_search_cache_hits_total", hits.sum());
+        writer.beginCounter("alfresco_search_cache_misses", "Cacheable searches not found in the search result cache");
+        writer.sample("alfresco_search_cache_misses_total", misses.sum());
+        writer.beginCounter("alfresco_search_cache_evictions", "Search results evicted to keep the cache in size");
+        writer.sample("alfresco_search_cache_evictions_total", evictions.sum());
+        writer.beginCounter("alfresco_search_cache_invalidations", "Times the cache was cleared as the index advanced");
+        writer.sample("alfresco_search_cache_invalidations_total", invalidations.sum());
+        writer.beginGauge("alfresco_search_cache_entries", "Search results in the cache");
+        writer.sample("alfresco_search_cache_entries", size);
+        writer.beginGauge("alfresco_search_cache_weight_bytes", "Estimated memory held by the cached search results");
+        writer.sample("alfresco_search_cache_weight_bytes", bytes);
+    }
+
+    private static final class Entry
+    {
+        private final SearchResultSnapshot snapshot;
+        private final long weight;
+
+        private Entry(SearchResultSnapshot snapshot, long weight)
+        {
+            this.snapshot = snapshot;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.search;
+
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.beans.factory.ObjectFactory;
+
+/**
+ * Answers searches from the {@link SearchResultCache} when it has them, and caches the results of the others.
+ * 
+ * @since 6.2.2
+ */
+public class SearchResultCacheInterceptor implements MethodInterceptor
+{
+    private final ObjectFactory<SearchResultCache> cacheFactory;
+
+    /**
+     * The cache is looked up on first use, it depends on services that are created after the search service.
+     */
+    public SearchResultCacheInterceptor(ObjectFactory<SearchResultCache> cacheFactory)
+    {
+        this.cacheFactory = cacheFactory;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable
+    {
+        Object[] args = invocation.getArguments();
+        if (!"query".equals(invocation.getMethod().getName()) || args.length != 1
+                || !(args[0] instanceof SearchParameters))
+        {
+            return invocation.proceed();
+        }
+        SearchResultCache cache = cacheFactory.getObject();
+        String key = cache.key((SearchParameters) args[0]);
+        if (key == null)
+        {
+            return invocation.proceed();
+        }
+        ResultSet results = cache.get(key, (SearchParameters) args[0]);
+        if (results == null)
+        {
+            results = (ResultSet) invocation.proceed();
+            cache.put(key, results);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.search;
+
+import org.alfresco.web.app.AbstractWrappingPostProcessor;
+
+/**
+ * Proxies the search service behind the public one so that searches go through the {@link SearchResultCache} when
+ * that is enabled.
+ * 
+ * @since 6.2.2
+ */
+public class SearchResultCachePostProcessor extends AbstractWrappingPostProcessor
+{
+    private String cacheBeanName = "searchResultCache";
+
+    public SearchResultCachePostProcessor()
+    {
+        super("searchService");
+    }
+
+    public void setSearchServiceBeanName(String searchServiceBeanName)
+    {
+        setTargetBeanName(searchServiceBeanName);
+    }
+
+    public void setCacheBeanName(String cacheBeanName)
+    {
+        this.cacheBeanName = cacheBeanName;
+    }
+
+    @Override
+    protected Object wrap(Object bean, String beanName)
+    {
+        return proxy(bean, new SearchResultCacheInterceptor(lazyBean(cacheBeanName, SearchResultCache.class)));
+    }
+}
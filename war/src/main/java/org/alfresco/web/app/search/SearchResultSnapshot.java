@@ -0,0 +1,274 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.repo.search.impl.solr.SolrJSONResultSet;
+import org.alfresco.repo.search.impl.solr.facet.facetsresponse.GenericFacetResponse;
+import org.alfresco.repo.search.impl.solr.facet.facetsresponse.Metric;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SpellCheckResult;
+import org.alfresco.util.Pair;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * What the {@link SearchResultCache} keeps of a Solr result: the node references and scores of the page, the
+ * paging numbers and the facets, statistics, spell check and highlighting. A result set holds per-use state and is
+ * closed by the caller, so the snapshot is copied out of it and every hit gets a {@link #newResultSet fresh result
+ * set} over the snapshot.
+ * 
+ * @since 6.2.2
+ */
+final class SearchResultSnapshot
+{
+    /** The result sets are built over an empty response, their content comes from the snapshot */
+    private static final String EMPTY_RESPONSE = "{\"responseHeader\":{\"status\":0,\"QTime\":0},"
+            + "\"response\":{\"numFound\":0,\"start\":0,\"docs\":[]}}";
+
+    private final List<NodeRef> nodeRefs;
+    private final float[] scores;
+    private final long numberFound;
+    private final int start;
+    private final boolean hasMore;
+    private final Long queryTime;
+    private final Long lastIndexedTxId;
+    private final Map<String, Integer> facetQueries;
+    private final Map<String, List<Pair<String, Integer>>> fieldFacets;
+    private final Map<String, List<Pair<String, Integer>>> facetIntervals;
+    private final Map<String, List<Map<String, String>>> facetRanges;
+    private final List<GenericFacetResponse> pivotFacets;
+    private final Map<String, Set<Metric>> stats;
+    private final SpellCheckResult spellCheckResult;
+    private final Map<NodeRef, List<Pair<String, List<String>>>> highlighting;
+
+    SearchResultSnapshot(SolrJSONResultSet results)
+    {
+        int length = results.length();
+        List<NodeRef> nodeRefs = new ArrayList<>(length);
+        scores = new float[length];
+        for (int i = 0; i < length; i++)
+        {
+            nodeRefs.add(results.getNodeRef(i));
+            scores[i] = results.getScore(i);
+        }
+        this.nodeRefs = Collections.unmodifiableList(nodeRefs);
+        numberFound = results.getNumberFound();
+        start = results.getStart();
+        hasMore = results.hasMore();
+        queryTime = results.getQueryTime();
+        lastIndexedTxId = results.getLastIndexedTxId();
+        facetQueries = copy(results.getFacetQueries());
+        fieldFacets = copyOfLists(results.getFieldFacets());
+        facetIntervals = copyOfLists(results.getFacetIntervals());
+        facetRanges = copyOfLists(results.getFacetRanges());
+        pivotFacets = results.getPivotFacets() == null ? Collections.emptyList()
+                : Collections.unmodifiableList(new ArrayList<>(results.getPivotFacets()));
+        stats = copy(results.getStats());
+        spellCheckResult = results.getSpellCheckResult();
+        highlighting = copyOfLists(results.getHighlighting());
+    }
+
+    int length()
+    {
+        return nodeRefs.size();
+    }
+
+    Long getLastIndexedTxId()
+    {
+        return lastIndexedTxId;
+    }
+
+    /**
+     * @param sp the parameters of the search being answered
+     * @return a new result set over the snapshot, for the caller to use and close
+     */
+    SolrJSONResultSet newResultSet(SearchParameters sp, NodeService nodeService, NodeDAO nodeDAO)
+    {
+        SearchParameters resultSp = sp.copy();
+        // there are no rows in the response to fetch
+        resultSp.setBulkFetchEnabled(false);
+        try
+        {
+            return new SnapshotResultSet(this, new JSONObject(EMPTY_RESPONSE), resultSp, nodeService, nodeDAO);
+        }
+        catch (JSONException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static <K, V> Map<K, V> copy(Map<K, V> map)
+    {
+        return map == null ? Collections.emptyMap() : Collections.unmodifiableMap(new LinkedHashMap<>(map));
+    }
+
+    private static <K, V> Map<K, List<V>> copyOfLists(Map<K, List<V>> map)
+    {
+        if (map == null)
+        {
+            return Collections.emptyMap();
+        }
+        Map<K, List<V>> copy = new LinkedHashMap<>();
+        map.forEach((key, list) -> copy.put(key,
+                list == null ? null : Collections.unmodifiableList(new ArrayList<>(list))));
+        return Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * A Solr result set whose content is read from a snapshot, so that the public API renders the facets of cached
+     * results as it does those of a search.
+     */
+    private static final class SnapshotResultSet extends SolrJSONResultSet
+    {
+        private final SearchResultSnapshot snapshot;
+
+        private SnapshotResultSet(SearchResultSnapshot snapshot, JSONObject emptyResponse, SearchParameters sp,
+                NodeService nodeService, NodeDAO nodeDAO)
+        {
+            super(emptyResponse, sp, nodeService, nodeDAO, sp.getLimitBy(), sp.getMaxItems());
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public int length()
+        {
+            return snapshot.nodeRefs.size();
+        }
+
+        @Override
+        public NodeRef getNodeRef(int n)
+        {
+            return snapshot.nodeRefs.get(n);
+        }
+
+        @Override
+        public List<NodeRef> getNodeRefs()
+        {
+            return snapshot.nodeRefs;
+        }
+
+        @Override
+        public float getScore(int n)
+        {
+            return snapshot.scores[n];
+        }
+
+        @Override
+        public long getNumberFound()
+        {
+            return snapshot.numberFound;
+        }
+
+        @Override
+        public int getStart()
+        {
+            return snapshot.start;
+        }
+
+        @Override
+        public boolean hasMore()
+        {
+            return snapshot.hasMore;
+        }
+
+        @Override
+        public Long getQueryTime()
+        {
+            return snapshot.queryTime;
+        }
+
+        @Override
+        public Long getLastIndexedTxId()
+        {
+            return snapshot.lastIndexedTxId;
+        }
+
+        @Override
+        public Map<String, Integer> getFacetQueries()
+        {
+            return snapshot.facetQueries;
+        }
+
+        @Override
+        public Map<String, List<Pair<String, Integer>>> getFieldFacets()
+        {
+            return snapshot.fieldFacets;
+        }
+
+        @Override
+        public List<Pair<String, Integer>> getFieldFacet(String field)
+        {
+            List<Pair<String, Integer>> facet = snapshot.fieldFacets.get(field);
+            return facet == null ? Collections.emptyList() : facet;
+        }
+
+        @Override
+        public Map<String, List<Pair<String, Integer>>> getFacetIntervals()
+        {
+            return snapshot.facetIntervals;
+        }
+
+        @Override
+        public Map<String, List<Map<String, String>>> getFacetRanges()
+        {
+            return snapshot.facetRanges;
+        }
+
+        @Override
+        public List<GenericFacetResponse> getPivotFacets()
+        {
+            return snapshot.pivotFacets;
+        }
+
+        @Override
+        public Map<String, Set<Metric>> getStats()
+        {
+            return snapshot.stats;
+        }
+
+        @Override
+        public SpellCheckResult getSpellCheckResult()
+        {
+            return snapshot.spellCheckResult;
+        }
+
+        @Override
+        public Map<NodeRef, List<Pair<String, List<String>>>> getHighlighting()
+        {
+            return snapshot.highlighting;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.search;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.repo.node.NodeServicePolicies;
+import org.alfresco.repo.policy.Behaviour.NotificationFrequency;
+import org.alfresco.repo.policy.JavaBehaviour;
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.namespace.QName;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Reports the database transaction of the writes made by a request in the <code>X-Alfresco-Transaction-Id</code>
+ * response header, so that the client can wait for the index to catch up with them through the
+ * {@link IndexTransactionBarrier}.
+ * <p>
+ * The request is registered by the transaction id filter for the duration of the request. Node changes made on the
+ * request thread then record the id of their transaction, and the header is set once that transaction has committed,
+ * so a rolled back write reports nothing. If the request writes in more than one transaction the header holds the
+ * one that committed last, which is the last one the index tracks.
+ * 
+ * @since 6.2.2
+ */
+public class WriteTransactionRecorder implements NodeServicePolicies.OnCreateNodePolicy,
+        NodeServicePolicies.OnUpdateNodePolicy, NodeServicePolicies.OnAddAspectPolicy,
+        NodeServicePolicies.OnRemoveAspectPolicy, NodeServicePolicies.OnMoveNodePolicy,
+        NodeServicePolicies.BeforeDeleteNodePolicy, InitializingBean
+{
+    public static final String HEADER = "X-Alfresco-Transaction-Id";
+
+    private static final ThreadLocal<Recording> RECORDING = new ThreadLocal<>();
+    private static final String KEY_RECORDED = WriteTransactionRecorder.class.getName() + ".recorded";
+
+    private boolean enabled;
+    private PolicyComponent policyComponent;
+    private NodeDAO nodeDAO;
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setPolicyComponent(PolicyComponent policyComponent)
+    {
+        this.policyComponent = policyComponent;
+    }
+
+    public void setNodeDAO(NodeDAO nodeDAO)
+    {
+        this.nodeDAO = nodeDAO;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        if (!enabled)
+        {
+            return;
+        }
+        bind(NodeServicePolicies.OnCreateNodePolicy.QNAME, "onCreateNode");
+        bind(NodeServicePolicies.OnUpdateNodePolicy.QNAME, "onUpdateNode");
+        bind(NodeServicePolicies.OnAddAspectPolicy.QNAME, "onAddAspect");
+        bind(NodeServicePolicies.OnRemoveAspectPolicy.QNAME, "onRemoveAspect");
+        bind(NodeServicePolicies.OnMoveNodePolicy.QNAME, "onMoveNode");
+        bind(NodeServicePolicies.BeforeDeleteNodePolicy.QNAME, "beforeDeleteNode");
+    }
+
+    private void bind(QName policy, String method)
+    {
+        policyComponent.bindClassBehaviour(policy, ContentModel.TYPE_BASE,
+                new JavaBehaviour(this, method, NotificationFrequency.EVERY_EVENT));
+    }
+
+    /**
+     * Starts recording the writes of the current thread into the headers of the response.
+     */
+    public void begin(HttpServletResponse response)
+    {
+        RECORDING.set(new Recording(response));
+    }
+
+    public void end()
+    {
+        RECORDING.remove();
+    }
+
+    private void record()
+    {
+        final Recording recording = RECORDING.get();
+        if (recording == null || AlfrescoTransactionSupport.getTransactionId() == null
+                || AlfrescoTransactionSupport.getResource(KEY_RECORDED) != null)
+        {
+            return;
+        }
+        AlfrescoTransactionSupport.bindResource(KEY_RECORDED, Boolean.TRUE);
+        final Long txnId = nodeDAO.getCurrentTransactionId(true);
+        if (txnId == null)
+        {
+            return;
+        }
+        AlfrescoTransactionSupport.bindListener(new TransactionListenerAdapter()
+        {
+            @Override
+            public void afterCommit()
+            {
+                recording.committed(txnId);
+            }
+        });
+    }
+
+    @Override
+    public void onCreateNode(ChildAssociationRef childAssocRef)
+    {
+        record();
+    }
+
+    @Override
+    public void onUpdateNode(NodeRef nodeRef)
+    {
+        record();
+    }
+
+    @Override
+    public void onAddAspect(NodeRef nodeRef, QName aspectTypeQName)
+    {
+        record();
+    }
+
+    @Override
+    public void onRemoveAspect(NodeRef nodeRef, QName aspectTypeQName)
+    {
+        record();
+    }
+
+    @Override
+    public void onMoveNode(ChildAssociationRef oldChildAssocRef, ChildAssociationRef newChildAssocRef)
+    {
+        record();
+    }
+
+    @Override
+    public void beforeDeleteNode(NodeRef nodeRef)
+    {
+        record();
+    }
+
+    private static final class Recording
+    {
+        private final HttpServletResponse response;
+
+        private Recording(HttpServletResponse response)
+        {
+            this.response = response;
+        }
+
+        private void committed(long txnId)
+        {
+            if (!response.isCommitted())
+            {
+                response.setHeader(HEADER, String.valueOf(txnId));
+            }
+        }
+    }
+}
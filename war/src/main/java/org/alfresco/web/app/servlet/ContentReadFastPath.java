@@ -0,0 +1,284 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.servlet;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Date;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.tenant.TenantService;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.dictionary.DictionaryService;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.AuthenticationService;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.ParameterCheck;
+import org.alfresco.web.app.metrics.Counter;
+import org.alfresco.web.app.metrics.MetricFamily;
+import org.alfresco.web.app.metrics.MetricsRegistry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Serves the content of a node with as little machinery as possible: the node is resolved and the read permission
+ * is checked in a read-only transaction before the reader is opened, and the content is streamed after that
+ * transaction has completed so no connection is held while bytes are written to the client. Calls go to the
+ * internal services, the permission check is done here, so the audit and write-capable transaction interceptors
+ * of the public services are not involved.
+ * <p>
+ * Only the plain case is handled: a request carrying Basic credentials or an <code>alf_ticket</code>, for a readable
+ * <code>cm:content</code> node of the default tenant that has content, without a <code>Range</code> header. Anything
+ * else is declined, and callers then hand the request to the regular <code>GET /nodes/{id}/content</code>
+ * implementation so errors are reported exactly as before.
+ * <p>
+ * Disabled by default, as it answers requests outside the v1 API implementation.
+ * 
+ * @since 6.2.2
+ */
+public class ContentReadFastPath implements InitializingBean
+{
+    private static final Log logger = LogFactory.getLog(ContentReadFastPath.class);
+
+    /** Mimetypes the v1 API never serves inline */
+    private static final Set<String> ATTACHMENT_ONLY_MIMETYPES = Set.of("text/html", "application/xhtml+xml",
+            "image/svg+xml");
+
+    private boolean enabled;
+    private TransactionService transactionService;
+    private AuthenticationService authenticationService;
+    private TenantService tenantService;
+    private NodeService nodeService;
+    private PermissionService permissionService;
+    private ContentService contentService;
+    private DictionaryService dictionaryService;
+    private MetricsRegistry metricsRegistry;
+    private MetricFamily<Counter> requests;
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setTransactionService(TransactionService transactionService)
+    {
+        this.transactionService = transactionService;
+    }
+
+    public void setAuthenticationService(AuthenticationService authenticationService)
+    {
+        this.authenticationService = authenticationService;
+    }
+
+    public void setTenantService(TenantService tenantService)
+    {
+        this.tenantService = tenantService;
+    }
+
+    public void setNodeService(NodeService nodeService)
+    {
+        this.nodeService = nodeService;
+    }
+
+    public void setPermissionService(PermissionService permissionService)
+    {
+        this.permissionService = permissionService;
+    }
+
+    public void setContentService(ContentService contentService)
+    {
+        this.contentService = contentService;
+    }
+
+    public void setDictionaryService(DictionaryService dictionaryService)
+    {
+        this.dictionaryService = dictionaryService;
+    }
+
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry)
+    {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        ParameterCheck.mandatory("transactionService", transactionService);
+        ParameterCheck.mandatory("authenticationService", authenticationService);
+        ParameterCheck.mandatory("tenantService", tenantService);
+        ParameterCheck.mandatory("nodeService", nodeService);
+        ParameterCheck.mandatory("permissionService", permissionService);
+        ParameterCheck.mandatory("contentService", contentService);
+        ParameterCheck.mandatory("dictionaryService", dictionaryService);
+        ParameterCheck.mandatory("metricsRegistry", metricsRegistry);
+
+        requests = metricsRegistry.counter("alfresco_content_read_fast_path",
+                "Content read requests served by or declined by the read-only fast path", "result");
+    }
+
+    /**
+     * Streams the content of the node to the response.
+     * 
+     * @param req the request, used for credentials and conditional headers
+     * @param res the response, untouched when the request is declined
+     * @param nodeId id of a node in workspace://SpacesStore
+     * @param attachment whether the content is sent as an attachment
+     * @return <tt>true</tt> if the response was produced, <tt>false</tt> if the caller must handle the request
+     */
+    public boolean serve(HttpServletRequest req, HttpServletResponse res, String nodeId, boolean attachment)
+            throws IOException
+    {
+        if (!enabled || tenantService.isEnabled() || req.getHeader("Range") != null || !NodeRef.isNodeRef(
+                StoreRef.STORE_REF_WORKSPACE_SPACESSTORE + "/" + nodeId))
+        {
+            return decline();
+        }
+
+        if (!RequestAuthentication.authenticate(authenticationService, req))
+        {
+            return decline();
+        }
+
+        final NodeRef nodeRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, nodeId);
+        final ResolvedContent resolved;
+        try
+        {
+            RetryingTransactionCallback<ResolvedContent> resolve = () -> resolve(nodeRef);
+            resolved = transactionService.getRetryingTransactionHelper().doInTransaction(resolve, true, false);
+        }
+        finally
+        {
+            // the reader does not need the security context once it has been handed out
+            AuthenticationUtil.clearCurrentSecurityContext();
+        }
+        if (resolved == null || (!attachment && ATTACHMENT_ONLY_MIMETYPES.contains(resolved.reader.getMimetype())))
+        {
+            return decline();
+        }
+
+        Date modified = resolved.modified;
+        if (modified != null)
+        {
+            long ifModifiedSince = req.getDateHeader("If-Modified-Since");
+            // HTTP dates have a one second resolution
+            if (ifModifiedSince != -1 && modified.getTime() / 1000 <= ifModifiedSince / 1000)
+            {
+                res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                requests.labels("notModified").inc();
+                return true;
+            }
+            res.setDateHeader("Last-Modified", modified.getTime());
+        }
+
+        ContentReader reader = resolved.reader;
+        String mimetype = reader.getMimetype();
+        String encoding = reader.getEncoding();
+        res.setContentType(mimetype.startsWith("text/") && encoding != null ? mimetype + ";charset=" + encoding : mimetype);
+        res.setHeader("Content-Length", Long.toString(reader.getSize()));
+        if (attachment)
+        {
+            res.setHeader("Content-Disposition", contentDisposition(resolved.name));
+        }
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Streaming " + reader.getSize() + " bytes of " + nodeRef + " through the read-only fast path");
+        }
+        reader.getContent(res.getOutputStream());
+        requests.labels("served").inc();
+        return true;
+    }
+
+    private boolean decline()
+    {
+        requests.labels("declined").inc();
+        return false;
+    }
+
+    private ResolvedContent resolve(NodeRef nodeRef)
+    {
+        if (!nodeService.exists(nodeRef)
+                || !dictionaryService.isSubClass(nodeService.getType(nodeRef), ContentModel.TYPE_CONTENT)
+                || permissionService.hasPermission(nodeRef, PermissionService.READ_CONTENT) != AccessStatus.ALLOWED)
+        {
+            return null;
+        }
+        ContentReader reader = contentService.getReader(nodeRef, ContentModel.PROP_CONTENT);
+        if (reader == null || !reader.exists())
+        {
+            return null;
+        }
+        String name = (String) nodeService.getProperty(nodeRef, ContentModel.PROP_NAME);
+        Date modified = (Date) nodeService.getProperty(nodeRef, ContentModel.PROP_MODIFIED);
+        return new ResolvedContent(reader, name, modified);
+    }
+
+    private static String contentDisposition(String name)
+    {
+        try
+        {
+            String encoded = URLEncoder.encode(name, "UTF-8").replace("+", "%20");
+            String ascii = name.replaceAll("[^\\x20-\\x7e]|[\"\\\\]", "_");
+            return "attachment; filename=\"" + ascii + "\"; filename*=UTF-8''" + encoded;
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class ResolvedContent
+    {
+        private final ContentReader reader;
+        private final String name;
+        private final Date modified;
+
+        private ResolvedContent(ContentReader reader, String name, Date modified)
+        {
+            this.reader = reader;
+            this.name = name;
+            this.modified = modified;
+        }
+    }
+}
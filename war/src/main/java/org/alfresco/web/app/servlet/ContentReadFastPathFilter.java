@@ -0,0 +1,94 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.servlet;
+
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.repo.web.filter.beans.DependencyInjectedFilter;
+
+/**
+ * Sends plain <code>GET /nodes/{nodeId}/content</code> requests of the v1 REST API through the
+ * {@link ContentReadFastPath}. Requests with parameters other than <code>attachment</code> and
+ * <code>alf_ticket</code>, and requests the fast path declines, continue down the chain unchanged.
+ * 
+ * @since 6.2.2
+ */
+public class ContentReadFastPathFilter implements DependencyInjectedFilter
+{
+    private static final Pattern CONTENT_PATH = Pattern
+            .compile("^/-default-/public/alfresco/versions/1/nodes/([0-9a-zA-Z-]+)/content/?$");
+
+    private ContentReadFastPath contentReadFastPath;
+
+    public void setContentReadFastPath(ContentReadFastPath contentReadFastPath)
+    {
+        this.contentReadFastPath = contentReadFastPath;
+    }
+
+    @Override
+    public void doFilter(ServletContext context, ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException
+    {
+        if (contentReadFastPath.isEnabled() && request instanceof HttpServletRequest)
+        {
+            HttpServletRequest req = (HttpServletRequest) request;
+            String pathInfo = req.getPathInfo();
+            Matcher matcher = pathInfo == null ? null : CONTENT_PATH.matcher(pathInfo);
+            if ("GET".equals(req.getMethod()) && matcher != null && matcher.matches() && hasOnlySupportedParameters(req)
+                    && contentReadFastPath.serve(req, (HttpServletResponse) response, matcher.group(1),
+                            !"false".equalsIgnoreCase(req.getParameter("attachment"))))
+            {
+                return;
+            }
+        }
+        chain.doFilter(request, response);
+    }
+
+    private static boolean hasOnlySupportedParameters(HttpServletRequest req)
+    {
+        Enumeration<String> names = req.getParameterNames();
+        while (names.hasMoreElements())
+        {
+            String name = names.nextElement();
+            if (!"attachment".equals(name) && !"alf_ticket".equals(name))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
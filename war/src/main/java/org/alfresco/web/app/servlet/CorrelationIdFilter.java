@@ -0,0 +1,115 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.repo.web.filter.beans.DependencyInjectedFilter;
+import org.alfresco.web.app.logging.CorrelationId;
+import org.alfresco.web.app.logging.CorrelationIdHeader;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Assigns a correlation ID to every request, or adopts the one sent by the client in the
+ * <code>X-Correlation-ID</code> header, and makes it available as {@link CorrelationId} for the duration of the
+ * request. The ID is returned in the response header of the same name and forwarded on outbound Solr requests.
+ * <p>
+ * With debug logging enabled for this class, the method, URI, status and duration of each request are logged on
+ * completion, so that the repository side of a slow call can be found from its ID.
+ * 
+ * @since 6.2.2
+ */
+public class CorrelationIdFilter implements DependencyInjectedFilter
+{
+    private static final Log logger = LogFactory.getLog(CorrelationIdFilter.class);
+
+    private boolean trustClientId = true;
+    private boolean propagate = true;
+
+    /**
+     * @param trustClientId whether a well formed ID sent by the client is used instead of a new one
+     */
+    public void setTrustClientId(boolean trustClientId)
+    {
+        this.trustClientId = trustClientId;
+    }
+
+    /**
+     * @param propagate whether the ID is sent on outbound commons-httpclient requests, e.g. to Solr
+     */
+    public void setPropagate(boolean propagate)
+    {
+        this.propagate = propagate;
+    }
+
+    public void init()
+    {
+        if (propagate)
+        {
+            CorrelationIdHeader.install();
+        }
+    }
+
+    @Override
+    public void doFilter(ServletContext context, ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException
+    {
+        HttpServletRequest req = (HttpServletRequest) request;
+        HttpServletResponse res = (HttpServletResponse) response;
+
+        String id = trustClientId ? req.getHeader(CorrelationId.HEADER) : null;
+        if (!CorrelationId.isValid(id))
+        {
+            id = CorrelationId.generate();
+        }
+        CorrelationId.set(id);
+        res.setHeader(CorrelationId.HEADER, id);
+
+        long start = System.currentTimeMillis();
+        try
+        {
+            chain.doFilter(request, response);
+        }
+        finally
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug(req.getMethod() + " " + req.getRequestURI() + " " + res.getStatus() + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            }
+            CorrelationId.clear();
+        }
+    }
+}
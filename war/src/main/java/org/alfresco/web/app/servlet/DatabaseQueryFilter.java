@@ -0,0 +1,73 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+import org.alfresco.repo.web.filter.beans.DependencyInjectedFilter;
+import org.alfresco.web.app.search.DatabaseQueryRouter;
+
+/**
+ * Routes the searches of simple <code>/queries</code> requests to the database, see {@link DatabaseQueryRouter} for
+ * the requests that qualify.
+ * 
+ * @since 6.2.2
+ */
+public class DatabaseQueryFilter implements DependencyInjectedFilter
+{
+    private DatabaseQueryRouter databaseQueryRouter;
+
+    public void setDatabaseQueryRouter(DatabaseQueryRouter databaseQueryRouter)
+    {
+        this.databaseQueryRouter = databaseQueryRouter;
+    }
+
+    @Override
+    public void doFilter(ServletContext context, ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException
+    {
+        if (!(request instanceof HttpServletRequest) || !databaseQueryRouter.begin((HttpServletRequest) request))
+        {
+            chain.doFilter(request, response);
+            return;
+        }
+        try
+        {
+            chain.doFilter(request, response);
+        }
+        finally
+        {
+            databaseQueryRouter.end();
+        }
+    }
+}
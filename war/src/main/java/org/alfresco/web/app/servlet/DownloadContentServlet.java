@@ -29,7 +29,9 @@ import org.alfresco.service.cmr.repository.StoreRef;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.extensions.surf.util.URLDecoder;
+import org.springframework.web.context.support.WebApplicationContextUtils;
 
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -48,7 +50,8 @@ import java.util.StringTokenizer;
  * The 'attach' or 'direct' element is used to indicate whether to display the stream directly
  * in the browser or download it as a file attachment.</p>
  * <p>
- * Since ACS 6.X, this Servlet redirects to GET /nodes/{nodeId}/content V1 REST API.
+ * Since ACS 6.X, this Servlet redirects to GET /nodes/{nodeId}/content V1 REST API. Requests that carry
+ * credentials are served directly by the {@link ContentReadFastPath} when it accepts them, saving the redirect.
  *
  * 
  * @author Kevin Roast
@@ -65,6 +68,16 @@ public class DownloadContentServlet extends HttpServlet
    private static final String URL_DIRECT = "d";
    private static final String URL_DIRECT_LONG = "direct";
 
+   private transient ContentReadFastPath contentReadFastPath;
+
+   @Override
+   public void init() throws ServletException
+   {
+      super.init();
+      contentReadFastPath = (ContentReadFastPath) WebApplicationContextUtils
+            .getRequiredWebApplicationContext(getServletContext()).getBean("contentReadFastPath");
+   }
+
    /**
     * @see javax.servlet.http.HttpServlet#doGet(HttpServletRequest, HttpServletResponse)
     */
@@ -114,6 +127,11 @@ public class DownloadContentServlet extends HttpServlet
 
       String nodeId = URLDecoder.decode(t.nextToken());
 
+      if (contentReadFastPath.serve(req, res, nodeId, isAttachment))
+      {
+         return;
+      }
+
       // build redirect URL to V1 GET /nodes/{nodeId}/content
       String redirectUrl = String
           .format("%s/api/-default-/public/alfresco/versions/1/nodes/%s/content?attachment=%b",
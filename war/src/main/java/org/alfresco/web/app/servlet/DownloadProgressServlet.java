@@ -0,0 +1,127 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.download.DownloadModel;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.web.app.download.DownloadProgressPublisher;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+/**
+ * Streams the status of a download as server-sent events, as an alternative to polling
+ * <pre>GET /api/-default-/public/alfresco/versions/1/downloads/{id}</pre>
+ * <p>
+ * The servlet is mapped to <pre>/alfresco/events/downloads/{id}</pre> and answers 404 unless
+ * <code>downloads.events.enabled=true</code>. The request is authenticated with a ticket or Basic credentials, as the
+ * public API does, and only the creator of the download may subscribe to it. Events are written by the
+ * {@link DownloadProgressPublisher}, the request does not keep a thread while it is open.
+ * 
+ * @since 6.2.2
+ */
+public class DownloadProgressServlet extends HttpServlet
+{
+    private static final long serialVersionUID = -3161473287720384915L;
+
+    private static final String BEAN_DOWNLOAD_PROGRESS_PUBLISHER = "downloadProgressPublisher";
+
+    private transient DownloadProgressPublisher publisher;
+    private transient ServiceRegistry serviceRegistry;
+
+    @Override
+    public void init() throws ServletException
+    {
+        WebApplicationContext context = WebApplicationContextUtils.getRequiredWebApplicationContext(getServletContext());
+        publisher = (DownloadProgressPublisher) context.getBean(BEAN_DOWNLOAD_PROGRESS_PUBLISHER);
+        serviceRegistry = (ServiceRegistry) context.getBean(ServiceRegistry.SERVICE_REGISTRY);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse res) throws IOException
+    {
+        String id = req.getPathInfo() == null ? "" : req.getPathInfo().substring(1);
+        if (!publisher.isEnabled()
+                || !NodeRef.isNodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE + "/" + id))
+        {
+            res.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if (!RequestAuthentication.authenticate(serviceRegistry.getAuthenticationService(), req))
+        {
+            res.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+
+        NodeRef downloadNode = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, id);
+        boolean owner;
+        try
+        {
+            String user = AuthenticationUtil.getFullyAuthenticatedUser();
+            owner = AuthenticationUtil.runAsSystem(() -> serviceRegistry.getRetryingTransactionHelper()
+                    .doInTransaction(() -> {
+                        NodeService nodeService = serviceRegistry.getNodeService();
+                        return nodeService.exists(downloadNode)
+                                && DownloadModel.TYPE_DOWNLOAD.equals(nodeService.getType(downloadNode))
+                                && user.equals(nodeService.getProperty(downloadNode, ContentModel.PROP_CREATOR));
+                    }, true, false));
+        }
+        finally
+        {
+            AuthenticationUtil.clearCurrentSecurityContext();
+        }
+        if (!owner)
+        {
+            res.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        res.setContentType("text/event-stream");
+        res.setCharacterEncoding("UTF-8");
+        res.setHeader("Cache-Control", "no-cache");
+        // stop nginx from buffering the stream
+        res.setHeader("X-Accel-Buffering", "no");
+        AsyncContext asyncContext = req.startAsync();
+        if (!publisher.subscribe(downloadNode, asyncContext))
+        {
+            res.setHeader("Retry-After", "5");
+            res.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            asyncContext.complete();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.servlet;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.cmr.security.AuthenticationService;
+import org.alfresco.web.app.search.IndexTransactionBarrier;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+/**
+ * Waits until the index has tracked a database transaction, as reported in the
+ * <code>X-Alfresco-Transaction-Id</code> header of a write, so that a following search sees the write.
+ * <p>
+ * The servlet is mapped to <pre>/alfresco/index/barrier?txnId={id}&amp;timeout={ms}</pre> and answers 404 unless
+ * <code>search.barrier.enabled=true</code>. The request is asynchronous and holds no thread while it waits. It
+ * answers with <pre>{"txnId":...,"lastIndexedTxnId":...,"consistent":true|false}</pre>, <code>consistent</code> being
+ * false when the timeout passed first or there is no such committed transaction. The timeout defaults to, and is
+ * capped at, <code>search.barrier.maxWait</code>.
+ * 
+ * @since 6.2.2
+ */
+public class IndexBarrierServlet extends HttpServlet
+{
+    private static final long serialVersionUID = 5527063117419205376L;
+
+    private static final String BEAN_INDEX_TRANSACTION_BARRIER = "indexTransactionBarrier";
+    private static final String BEAN_AUTHENTICATION_SERVICE = "AuthenticationService";
+
+    private transient IndexTransactionBarrier barrier;
+    private transient AuthenticationService authenticationService;
+
+    @Override
+    public void init() throws ServletException
+    {
+        WebApplicationContext context = WebApplicationContextUtils.getRequiredWebApplicationContext(getServletContext());
+        barrier = (IndexTransactionBarrier) context.getBean(BEAN_INDEX_TRANSACTION_BARRIER);
+        authenticationService = (AuthenticationService) context.getBean(BEAN_AUTHENTICATION_SERVICE);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse res) throws IOException
+    {
+        if (!barrier.isEnabled())
+        {
+            res.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        long txnId;
+        long timeout;
+        try
+        {
+            txnId = Long.parseLong(req.getParameter("txnId"));
+            String timeoutParam = req.getParameter("timeout");
+            timeout = timeoutParam == null ? barrier.getMaxWait()
+                    : Math.min(Long.parseLong(timeoutParam), barrier.getMaxWait());
+        }
+        catch (NumberFormatException e)
+        {
+            res.sendError(HttpServletResponse.SC_BAD_REQUEST, "txnId and timeout must be numbers");
+            return;
+        }
+        try
+        {
+            if (!RequestAuthentication.authenticate(authenticationService, req))
+            {
+                res.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+                return;
+            }
+        }
+        finally
+        {
+            AuthenticationUtil.clearCurrentSecurityContext();
+        }
+
+        AsyncContext asyncContext = req.startAsync();
+        // the future times out first, the container timeout only guards against a lost completion
+        asyncContext.setTimeout(timeout + 10000L);
+        CompletableFuture<Boolean> future = barrier.await(txnId);
+        future.completeOnTimeout(false, Math.max(timeout, 0L), TimeUnit.MILLISECONDS).whenComplete((tracked, e) -> {
+            boolean consistent = e == null && tracked;
+            try
+            {
+                HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+                response.setContentType("application/json");
+                response.setCharacterEncoding("UTF-8");
+                response.setHeader("Cache-Control", "no-cache");
+                response.getWriter().write("{\"txnId\":" + txnId + ",\"lastIndexedTxnId\":"
+                        + barrier.getLastIndexedTxnId() + ",\"consistent\":" + consistent + "}");
+            }
+            catch (IOException | IllegalStateException ignored)
+            {
+                // the client has gone
+            }
+            finally
+            {
+                try
+                {
+                    asyncContext.complete();
+                }
+                catch (IllegalStateException ignored)
+                {
+                    // timed out in the container
+                }
+            }
+        });
+    }
+}
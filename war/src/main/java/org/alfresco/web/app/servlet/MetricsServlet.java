@@ -0,0 +1,91 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.service.cmr.security.AuthenticationService;
+import org.alfresco.service.cmr.security.AuthorityService;
+import org.alfresco.web.app.metrics.MetricsRegistry;
+import org.alfresco.web.app.metrics.OpenMetricsWriter;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+/**
+ * Servlet exposing the {@link MetricsRegistry} in OpenMetrics text format for Prometheus compatible scrapers.
+ * <p>
+ * The servlet is mapped to <pre>/alfresco/metrics</pre> and answers 404 unless <code>metrics.enabled=true</code>.
+ * Scrapers authenticate as an administrator with Basic credentials, unless
+ * <code>metrics.authenticationRequired=false</code> for a repository whose metrics port is only reachable from the
+ * monitoring network.
+ * 
+ * @since 6.2.2
+ */
+public class MetricsServlet extends HttpServlet
+{
+    private static final long serialVersionUID = 2467286531245138412L;
+
+    private static final String BEAN_METRICS_REGISTRY = "metricsRegistry";
+    private static final String BEAN_AUTHENTICATION_SERVICE = "AuthenticationService";
+    private static final String BEAN_AUTHORITY_SERVICE = "AuthorityService";
+
+    private transient MetricsRegistry metricsRegistry;
+    private transient AuthenticationService authenticationService;
+    private transient AuthorityService authorityService;
+
+    @Override
+    public void init() throws ServletException
+    {
+        WebApplicationContext context = WebApplicationContextUtils.getRequiredWebApplicationContext(getServletContext());
+        metricsRegistry = (MetricsRegistry) context.getBean(BEAN_METRICS_REGISTRY);
+        authenticationService = (AuthenticationService) context.getBean(BEAN_AUTHENTICATION_SERVICE);
+        authorityService = (AuthorityService) context.getBean(BEAN_AUTHORITY_SERVICE);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse res) throws IOException
+    {
+        if (!metricsRegistry.isEnabled())
+        {
+            res.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if (metricsRegistry.isAuthenticationRequired()
+                && !RequestAuthentication.isAdmin(authenticationService, authorityService, req))
+        {
+            RequestAuthentication.challenge(res);
+            return;
+        }
+        res.setContentType(OpenMetricsWriter.CONTENT_TYPE);
+        res.setHeader("Cache-Control", "no-cache");
+        metricsRegistry.scrape(res.getWriter());
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.servlet;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.alfresco.repo.web.filter.beans.DependencyInjectedFilter;
+import org.alfresco.web.app.api.nodes.NodesBatchWriteEntityResource;
+
+/**
+ * Commits the operations of <code>POST /nodes-batch-write</code> in chunks, see
+ * {@link NodesBatchWriteEntityResource}. The filter runs before the framework has opened a transaction: it reads the
+ * body and passes the request to the framework again for each chunk, so that each chunk is committed by a transaction
+ * of its own and the request never holds more than one database connection. Only the response of the last pass is
+ * sent, it answers every operation of the batch. A pass that fails as a whole, such as a chunk whose commit fails, is
+ * sent as the framework answered it; the chunks before it stay committed.
+ * 
+ * @since 6.2.2
+ */
+public class NodesBatchWriteFilter implements DependencyInjectedFilter
+{
+    private static final Pattern BATCH_WRITE_PATH = Pattern
+            .compile("^/-default-/public/alfresco/versions/1/nodes-batch-write$");
+
+    private NodesBatchWriteEntityResource nodesBatchWrite;
+
+    public void setNodesBatchWrite(NodesBatchWriteEntityResource nodesBatchWrite)
+    {
+        this.nodesBatchWrite = nodesBatchWrite;
+    }
+
+    @Override
+    public void doFilter(ServletContext context, ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException
+    {
+        if (!(request instanceof HttpServletRequest) || !isBatchWrite((HttpServletRequest) request))
+        {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest req = (HttpServletRequest) request;
+        byte[] body = req.getInputStream().readAllBytes();
+        nodesBatchWrite.beginChunks();
+        try
+        {
+            BufferedResponse pass;
+            do
+            {
+                pass = new BufferedResponse((HttpServletResponse) response);
+                chain.doFilter(new ReplayedRequest(req, body), pass);
+            }
+            while (pass.getStatus() == HttpServletResponse.SC_OK && nodesBatchWrite.hasMoreChunks());
+            pass.send();
+        }
+        finally
+        {
+            nodesBatchWrite.endChunks();
+        }
+    }
+
+    private static boolean isBatchWrite(HttpServletRequest req)
+    {
+        String pathInfo = req.getPathInfo();
+        return "POST".equals(req.getMethod()) && pathInfo != null && BATCH_WRITE_PATH.matcher(pathInfo).matches();
+    }
+
+    /**
+     * Replays the body read by the filter
+     */
+    private static final class ReplayedRequest extends HttpServletRequestWrapper
+    {
+        private final ByteArrayInputStream replay;
+        private final ServletInputStream inputStream;
+
+        private ReplayedRequest(HttpServletRequest request, byte[] body)
+        {
+            super(request);
+            replay = new ByteArrayInputStream(body);
+            inputStream = new ServletInputStream()
+            {
+                @Override
+                public int read()
+                {
+                    return replay.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len)
+                {
+                    return replay.read(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public ServletInputStream getInputStream()
+        {
+            return inputStream;
+        }
+
+        @Override
+        public BufferedReader getReader()
+        {
+            String encoding = getCharacterEncoding();
+            Charset charset = encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding);
+            return new BufferedReader(new InputStreamReader(inputStream, charset));
+        }
+    }
+
+    /**
+     * Holds back the status, headers and body of a pass until it is known to be the last one. The content type and
+     * encoding are set on the response straight away, as every pass sets the same.
+     */
+    private static final class BufferedResponse extends HttpServletResponseWrapper
+    {
+        private final List<HeaderWrite> heldHeaders = new ArrayList<>();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private int status = HttpServletResponse.SC_OK;
+        private String errorMessage;
+        private boolean error;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        private BufferedResponse(HttpServletResponse response)
+        {
+            super(response);
+        }
+
+        void send() throws IOException
+        {
+            HttpServletResponse response = (HttpServletResponse) getResponse();
+            for (HeaderWrite header : heldHeaders)
+            {
+                header.apply(response);
+            }
+            if (error)
+            {
+                response.sendError(status, errorMessage);
+                return;
+            }
+            response.setStatus(status);
+            if (writer != null)
+            {
+                writer.flush();
+            }
+            response.setContentLength(body.size());
+            body.writeTo(response.getOutputStream());
+        }
+
+        @Override
+        public int getStatus()
+        {
+            return status;
+        }
+
+        @Override
+        public void setStatus(int sc)
+        {
+            status = sc;
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void setStatus(int sc, String sm)
+        {
+            status = sc;
+        }
+
+        @Override
+        public void sendError(int sc)
+        {
+            sendError(sc, null);
+        }
+
+        @Override
+        public void sendError(int sc, String msg)
+        {
+            status = sc;
+            errorMessage = msg;
+            error = true;
+        }
+
+        @Override
+        public void setHeader(String name, String value)
+        {
+            heldHeaders.add(response -> response.setHeader(name, value));
+        }
+
+        @Override
+        public void addHeader(String name, String value)
+        {
+            heldHeaders.add(response -> response.addHeader(name, value));
+        }
+
+        @Override
+        public void setIntHeader(String name, int value)
+        {
+            heldHeaders.add(response -> response.setIntHeader(name, value));
+        }
+
+        @Override
+        public void addIntHeader(String name, int value)
+        {
+            heldHeaders.add(response -> response.addIntHeader(name, value));
+        }
+
+        @Override
+        public void setDateHeader(String name, long date)
+        {
+            heldHeaders.add(response -> response.setDateHeader(name, date));
+        }
+
+        @Override
+        public void addDateHeader(String name, long date)
+        {
+            heldHeaders.add(response -> response.addDateHeader(name, date));
+        }
+
+        @Override
+        public void setContentLength(int len)
+        {
+            // set from the buffered body
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream()
+        {
+            if (outputStream == null)
+            {
+                outputStream = new ServletOutputStream()
+                {
+                    @Override
+                    public void write(int b)
+                    {
+                        body.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len)
+                    {
+                        body.write(b, off, len);
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter()
+        {
+            if (writer == null)
+            {
+                String encoding = getCharacterEncoding();
+                Charset charset = encoding == null ? StandardCharsets.ISO_8859_1 : Charset.forName(encoding);
+                writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), charset));
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer()
+        {
+            // nothing is sent before the last pass is known
+        }
+
+        @Override
+        public boolean isCommitted()
+        {
+            return false;
+        }
+
+        @Override
+        public void resetBuffer()
+        {
+            body.reset();
+        }
+
+        @Override
+        public void reset()
+        {
+            body.reset();
+            heldHeaders.clear();
+            status = HttpServletResponse.SC_OK;
+            error = false;
+            errorMessage = null;
+        }
+    }
+
+    private interface HeaderWrite
+    {
+        void apply(HttpServletResponse response);
+    }
+}
@@ -0,0 +1,581 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.tenant.TenantService;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.web.filter.beans.DependencyInjectedFilter;
+import org.alfresco.service.cmr.quickshare.InvalidSharedIdException;
+import org.alfresco.service.cmr.quickshare.QuickShareService;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.AuthenticationService;
+import org.alfresco.service.cmr.security.AuthorityService;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.ParameterCheck;
+import org.alfresco.web.app.rendition.RenditionCache;
+import org.alfresco.web.app.rendition.RenditionCache.CachedRendition;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Answers <code>GET .../renditions/{renditionId}/content</code> requests of nodes, deleted nodes and shared links
+ * from the {@link RenditionCache}, and adds the responses of the v1 API to it on a miss.
+ * <p>
+ * The key is resolved first, as the system user in a read-only transaction. On a miss the request continues down
+ * the chain, so authentication and errors are handled by the API as before; the caching headers of this filter
+ * replace those of the API only once the response turns out to be a <tt>200</tt>. On a hit the request is authenticated and authorised here, read permission for nodes, the archiving user
+ * or an administrator for deleted nodes, and anything that does not pass goes down the chain as well.
+ * <p>
+ * Responses carry an entity tag derived from the key. When the URL is versioned with a <code>lastModified</code>
+ * parameter, as clients do for thumbnails, the response may be cached for a year; otherwise for
+ * <code>maxAge</code> seconds, after which clients revalidate and get a <tt>304</tt>.
+ * 
+ * @since 6.2.2
+ */
+public class RenditionCacheFilter implements DependencyInjectedFilter, InitializingBean
+{
+    private static final String API_PREFIX = "^/-default-/public/alfresco/versions/1/";
+    private static final Pattern NODE_PATH = Pattern
+            .compile(API_PREFIX + "(nodes|deleted-nodes)/([0-9a-zA-Z-]+)/renditions/([^/]+)/content/?$");
+    private static final Pattern SHARED_PATH = Pattern
+            .compile(API_PREFIX + "shared-links/([^/]+)/renditions/([^/]+)/content/?$");
+
+    private static final String PARAM_VERSION = "lastModified";
+    private static final long VERSIONED_MAX_AGE = 365L * 24 * 60 * 60;
+
+    private enum Kind
+    {
+        NODE, DELETED_NODE, SHARED_LINK
+    }
+
+    private RenditionCache renditionCache;
+    private TransactionService transactionService;
+    private AuthenticationService authenticationService;
+    private AuthorityService authorityService;
+    private TenantService tenantService;
+    private NodeService nodeService;
+    private PermissionService permissionService;
+    private QuickShareService quickShareService;
+    private boolean sharedLinksEnabled = true;
+    private long maxAge;
+
+    public void setRenditionCache(RenditionCache renditionCache)
+    {
+        this.renditionCache = renditionCache;
+    }
+
+    public void setTransactionService(TransactionService transactionService)
+    {
+        this.transactionService = transactionService;
+    }
+
+    public void setAuthenticationService(AuthenticationService authenticationService)
+    {
+        this.authenticationService = authenticationService;
+    }
+
+    public void setAuthorityService(AuthorityService authorityService)
+    {
+        this.authorityService = authorityService;
+    }
+
+    public void setTenantService(TenantService tenantService)
+    {
+        this.tenantService = tenantService;
+    }
+
+    public void setNodeService(NodeService nodeService)
+    {
+        this.nodeService = nodeService;
+    }
+
+    public void setPermissionService(PermissionService permissionService)
+    {
+        this.permissionService = permissionService;
+    }
+
+    public void setQuickShareService(QuickShareService quickShareService)
+    {
+        this.quickShareService = quickShareService;
+    }
+
+    public void setSharedLinksEnabled(boolean sharedLinksEnabled)
+    {
+        this.sharedLinksEnabled = sharedLinksEnabled;
+    }
+
+    public void setMaxAge(long maxAge)
+    {
+        this.maxAge = maxAge;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        ParameterCheck.mandatory("renditionCache", renditionCache);
+        ParameterCheck.mandatory("transactionService", transactionService);
+        ParameterCheck.mandatory("authenticationService", authenticationService);
+        ParameterCheck.mandatory("authorityService", authorityService);
+        ParameterCheck.mandatory("tenantService", tenantService);
+        ParameterCheck.mandatory("nodeService", nodeService);
+        ParameterCheck.mandatory("permissionService", permissionService);
+        ParameterCheck.mandatory("quickShareService", quickShareService);
+    }
+
+    @Override
+    public void doFilter(ServletContext context, ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException
+    {
+        if (!renditionCache.isEnabled() || tenantService.isEnabled() || !(request instanceof HttpServletRequest))
+        {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest req = (HttpServletRequest) request;
+        HttpServletResponse res = (HttpServletResponse) response;
+        String pathInfo = req.getPathInfo();
+        if (!"GET".equals(req.getMethod()) || pathInfo == null || req.getHeader("Range") != null
+                || !hasOnlySupportedParameters(req))
+        {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        Kind kind;
+        String id;
+        String renditionId;
+        Matcher matcher = NODE_PATH.matcher(pathInfo);
+        if (matcher.matches())
+        {
+            kind = "nodes".equals(matcher.group(1)) ? Kind.NODE : Kind.DELETED_NODE;
+            id = matcher.group(2);
+            renditionId = matcher.group(3);
+        }
+        else if (sharedLinksEnabled && (matcher = SHARED_PATH.matcher(pathInfo)).matches())
+        {
+            kind = Kind.SHARED_LINK;
+            id = matcher.group(1);
+            renditionId = matcher.group(2);
+        }
+        else
+        {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        Source source = AuthenticationUtil.runAsSystem(() -> transactionService.getRetryingTransactionHelper()
+                .doInTransaction(() -> resolve(kind, id), true, false));
+        if (source == null)
+        {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        boolean attachment = !"false".equalsIgnoreCase(req.getParameter("attachment"));
+        String key = RenditionCache.key(source.nodeRef, source.contentUrl, renditionId, attachment);
+        String etag = RenditionCache.etag(key);
+        String cacheControl = (kind == Kind.SHARED_LINK ? "public" : "private") + ", max-age="
+                + (req.getParameter(PARAM_VERSION) != null ? VERSIONED_MAX_AGE + ", immutable" : maxAge);
+
+        CachedRendition cached = renditionCache.get(key);
+        if (cached != null && isAuthorised(kind, source, req))
+        {
+            res.setHeader("ETag", etag);
+            res.setHeader("Cache-Control", cacheControl);
+            if (etag.equals(req.getHeader("If-None-Match")))
+            {
+                res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            res.setContentType(cached.getMimetype());
+            res.setHeader("Content-Length", Long.toString(cached.getSize()));
+            if (cached.getContentDisposition() != null)
+            {
+                res.setHeader("Content-Disposition", cached.getContentDisposition());
+            }
+            res.getOutputStream().write(cached.getBytes());
+            return;
+        }
+        if (cached != null)
+        {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        CapturingResponse capturing = new CapturingResponse(res, renditionCache.getMaxEntrySize(), etag, cacheControl);
+        chain.doFilter(request, capturing);
+        capturing.applyCachingHeaders();
+        byte[] bytes = capturing.getCaptured();
+        if (bytes != null && capturing.getStatus() == HttpServletResponse.SC_OK && capturing.getContentType() != null)
+        {
+            renditionCache.put(key, source.nodeRef, capturing.getContentType(),
+                    capturing.getHeader("Content-Disposition"), bytes);
+        }
+    }
+
+    private Source resolve(Kind kind, String id)
+    {
+        NodeRef nodeRef;
+        switch (kind)
+        {
+            case SHARED_LINK:
+                try
+                {
+                    nodeRef = quickShareService.getTenantNodeRefFromSharedId(id).getSecond();
+                }
+                catch (InvalidSharedIdException e)
+                {
+                    return null;
+                }
+                break;
+            case DELETED_NODE:
+                nodeRef = new NodeRef(StoreRef.STORE_REF_ARCHIVE_SPACESSTORE, id);
+                break;
+            default:
+                nodeRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, id);
+        }
+        if (!nodeService.exists(nodeRef))
+        {
+            return null;
+        }
+        Serializable content = nodeService.getProperty(nodeRef, ContentModel.PROP_CONTENT);
+        if (!(content instanceof ContentData) || ((ContentData) content).getContentUrl() == null)
+        {
+            return null;
+        }
+        String archivedBy = kind == Kind.DELETED_NODE
+                ? (String) nodeService.getProperty(nodeRef, ContentModel.PROP_ARCHIVED_BY)
+                : null;
+        return new Source(nodeRef, ((ContentData) content).getContentUrl(), archivedBy);
+    }
+
+    private boolean isAuthorised(Kind kind, Source source, HttpServletRequest req)
+    {
+        if (kind == Kind.SHARED_LINK)
+        {
+            return true;
+        }
+        if (!RequestAuthentication.authenticate(authenticationService, req))
+        {
+            return false;
+        }
+        try
+        {
+            RetryingTransactionHelper txnHelper = transactionService.getRetryingTransactionHelper();
+            return txnHelper.doInTransaction(() -> {
+                if (kind == Kind.DELETED_NODE)
+                {
+                    return AuthenticationUtil.getFullyAuthenticatedUser().equals(source.archivedBy)
+                            || authorityService.hasAdminAuthority();
+                }
+                return permissionService.hasPermission(source.nodeRef, PermissionService.READ) == AccessStatus.ALLOWED;
+            }, true, false);
+        }
+        finally
+        {
+            AuthenticationUtil.clearCurrentSecurityContext();
+        }
+    }
+
+    private static boolean hasOnlySupportedParameters(HttpServletRequest req)
+    {
+        Enumeration<String> names = req.getParameterNames();
+        while (names.hasMoreElements())
+        {
+            String name = names.nextElement();
+            if (!"attachment".equals(name) && !"alf_ticket".equals(name) && !PARAM_VERSION.equals(name))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Source
+    {
+        private final NodeRef nodeRef;
+        private final String contentUrl;
+        private final String archivedBy;
+
+        private Source(NodeRef nodeRef, String contentUrl, String archivedBy)
+        {
+            this.nodeRef = nodeRef;
+            this.contentUrl = contentUrl;
+            this.archivedBy = archivedBy;
+        }
+    }
+
+    /**
+     * Copies what is written to the output stream, up to a limit. The caching headers set by the API are held back
+     * until the response is committed: a <tt>200</tt> gets the caching headers of the filter instead, any other
+     * status gets those of the API.
+     */
+    private static final class CapturingResponse extends HttpServletResponseWrapper
+    {
+        private final int limit;
+        private final String etag;
+        private final String cacheControl;
+        private final List<Runnable> heldHeaders = new ArrayList<>(4);
+        private boolean headersApplied;
+        private boolean cacheable;
+        private ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        private ServletOutputStream outputStream;
+
+        private CapturingResponse(HttpServletResponse response, int limit, String etag, String cacheControl)
+        {
+            super(response);
+            this.limit = limit;
+            this.etag = etag;
+            this.cacheControl = cacheControl;
+        }
+
+        byte[] getCaptured()
+        {
+            return captured == null ? null : captured.toByteArray();
+        }
+
+        /**
+         * Called before the response is committed, and once the chain has returned
+         */
+        void applyCachingHeaders()
+        {
+            if (headersApplied)
+            {
+                return;
+            }
+            headersApplied = true;
+            cacheable = getStatus() == HttpServletResponse.SC_OK;
+            if (cacheable)
+            {
+                super.setHeader("ETag", etag);
+                super.setHeader("Cache-Control", cacheControl);
+            }
+            else
+            {
+                captured = null;
+                heldHeaders.forEach(Runnable::run);
+            }
+            heldHeaders.clear();
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException
+        {
+            if (outputStream == null)
+            {
+                final ServletOutputStream delegate = super.getOutputStream();
+                outputStream = new ServletOutputStream()
+                {
+                    @Override
+                    public void write(int b) throws IOException
+                    {
+                        applyCachingHeaders();
+                        delegate.write(b);
+                        capture(new byte[] {(byte) b}, 0, 1);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException
+                    {
+                        applyCachingHeaders();
+                        delegate.write(b, off, len);
+                        capture(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException
+                    {
+                        applyCachingHeaders();
+                        delegate.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException
+                    {
+                        applyCachingHeaders();
+                        delegate.close();
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        private void capture(byte[] b, int off, int len)
+        {
+            if (captured != null)
+            {
+                if (captured.size() + len > limit)
+                {
+                    captured = null;
+                }
+                else
+                {
+                    captured.write(b, off, len);
+                }
+            }
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException
+        {
+            applyCachingHeaders();
+            captured = null;
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException
+        {
+            applyCachingHeaders();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException
+        {
+            super.setStatus(sc);
+            applyCachingHeaders();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException
+        {
+            super.setStatus(sc);
+            applyCachingHeaders();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException
+        {
+            super.setStatus(HttpServletResponse.SC_FOUND);
+            applyCachingHeaders();
+            super.sendRedirect(location);
+        }
+
+        @Override
+        public void setHeader(String name, String value)
+        {
+            if (!isCachingHeader(name))
+            {
+                super.setHeader(name, value);
+            }
+            else if (!headersApplied)
+            {
+                heldHeaders.add(() -> super.setHeader(name, value));
+            }
+            else if (!cacheable)
+            {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value)
+        {
+            if (!isCachingHeader(name))
+            {
+                super.addHeader(name, value);
+            }
+            else if (!headersApplied)
+            {
+                heldHeaders.add(() -> super.addHeader(name, value));
+            }
+            else if (!cacheable)
+            {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setDateHeader(String name, long date)
+        {
+            if (!isCachingHeader(name))
+            {
+                super.setDateHeader(name, date);
+            }
+            else if (!headersApplied)
+            {
+                heldHeaders.add(() -> super.setDateHeader(name, date));
+            }
+            else if (!cacheable)
+            {
+                super.setDateHeader(name, date);
+            }
+        }
+
+        @Override
+        public void addDateHeader(String name, long date)
+        {
+            if (!isCachingHeader(name))
+            {
+                super.addDateHeader(name, date);
+            }
+            else if (!headersApplied)
+            {
+                heldHeaders.add(() -> super.addDateHeader(name, date));
+            }
+            else if (!cacheable)
+            {
+                super.addDateHeader(name, date);
+            }
+        }
+
+        private static boolean isCachingHeader(String name)
+        {
+            return "ETag".equalsIgnoreCase(name) || "Cache-Control".equalsIgnoreCase(name)
+                    || "Expires".equalsIgnoreCase(name) || "Pragma".equalsIgnoreCase(name)
+                    || "Last-Modified".equalsIgnoreCase(name);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.servlet;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.repo.web.filter.beans.DependencyInjectedFilter;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.web.app.rendition.RenditionPreGenerator;
+
+/**
+ * Tells the {@link RenditionPreGenerator} about interactive use of renditions: reading the renditions of a node
+ * moves it ahead of the background work, and the renditions created through <code>POST /nodes/{nodeId}/renditions</code>
+ * are taken off the queue once the API has accepted the request, as it requests them itself. The body of the POST,
+ * one <code>{"id": ...}</code> or a list of them, is read here and replayed to the API.
+ * 
+ * @since 6.2.2
+ */
+public class RenditionPriorityFilter implements DependencyInjectedFilter
+{
+    private static final Pattern RENDITIONS_PATH = Pattern
+            .compile("^/-default-/public/alfresco/versions/1/nodes/([0-9a-zA-Z-]+)/renditions(/.*)?$");
+    private static final Pattern RENDITION_ID = Pattern.compile("\"id\"\\s*:\\s*\"([^\"\\\\]+)\"");
+    private static final int MAX_BODY = 64 * 1024;
+
+    private RenditionPreGenerator renditionPreGenerator;
+
+    public void setRenditionPreGenerator(RenditionPreGenerator renditionPreGenerator)
+    {
+        this.renditionPreGenerator = renditionPreGenerator;
+    }
+
+    @Override
+    public void doFilter(ServletContext context, ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException
+    {
+        if (renditionPreGenerator.isEnabled() && request instanceof HttpServletRequest)
+        {
+            HttpServletRequest req = (HttpServletRequest) request;
+            String pathInfo = req.getPathInfo();
+            Matcher matcher = pathInfo == null ? null : RENDITIONS_PATH.matcher(pathInfo);
+            if (matcher != null && matcher.matches())
+            {
+                NodeRef nodeRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, matcher.group(1));
+                if ("POST".equals(req.getMethod()) && matcher.group(2) == null)
+                {
+                    BufferedRequest buffered = new BufferedRequest(req);
+                    chain.doFilter(buffered, response);
+                    int status = ((HttpServletResponse) response).getStatus();
+                    Set<String> renditionIds = buffered.getRenditionIds();
+                    if (status >= 200 && status < 300 && renditionIds != null)
+                    {
+                        renditionPreGenerator.cancel(nodeRef, renditionIds);
+                    }
+                    return;
+                }
+                else if ("GET".equals(req.getMethod()))
+                {
+                    renditionPreGenerator.prioritise(nodeRef);
+                }
+            }
+        }
+        chain.doFilter(request, response);
+    }
+
+    /**
+     * @return the rendition ids in a request body
+     */
+    static Set<String> parseRenditionIds(String body)
+    {
+        Set<String> ids = new HashSet<>();
+        Matcher matcher = RENDITION_ID.matcher(body);
+        while (matcher.find())
+        {
+            ids.add(matcher.group(1));
+        }
+        return ids;
+    }
+
+    /**
+     * Reads the body up to a limit and replays it. A larger body is passed on as is and not parsed.
+     */
+    private static final class BufferedRequest extends HttpServletRequestWrapper
+    {
+        private final byte[] head;
+        private final boolean complete;
+        private final InputStream replay;
+        private final ServletInputStream inputStream;
+
+        private BufferedRequest(HttpServletRequest request) throws IOException
+        {
+            super(request);
+            final ServletInputStream original = request.getInputStream();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read = 0;
+            while (bytes.size() <= MAX_BODY && (read = original.read(buffer)) != -1)
+            {
+                bytes.write(buffer, 0, read);
+            }
+            head = bytes.toByteArray();
+            complete = read == -1;
+            replay = new ByteArrayInputStream(head);
+            inputStream = new ServletInputStream()
+            {
+                @Override
+                public int read() throws IOException
+                {
+                    int b = replay.read();
+                    return b != -1 || complete ? b : original.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException
+                {
+                    int count = replay.read(b, off, len);
+                    return count != -1 || complete ? count : original.read(b, off, len);
+                }
+            };
+        }
+
+        /**
+         * @return the rendition ids of the body, or <tt>null</tt> if it was too large to read
+         */
+        Set<String> getRenditionIds()
+        {
+            if (!complete)
+            {
+                return null;
+            }
+            String encoding = getCharacterEncoding();
+            Charset charset = encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding);
+            return parseRenditionIds(new String(head, charset));
+        }
+
+        @Override
+        public ServletInputStream getInputStream()
+        {
+            return inputStream;
+        }
+
+        @Override
+        public BufferedReader getReader()
+        {
+            String encoding = getCharacterEncoding();
+            Charset charset = encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding);
+            return new BufferedReader(new InputStreamReader(inputStream, charset));
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.servlet;
+
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.web.filter.beans.DependencyInjectedFilter;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.AuthenticationService;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.ParameterCheck;
+import org.alfresco.web.app.rendition.RenditionRequestRegistry;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Holds <code>GET /nodes/{nodeId}/renditions/{renditionId}/content</code> requests for a rendition that is being
+ * created, for up to <code>maxWait</code> milliseconds, so that the readers of a document that was just shared get
+ * the rendition from the one transform in flight rather than a placeholder or a <tt>404</tt>.
+ * <p>
+ * Only requests with the credentials of a user who can read the node are held; anything else goes straight on to the
+ * API, which answers it as usual.
+ * 
+ * @since 6.2.2
+ */
+public class RenditionRequestWaitFilter implements DependencyInjectedFilter, InitializingBean
+{
+    private static final Pattern CONTENT_PATH = Pattern
+            .compile("^/-default-/public/alfresco/versions/1/nodes/([0-9a-zA-Z-]+)/renditions/([^/]+)/content/?$");
+
+    private RenditionRequestRegistry renditionRequestRegistry;
+    private long maxWait = 5000L;
+    private AuthenticationService authenticationService;
+    private PermissionService permissionService;
+    private TransactionService transactionService;
+
+    public void setRenditionRequestRegistry(RenditionRequestRegistry renditionRequestRegistry)
+    {
+        this.renditionRequestRegistry = renditionRequestRegistry;
+    }
+
+    public void setMaxWait(long maxWait)
+    {
+        this.maxWait = maxWait;
+    }
+
+    public void setAuthenticationService(AuthenticationService authenticationService)
+    {
+        this.authenticationService = authenticationService;
+    }
+
+    public void setPermissionService(PermissionService permissionService)
+    {
+        this.permissionService = permissionService;
+    }
+
+    public void setTransactionService(TransactionService transactionService)
+    {
+        this.transactionService = transactionService;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        ParameterCheck.mandatory("renditionRequestRegistry", renditionRequestRegistry);
+        ParameterCheck.mandatory("authenticationService", authenticationService);
+        ParameterCheck.mandatory("permissionService", permissionService);
+        ParameterCheck.mandatory("transactionService", transactionService);
+    }
+
+    @Override
+    public void doFilter(ServletContext context, ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException
+    {
+        if (renditionRequestRegistry.isEnabled() && maxWait > 0 && request instanceof HttpServletRequest)
+        {
+            HttpServletRequest req = (HttpServletRequest) request;
+            String pathInfo = req.getPathInfo();
+            Matcher matcher = pathInfo == null ? null : CONTENT_PATH.matcher(pathInfo);
+            if ("GET".equals(req.getMethod()) && matcher != null && matcher.matches())
+            {
+                NodeRef nodeRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, matcher.group(1));
+                String renditionName = matcher.group(2);
+                if (renditionRequestRegistry.isInFlight(nodeRef, renditionName) && canRead(nodeRef, req))
+                {
+                    renditionRequestRegistry.await(nodeRef, renditionName, maxWait);
+                }
+            }
+        }
+        chain.doFilter(request, response);
+    }
+
+    private boolean canRead(NodeRef nodeRef, HttpServletRequest req)
+    {
+        if (!RequestAuthentication.authenticate(authenticationService, req))
+        {
+            return false;
+        }
+        try
+        {
+            return transactionService.getRetryingTransactionHelper().doInTransaction(
+                    () -> permissionService.hasPermission(nodeRef, PermissionService.READ) == AccessStatus.ALLOWED,
+                    true, false);
+        }
+        finally
+        {
+            AuthenticationUtil.clearCurrentSecurityContext();
+        }
+    }
+}
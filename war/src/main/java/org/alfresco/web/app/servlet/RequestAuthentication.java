@@ -0,0 +1,129 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.servlet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.repo.security.authentication.AuthenticationException;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.cmr.security.AuthenticationService;
+import org.alfresco.service.cmr.security.AuthorityService;
+
+/**
+ * Authenticates a request from an <code>alf_ticket</code> parameter or Basic credentials, including the
+ * <code>ROLE_TICKET</code> form, the way the public API authenticator does. Used by filters that answer requests
+ * in front of the public API and fall back to it when authentication does not succeed here.
+ * 
+ * @since 6.2.2
+ */
+final class RequestAuthentication
+{
+    private static final String ARG_TICKET = "alf_ticket";
+    private static final String TICKET_USER = "ROLE_TICKET";
+    private static final String BASIC = "Basic ";
+
+    private RequestAuthentication()
+    {
+    }
+
+    /**
+     * @return <tt>true</tt> if the current user has been set from the credentials of the request, <tt>false</tt>
+     *         if there were none or they were rejected, in which case the security context is left clear
+     */
+    static boolean authenticate(AuthenticationService authenticationService, HttpServletRequest req)
+    {
+        try
+        {
+            String ticket = req.getParameter(ARG_TICKET);
+            if (ticket != null)
+            {
+                authenticationService.validate(ticket);
+                return true;
+            }
+
+            String authorization = req.getHeader("Authorization");
+            if (authorization == null || !authorization.regionMatches(true, 0, BASIC, 0, BASIC.length()))
+            {
+                return false;
+            }
+            String decoded = new String(Base64.getDecoder().decode(authorization.substring(BASIC.length()).trim()),
+                    StandardCharsets.UTF_8);
+            int colon = decoded.indexOf(':');
+            if (colon <= 0)
+            {
+                return false;
+            }
+            String userName = decoded.substring(0, colon);
+            String password = decoded.substring(colon + 1);
+            if (TICKET_USER.equals(userName))
+            {
+                authenticationService.validate(password);
+            }
+            else
+            {
+                authenticationService.authenticate(userName, password.toCharArray());
+            }
+            return true;
+        }
+        catch (AuthenticationException | IllegalArgumentException e)
+        {
+            // the regular path reports the failure in the API's own format
+            AuthenticationUtil.clearCurrentSecurityContext();
+            return false;
+        }
+    }
+
+    /**
+     * @return <tt>true</tt> if the request carries the credentials of an administrator. The security context is left
+     *         clear either way.
+     */
+    static boolean isAdmin(AuthenticationService authenticationService, AuthorityService authorityService,
+            HttpServletRequest req)
+    {
+        try
+        {
+            return authenticate(authenticationService, req) && authorityService.hasAdminAuthority();
+        }
+        finally
+        {
+            AuthenticationUtil.clearCurrentSecurityContext();
+        }
+    }
+
+    /**
+     * Answers 401 with a Basic challenge, so that browsers and scrapers know to send credentials.
+     */
+    static void challenge(HttpServletResponse res) throws IOException
+    {
+        res.setHeader("WWW-Authenticate", "Basic realm=\"Alfresco\"");
+        res.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+    }
+}
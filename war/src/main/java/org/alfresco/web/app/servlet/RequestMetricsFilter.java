@@ -0,0 +1,213 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.servlet;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRegistration;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.repo.web.filter.beans.DependencyInjectedFilter;
+import org.alfresco.web.app.metrics.Histogram;
+import org.alfresco.web.app.metrics.MetricFamily;
+import org.alfresco.web.app.metrics.MetricsRegistry;
+
+/**
+ * Records a latency histogram per servlet, method and status class for every request handled by the webapp.
+ * <p>
+ * The servlet is resolved from the servlet path using the mappings registered in the {@link ServletContext}, so the
+ * label values are limited to the servlet names declared in <code>web.xml</code>. Asynchronous requests are recorded
+ * when they complete rather than when their first dispatch returns.
+ * 
+ * @since 6.2.2
+ */
+public class RequestMetricsFilter implements DependencyInjectedFilter
+{
+    private static final String OTHER = "other";
+
+    private MetricsRegistry metricsRegistry;
+    private MetricFamily<Histogram> requests;
+    private volatile Map<String, String> servletsByPath;
+
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry)
+    {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    public void init()
+    {
+        requests = metricsRegistry.histogram("http_server_request_seconds", "Latency of HTTP requests per servlet",
+                "servlet", "method", "status");
+    }
+
+    @Override
+    public void doFilter(ServletContext context, ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException
+    {
+        if (!metricsRegistry.isEnabled() || !(request instanceof HttpServletRequest))
+        {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        long start = System.nanoTime();
+        HttpServletRequest req = (HttpServletRequest) request;
+        try
+        {
+            chain.doFilter(request, response);
+        }
+        finally
+        {
+            String servlet = getServletName(context, req);
+            String method = getMethod(req);
+            if (req.isAsyncStarted())
+            {
+                req.getAsyncContext().addListener(new AsyncRecorder(servlet, method, start));
+            }
+            else
+            {
+                record(servlet, method, ((HttpServletResponse) response).getStatus(), start);
+            }
+        }
+    }
+
+    private void record(String servlet, String method, int status, long start)
+    {
+        requests.labels(servlet, method, (status / 100) + "xx").observeNanos(System.nanoTime() - start);
+    }
+
+    private String getServletName(ServletContext context, HttpServletRequest req)
+    {
+        Map<String, String> servlets = servletsByPath;
+        if (servlets == null)
+        {
+            servlets = buildServletsByPath(context);
+            servletsByPath = servlets;
+        }
+        String name = servlets.get(req.getServletPath());
+        return name == null ? OTHER : name;
+    }
+
+    private static Map<String, String> buildServletsByPath(ServletContext context)
+    {
+        Map<String, String> servlets = new HashMap<>();
+        for (ServletRegistration registration : context.getServletRegistrations().values())
+        {
+            Collection<String> mappings = registration.getMappings();
+            for (String mapping : mappings)
+            {
+                // "/api/*" is reported with a servlet path of "/api", "/metrics" with "/metrics"
+                String path = mapping.endsWith("/*") ? mapping.substring(0, mapping.length() - 2) : mapping;
+                servlets.put(path, registration.getName());
+            }
+        }
+        return servlets;
+    }
+
+    /**
+     * Records an asynchronous request once it completes, times out or fails.
+     */
+    private final class AsyncRecorder implements AsyncListener
+    {
+        private final String servlet;
+        private final String method;
+        private final long start;
+        private boolean recorded;
+
+        private AsyncRecorder(String servlet, String method, long start)
+        {
+            this.servlet = servlet;
+            this.method = method;
+            this.start = start;
+        }
+
+        @Override
+        public synchronized void onComplete(AsyncEvent event)
+        {
+            if (!recorded)
+            {
+                recorded = true;
+                ServletResponse response = event.getSuppliedResponse();
+                record(servlet, method, response instanceof HttpServletResponse
+                        ? ((HttpServletResponse) response).getStatus() : HttpServletResponse.SC_OK, start);
+            }
+        }
+
+        @Override
+        public synchronized void onTimeout(AsyncEvent event)
+        {
+            if (!recorded)
+            {
+                recorded = true;
+                record(servlet, method, HttpServletResponse.SC_SERVICE_UNAVAILABLE, start);
+            }
+        }
+
+        @Override
+        public synchronized void onError(AsyncEvent event)
+        {
+            if (!recorded)
+            {
+                recorded = true;
+                record(servlet, method, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, start);
+            }
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event)
+        {
+            // a new dispatch of the same request, keep listening
+            event.getAsyncContext().addListener(this);
+        }
+    }
+
+    private static String getMethod(HttpServletRequest req)
+    {
+        switch (req.getMethod())
+        {
+            case "GET":
+            case "HEAD":
+            case "POST":
+            case "PUT":
+            case "DELETE":
+            case "OPTIONS":
+                return req.getMethod();
+            default:
+                return OTHER;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.repo.web.filter.beans.DependencyInjectedFilter;
+import org.alfresco.web.app.logging.CorrelationId;
+import org.alfresco.web.app.profiling.InFlightRequest;
+import org.alfresco.web.app.profiling.SlowRequestMonitor;
+
+/**
+ * Registers each request with the {@link SlowRequestMonitor} for the time it is being processed.
+ * 
+ * @since 6.2.2
+ */
+public class SlowRequestFilter implements DependencyInjectedFilter
+{
+    private SlowRequestMonitor slowRequestMonitor;
+
+    public void setSlowRequestMonitor(SlowRequestMonitor slowRequestMonitor)
+    {
+        this.slowRequestMonitor = slowRequestMonitor;
+    }
+
+    @Override
+    public void doFilter(ServletContext context, ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException
+    {
+        if (!slowRequestMonitor.isEnabled())
+        {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        HttpServletRequest req = (HttpServletRequest) request;
+        InFlightRequest inFlight = slowRequestMonitor.begin(req.getMethod(), req.getRequestURI(), CorrelationId.get());
+        try
+        {
+            chain.doFilter(request, response);
+        }
+        finally
+        {
+            slowRequestMonitor.end(inFlight, ((HttpServletResponse) response).getStatus());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.service.cmr.security.AuthenticationService;
+import org.alfresco.service.cmr.security.AuthorityService;
+import org.alfresco.web.app.profiling.SlowRequestMonitor;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Servlet returning the slow requests recorded by the {@link SlowRequestMonitor} as JSON, newest first.
+ * <p>
+ * The URL to the servlet is
+ * <pre>/alfresco/slowrequests?limit=20&amp;minDurationMs=5000</pre>
+ * Both parameters are optional. The servlet answers 404 unless <code>slowrequests.enabled=true</code>. Records contain
+ * request URIs and stack traces, so callers must authenticate as an administrator, with an <code>alf_ticket</code> or
+ * Basic credentials.
+ * 
+ * @since 6.2.2
+ */
+public class SlowRequestServlet extends HttpServlet
+{
+    private static final long serialVersionUID = -3261742915702278417L;
+
+    private static final String BEAN_SLOW_REQUEST_MONITOR = "slowRequestMonitor";
+    private static final String BEAN_AUTHENTICATION_SERVICE = "AuthenticationService";
+    private static final String BEAN_AUTHORITY_SERVICE = "AuthorityService";
+    private static final int DEFAULT_LIMIT = 50;
+
+    private transient SlowRequestMonitor slowRequestMonitor;
+    private transient ObjectMapper objectMapper;
+    private transient AuthenticationService authenticationService;
+    private transient AuthorityService authorityService;
+
+    @Override
+    public void init() throws ServletException
+    {
+        WebApplicationContext context = WebApplicationContextUtils.getRequiredWebApplicationContext(getServletContext());
+        slowRequestMonitor = (SlowRequestMonitor) context.getBean(BEAN_SLOW_REQUEST_MONITOR);
+        authenticationService = (AuthenticationService) context.getBean(BEAN_AUTHENTICATION_SERVICE);
+        authorityService = (AuthorityService) context.getBean(BEAN_AUTHORITY_SERVICE);
+        objectMapper = new ObjectMapper();
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse res) throws IOException
+    {
+        if (!slowRequestMonitor.isEnabled())
+        {
+            res.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if (!RequestAuthentication.isAdmin(authenticationService, authorityService, req))
+        {
+            RequestAuthentication.challenge(res);
+            return;
+        }
+        int limit;
+        long minDurationMs;
+        try
+        {
+            limit = getParameter(req, "limit", DEFAULT_LIMIT);
+            minDurationMs = getParameter(req, "minDurationMs", 0);
+        }
+        catch (NumberFormatException e)
+        {
+            res.sendError(HttpServletResponse.SC_BAD_REQUEST, "limit and minDurationMs must be numbers");
+            return;
+        }
+        res.setContentType("application/json;charset=UTF-8");
+        res.setHeader("Cache-Control", "no-cache");
+        objectMapper.writeValue(res.getOutputStream(), slowRequestMonitor.getRecords(limit, minDurationMs));
+    }
+
+    private static int getParameter(HttpServletRequest req, String name, int defaultValue)
+    {
+        String value = req.getParameter(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+}
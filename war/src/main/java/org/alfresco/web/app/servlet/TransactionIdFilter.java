@@ -0,0 +1,82 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.repo.web.filter.beans.DependencyInjectedFilter;
+import org.alfresco.web.app.search.WriteTransactionRecorder;
+
+/**
+ * Records the database transaction of the writes made by a request with the {@link WriteTransactionRecorder}.
+ * Requests that do not change anything, i.e. <code>GET</code>, <code>HEAD</code> and <code>OPTIONS</code>, are
+ * passed straight on.
+ * 
+ * @since 6.2.2
+ */
+public class TransactionIdFilter implements DependencyInjectedFilter
+{
+    private WriteTransactionRecorder writeTransactionRecorder;
+
+    public void setWriteTransactionRecorder(WriteTransactionRecorder writeTransactionRecorder)
+    {
+        this.writeTransactionRecorder = writeTransactionRecorder;
+    }
+
+    @Override
+    public void doFilter(ServletContext context, ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException
+    {
+        if (!writeTransactionRecorder.isEnabled() || !(request instanceof HttpServletRequest) || isReadOnly(
+                ((HttpServletRequest) request).getMethod()))
+        {
+            chain.doFilter(request, response);
+            return;
+        }
+        writeTransactionRecorder.begin((HttpServletResponse) response);
+        try
+        {
+            chain.doFilter(request, response);
+        }
+        finally
+        {
+            writeTransactionRecorder.end();
+        }
+    }
+
+    private static boolean isReadOnly(String method)
+    {
+        return "GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method);
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.transform;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.alfresco.util.TraceableThreadFactory;
+import org.alfresco.web.app.metrics.Histogram;
+import org.alfresco.web.app.metrics.MetricFamily;
+import org.alfresco.web.app.metrics.MetricsRegistry;
+import org.alfresco.web.app.transform.TransformEngineClient.TransformResult;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Performs a small whitelist of cheap transforms inside the JVM, where the request to a T-Engine would cost more than
+ * the work itself:
+ * <ul>
+ * <li>scaling of PNG, JPEG, GIF and BMP images to PNG or JPEG with the <code>resizeWidth</code>,
+ * <code>resizeHeight</code>, <code>maintainAspectRatio</code>, <code>allowEnlargement</code> and
+ * <code>thumbnail</code> options, as used by the thumbnail renditions</li>
+ * <li>plain text and CSV to plain text, i.e. re-encoding to <code>targetEncoding</code></li>
+ * </ul>
+ * Sources larger than <code>maxSourceSize</code>, images with more than <code>maxPixels</code> pixels, requests with
+ * any other option, and transforms that take longer than <code>timeLimit</code> milliseconds are declined, and go to
+ * the T-Engine as before. Latencies are recorded in the same histogram as T-Engine requests, under the transformers
+ * <code>jvm-image</code> and <code>jvm-text</code>.
+ * 
+ * @since 6.2.2
+ */
+public class InProcessTransformer implements InitializingBean, DisposableBean
+{
+    private static final Log logger = LogFactory.getLog(InProcessTransformer.class);
+
+    private static final String IMAGE = "jvm-image";
+    private static final String TEXT = "jvm-text";
+
+    private static final Set<String> IMAGE_SOURCES = Set.of("image/png", "image/jpeg", "image/gif", "image/bmp");
+    private static final Set<String> IMAGE_TARGETS = Set.of("image/png", "image/jpeg");
+    private static final Set<String> IMAGE_OPTIONS = Set.of("resizeWidth", "resizeHeight", "maintainAspectRatio",
+            "allowEnlargement", "thumbnail", "timeout", "startPage", "endPage", "autoOrient");
+    private static final Set<String> TEXT_SOURCES = Set.of("text/plain", "text/csv");
+    private static final Set<String> TEXT_OPTIONS = Set.of("sourceEncoding", "targetEncoding", "timeout");
+
+    private static final double[] TRANSFORM_BUCKETS = {0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120};
+
+    private boolean enabled;
+    private long maxSourceSize = 1024 * 1024;
+    private long maxPixels = 16L * 1024 * 1024;
+    private long timeLimit = 2000L;
+    private int threads = 2;
+    private MetricsRegistry metricsRegistry;
+
+    private ThreadPoolExecutor executor;
+    private MetricFamily<Histogram> latency;
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public void setMaxSourceSize(long maxSourceSize)
+    {
+        this.maxSourceSize = maxSourceSize;
+    }
+
+    public void setMaxPixels(long maxPixels)
+    {
+        this.maxPixels = maxPixels;
+    }
+
+    public void setTimeLimit(long timeLimit)
+    {
+        this.timeLimit = timeLimit;
+    }
+
+    public void setThreads(int threads)
+    {
+        this.threads = threads;
+    }
+
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry)
+    {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        latency = metricsRegistry.histogram("alfresco_transform_request_seconds",
+                "Latency of T-Engine transform requests per transformer", TRANSFORM_BUCKETS, "transformer", "outcome");
+        if (enabled)
+        {
+            TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+            threadFactory.setThreadDaemon(true);
+            threadFactory.setNamePrefix("InProcessTransformer");
+            executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(), threadFactory);
+        }
+    }
+
+    @Override
+    public void destroy()
+    {
+        if (executor != null)
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return <tt>true</tt> if the transform is on the whitelist and the source is small enough to be tried here
+     */
+    public boolean isSupported(String sourceMimetype, long sourceSize, String targetMimetype, Map<String, String> options)
+    {
+        if (!enabled || sourceSize > maxSourceSize)
+        {
+            return false;
+        }
+        if (IMAGE_SOURCES.contains(sourceMimetype) && IMAGE_TARGETS.contains(targetMimetype))
+        {
+            return IMAGE_OPTIONS.containsAll(options.keySet()) && isFirstPage(options.get("startPage"))
+                    && isFirstPage(options.get("endPage"))
+                    // EXIF orientation is not applied here
+                    && !("image/jpeg".equals(sourceMimetype) && "true".equals(options.get("autoOrient")));
+        }
+        return TEXT_SOURCES.contains(sourceMimetype) && "text/plain".equals(targetMimetype)
+                && TEXT_OPTIONS.containsAll(options.keySet());
+    }
+
+    /**
+     * Transforms the source, which must be {@link #isSupported supported}.
+     * 
+     * @return the result, or <tt>null</tt> if the transform has to be done by a T-Engine after all
+     */
+    public TransformResult transform(byte[] source, String sourceMimetype, String sourceEncoding,
+            String targetMimetype, Map<String, String> options)
+    {
+        boolean image = IMAGE_SOURCES.contains(sourceMimetype);
+        long start = System.nanoTime();
+        String outcome = "declined";
+        Future<byte[]> future = executor.submit(() -> image ? scale(source, targetMimetype, options)
+                : reencode(source, sourceEncoding, options));
+        try
+        {
+            byte[] result = future.get(timeLimit, TimeUnit.MILLISECONDS);
+            if (result != null)
+            {
+                outcome = "ok";
+                return TransformResult.of(result);
+            }
+            return null;
+        }
+        catch (TimeoutException e)
+        {
+            future.cancel(true);
+            outcome = "timeout";
+            return null;
+        }
+        catch (ExecutionException e)
+        {
+            outcome = "error";
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("In-process transform from " + sourceMimetype + " failed: " + e.getCause());
+            }
+            return null;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        finally
+        {
+            latency.labels(image ? IMAGE : TEXT, outcome).observeNanos(System.nanoTime() - start);
+        }
+    }
+
+    private byte[] scale(byte[] source, String targetMimetype, Map<String, String> options) throws IOException
+    {
+        BufferedImage image;
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(source)))
+        {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext())
+            {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try
+            {
+                reader.setInput(in, true, true);
+                // checked before decoding, so a small file cannot expand into a huge raster
+                if ((long) reader.getWidth(0) * reader.getHeight(0) > maxPixels)
+                {
+                    return null;
+                }
+                image = reader.read(0);
+            }
+            finally
+            {
+                reader.dispose();
+            }
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int resizeWidth = parseInt(options.get("resizeWidth"), -1);
+        int resizeHeight = parseInt(options.get("resizeHeight"), -1);
+        boolean maintainAspectRatio = !"false".equals(options.get("maintainAspectRatio"));
+        boolean allowEnlargement = !"false".equals(options.get("allowEnlargement"));
+
+        int targetWidth = width;
+        int targetHeight = height;
+        if (resizeWidth > 0 || resizeHeight > 0)
+        {
+            if (maintainAspectRatio || resizeWidth <= 0 || resizeHeight <= 0)
+            {
+                double scale = Math.min(resizeWidth > 0 ? (double) resizeWidth / width : Double.MAX_VALUE,
+                        resizeHeight > 0 ? (double) resizeHeight / height : Double.MAX_VALUE);
+                if (scale < 1 || allowEnlargement)
+                {
+                    targetWidth = Math.max(1, (int) Math.round(width * scale));
+                    targetHeight = Math.max(1, (int) Math.round(height * scale));
+                }
+            }
+            else if (allowEnlargement || (resizeWidth <= width && resizeHeight <= height))
+            {
+                targetWidth = resizeWidth;
+                targetHeight = resizeHeight;
+            }
+        }
+
+        boolean jpeg = "image/jpeg".equals(targetMimetype);
+        BufferedImage scaled = resize(image, targetWidth, targetHeight, jpeg);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(scaled, jpeg ? "jpeg" : "png", out))
+        {
+            return null;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Halves the image until it is within a factor of two of the target, then scales it bicubically, which gives
+     * thumbnails close to those of ImageMagick at a fraction of the cost of area averaging.
+     */
+    private static BufferedImage resize(BufferedImage image, int targetWidth, int targetHeight, boolean opaque)
+    {
+        int type = opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+        BufferedImage current = image;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        do
+        {
+            width = width / 2 >= targetWidth ? width / 2 : targetWidth;
+            height = height / 2 >= targetHeight ? height / 2 : targetHeight;
+            BufferedImage next = new BufferedImage(width, height, type);
+            Graphics2D graphics = next.createGraphics();
+            try
+            {
+                if (opaque)
+                {
+                    graphics.setColor(Color.WHITE);
+                    graphics.fillRect(0, 0, width, height);
+                }
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.drawImage(current, 0, 0, width, height, null);
+            }
+            finally
+            {
+                graphics.dispose();
+            }
+            current = next;
+        }
+        while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    private static byte[] reencode(byte[] source, String sourceEncoding, Map<String, String> options)
+    {
+        String from = options.getOrDefault("sourceEncoding", sourceEncoding == null ? "UTF-8" : sourceEncoding);
+        String to = options.getOrDefault("targetEncoding", "UTF-8");
+        if (!Charset.isSupported(from) || !Charset.isSupported(to))
+        {
+            return null;
+        }
+        return new String(source, Charset.forName(from)).getBytes(Charset.forName(to));
+    }
+
+    private static boolean isFirstPage(String page)
+    {
+        return page == null || "0".equals(page) || "1".equals(page);
+    }
+
+    private static int parseInt(String value, int defaultValue)
+    {
+        if (value == null)
+        {
+            return defaultValue;
+        }
+        try
+        {
+            return Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,463 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.transform;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.util.TempFileProvider;
+import org.alfresco.web.app.logging.CorrelationId;
+import org.alfresco.web.app.metrics.Counter;
+import org.alfresco.web.app.metrics.Histogram;
+import org.alfresco.web.app.metrics.MetricFamily;
+import org.alfresco.web.app.metrics.MetricsRegistry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpEntity;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.entity.mime.content.InputStreamBody;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Client for the <code>/transform</code> endpoint of T-Engines such as transform-core-aio.
+ * <p>
+ * Each endpoint URL gets one HTTP client with a pool of keep-alive connections, so the URLs that point at the same
+ * container share connections rather than opening one per transform. The source is streamed into the multipart
+ * request as it is read; the result is held in memory up to <code>maxInMemoryResultSize</code> and in a temporary
+ * file beyond that, so it can be read more than once by a retrying transaction.
+ * <p>
+ * The number of concurrent requests per transformer is limited by <code>concurrency</code>, entries of the form
+ * <code>transformer:limit</code>. The transformer is derived from the mimetypes with the routing the T-Engines use by
+ * default, see {@link #getTransformer(String, String)}. Request latencies are published per transformer and
+ * outcome.
+ * 
+ * @since 6.2.2
+ */
+public class TransformEngineClient implements InitializingBean, DisposableBean
+{
+    private static final Log logger = LogFactory.getLog(TransformEngineClient.class);
+
+    public static final String LIBREOFFICE = "libreoffice";
+    public static final String IMAGEMAGICK = "imagemagick";
+    public static final String PDF_RENDERER = "pdfrenderer";
+    public static final String TIKA = "tika";
+    public static final String MISC = "misc";
+
+    private static final long VERSION_CHECK_INTERVAL = 60000L;
+
+    private static final double[] TRANSFORM_BUCKETS = {0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120};
+
+    private int maxConnectionsPerEndpoint = 20;
+    private int connectTimeout = 5000;
+    private long connectionTimeToLive = 300000L;
+    private int maxInMemoryResultSize = 1024 * 1024;
+    private int defaultConcurrency = 4;
+    private Map<String, Integer> concurrency = new HashMap<>();
+    private MetricsRegistry metricsRegistry;
+
+    private final Map<String, CloseableHttpClient> clients = new ConcurrentHashMap<>();
+    private final Map<String, EngineVersion> versions = new ConcurrentHashMap<>();
+    private final Map<String, Semaphore> permits = new ConcurrentHashMap<>();
+    private MetricFamily<Histogram> latency;
+    private MetricFamily<Counter> rejected;
+
+    public void setMaxConnectionsPerEndpoint(int maxConnectionsPerEndpoint)
+    {
+        this.maxConnectionsPerEndpoint = maxConnectionsPerEndpoint;
+    }
+
+    public void setConnectTimeout(int connectTimeout)
+    {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public void setConnectionTimeToLive(long connectionTimeToLive)
+    {
+        this.connectionTimeToLive = connectionTimeToLive;
+    }
+
+    public void setMaxInMemoryResultSize(int maxInMemoryResultSize)
+    {
+        this.maxInMemoryResultSize = maxInMemoryResultSize;
+    }
+
+    public void setDefaultConcurrency(int defaultConcurrency)
+    {
+        this.defaultConcurrency = defaultConcurrency;
+    }
+
+    /**
+     * @param concurrency limits of the form <code>transformer:limit</code>, e.g. <code>libreoffice:4</code>
+     */
+    public void setConcurrency(String[] concurrency)
+    {
+        Map<String, Integer> limits = new HashMap<>();
+        for (String entry : concurrency)
+        {
+            int colon = entry.indexOf(':');
+            if (colon > 0)
+            {
+                limits.put(entry.substring(0, colon).trim(), Integer.valueOf(entry.substring(colon + 1).trim()));
+            }
+        }
+        this.concurrency = limits;
+    }
+
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry)
+    {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        latency = metricsRegistry.histogram("alfresco_transform_request_seconds",
+                "Latency of T-Engine transform requests per transformer", TRANSFORM_BUCKETS, "transformer", "outcome");
+        rejected = metricsRegistry.counter("alfresco_transform_request_rejected",
+                "Transform requests that did not get a transformer slot in time", "transformer");
+    }
+
+    @Override
+    public void destroy()
+    {
+        for (CloseableHttpClient client : clients.values())
+        {
+            try
+            {
+                client.close();
+            }
+            catch (IOException e)
+            {
+                logger.debug("Unable to close transform client: " + e.getMessage());
+            }
+        }
+        clients.clear();
+    }
+
+    /**
+     * The transformer a T-Engine routes a request to by default, used to apply the concurrency limits and to label
+     * the metrics.
+     */
+    public static String getTransformer(String sourceMimetype, String targetMimetype)
+    {
+        if (sourceMimetype.startsWith("image/"))
+        {
+            return IMAGEMAGICK;
+        }
+        if ("application/pdf".equals(sourceMimetype) && targetMimetype.startsWith("image/"))
+        {
+            return PDF_RENDERER;
+        }
+        if ("text/plain".equals(targetMimetype) || targetMimetype.startsWith("text/x-"))
+        {
+            return TIKA;
+        }
+        if (sourceMimetype.startsWith("application/vnd.") || sourceMimetype.startsWith("application/msword")
+                || sourceMimetype.startsWith("text/") || "application/rtf".equals(sourceMimetype))
+        {
+            return LIBREOFFICE;
+        }
+        return MISC;
+    }
+
+    /**
+     * Sends a transform request and reads the complete result.
+     * 
+     * @param engineUrl base URL of the T-Engine, e.g. <code>http://transform-core-aio:8090/</code>
+     * @param source the source content, closed by this method
+     * @param options transform options sent as form fields
+     * @param timeoutMs the maximum time to wait for a transformer slot and for the response
+     * @return the result, which the caller must {@link TransformResult#release() release}
+     * @throws TransformEngineUnavailableException if no transformer or connection was available in time or the
+     *             T-Engine could not be reached
+     * @throws ContentIOException if the transform failed or timed out
+     */
+    public TransformResult transform(String engineUrl, InputStream source, String sourceMimetype,
+            String sourceExtension, String targetMimetype, String targetExtension, Map<String, String> options,
+            long timeoutMs)
+    {
+        String transformer = getTransformer(sourceMimetype, targetMimetype);
+        Semaphore semaphore = permits.computeIfAbsent(transformer,
+                t -> new Semaphore(concurrency.getOrDefault(t, defaultConcurrency), true));
+        long start = System.nanoTime();
+        String outcome = "error";
+        try (InputStream in = source)
+        {
+            if (!semaphore.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS))
+            {
+                rejected.labels(transformer).inc();
+                outcome = "rejected";
+                throw new TransformEngineUnavailableException("No " + transformer + " transformer available within "
+                        + timeoutMs + "ms");
+            }
+            try
+            {
+                TransformResult result = execute(engineUrl, in, sourceMimetype, sourceExtension, targetMimetype,
+                        targetExtension, options, timeoutMs);
+                outcome = "ok";
+                return result;
+            }
+            finally
+            {
+                semaphore.release();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new ContentIOException("Interrupted while waiting for a " + transformer + " transformer", e);
+        }
+        catch (IOException e)
+        {
+            if (isConnectionFailure(e))
+            {
+                throw new TransformEngineUnavailableException("Unable to reach " + engineUrl + ": " + e.getMessage(), e);
+            }
+            throw new ContentIOException("Transform request to " + engineUrl + " failed: " + e.getMessage(), e);
+        }
+        finally
+        {
+            latency.labels(transformer, outcome).observeNanos(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return <tt>true</tt> if the request did not reach the T-Engine: the connection was refused, timed out or was
+     *         not available from the pool, the host is unknown, or the T-Engine closed it without answering
+     */
+    static boolean isConnectionFailure(IOException e)
+    {
+        return e instanceof ConnectException || e instanceof ConnectTimeoutException
+                || e instanceof ConnectionPoolTimeoutException || e instanceof UnknownHostException
+                || e instanceof NoHttpResponseException;
+    }
+
+    /**
+     * The version reported by the <code>/version</code> endpoint of the T-Engine, checked at most once a minute.
+     * 
+     * @return the version, or <tt>null</tt> if the T-Engine did not report one
+     */
+    public String getVersion(String engineUrl)
+    {
+        EngineVersion cached = versions.get(engineUrl);
+        if (cached != null && System.currentTimeMillis() - cached.checked < VERSION_CHECK_INTERVAL)
+        {
+            return cached.version;
+        }
+        String version = null;
+        HttpGet get = new HttpGet((engineUrl.endsWith("/") ? engineUrl : engineUrl + "/") + "version");
+        get.setConfig(RequestConfig.custom().setConnectTimeout(connectTimeout).setConnectionRequestTimeout(connectTimeout)
+                .setSocketTimeout(connectTimeout).build());
+        try (CloseableHttpResponse response = getClient(engineUrl).execute(get))
+        {
+            HttpEntity entity = response.getEntity();
+            String body = entity == null ? null : EntityUtils.toString(entity);
+            if (response.getStatusLine().getStatusCode() == 200 && body != null && !body.trim().isEmpty())
+            {
+                version = body.trim();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.debug("Unable to read the version of " + engineUrl + ": " + e.getMessage());
+        }
+        versions.put(engineUrl, new EngineVersion(version, System.currentTimeMillis()));
+        return version;
+    }
+
+    private TransformResult execute(String engineUrl, InputStream source, String sourceMimetype,
+            String sourceExtension, String targetMimetype, String targetExtension, Map<String, String> options,
+            long timeoutMs) throws IOException
+    {
+        MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+        builder.addPart("file", new InputStreamBody(source, ContentType.create(sourceMimetype), "source." + sourceExtension));
+        builder.addTextBody("sourceMimetype", sourceMimetype);
+        builder.addTextBody("targetMimetype", targetMimetype);
+        builder.addTextBody("targetExtension", targetExtension);
+        for (Map.Entry<String, String> option : options.entrySet())
+        {
+            if (option.getValue() != null)
+            {
+                builder.addTextBody(option.getKey(), option.getValue(), ContentType.TEXT_PLAIN.withCharset("UTF-8"));
+            }
+        }
+
+        HttpPost post = new HttpPost((engineUrl.endsWith("/") ? engineUrl : engineUrl + "/") + "transform");
+        post.setEntity(builder.build());
+        post.setConfig(RequestConfig.custom().setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout((int) Math.min(timeoutMs, Integer.MAX_VALUE))
+                .setSocketTimeout((int) Math.min(timeoutMs, Integer.MAX_VALUE)).build());
+        String correlationId = CorrelationId.get();
+        if (correlationId != null)
+        {
+            post.setHeader(CorrelationId.HEADER, correlationId);
+        }
+
+        try (CloseableHttpResponse response = getClient(engineUrl).execute(post))
+        {
+            HttpEntity entity = response.getEntity();
+            int status = response.getStatusLine().getStatusCode();
+            if (status != 200 || entity == null)
+            {
+                String message = entity == null ? "" : EntityUtils.toString(entity);
+                throw new ContentIOException("Transform request to " + engineUrl + " returned " + status + ": "
+                        + (message.length() > 500 ? message.substring(0, 500) : message));
+            }
+            return TransformResult.read(entity.getContent(), entity.getContentLength(), maxInMemoryResultSize);
+        }
+    }
+
+    private CloseableHttpClient getClient(String engineUrl)
+    {
+        return clients.computeIfAbsent(engineUrl, url -> {
+            PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+                    connectionTimeToLive, TimeUnit.MILLISECONDS);
+            connectionManager.setMaxTotal(maxConnectionsPerEndpoint);
+            connectionManager.setDefaultMaxPerRoute(maxConnectionsPerEndpoint);
+            return HttpClients.custom().setConnectionManager(connectionManager)
+                    .evictIdleConnections(30, TimeUnit.SECONDS).disableCookieManagement().build();
+        });
+    }
+
+    private static final class EngineVersion
+    {
+        private final String version;
+        private final long checked;
+
+        private EngineVersion(String version, long checked)
+        {
+            this.version = version;
+            this.checked = checked;
+        }
+    }
+
+    /**
+     * The result of a transform, in memory or in a temporary file.
+     */
+    public static final class TransformResult
+    {
+        private final byte[] bytes;
+        private final File file;
+        private final long size;
+
+        private TransformResult(byte[] bytes, File file, long size)
+        {
+            this.bytes = bytes;
+            this.file = file;
+            this.size = size;
+        }
+
+        public static TransformResult of(byte[] bytes)
+        {
+            return new TransformResult(bytes, null, bytes.length);
+        }
+
+        static TransformResult read(InputStream in, long contentLength, int maxInMemorySize) throws IOException
+        {
+            try (InputStream content = in)
+            {
+                if (contentLength >= 0 && contentLength <= maxInMemorySize)
+                {
+                    return of(content.readAllBytes());
+                }
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+                byte[] chunk = new byte[8192];
+                int read;
+                while ((read = content.read(chunk)) != -1)
+                {
+                    buffer.write(chunk, 0, read);
+                    if (buffer.size() > maxInMemorySize)
+                    {
+                        File file = TempFileProvider.createTempFile("transform-", ".bin");
+                        try (OutputStream out = new FileOutputStream(file))
+                        {
+                            buffer.writeTo(out);
+                            long size = buffer.size() + content.transferTo(out);
+                            return new TransformResult(null, file, size);
+                        }
+                        catch (IOException e)
+                        {
+                            file.delete();
+                            throw e;
+                        }
+                    }
+                }
+                return of(buffer.toByteArray());
+            }
+        }
+
+        /**
+         * @return a new stream over the result, may be called more than once
+         */
+        public InputStream open() throws IOException
+        {
+            return bytes != null ? new ByteArrayInputStream(bytes) : new FileInputStream(file);
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        /**
+         * Deletes the temporary file, if there is one.
+         */
+        public void release()
+        {
+            if (file != null && !file.delete() && file.exists())
+            {
+                logger.debug("Unable to delete transform result " + file);
+            }
+        }
+    }
+}
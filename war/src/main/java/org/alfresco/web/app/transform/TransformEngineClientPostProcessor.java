@@ -0,0 +1,97 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.transform;
+
+import org.alfresco.web.app.AbstractWrappingPostProcessor;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Proxies the transform client of the rendition service so that its transforms go through the
+ * {@link TransformEngineClient} when that is enabled and a T-Engine URL is configured.
+ * 
+ * @since 6.2.2
+ */
+public class TransformEngineClientPostProcessor extends AbstractWrappingPostProcessor implements DisposableBean
+{
+    private String engineUrl;
+    private long timeout = 120000L;
+    private int threads = 8;
+    private int queueCapacity = 1000;
+    private TransformEngineRenditionInterceptor interceptor;
+
+    public TransformEngineClientPostProcessor()
+    {
+        super("localTransformClient");
+    }
+
+    public void setClientBeanName(String clientBeanName)
+    {
+        setTargetBeanName(clientBeanName);
+    }
+
+    public void setEngineUrl(String engineUrl)
+    {
+        this.engineUrl = engineUrl;
+    }
+
+    public void setTimeout(long timeout)
+    {
+        this.timeout = timeout;
+    }
+
+    public void setThreads(int threads)
+    {
+        this.threads = threads;
+    }
+
+    public void setQueueCapacity(int queueCapacity)
+    {
+        this.queueCapacity = queueCapacity;
+    }
+
+    @Override
+    protected boolean isEnabled()
+    {
+        return super.isEnabled() && engineUrl != null && !engineUrl.isEmpty();
+    }
+
+    @Override
+    protected Object wrap(Object bean, String beanName)
+    {
+        interceptor = new TransformEngineRenditionInterceptor(getBeanFactory(), engineUrl, timeout, threads,
+                queueCapacity);
+        return proxy(bean, interceptor);
+    }
+
+    @Override
+    public void destroy()
+    {
+        if (interceptor != null)
+        {
+            interceptor.destroy();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.transform;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.rendition2.RenditionDefinition2;
+import org.alfresco.repo.rendition2.RenditionService2Impl;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentService;
+import org.alfresco.service.cmr.repository.MimetypeService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.TraceableThreadFactory;
+import org.alfresco.web.app.logging.CorrelationId;
+import org.alfresco.web.app.transform.TransformEngineClient.TransformResult;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.BeanFactory;
+
+/**
+ * Sends the rendition transforms of the repository's transform client to a T-Engine through the
+ * {@link TransformEngineClient}, on its own pool of threads. Small transforms the {@link InProcessTransformer} accepts
+ * are done in the JVM instead, and results of sources that were transformed before are taken from the
+ * {@link TransformResultCache}. The rendition is handed to the rendition service as the
+ * transform client would. Transforms that cannot be queued, or sent because the T-Engine is busy or cannot be reached,
+ * are passed on to the original client. Other failures are reported to the rendition service as failed renditions;
+ * retrying them with the original client would only repeat the work.
+ * 
+ * @since 6.2.2
+ */
+public class TransformEngineRenditionInterceptor implements MethodInterceptor
+{
+    private static final Log logger = LogFactory.getLog(TransformEngineRenditionInterceptor.class);
+
+    private final BeanFactory beanFactory;
+    private final String engineUrl;
+    private final long timeout;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * The services are looked up on first use, the interceptor is created before them.
+     */
+    public TransformEngineRenditionInterceptor(BeanFactory beanFactory, String engineUrl, long timeout, int threads,
+            int queueCapacity)
+    {
+        this.beanFactory = beanFactory;
+        this.engineUrl = engineUrl;
+        this.timeout = timeout;
+        TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+        threadFactory.setThreadDaemon(true);
+        threadFactory.setNamePrefix("TransformEngineClient");
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable
+    {
+        Object[] args = invocation.getArguments();
+        if (!"transform".equals(invocation.getMethod().getName()) || args.length != 4
+                || !(args[0] instanceof NodeRef) || !(args[1] instanceof RenditionDefinition2)
+                || !(args[2] instanceof String) || !(args[3] instanceof Integer))
+        {
+            return invocation.proceed();
+        }
+
+        final Method method = invocation.getMethod();
+        final Object target = invocation.getThis();
+        final String correlationId = CorrelationId.get();
+        try
+        {
+            executor.execute(() -> {
+                if (correlationId != null)
+                {
+                    CorrelationId.set(correlationId);
+                }
+                try
+                {
+                    AuthenticationUtil.runAs(() -> transform(method, target, args), (String) args[2]);
+                }
+                finally
+                {
+                    CorrelationId.clear();
+                }
+            });
+            return null;
+        }
+        catch (RejectedExecutionException e)
+        {
+            return invocation.proceed();
+        }
+    }
+
+    Void transform(Method method, Object target, Object[] args)
+    {
+        NodeRef sourceNodeRef = (NodeRef) args[0];
+        RenditionDefinition2 renditionDefinition = (RenditionDefinition2) args[1];
+        int sourceContentHashCode = (Integer) args[3];
+        TransactionService transactionService = beanFactory.getBean("TransactionService", TransactionService.class);
+        ContentService contentService = beanFactory.getBean("contentService", ContentService.class);
+        MimetypeService mimetypeService = beanFactory.getBean("mimetypeService", MimetypeService.class);
+
+        TransformResult result = null;
+        try
+        {
+            ContentReader reader = transactionService.getRetryingTransactionHelper().doInTransaction(
+                    () -> contentService.getReader(sourceNodeRef, ContentModel.PROP_CONTENT), true, false);
+            if (reader == null || !reader.exists())
+            {
+                // nothing to stream, the transform client reports it
+                invokeOriginal(method, target, args);
+                return null;
+            }
+            String sourceMimetype = reader.getMimetype();
+            String targetMimetype = renditionDefinition.getTargetMimetype();
+            Map<String, String> options = renditionDefinition.getTransformOptions();
+            InProcessTransformer inProcessTransformer = beanFactory.getBean("inProcessTransformer",
+                    InProcessTransformer.class);
+            if (inProcessTransformer.isSupported(sourceMimetype, reader.getSize(), targetMimetype, options))
+            {
+                byte[] source;
+                try (InputStream in = reader.getContentInputStream())
+                {
+                    source = in.readAllBytes();
+                }
+                result = inProcessTransformer.transform(source, sourceMimetype, reader.getEncoding(), targetMimetype,
+                        options);
+                // a reader can only be read once
+                reader = reader.getReader();
+            }
+            if (result == null)
+            {
+                TransformEngineClient engineClient = beanFactory.getBean("transformEngineClient",
+                        TransformEngineClient.class);
+                TransformResultCache resultCache = beanFactory.getBean("transformResultCache",
+                        TransformResultCache.class);
+                String cacheKey = null;
+                if (resultCache.isEnabled())
+                {
+                    // without a version, results of different transformer versions could not be told apart
+                    String version = engineClient.getVersion(engineUrl);
+                    if (version != null)
+                    {
+                        cacheKey = TransformResultCache.key(resultCache.getSourceHash(reader), targetMimetype, options,
+                                version);
+                        result = resultCache.get(cacheKey);
+                    }
+                }
+                if (result == null)
+                {
+                    result = engineClient.transform(engineUrl, reader.getContentInputStream(), sourceMimetype,
+                            mimetypeService.getExtension(sourceMimetype), targetMimetype,
+                            mimetypeService.getExtension(targetMimetype), options, timeout);
+                    if (cacheKey != null)
+                    {
+                        resultCache.put(cacheKey, result);
+                    }
+                }
+            }
+
+            final TransformResult transformed = result;
+            RenditionService2Impl renditionService2 = beanFactory.getBean("renditionService2",
+                    RenditionService2Impl.class);
+            transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+                try (InputStream in = transformed.open())
+                {
+                    renditionService2.consume(sourceNodeRef, in, renditionDefinition, sourceContentHashCode);
+                }
+                return null;
+            }, false, true);
+        }
+        catch (TransformEngineUnavailableException e)
+        {
+            logger.warn("Transform of " + sourceNodeRef + " for rendition " + renditionDefinition.getRenditionName()
+                    + " could not be sent to " + engineUrl + ", passing it to the transform client: " + e.getMessage());
+            invokeOriginal(method, target, args);
+        }
+        catch (RuntimeException | IOException e)
+        {
+            logger.warn("Transform of " + sourceNodeRef + " for rendition " + renditionDefinition.getRenditionName()
+                    + " by " + engineUrl + " failed: " + e.getMessage());
+            failure(transactionService, sourceNodeRef, renditionDefinition, sourceContentHashCode);
+        }
+        finally
+        {
+            if (result != null)
+            {
+                result.release();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tells the rendition service that the transform failed, as the transform client does, by handing it no content.
+     */
+    private void failure(TransactionService transactionService, NodeRef sourceNodeRef,
+            RenditionDefinition2 renditionDefinition, int sourceContentHashCode)
+    {
+        try
+        {
+            RenditionService2Impl renditionService2 = beanFactory.getBean("renditionService2",
+                    RenditionService2Impl.class);
+            transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+                renditionService2.consume(sourceNodeRef, null, renditionDefinition, sourceContentHashCode);
+                return null;
+            }, false, true);
+        }
+        catch (RuntimeException e)
+        {
+            logger.error("Unable to record the failed rendition " + renditionDefinition.getRenditionName() + " of "
+                    + sourceNodeRef + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the transform threads, giving the transforms that are running some time to finish. Transforms still
+     * queued are not done; their renditions are requested again when they are next read.
+     */
+    public void destroy()
+    {
+        executor.shutdown();
+        try
+        {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS))
+            {
+                executor.shutdownNow();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void invokeOriginal(Method method, Object target, Object[] args)
+    {
+        try
+        {
+            method.invoke(target, args);
+        }
+        catch (InvocationTargetException e)
+        {
+            logger.error("Transform client failed for " + args[0] + ": " + e.getTargetException().getMessage());
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.transform;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.util.TempFileProvider;
+import org.alfresco.web.app.metrics.MetricsCollector;
+import org.alfresco.web.app.metrics.OpenMetricsWriter;
+import org.alfresco.web.app.transform.TransformEngineClient.TransformResult;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Disk cache of transform results, so that a source binary that is transformed again, on another node or after its
+ * renditions were deleted, costs a lookup rather than a transform.
+ * <p>
+ * Keys are a SHA-256 hash of the source content, the target mimetype, the transform options and the version of the
+ * T-Engine, so results of an older transformer are never returned once the T-Engine reports a new version; they are
+ * evicted like any other unused entry. The hash of a content URL is remembered, content URLs are never reused for
+ * different content.
+ * <p>
+ * The files survive restarts. The least recently used ones are deleted when the total exceeds <code>maxBytes</code>.
+ * 
+ * @since 6.2.2
+ */
+public class TransformResultCache implements MetricsCollector, InitializingBean
+{
+    private static final Log logger = LogFactory.getLog(TransformResultCache.class);
+
+    private static final String SUFFIX = ".bin";
+    private static final int SOURCE_HASHES = 10000;
+
+    private boolean enabled;
+    private String directory;
+    private long maxBytes = 2L * 1024 * 1024 * 1024;
+    private long maxEntrySize = 100L * 1024 * 1024;
+    private int maxInMemoryResultSize = 1024 * 1024;
+
+    private File cacheDir;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(1024, 0.75f, true);
+    private final Map<String, String> sourceHashes = new LinkedHashMap<String, String>(256, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest)
+        {
+            return size() > SOURCE_HASHES;
+        }
+    };
+
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder hashedBytes = new LongAdder();
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * @param directory where the results are kept, the long life temporary directory <code>transform-cache</code> if
+     *            empty
+     */
+    public void setDirectory(String directory)
+    {
+        this.directory = directory;
+    }
+
+    public void setMaxBytes(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+    }
+
+    public void setMaxEntrySize(long maxEntrySize)
+    {
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    public void setMaxInMemoryResultSize(int maxInMemoryResultSize)
+    {
+        this.maxInMemoryResultSize = maxInMemoryResultSize;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        if (!enabled)
+        {
+            return;
+        }
+        // the long life directory is left alone by the temp file cleaner, which would empty the cache every hour
+        cacheDir = directory == null || directory.trim().isEmpty()
+                ? TempFileProvider.getLongLifeTempDir("transform-cache")
+                : new File(directory.trim());
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs())
+        {
+            logger.warn("Unable to create transform cache directory " + cacheDir + ", the cache is disabled");
+            enabled = false;
+            return;
+        }
+
+        // rebuild the index, least recently used first
+        File[] files = cacheDir.listFiles();
+        if (files != null)
+        {
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            synchronized (this)
+            {
+                for (File file : files)
+                {
+                    String name = file.getName();
+                    if (name.endsWith(SUFFIX))
+                    {
+                        entries.put(name.substring(0, name.length() - SUFFIX.length()), file.length());
+                        totalBytes.addAndGet(file.length());
+                    }
+                    else
+                    {
+                        // left over from an interrupted store
+                        file.delete();
+                    }
+                }
+                evict();
+            }
+        }
+    }
+
+    /**
+     * @return the SHA-256 hash of the content, computed once per content URL
+     */
+    public String getSourceHash(ContentReader reader) throws IOException
+    {
+        String contentUrl = reader.getContentUrl();
+        synchronized (sourceHashes)
+        {
+            String hash = sourceHashes.get(contentUrl);
+            if (hash != null)
+            {
+                return hash;
+            }
+        }
+        MessageDigest digest = newDigest();
+        long size = 0;
+        try (InputStream in = reader.getReader().getContentInputStream())
+        {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+            {
+                digest.update(buffer, 0, read);
+                size += read;
+            }
+        }
+        hashedBytes.add(size);
+        String hash = toHex(digest.digest());
+        synchronized (sourceHashes)
+        {
+            sourceHashes.put(contentUrl, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Builds the key of a transform. The <code>timeout</code> option does not change the result and is left out.
+     */
+    public static String key(String sourceHash, String targetMimetype, Map<String, String> options,
+            String transformerVersion)
+    {
+        StringBuilder key = new StringBuilder(256).append(sourceHash).append('\n').append(targetMimetype).append('\n')
+                .append(transformerVersion);
+        for (Map.Entry<String, String> option : new TreeMap<>(options).entrySet())
+        {
+            if (!"timeout".equals(option.getKey()) && option.getValue() != null)
+            {
+                key.append('\n').append(option.getKey()).append('=').append(option.getValue());
+            }
+        }
+        return toHex(newDigest().digest(key.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @return a copy of the cached result, which the caller must release, or <tt>null</tt>
+     */
+    public TransformResult get(String key)
+    {
+        Long size;
+        synchronized (this)
+        {
+            size = entries.get(key);
+        }
+        if (size == null)
+        {
+            misses.increment();
+            return null;
+        }
+        File file = new File(cacheDir, key + SUFFIX);
+        try
+        {
+            TransformResult result = TransformResult.read(new FileInputStream(file), size, maxInMemoryResultSize);
+            file.setLastModified(System.currentTimeMillis());
+            hits.increment();
+            return result;
+        }
+        catch (IOException e)
+        {
+            // evicted while it was read
+            misses.increment();
+            return null;
+        }
+    }
+
+    /**
+     * Adds a result. Results larger than <code>maxEntrySize</code> are not kept.
+     */
+    public void put(String key, TransformResult result)
+    {
+        if (result.getSize() > maxEntrySize || result.getSize() > maxBytes)
+        {
+            return;
+        }
+        File tmp = new File(cacheDir, key + "." + UUID.randomUUID() + ".tmp");
+        File file = new File(cacheDir, key + SUFFIX);
+        try
+        {
+            try (InputStream in = result.open(); OutputStream out = Files.newOutputStream(tmp.toPath()))
+            {
+                in.transferTo(out);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            logger.warn("Unable to store transform result " + file + ": " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        synchronized (this)
+        {
+            Long previous = entries.put(key, result.getSize());
+            totalBytes.addAndGet(result.getSize() - (previous == null ? 0 : previous));
+            evict();
+        }
+        stores.increment();
+    }
+
+    private void evict()
+    {
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (totalBytes.get() > maxBytes && eldest.hasNext())
+        {
+            Map.Entry<String, Long> entry = eldest.next();
+            eldest.remove();
+            totalBytes.addAndGet(-entry.getValue());
+            File file = new File(cacheDir, entry.getKey() + SUFFIX);
+            if (!file.delete() && file.exists())
+            {
+                logger.debug("Unable to delete transform result " + file);
+            }
+            evictions.increment();
+        }
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes)
+    {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+        {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    @Override
+    public void collect(OpenMetricsWriter writer) throws IOException
+    {
+        writer.beginCounter("alfresco_transform_cache_hits", "Transforms answered from the transform result cache");
+        writer.sample("alfresco_transform_cache_hits_total", hits.sum());
+        writer.beginCounter("alfresco_transform_cache_misses", "Transforms not found in the transform result cache");
+        writer.sample("alfresco_transform_cache_misses_total", misses.sum());
+        writer.beginCounter("alfresco_transform_cache_stores", "Transform results added to the cache");
+        writer.sample("alfresco_transform_cache_stores_total", stores.sum());
+        writer.beginCounter("alfresco_transform_cache_evictions", "Transform results evicted from the cache");
+        writer.sample("alfresco_transform_cache_evictions_total", evictions.sum());
+        writer.beginCounter("alfresco_transform_cache_hashed_bytes", "Source bytes hashed to look up results");
+        writer.sample("alfresco_transform_cache_hashed_bytes_total", hashedBytes.sum());
+        writer.beginGauge("alfresco_transform_cache_bytes", "Size of the cached transform results");
+        writer.sample("alfresco_transform_cache_bytes", totalBytes.get());
+    }
+}
@@ -0,0 +1,11 @@
+--
+-- Title:      Index for the keyset paging of folder children by name
+-- Database:   Generic
+-- Since:      6.2.2
+--
+-- Serves GET /nodes/{nodeId}/children-cursor?orderBy=name: a page is a range scan of this index that stops after
+-- maxItems rows, whatever the size of the folder. Not created by the schema bootstrap, as the index costs space and
+-- insert time on every child association; run it once when the cursor relationship is used on large folders.
+--
+
+create index idx_alf_cass_pname on alf_child_assoc (parent_node_id, type_qname_id, child_node_name, id);
@@ -0,0 +1,122 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.ObjectFactory;
+
+/**
+ * Tests the matching, proxying and lazy lookups of {@link AbstractWrappingPostProcessor}.
+ * 
+ * @since 6.2.2
+ */
+public class AbstractWrappingPostProcessorTest
+{
+    private BeanFactory beanFactory;
+    private ProxyingPostProcessor postProcessor;
+
+    @Before
+    public void setUp()
+    {
+        beanFactory = mock(BeanFactory.class);
+        postProcessor = new ProxyingPostProcessor();
+        postProcessor.setBeanFactory(beanFactory);
+    }
+
+    @Test
+    public void testDisabledLeavesTheBean()
+    {
+        Greeter greeter = new Greeter();
+
+        assertSame(greeter, postProcessor.postProcessAfterInitialization(greeter, "greeter"));
+    }
+
+    @Test
+    public void testOtherBeansAreLeft()
+    {
+        postProcessor.setEnabled(true);
+        Greeter greeter = new Greeter();
+
+        assertSame(greeter, postProcessor.postProcessAfterInitialization(greeter, "otherGreeter"));
+    }
+
+    @Test
+    public void testTargetBeanIsProxiedByClass()
+    {
+        postProcessor.setEnabled(true);
+
+        Object proxy = postProcessor.postProcessAfterInitialization(new Greeter(), "greeter");
+
+        assertTrue(AopUtils.isCglibProxy(proxy));
+        assertEquals("Hello!", ((Greeter) proxy).greet());
+    }
+
+    @Test
+    public void testLazyBeanIsLookedUpOnceOnFirstUse()
+    {
+        when(beanFactory.getBean("suffix", String.class)).thenReturn("!");
+        ObjectFactory<String> suffix = postProcessor.lazyBean("suffix", String.class);
+        verify(beanFactory, times(0)).getBean("suffix", String.class);
+
+        assertEquals("!", suffix.getObject());
+        assertEquals("!", suffix.getObject());
+        verify(beanFactory, times(1)).getBean("suffix", String.class);
+    }
+
+    public static class Greeter
+    {
+        public String greet()
+        {
+            return "Hello";
+        }
+    }
+
+    private static class ProxyingPostProcessor extends AbstractWrappingPostProcessor
+    {
+        private ProxyingPostProcessor()
+        {
+            super("greeter");
+        }
+
+        @Override
+        protected Object wrap(Object bean, String beanName)
+        {
+            return proxy(bean, (MethodInterceptor) invocation -> invocation.proceed() + "!");
+        }
+    }
+}
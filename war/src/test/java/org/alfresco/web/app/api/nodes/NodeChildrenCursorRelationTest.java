@@ -0,0 +1,270 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.api.nodes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.repo.domain.qname.QNameDAO;
+import org.alfresco.rest.api.Nodes;
+import org.alfresco.rest.api.model.Node;
+import org.alfresco.rest.framework.core.exceptions.InvalidArgumentException;
+import org.alfresco.rest.framework.resource.parameters.CollectionWithPagingInfo;
+import org.alfresco.rest.framework.resource.parameters.Paging;
+import org.alfresco.rest.framework.resource.parameters.Parameters;
+import org.alfresco.service.cmr.dictionary.DictionaryService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.util.Pair;
+import org.alfresco.web.app.domain.node.ChildPageDAO;
+import org.alfresco.web.app.domain.node.ChildPageEntity;
+import org.alfresco.web.app.domain.node.ChildPageQueryEntity;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the keyset paging of {@link NodeChildrenCursorRelation} against an in-memory {@link ChildPageDAO}: following
+ * cursors, skipping hidden children and the scan limit.
+ * 
+ * @since 6.2.2
+ */
+public class NodeChildrenCursorRelationTest
+{
+    private static final NodeRef FOLDER = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "folder");
+
+    private final List<ChildPageEntity> children = new ArrayList<>();
+    private final Set<NodeRef> hidden = new HashSet<>();
+    private final List<List<NodeRef>> loadedPages = new ArrayList<>();
+    private NodeChildrenCursorRelation relation;
+
+    @Before
+    public void setUp()
+    {
+        Nodes nodes = mock(Nodes.class);
+        when(nodes.validateOrLookupNode("folder", null)).thenReturn(FOLDER);
+        when(nodes.nodeMatches(eq(FOLDER), any(), any())).thenReturn(true);
+        NodeDAO nodeDAO = mock(NodeDAO.class);
+        when(nodeDAO.getNodePair(FOLDER)).thenReturn(new Pair<>(1L, FOLDER));
+        QNameDAO qnameDAO = mock(QNameDAO.class);
+        when(qnameDAO.getQName(ContentModel.ASSOC_CONTAINS)).thenReturn(new Pair<>(2L, ContentModel.ASSOC_CONTAINS));
+        when(qnameDAO.getQName(anyLong())).thenReturn(new Pair<>(3L, ContentModel.TYPE_CONTENT));
+        DictionaryService dictionaryService = mock(DictionaryService.class);
+        when(dictionaryService.isSubClass(ContentModel.TYPE_CONTENT, ContentModel.TYPE_CONTENT)).thenReturn(true);
+        PermissionService permissionService = mock(PermissionService.class);
+        when(permissionService.hasReadPermission(any())).then(invocation ->
+                hidden.contains(invocation.getArgument(0)) ? AccessStatus.DENIED : AccessStatus.ALLOWED);
+        NodePageLoader nodePageLoader = mock(NodePageLoader.class);
+        when(nodePageLoader.load(anyList(), eq(FOLDER), any(), any())).then(invocation -> {
+            List<NodeRef> page = invocation.getArgument(0);
+            loadedPages.add(new ArrayList<>(page));
+            List<Node> models = new ArrayList<>();
+            for (int i = 0; i < page.size(); i++)
+            {
+                models.add(new Node());
+            }
+            return models;
+        });
+
+        relation = new NodeChildrenCursorRelation();
+        relation.setNodes(nodes);
+        relation.setNodeDAO(nodeDAO);
+        relation.setQnameDAO(qnameDAO);
+        relation.setChildPageDAO(new InMemoryChildPageDAO());
+        relation.setDictionaryService(dictionaryService);
+        relation.setPermissionService(permissionService);
+        relation.setNodePageLoader(nodePageLoader);
+        relation.afterPropertiesSet();
+    }
+
+    @Test
+    public void testCursorsWalkThroughAllChildren()
+    {
+        addChildren("a", "b", "c", "d", "e");
+
+        List<String> names = walk(2);
+
+        assertEquals(3, loadedPages.size());
+        assertEquals(List.of("a", "b", "c", "d", "e"), names);
+    }
+
+    @Test
+    public void testHiddenChildrenAreSkipped()
+    {
+        addChildren("a", "b", "c", "d", "e");
+        hidden.add(children.get(1).getNodeRef());
+        hidden.add(children.get(2).getNodeRef());
+
+        assertEquals(List.of("a", "d", "e"), walk(2));
+    }
+
+    @Test
+    public void testScanLimitReturnsShortPageWithCursor()
+    {
+        addChildren("a", "b", "c", "d", "e", "f", "g", "h");
+        for (int i = 0; i < 6; i++)
+        {
+            hidden.add(children.get(i).getNodeRef());
+        }
+        relation.setMaxRowsScanned(3);
+
+        CollectionWithPagingInfo<Node> first = relation.readAll("folder", parameters(2, null));
+        assertTrue(first.hasMoreItems());
+        assertTrue(loadedPages.get(0).isEmpty());
+
+        assertEquals(List.of("g", "h"), walk(2));
+    }
+
+    @Test
+    public void testLastPageHasNoCursor()
+    {
+        addChildren("a", "b");
+
+        CollectionWithPagingInfo<Node> page = relation.readAll("folder", parameters(2, null));
+
+        assertFalse(page.hasMoreItems());
+        assertNull(((NodeChildrenCursorRelation.CursorContext) page.getContext()).getNextCursor());
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testSkipCountIsRejected()
+    {
+        Parameters parameters = parameters(2, null);
+        when(parameters.getPaging()).thenReturn(Paging.valueOf(2, 2));
+        relation.readAll("folder", parameters);
+    }
+
+    @Test
+    public void testCursorRoundTrip()
+    {
+        ChildrenCursor cursor = ChildrenCursor.decode(new ChildrenCursor("createdAt", false, 42L, "0").encode());
+        assertEquals("createdAt", cursor.getSortColumn());
+        assertFalse(cursor.isAscending());
+        assertEquals(42L, cursor.getAfterId());
+        assertEquals("0", cursor.getAfterValue());
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testMalformedCursorIsRejected()
+    {
+        ChildrenCursor.decode("not a cursor");
+    }
+
+    private List<String> walk(int maxItems)
+    {
+        List<String> names = new ArrayList<>();
+        String cursor = null;
+        do
+        {
+            loadedPages.clear();
+            CollectionWithPagingInfo<Node> page = relation.readAll("folder", parameters(maxItems, cursor));
+            for (NodeRef nodeRef : loadedPages.get(0))
+            {
+                names.add(nodeRef.getId());
+            }
+            cursor = ((NodeChildrenCursorRelation.CursorContext) page.getContext()).getNextCursor();
+            assertEquals(cursor != null, page.hasMoreItems());
+        }
+        while (cursor != null);
+        return names;
+    }
+
+    private Parameters parameters(int maxItems, String cursor)
+    {
+        Parameters parameters = mock(Parameters.class);
+        when(parameters.getPaging()).thenReturn(Paging.valueOf(0, maxItems));
+        when(parameters.getSorting()).thenReturn(Collections.emptyList());
+        when(parameters.getParameter(NodeChildrenCursorRelation.PARAM_CURSOR)).thenReturn(cursor);
+        when(parameters.getInclude()).thenReturn(Collections.emptyList());
+        return parameters;
+    }
+
+    private void addChildren(String... names)
+    {
+        long id = 100;
+        for (String name : names)
+        {
+            ChildPageEntity child = new ChildPageEntity();
+            child.setChildAssocId(id++);
+            child.setChildNodeName(name);
+            child.setNodeId(id);
+            child.setStoreProtocol(StoreRef.PROTOCOL_WORKSPACE);
+            child.setStoreIdentifier("SpacesStore");
+            child.setUuid(name);
+            child.setTypeQNameId(3L);
+            children.add(child);
+        }
+    }
+
+    /**
+     * Seeks by name and association id, in ascending order, the way the SqlMap does
+     */
+    private class InMemoryChildPageDAO implements ChildPageDAO
+    {
+        @Override
+        public List<ChildPageEntity> selectChildrenByName(ChildPageQueryEntity query)
+        {
+            List<ChildPageEntity> rows = new ArrayList<>();
+            for (ChildPageEntity child : children)
+            {
+                if (rows.size() == query.getLimit())
+                {
+                    break;
+                }
+                if (query.getAfterId() == null || child.getChildNodeName().compareTo(query.getAfterValue()) > 0
+                        || (child.getChildNodeName().equals(query.getAfterValue())
+                                && child.getChildAssocId() > query.getAfterId()))
+                {
+                    rows.add(child);
+                }
+            }
+            return rows;
+        }
+
+        @Override
+        public List<ChildPageEntity> selectChildrenByCreated(ChildPageQueryEntity query)
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
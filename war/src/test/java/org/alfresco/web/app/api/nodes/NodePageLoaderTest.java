@@ -0,0 +1,279 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.api.nodes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.repo.model.Repository;
+import org.alfresco.rest.api.Nodes;
+import org.alfresco.rest.api.model.Node;
+import org.alfresco.rest.api.model.NodePermissions;
+import org.alfresco.rest.api.model.PathInfo;
+import org.alfresco.rest.framework.jacksonextensions.BeanPropertiesFilter;
+import org.alfresco.service.cmr.dictionary.DictionaryService;
+import org.alfresco.service.cmr.lock.LockService;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.Pair;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+
+/**
+ * Tests that the {@link NodePageLoader} computes the <code>path</code>, <code>permissions</code>,
+ * <code>isLocked</code> and <code>allowableOperations</code> include options once per page and honours the
+ * <code>fields</code> projection.
+ * 
+ * @since 6.2.2
+ */
+public class NodePageLoaderTest
+{
+    private static final NodeRef PARENT = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "parent");
+    private static final int PAGE_SIZE = 100;
+    private static final int ACLS = 2;
+
+    private Nodes nodes;
+    private NodeDAO nodeDAO;
+    private NodeService nodeService;
+    private LockService lockService;
+    private Repository repositoryHelper;
+    private NodePageLoader loader;
+    private List<NodeRef> page;
+
+    @Before
+    public void setUp()
+    {
+        nodes = mock(Nodes.class);
+        nodeDAO = mock(NodeDAO.class);
+        nodeService = mock(NodeService.class);
+        lockService = mock(LockService.class);
+        repositoryHelper = mock(Repository.class);
+        when(repositoryHelper.getCompanyHome()).thenReturn(
+                new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "company-home"));
+        page = new ArrayList<>();
+        for (int i = 0; i < PAGE_SIZE; i++)
+        {
+            NodeRef nodeRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "child-" + i);
+            page.add(nodeRef);
+            long id = i;
+            when(nodeDAO.getNodePair(nodeRef)).thenReturn(new Pair<>(id, nodeRef));
+            when(nodeService.getPrimaryParent(nodeRef)).thenReturn(
+                    new ChildAssociationRef(ContentModel.ASSOC_CONTAINS, PARENT, ContentModel.ASSOC_CONTAINS, nodeRef));
+        }
+        when(nodeDAO.getNodeAclId(anyLong())).then(invocation -> (Long) invocation.getArgument(0) % ACLS);
+        when(nodeService.getType(any())).thenReturn(ContentModel.TYPE_CONTENT);
+        when(nodeService.getAspects(any())).thenReturn(Collections.singleton(ContentModel.ASPECT_AUDITABLE));
+        when(nodes.getFolderOrDocument(any(NodeRef.class), any(), any(QName.class), anyList(), any()))
+                .then(this::simulateGetFolderOrDocument);
+        when(nodes.lookupPathInfo(any(), isNull())).then(invocation -> mock(PathInfo.class));
+
+        loader = new NodePageLoader();
+        loader.setNodes(nodes);
+        loader.setNodeDAO(nodeDAO);
+        loader.setNodeService(nodeService);
+        loader.setDictionaryService(mock(DictionaryService.class));
+        NamespaceService namespaceService = mock(NamespaceService.class);
+        when(namespaceService.getPrefixes(any())).thenReturn(List.of(NamespaceService.CONTENT_MODEL_PREFIX));
+        loader.setNamespaceService(namespaceService);
+        loader.setLockService(lockService);
+        loader.setRepositoryHelper(repositoryHelper);
+        loader.afterPropertiesSet();
+    }
+
+    @Test
+    public void testIncludeOptionsAreComputedOncePerPage()
+    {
+        List<Node> models = loader.load(page, PARENT,
+                List.of(Nodes.PARAM_INCLUDE_PATH, Nodes.PARAM_INCLUDE_PERMISSIONS), null);
+
+        assertEquals(PAGE_SIZE, models.size());
+        verify(nodeDAO).cacheNodes(page);
+        verify(nodes, times(1)).lookupPathInfo(any(), isNull());
+        verify(nodes, times(ACLS)).getFolderOrDocument(any(NodeRef.class), eq(PARENT), any(QName.class),
+                eq(List.of(Nodes.PARAM_INCLUDE_PERMISSIONS)), any());
+        assertSame(models.get(0).getPath(), models.get(PAGE_SIZE - 1).getPath());
+        assertSame(models.get(0).getPermissions(), models.get(2).getPermissions());
+    }
+
+    @Test
+    public void testIsLockedIsReadWithoutBuildingTheModels()
+    {
+        NodeRef locked = page.get(3);
+        when(nodeService.getAspects(locked))
+                .thenReturn(Set.of(ContentModel.ASPECT_AUDITABLE, ContentModel.ASPECT_LOCKABLE));
+        when(lockService.isLocked(locked)).thenReturn(true);
+
+        List<Node> models = loader.load(page, PARENT, List.of(Nodes.PARAM_INCLUDE_ISLOCKED),
+                fields("id", "name", "isLocked"));
+
+        verify(nodes, never()).getFolderOrDocument(any(NodeRef.class), any(), any(QName.class), anyList(), any());
+        verify(lockService, times(1)).isLocked(any());
+        assertEquals(Boolean.TRUE, models.get(3).getIsLocked());
+        assertEquals(Boolean.FALSE, models.get(0).getIsLocked());
+    }
+
+    @Test
+    public void testAllowableOperationsAreComputedOncePerAclOwnerAndLock()
+    {
+        when(nodeService.getProperty(page.get(0), ContentModel.PROP_CREATOR)).thenReturn("alice");
+
+        List<Node> models = loader.load(page, PARENT, List.of(Nodes.PARAM_INCLUDE_ALLOWABLEOPERATIONS), null);
+
+        // one per ACL, and one more for the node created by alice, whose OWNER authority differs
+        verify(nodes, times(ACLS + 1)).getFolderOrDocument(any(NodeRef.class), eq(PARENT), any(QName.class),
+                eq(List.of(Nodes.PARAM_INCLUDE_ALLOWABLEOPERATIONS)), any());
+        assertSame(models.get(2).getAllowableOperations(), models.get(4).getAllowableOperations());
+        assertEquals(List.of("update"), models.get(1).getAllowableOperations());
+    }
+
+    @Test
+    public void testAllowableOperationsOfCompanyHomeChildrenAreNotShared()
+    {
+        NodeRef companyHome = repositoryHelper.getCompanyHome();
+        for (NodeRef nodeRef : page)
+        {
+            when(nodeService.getPrimaryParent(nodeRef)).thenReturn(new ChildAssociationRef(ContentModel.ASSOC_CONTAINS,
+                    companyHome, ContentModel.ASSOC_CONTAINS, nodeRef));
+        }
+
+        loader.load(page, companyHome, List.of(Nodes.PARAM_INCLUDE_ALLOWABLEOPERATIONS), null);
+
+        verify(nodes, times(PAGE_SIZE)).getFolderOrDocument(any(NodeRef.class), eq(companyHome), any(QName.class),
+                eq(List.of(Nodes.PARAM_INCLUDE_ALLOWABLEOPERATIONS)), any());
+    }
+
+    @Test
+    public void testPagesInOrder()
+    {
+        List<Node> models = loader.load(page, PARENT, Collections.emptyList(), null);
+        for (int i = 0; i < PAGE_SIZE; i++)
+        {
+            assertEquals(page.get(i), models.get(i).getNodeRef());
+        }
+    }
+
+    @Test
+    public void testPathIsComputedOncePerParent()
+    {
+        NodeRef otherParent = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "other-parent");
+        for (NodeRef nodeRef : page.subList(0, PAGE_SIZE / 2))
+        {
+            when(nodeService.getPrimaryParent(nodeRef)).thenReturn(new ChildAssociationRef(ContentModel.ASSOC_CONTAINS,
+                    otherParent, ContentModel.ASSOC_CONTAINS, nodeRef));
+        }
+
+        List<Node> models = loader.load(page, null, List.of(Nodes.PARAM_INCLUDE_PATH), null);
+
+        verify(nodes, times(2)).lookupPathInfo(any(), isNull());
+        assertSame(models.get(0).getPath(), models.get(PAGE_SIZE / 2 - 1).getPath());
+        assertSame(models.get(PAGE_SIZE / 2).getPath(), models.get(PAGE_SIZE - 1).getPath());
+    }
+
+    @Test
+    public void testProjectionWithoutLoadedFieldsBuildsSummaries()
+    {
+        when(nodeService.getProperty(page.get(0), ContentModel.PROP_NAME)).thenReturn("first");
+
+        List<Node> models = loader.load(page, PARENT, Collections.emptyList(), fields("id", "name", "isFile"));
+
+        verify(nodes, never()).getFolderOrDocument(any(NodeRef.class), any(), any(QName.class), anyList(), any());
+        assertEquals(page.get(0), models.get(0).getNodeRef());
+        assertEquals("first", models.get(0).getName());
+        assertEquals(PARENT, models.get(0).getParentId());
+    }
+
+    @Test
+    public void testProjectedIncludeOptionsAreSkipped()
+    {
+        loader.load(page, PARENT, List.of(Nodes.PARAM_INCLUDE_PATH, Nodes.PARAM_INCLUDE_PERMISSIONS),
+                fields("id", "path"));
+
+        verify(nodes, times(1)).lookupPathInfo(any(), isNull());
+        verify(nodes, never()).getFolderOrDocument(any(NodeRef.class), any(), any(QName.class),
+                eq(List.of(Nodes.PARAM_INCLUDE_PERMISSIONS)), any());
+    }
+
+    @Test
+    public void testProjectionWithLoadedFieldsBuildsFullModels()
+    {
+        loader.load(page, PARENT, Collections.emptyList(), fields("id", "name", "modifiedAt"));
+
+        verify(nodes, times(PAGE_SIZE)).getFolderOrDocument(any(NodeRef.class), eq(PARENT), any(QName.class),
+                eq(Collections.emptyList()), any());
+    }
+
+    private static BeanPropertiesFilter fields(String... names)
+    {
+        return new BeanPropertiesFilter(new HashSet<>(Arrays.asList(names)));
+    }
+
+    /**
+     * Fills the model fields of the requested include options
+     */
+    private Node simulateGetFolderOrDocument(InvocationOnMock invocation)
+    {
+        List<String> include = invocation.getArgument(3);
+        Node node = new Node();
+        node.setNodeRef(invocation.getArgument(0));
+        if (include.contains(Nodes.PARAM_INCLUDE_PATH))
+        {
+            node.setPath(mock(PathInfo.class));
+        }
+        if (include.contains(Nodes.PARAM_INCLUDE_PERMISSIONS))
+        {
+            node.setPermissions(mock(NodePermissions.class));
+        }
+        if (include.contains(Nodes.PARAM_INCLUDE_ALLOWABLEOPERATIONS))
+        {
+            node.setAllowableOperations(new ArrayList<>(List.of("update")));
+        }
+        return node;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.api.nodes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.rest.api.Nodes;
+import org.alfresco.rest.api.model.Node;
+import org.alfresco.rest.framework.core.exceptions.EntityNotFoundException;
+import org.alfresco.rest.framework.core.exceptions.InvalidArgumentException;
+import org.alfresco.rest.framework.resource.parameters.Parameters;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that {@link NodesBatchGetEntityResource} answers every requested id in order, with the node or the failure.
+ * 
+ * @since 6.2.2
+ */
+public class NodesBatchGetEntityResourceTest
+{
+    private NodeDAO nodeDAO;
+    private NodePageLoader nodePageLoader;
+    private NodesBatchGetEntityResource resource;
+    private Parameters parameters;
+
+    @Before
+    public void setUp()
+    {
+        Nodes nodes = mock(Nodes.class);
+        when(nodes.validateOrLookupNode(any(), isNull())).then(invocation -> {
+            String id = invocation.getArgument(0);
+            if (id.startsWith("missing"))
+            {
+                throw new EntityNotFoundException(id);
+            }
+            return nodeRef(id);
+        });
+        PermissionService permissionService = mock(PermissionService.class);
+        when(permissionService.hasReadPermission(any())).then(invocation ->
+                ((NodeRef) invocation.getArgument(0)).getId().startsWith("secret") ? AccessStatus.DENIED : AccessStatus.ALLOWED);
+        nodeDAO = mock(NodeDAO.class);
+        nodePageLoader = mock(NodePageLoader.class);
+        when(nodePageLoader.load(anyList(), isNull(), any(), isNull())).then(invocation -> {
+            List<Node> models = new ArrayList<>();
+            for (NodeRef nodeRef : (List<NodeRef>) invocation.getArgument(0))
+            {
+                Node node = new Node();
+                node.setNodeRef(nodeRef);
+                models.add(node);
+            }
+            return models;
+        });
+
+        resource = new NodesBatchGetEntityResource();
+        resource.setNodes(nodes);
+        resource.setNodeDAO(nodeDAO);
+        resource.setPermissionService(permissionService);
+        resource.setNodePageLoader(nodePageLoader);
+        resource.setMaxItems(5);
+        resource.afterPropertiesSet();
+
+        parameters = mock(Parameters.class);
+        when(parameters.getInclude()).thenReturn(Collections.emptyList());
+    }
+
+    @Test
+    public void testItemsAreAnsweredInRequestOrder()
+    {
+        List<NodeBatchItem> results = resource.create(items("a", "missing-1", "secret-1", "", "b"), parameters);
+
+        assertEquals(5, results.size());
+        assertOk(results.get(0), "a");
+        assertEquals(HttpServletResponse.SC_NOT_FOUND, results.get(1).getStatusCode());
+        assertEquals(HttpServletResponse.SC_FORBIDDEN, results.get(2).getStatusCode());
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, results.get(3).getStatusCode());
+        assertOk(results.get(4), "b");
+        for (int i = 1; i < 4; i++)
+        {
+            assertNull(results.get(i).getNode());
+            assertNotNull(results.get(i).getErrorKey());
+        }
+    }
+
+    @Test
+    public void testNodesAreLoadedTogether()
+    {
+        resource.create(items("a", "b", "c"), parameters);
+
+        verify(nodeDAO).cacheNodes(Arrays.asList(nodeRef("a"), nodeRef("b"), nodeRef("c")));
+        verify(nodePageLoader).load(Arrays.asList(nodeRef("a"), nodeRef("b"), nodeRef("c")), null,
+                Collections.emptyList(), null);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testTooManyItemsAreRejected()
+    {
+        resource.create(items("a", "b", "c", "d", "e", "f"), parameters);
+    }
+
+    private static void assertOk(NodeBatchItem item, String id)
+    {
+        assertEquals(HttpServletResponse.SC_OK, item.getStatusCode());
+        assertEquals(id, item.getId());
+        assertEquals(nodeRef(id), item.getNode().getNodeRef());
+    }
+
+    private static List<NodeBatchItem> items(String... ids)
+    {
+        List<NodeBatchItem> items = new ArrayList<>();
+        for (String id : ids)
+        {
+            NodeBatchItem item = new NodeBatchItem();
+            item.setId(id);
+            items.add(item);
+        }
+        return items;
+    }
+
+    private static NodeRef nodeRef(String id)
+    {
+        return new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, id);
+    }
+}
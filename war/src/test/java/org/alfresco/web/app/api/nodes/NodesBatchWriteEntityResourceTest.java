@@ -0,0 +1,291 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.api.nodes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.transaction.UserTransaction;
+
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.rest.api.Nodes;
+import org.alfresco.rest.api.Tags;
+import org.alfresco.rest.api.model.Node;
+import org.alfresco.rest.framework.core.exceptions.EntityNotFoundException;
+import org.alfresco.rest.framework.core.exceptions.InvalidArgumentException;
+import org.alfresco.rest.framework.resource.parameters.Parameters;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.ConcurrencyFailureException;
+
+/**
+ * Tests that {@link NodesBatchWriteEntityResource} applies a batch in the request's transaction, all or nothing, or a
+ * chunk per request's transaction when driven in chunks, and validates refs before applying anything.
+ * 
+ * @since 6.2.2
+ */
+public class NodesBatchWriteEntityResourceTest
+{
+    private Nodes nodes;
+    private UserTransaction txn;
+    private Parameters parameters;
+    private NodesBatchWriteEntityResource resource;
+    private final List<TransactionListenerAdapter> listeners = new ArrayList<>();
+
+    @Before
+    public void setUp()
+    {
+        nodes = mock(Nodes.class);
+        txn = mock(UserTransaction.class);
+        parameters = mock(Parameters.class);
+        when(nodes.createNode(any(), any(), any())).then(invocation -> {
+            Node created = new Node();
+            created.setNodeId("id-of-" + ((Node) invocation.getArgument(1)).getName());
+            return created;
+        });
+
+        resource = new NodesBatchWriteEntityResource()
+        {
+            @Override
+            UserTransaction getActiveTransaction()
+            {
+                return txn;
+            }
+
+            @Override
+            void bindListener(TransactionListenerAdapter listener)
+            {
+                listeners.add(listener);
+            }
+        };
+        resource.setNodes(nodes);
+        resource.setTags(mock(Tags.class));
+        resource.afterPropertiesSet();
+    }
+
+    @Test
+    public void testRefsResolveToCreatedNodes() throws Exception
+    {
+        List<NodeOperation> operations = List.of(create("folder", "parent", "f"), create(null, "#f", "doc"));
+
+        resource.create(operations, parameters);
+
+        verify(nodes).createNode(eq("id-of-folder"), any(), eq(parameters));
+        assertEquals(NodeOperation.STATUS_OK, operations.get(0).getStatus());
+        assertEquals(NodeOperation.STATUS_OK, operations.get(1).getStatus());
+        assertEquals(Integer.valueOf(1), operations.get(1).getIndex());
+        verify(txn, never()).setRollbackOnly();
+    }
+
+    @Test
+    public void testFailureRollsBackTheWholeBatch() throws Exception
+    {
+        NodeOperation update = new NodeOperation();
+        update.setOp(NodeOperation.OP_UPDATE);
+        update.setNodeId("missing");
+        update.setNode(new Node());
+        when(nodes.updateNode(eq("missing"), any(), any())).thenThrow(new EntityNotFoundException("missing"));
+        List<NodeOperation> operations = List.of(create("a", "parent", null), update, create("b", "parent", null));
+
+        resource.create(operations, parameters);
+
+        verify(txn).setRollbackOnly();
+        assertEquals(NodeOperation.STATUS_ROLLED_BACK, operations.get(0).getStatus());
+        assertNull(operations.get(0).getNode());
+        assertEquals(NodeOperation.STATUS_FAILED, operations.get(1).getStatus());
+        assertEquals(Integer.valueOf(HttpServletResponse.SC_NOT_FOUND), operations.get(1).getStatusCode());
+        assertEquals(NodeOperation.STATUS_SKIPPED, operations.get(2).getStatus());
+        verify(nodes, times(1)).createNode(any(), any(), any());
+    }
+
+    @Test(expected = ConcurrencyFailureException.class)
+    public void testConcurrencyFailureIsRethrownForRetry()
+    {
+        when(nodes.createNode(any(), any(), any())).thenThrow(new ConcurrencyFailureException("conflict"));
+        resource.create(List.of(create("a", "parent", null)), parameters);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testDuplicateRefIsRejected()
+    {
+        resource.create(List.of(create("a", "parent", "x"), create("b", "parent", "x")), parameters);
+    }
+
+    @Test
+    public void testForwardRefIsRejectedBeforeAnyWrite()
+    {
+        try
+        {
+            resource.create(List.of(create("a", "#later", null), create("b", "parent", "later")), parameters);
+        }
+        catch (InvalidArgumentException e)
+        {
+            verify(nodes, never()).createNode(any(), any(), any());
+            return;
+        }
+        throw new AssertionError("forward ref accepted");
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testTooManyOperationsAreRejected()
+    {
+        resource.setMaxItems(1);
+        resource.create(new ArrayList<>(List.of(create("a", "parent", null), create("b", "parent", null))), parameters);
+    }
+
+    @Test
+    public void testChunksAreCommittedOneAfterTheOther()
+    {
+        resource.setChunkSize(1);
+        resource.beginChunks();
+        try
+        {
+            // the framework parses the body again for each chunk
+            List<NodeOperation> first = List.of(create("folder", "parent", "f"), create("doc", "#f", null));
+            resource.create(first, parameters);
+            assertEquals(NodeOperation.STATUS_OK, first.get(0).getStatus());
+            assertEquals(NodeOperation.STATUS_SKIPPED, first.get(1).getStatus());
+            assertFalse(resource.hasMoreChunks());
+            commit();
+            assertTrue(resource.hasMoreChunks());
+
+            List<NodeOperation> second = List.of(create("folder", "parent", "f"), create("doc", "#f", null));
+            resource.create(second, parameters);
+            commit();
+            assertFalse(resource.hasMoreChunks());
+
+            assertEquals(NodeOperation.STATUS_OK, second.get(0).getStatus());
+            assertEquals("id-of-folder", second.get(0).getNode().getNodeId());
+            assertEquals(NodeOperation.STATUS_OK, second.get(1).getStatus());
+            assertEquals("id-of-doc", second.get(1).getNode().getNodeId());
+            verify(nodes, times(1)).createNode(eq("parent"), any(), eq(parameters));
+            verify(nodes).createNode(eq("id-of-folder"), any(), eq(parameters));
+            verify(txn, never()).setRollbackOnly();
+        }
+        finally
+        {
+            resource.endChunks();
+        }
+    }
+
+    @Test
+    public void testFailureRollsBackOnlyItsChunk() throws Exception
+    {
+        when(nodes.updateNode(eq("missing"), any(), any())).thenThrow(new EntityNotFoundException("missing"));
+        resource.setChunkSize(2);
+        resource.beginChunks();
+        try
+        {
+            resource.create(batchFailingAtThirdOperation(), parameters);
+            commit();
+            assertTrue(resource.hasMoreChunks());
+
+            List<NodeOperation> operations = batchFailingAtThirdOperation();
+            resource.create(operations, parameters);
+
+            verify(txn).setRollbackOnly();
+            assertTrue(listeners.isEmpty());
+            assertFalse(resource.hasMoreChunks());
+            assertEquals(NodeOperation.STATUS_OK, operations.get(0).getStatus());
+            assertEquals("id-of-a", operations.get(0).getNode().getNodeId());
+            assertEquals(NodeOperation.STATUS_OK, operations.get(1).getStatus());
+            assertEquals(NodeOperation.STATUS_FAILED, operations.get(2).getStatus());
+            assertEquals(NodeOperation.STATUS_SKIPPED, operations.get(3).getStatus());
+        }
+        finally
+        {
+            resource.endChunks();
+        }
+    }
+
+    @Test
+    public void testChunkThatDidNotCommitIsAppliedAgain()
+    {
+        resource.setChunkSize(1);
+        resource.beginChunks();
+        try
+        {
+            resource.create(List.of(create("a", "parent", null), create("b", "parent", null)), parameters);
+            // rolled back: the listener is dropped with the transaction
+            listeners.clear();
+            assertFalse(resource.hasMoreChunks());
+
+            List<NodeOperation> operations = List.of(create("a", "parent", null), create("b", "parent", null));
+            resource.create(operations, parameters);
+
+            assertEquals(NodeOperation.STATUS_OK, operations.get(0).getStatus());
+            assertEquals(NodeOperation.STATUS_SKIPPED, operations.get(1).getStatus());
+            verify(nodes, times(2)).createNode(eq("parent"), any(), eq(parameters));
+        }
+        finally
+        {
+            resource.endChunks();
+        }
+    }
+
+    private void commit()
+    {
+        for (TransactionListenerAdapter listener : listeners)
+        {
+            listener.afterCommit();
+        }
+        listeners.clear();
+    }
+
+    private static List<NodeOperation> batchFailingAtThirdOperation()
+    {
+        NodeOperation update = new NodeOperation();
+        update.setOp(NodeOperation.OP_UPDATE);
+        update.setNodeId("missing");
+        update.setNode(new Node());
+        return List.of(create("a", "parent", null), create("b", "parent", null), update, create("c", "parent", null));
+    }
+
+    private static NodeOperation create(String name, String parentId, String ref)
+    {
+        Node node = new Node();
+        node.setName(name);
+        NodeOperation operation = new NodeOperation();
+        operation.setOp(NodeOperation.OP_CREATE);
+        operation.setParentId(parentId);
+        operation.setRef(ref);
+        operation.setNode(node);
+        return operation;
+    }
+}
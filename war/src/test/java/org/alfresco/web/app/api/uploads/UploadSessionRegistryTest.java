@@ -0,0 +1,316 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.api.uploads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.alfresco.rest.framework.core.exceptions.ConstraintViolatedException;
+import org.alfresco.rest.framework.core.exceptions.EntityNotFoundException;
+import org.alfresco.rest.framework.core.exceptions.InvalidArgumentException;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the upload sessions held by the {@link UploadSessionRegistry}: chunk writes, rewrites and concurrent writes of
+ * a chunk, the commit barrier, the caps and idle expiry.
+ * 
+ * @since 6.2.2
+ */
+public class UploadSessionRegistryTest
+{
+    private static final NodeRef PARENT = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "parent");
+
+    private UploadSessionRegistry registry;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp()
+    {
+        registry = new UploadSessionRegistry();
+        registry.setMaxSize(100);
+        registry.setMaxSessionsPerUser(2);
+        registry.init();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+        registry.destroy();
+    }
+
+    @Test
+    public void testChunksAreWrittenAtTheirOffset() throws Exception
+    {
+        PendingUpload session = registry.open("alice", PARENT, "file.bin", "cm:content", 10, 4L);
+
+        session.writeChunk(2, new ByteArrayInputStream(new byte[] {8, 9}));
+        session.writeChunk(0, new ByteArrayInputStream(new byte[] {0, 1, 2, 3}));
+        try
+        {
+            session.beginCommit();
+            fail("committed with a missing chunk");
+        }
+        catch (InvalidArgumentException e)
+        {
+            // chunk 1 missing
+        }
+        session.writeChunk(1, new ByteArrayInputStream(new byte[] {4, 5, 6, 7}));
+        session.beginCommit();
+
+        assertEquals("[0, 1, 2, 3, 4, 5, 6, 7, 8, 9]",
+                Arrays.toString(Files.readAllBytes(session.getFile().toPath())));
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testChunkOfWrongSizeIsRejected() throws Exception
+    {
+        PendingUpload session = registry.open("alice", PARENT, "file.bin", "cm:content", 10, 4L);
+        session.writeChunk(0, new ByteArrayInputStream(new byte[3]));
+    }
+
+    @Test
+    public void testChunkWrittenAgainIsNotReceivedUntilWritten() throws Exception
+    {
+        PendingUpload session = registry.open("alice", PARENT, "file.bin", "cm:content", 4, 4L);
+        session.writeChunk(0, new ByteArrayInputStream(new byte[4]));
+        assertEquals(Arrays.asList(0), session.toModel().getReceivedChunks());
+
+        try
+        {
+            session.writeChunk(0, new ByteArrayInputStream(new byte[5]));
+            fail("chunk of wrong size accepted");
+        }
+        catch (InvalidArgumentException e)
+        {
+            // expected
+        }
+
+        assertTrue(session.toModel().getReceivedChunks().isEmpty());
+        try
+        {
+            session.beginCommit();
+            fail("committed a chunk that was only partly written again");
+        }
+        catch (InvalidArgumentException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testConcurrentWriteOfTheSameChunkIsRefused() throws Exception
+    {
+        PendingUpload session = registry.open("alice", PARENT, "file.bin", "cm:content", 8, 4L);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> write = executor.submit(() -> {
+            session.writeChunk(0, new BlockingInputStream(4, started, release));
+            return null;
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        try
+        {
+            session.writeChunk(0, new ByteArrayInputStream(new byte[4]));
+            fail("chunk written twice at once");
+        }
+        catch (ConstraintViolatedException e)
+        {
+            // expected
+        }
+        session.writeChunk(1, new ByteArrayInputStream(new byte[4]));
+        assertEquals(Arrays.asList(1), session.toModel().getReceivedChunks());
+
+        release.countDown();
+        write.get(5, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList(0, 1), session.toModel().getReceivedChunks());
+    }
+
+    @Test
+    public void testCommitWaitsForChunkBeingWritten() throws Exception
+    {
+        PendingUpload session = registry.open("alice", PARENT, "file.bin", "cm:content", 4, 4L);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> write = executor.submit(() -> {
+            session.writeChunk(0, new BlockingInputStream(4, started, release));
+            return null;
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Future<?> commit = executor.submit(session::beginCommit);
+        try
+        {
+            commit.get(200, TimeUnit.MILLISECONDS);
+            fail("commit did not wait for the chunk being written");
+        }
+        catch (TimeoutException e)
+        {
+            // expected
+        }
+        release.countDown();
+        write.get(5, TimeUnit.SECONDS);
+        commit.get(5, TimeUnit.SECONDS);
+
+        try
+        {
+            session.writeChunk(0, new ByteArrayInputStream(new byte[4]));
+            fail("chunk accepted during commit");
+        }
+        catch (InvalidArgumentException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCapsAreEnforced()
+    {
+        try
+        {
+            registry.open("alice", PARENT, "big.bin", "cm:content", 101, null);
+            fail("size cap not enforced");
+        }
+        catch (InvalidArgumentException e)
+        {
+            // expected
+        }
+        registry.open("alice", PARENT, "1.bin", "cm:content", 10, null);
+        registry.open("alice", PARENT, "2.bin", "cm:content", 10, null);
+        try
+        {
+            registry.open("alice", PARENT, "3.bin", "cm:content", 10, null);
+            fail("per user cap not enforced");
+        }
+        catch (ConstraintViolatedException e)
+        {
+            // expected
+        }
+        registry.open("bob", PARENT, "1.bin", "cm:content", 10, null);
+    }
+
+    @Test
+    public void testIdleSessionsExpireUnlessBusy() throws Exception
+    {
+        registry.setIdleTimeoutMinutes(0);
+        PendingUpload idle = registry.open("alice", PARENT, "idle.bin", "cm:content", 4, 4L);
+        PendingUpload busy = registry.open("bob", PARENT, "busy.bin", "cm:content", 4, 4L);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> write = executor.submit(() -> {
+            busy.writeChunk(0, new BlockingInputStream(4, started, release));
+            return null;
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        File idleFile = idle.getFile();
+        Thread.sleep(5);
+
+        registry.expireIdleSessions();
+
+        assertFalse(idleFile.exists());
+        try
+        {
+            registry.get(idle.getId(), "alice");
+            fail("idle session not discarded");
+        }
+        catch (EntityNotFoundException e)
+        {
+            // expected
+        }
+        assertTrue(busy.getFile().exists());
+        release.countDown();
+        write.get(5, TimeUnit.SECONDS);
+        assertEquals(busy, registry.get(busy.getId(), "bob"));
+    }
+
+    @Test(expected = EntityNotFoundException.class)
+    public void testSessionsAreOwned()
+    {
+        PendingUpload session = registry.open("alice", PARENT, "file.bin", "cm:content", 10, null);
+        registry.get(session.getId(), "bob");
+    }
+
+    /**
+     * Returns <code>size</code> bytes, the last one only once released
+     */
+    private static class BlockingInputStream extends InputStream
+    {
+        private final CountDownLatch started;
+        private final CountDownLatch release;
+        private int remaining;
+
+        BlockingInputStream(int size, CountDownLatch started, CountDownLatch release)
+        {
+            this.remaining = size;
+            this.started = started;
+            this.release = release;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if (remaining == 0)
+            {
+                return -1;
+            }
+            if (remaining == 1)
+            {
+                started.countDown();
+                try
+                {
+                    release.await(5, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    throw new IOException(e);
+                }
+            }
+            remaining--;
+            return 0;
+        }
+    }
+}
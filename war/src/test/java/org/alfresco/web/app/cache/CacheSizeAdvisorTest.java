@@ -0,0 +1,184 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.alfresco.repo.cache.DefaultSimpleCache;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the recommendations of the {@link CacheSizeAdvisor} for caches that are too small, too large or too quiet
+ * to judge.
+ * 
+ * @since 6.2.2
+ */
+public class CacheSizeAdvisorTest
+{
+    private final Map<String, Integer> recommended = new HashMap<>();
+    private CacheMonitor cacheMonitor;
+    private CacheSizeAdvisor advisor;
+
+    @Before
+    public void setUp()
+    {
+        cacheMonitor = new CacheMonitor()
+        {
+            @Override
+            void setRecommendedMaxItems(String cacheName, int maxItems)
+            {
+                super.setRecommendedMaxItems(cacheName, maxItems);
+                recommended.put(cacheName, maxItems);
+            }
+        };
+        advisor = new CacheSizeAdvisor();
+        advisor.setCacheMonitor(cacheMonitor);
+        advisor.setMinLookups(100);
+    }
+
+    @Test
+    public void testEvictingCacheGrowsWhenApplied()
+    {
+        advisor.setApply(true);
+        MonitoredSimpleCache<String, String> cache = register("small", 100);
+        advisor.advise();
+
+        lookUp(cache, 300);
+        advisor.advise();
+
+        assertEquals(Integer.valueOf(150), recommended.get("small"));
+        assertEquals(150, cache.getMaxItems());
+    }
+
+    @Test
+    public void testGrowthIsCappedAtTheCeiling()
+    {
+        advisor.setMaxItemsCeiling(120);
+        MonitoredSimpleCache<String, String> cache = register("small", 100);
+        advisor.advise();
+
+        lookUp(cache, 300);
+        advisor.advise();
+
+        assertEquals(Integer.valueOf(120), recommended.get("small"));
+        // only recommended
+        assertEquals(100, cache.getMaxItems());
+    }
+
+    @Test
+    public void testOversizedCacheIsRecommendedToShrinkButNotResized()
+    {
+        advisor.setApply(true);
+        MonitoredSimpleCache<String, String> cache = register("large", 10000);
+        advisor.advise();
+
+        lookUp(cache, 1000);
+        advisor.advise();
+
+        assertEquals(Integer.valueOf(1250), recommended.get("large"));
+        assertEquals(10000, cache.getMaxItems());
+    }
+
+    @Test
+    public void testSmallCacheIsNeverGrownByTheShrinkFloor()
+    {
+        advisor.setApply(true);
+        advisor.setMinLookups(10);
+        MonitoredSimpleCache<String, String> cache = register("tiny", 80);
+        advisor.advise();
+
+        lookUp(cache, 30);
+        advisor.advise();
+
+        assertNull(recommended.get("tiny"));
+        assertEquals(80, cache.getMaxItems());
+    }
+
+    @Test
+    public void testShrinkIsCappedAtTheCeiling()
+    {
+        advisor.setApply(true);
+        advisor.setMaxItemsCeiling(500);
+        MonitoredSimpleCache<String, String> cache = register("large", 10000);
+        advisor.advise();
+
+        lookUp(cache, 1000);
+        advisor.advise();
+
+        assertEquals(Integer.valueOf(500), recommended.get("large"));
+        assertEquals(10000, cache.getMaxItems());
+    }
+
+    @Test
+    public void testQuietCacheIsLeftAlone()
+    {
+        MonitoredSimpleCache<String, String> cache = register("quiet", 100);
+        advisor.advise();
+
+        lookUp(cache, 50);
+        advisor.advise();
+
+        assertNull(recommended.get("quiet"));
+    }
+
+    @Test
+    public void testFirstRunOnlyObserves()
+    {
+        MonitoredSimpleCache<String, String> cache = register("small", 100);
+        lookUp(cache, 300);
+        advisor.advise();
+
+        assertNull(recommended.get("small"));
+    }
+
+    private MonitoredSimpleCache<String, String> register(String name, int maxItems)
+    {
+        MonitoredSimpleCache<String, String> cache = new MonitoredSimpleCache<>(name,
+                new DefaultSimpleCache<String, String>(maxItems, true, 0, 0, name));
+        cacheMonitor.register(cache);
+        return cache;
+    }
+
+    /**
+     * Looks up as many distinct keys, loading each on its miss
+     */
+    private static void lookUp(MonitoredSimpleCache<String, String> cache, int keys)
+    {
+        for (int i = 0; i < keys; i++)
+        {
+            String key = "k" + i;
+            if (cache.get(key) == null)
+            {
+                cache.put(key, "v");
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.alfresco.repo.cache.DefaultSimpleCache;
+import org.junit.Test;
+
+/**
+ * Tests the statistics of the {@link MonitoredSimpleCache} and that resizing it loses no writes.
+ * 
+ * @since 6.2.2
+ */
+public class MonitoredSimpleCacheTest
+{
+    private static MonitoredSimpleCache<String, String> newCache(int maxItems)
+    {
+        return new MonitoredSimpleCache<>("test", new DefaultSimpleCache<String, String>(maxItems, true, 0, 0, "test"));
+    }
+
+    @Test
+    public void testHitsMissesAndLoads()
+    {
+        MonitoredSimpleCache<String, String> cache = newCache(10);
+
+        assertNull(cache.get("a"));
+        cache.put("a", "A");
+        assertEquals("A", cache.get("a"));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getLoads());
+    }
+
+    @Test
+    public void testPutOfAnotherKeyIsNotALoad()
+    {
+        MonitoredSimpleCache<String, String> cache = newCache(10);
+
+        cache.get("a");
+        cache.put("b", "B");
+        cache.put("a", "A");
+
+        assertEquals(0, cache.getLoads());
+    }
+
+    @Test
+    public void testEvictionsAreDerivedFromSize()
+    {
+        MonitoredSimpleCache<String, String> cache = newCache(2);
+
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.put("c", "C");
+        cache.remove("c");
+
+        assertEquals(1, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testResizeKeepsEntries()
+    {
+        MonitoredSimpleCache<String, String> cache = newCache(2);
+        cache.put("a", "A");
+        cache.put("b", "B");
+
+        cache.resize(100);
+        for (int i = 0; i < 50; i++)
+        {
+            cache.put("k" + i, "v");
+        }
+
+        assertEquals(100, cache.getMaxItems());
+        assertEquals("A", cache.get("a"));
+        assertEquals("B", cache.get("b"));
+        assertEquals(52, cache.getSize());
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    public void testRemovesDuringResizeAreNotLost() throws Exception
+    {
+        int keys = 20000;
+        MonitoredSimpleCache<String, String> cache = newCache(keys);
+        for (int i = 0; i < keys; i++)
+        {
+            cache.put("k" + i, "v");
+        }
+
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread remover = new Thread(() -> {
+            try
+            {
+                started.countDown();
+                for (int i = 0; i < keys; i++)
+                {
+                    cache.remove("k" + i);
+                }
+            }
+            catch (Throwable e)
+            {
+                failure.set(e);
+            }
+        });
+        remover.start();
+        started.await();
+        for (int i = 0; i < 20; i++)
+        {
+            cache.resize(keys + i);
+        }
+        remover.join();
+
+        assertNull(failure.get());
+        for (int i = 0; i < keys; i++)
+        {
+            assertFalse("k" + i + " was removed", cache.contains("k" + i));
+        }
+        assertTrue(cache.getKeys().isEmpty());
+    }
+}
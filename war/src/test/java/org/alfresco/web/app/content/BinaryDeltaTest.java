@@ -0,0 +1,159 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.content;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Round trips of {@link BinaryDelta} on the edge cases of its block matching.
+ * 
+ * @since 6.2.2
+ */
+public class BinaryDeltaTest
+{
+    private final Random random = new Random(42);
+
+    private byte[] randomBytes(int length)
+    {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] roundTrip(byte[] base, byte[] target) throws IOException
+    {
+        byte[] delta = BinaryDelta.encode(base, target);
+        byte[] rebuilt = BinaryDelta.decode(base, delta);
+        assertArrayEquals(target, rebuilt);
+        return delta;
+    }
+
+    @Test
+    public void testEmpty() throws IOException
+    {
+        roundTrip(new byte[0], new byte[0]);
+        roundTrip(new byte[0], randomBytes(100));
+        roundTrip(randomBytes(100), new byte[0]);
+    }
+
+    @Test
+    public void testIdentical() throws IOException
+    {
+        byte[] content = randomBytes(64 * 1024);
+        byte[] delta = roundTrip(content, content.clone());
+        assertTrue("delta of " + delta.length + " bytes", delta.length < 100);
+    }
+
+    @Test
+    public void testFullyDifferent() throws IOException
+    {
+        roundTrip(randomBytes(10000), randomBytes(10000));
+        roundTrip(randomBytes(10), randomBytes(20000));
+    }
+
+    @Test
+    public void testSizesNotMultipleOfBlockSize() throws IOException
+    {
+        for (int length : new int[] {1, BinaryDelta.BLOCK_SIZE - 1, BinaryDelta.BLOCK_SIZE, BinaryDelta.BLOCK_SIZE + 1,
+                    3 * BinaryDelta.BLOCK_SIZE + 7, 4097})
+        {
+            byte[] base = randomBytes(length);
+            roundTrip(base, base.clone());
+            byte[] target = Arrays.copyOf(base, length + 5);
+            target[length / 2] ^= 1;
+            roundTrip(base, target);
+            roundTrip(base, Arrays.copyOfRange(base, length / 3, length));
+        }
+    }
+
+    @Test
+    public void testLargeEditedContent() throws IOException
+    {
+        byte[] base = randomBytes(4 * 1024 * 1024 + 13);
+        byte[] target = new byte[base.length + 1000];
+        // Insert, delete and change bytes all over the content
+        int from = 0;
+        int to = 0;
+        while (from < base.length)
+        {
+            int run = Math.min(base.length - from, 1000 + random.nextInt(100000));
+            System.arraycopy(base, from, target, to, Math.min(run, target.length - to));
+            from += run + random.nextInt(50);
+            to += Math.min(run, target.length - to);
+            if (to < target.length)
+            {
+                target[to++] = (byte) random.nextInt();
+            }
+        }
+        byte[] delta = roundTrip(base, Arrays.copyOf(target, to));
+        assertTrue("delta of " + delta.length + " bytes", delta.length < base.length / 100);
+
+        // Moved blocks are copied from wherever they are in the base
+        byte[] swapped = new byte[base.length];
+        int half = base.length / 2;
+        System.arraycopy(base, half, swapped, 0, base.length - half);
+        System.arraycopy(base, 0, swapped, base.length - half, half);
+        delta = roundTrip(base, swapped);
+        assertTrue("delta of " + delta.length + " bytes", delta.length < base.length / 100);
+    }
+
+    @Test
+    public void testText() throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++)
+        {
+            sb.append("Line ").append(i).append(" of the document\n");
+        }
+        byte[] base = sb.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] target = sb.insert(5000, "An inserted paragraph.\n").toString().getBytes(StandardCharsets.UTF_8);
+        byte[] delta = roundTrip(base, target);
+        assertTrue("delta of " + delta.length + " bytes", delta.length < 200);
+    }
+
+    @Test
+    public void testNotADelta()
+    {
+        try
+        {
+            BinaryDelta.decode(new byte[0], randomBytes(100));
+            fail("Decoded random bytes");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+}
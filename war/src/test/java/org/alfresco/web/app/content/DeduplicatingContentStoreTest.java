@@ -0,0 +1,298 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.content;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.repo.content.MimetypeServiceAware;
+import org.alfresco.repo.domain.contentdata.ContentDataDAO;
+import org.alfresco.repo.domain.contentdata.ContentUrlEntity;
+import org.alfresco.repo.lock.JobLockService;
+import org.alfresco.repo.lock.LockAcquisitionException;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.attributes.AttributeService.AttributeQueryCallback;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.service.cmr.repository.MimetypeService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Tests the hash rows kept by the {@link DeduplicatingContentStore}: reuse of identical content, removal of the rows
+ * when content is deleted and the protection of content that was just reused.
+ * 
+ * @since 6.2.2
+ */
+public class DeduplicatingContentStoreTest
+{
+    private static final byte[] HASH = {1, 2, 3};
+    private static final byte[] OTHER_HASH = {4, 5, 6};
+
+    private final Map<List<Serializable>, Serializable> attributes = new ConcurrentHashMap<>();
+    private final Set<String> contents = new HashSet<>();
+    private final List<String> deletedAfterCommit = new ArrayList<>();
+    private ContentStore delegate;
+    private JobLockService jobLockService;
+    private ContentDataDAO contentDataDAO;
+    private DeduplicatingContentStore store;
+
+    @Before
+    public void setUp() throws Throwable
+    {
+        delegate = mock(ContentStore.class);
+        when(delegate.exists(anyString())).thenAnswer(inv -> contents.contains(inv.getArgument(0)));
+        when(delegate.delete(anyString())).thenAnswer(inv -> contents.remove(inv.getArgument(0)));
+
+        // Varargs keys, so the attributes are answered by method name
+        AttributeService attributeService = mock(AttributeService.class, inv ->
+        {
+            Object[] args = inv.getArguments();
+            switch (inv.getMethod().getName())
+            {
+                case "getAttribute":
+                    return attributes.get(key(args, 0));
+                case "setAttribute":
+                    attributes.put(key(args, 1), (Serializable) args[0]);
+                    return null;
+                case "removeAttribute":
+                    attributes.remove(key(args, 0));
+                    return null;
+                case "getAttributes":
+                    List<Serializable> prefix = key(args, 1);
+                    for (Map.Entry<List<Serializable>, Serializable> entry : attributes.entrySet())
+                    {
+                        List<Serializable> keys = entry.getKey();
+                        if (keys.size() > prefix.size() && keys.subList(0, prefix.size()).equals(prefix))
+                        {
+                            ((AttributeQueryCallback) args[0]).handleAttribute(0L, entry.getValue(),
+                                        keys.toArray(new Serializable[0]));
+                        }
+                    }
+                    return null;
+                default:
+                    return null;
+            }
+        });
+
+        RetryingTransactionHelper txnHelper = mock(RetryingTransactionHelper.class);
+        when(txnHelper.doInTransaction(any(), anyBoolean(), anyBoolean()))
+                    .thenAnswer(inv -> ((RetryingTransactionCallback<?>) inv.getArgument(0)).execute());
+        TransactionService transactionService = mock(TransactionService.class);
+        when(transactionService.getRetryingTransactionHelper()).thenReturn(txnHelper);
+
+        jobLockService = mock(JobLockService.class);
+        when(jobLockService.getLock(any(QName.class), anyLong(), anyLong(), anyInt())).thenReturn("token");
+
+        contentDataDAO = mock(ContentDataDAO.class);
+
+        store = new DeduplicatingContentStore(delegate, () -> attributeService, () -> transactionService,
+                    () -> jobLockService, () -> contentDataDAO, new ContentDeduplicationStats(), "SHA-256", 10)
+        {
+            @Override
+            boolean isReadWriteTransaction()
+            {
+                return true;
+            }
+
+            @Override
+            void deleteAfterCommit(String duplicateUrl)
+            {
+                deletedAfterCommit.add(duplicateUrl);
+            }
+        };
+    }
+
+    private static List<Serializable> key(Object[] args, int from)
+    {
+        List<Serializable> key = new ArrayList<>();
+        for (int i = from; i < args.length; i++)
+        {
+            key.add((Serializable) args[i]);
+        }
+        return key;
+    }
+
+    private static List<Serializable> deferred(String contentUrl)
+    {
+        return Arrays.asList(DeduplicatingContentStore.ATTR_CONTENT_DEFERRED, contentUrl);
+    }
+
+    private String write(String contentUrl, byte[] hash)
+    {
+        contents.add(contentUrl);
+        return store.deduplicate(contentUrl, 100, hash, 0);
+    }
+
+    @Test
+    public void testIdenticalContentIsReused()
+    {
+        assertNull(write("store://a", HASH));
+        assertEquals("store://a", write("store://b", HASH));
+        assertEquals(Arrays.asList("store://b"), deletedAfterCommit);
+        assertNull(write("store://c", OTHER_HASH));
+        assertTrue(attributes.containsKey(Arrays.asList(DeduplicatingContentStore.ATTR_CONTENT_REUSED, "store://a")));
+    }
+
+    @Test
+    public void testSmallContentIsKept()
+    {
+        contents.add("store://small");
+        assertNull(store.deduplicate("store://small", 5, HASH, 0));
+        assertTrue(attributes.isEmpty());
+    }
+
+    @Test
+    public void testDeleteRemovesHashRows()
+    {
+        write("store://a", HASH);
+        assertFalse(attributes.isEmpty());
+
+        assertTrue(store.delete("store://a"));
+        assertTrue(attributes.isEmpty());
+        assertFalse(contents.contains("store://a"));
+
+        // Identical content written later is kept rather than pointed at the deleted content
+        assertNull(write("store://b", HASH));
+    }
+
+    @Test
+    public void testRecentlyReusedContentIsNotDeleted()
+    {
+        write("store://a", HASH);
+        write("store://b", HASH);
+
+        assertFalse(store.delete("store://a"));
+        assertTrue(contents.contains("store://a"));
+        assertEquals("store://a", write("store://c", HASH));
+
+        // Once the protection period is over the content can go
+        store.setReuseProtectMillis(-1);
+        assertTrue(store.delete("store://a"));
+        assertFalse(contents.contains("store://a"));
+        assertTrue(attributes.isEmpty());
+    }
+
+    @Test
+    public void testRefusedDeletionIsPurgedOnceTheContentIsNoLongerProtected()
+    {
+        write("store://a", HASH);
+        write("store://b", HASH);
+
+        // The cleaner drops its row for the URL whatever the answer
+        assertFalse(store.delete("store://a"));
+        assertTrue(attributes.containsKey(deferred("store://a")));
+
+        store.purgeDeferred();
+        assertTrue(contents.contains("store://a"));
+
+        store.setReuseProtectMillis(-1);
+        store.purgeDeferred();
+        assertFalse(contents.contains("store://a"));
+        assertTrue(attributes.isEmpty());
+    }
+
+    @Test
+    public void testDeferredContentReferencedAgainIsLeftToTheRepository()
+    {
+        write("store://a", HASH);
+        write("store://b", HASH);
+        assertFalse(store.delete("store://a"));
+
+        when(contentDataDAO.getContentUrl("store://a")).thenReturn(mock(ContentUrlEntity.class));
+        store.setReuseProtectMillis(-1);
+        store.purgeDeferred();
+
+        assertTrue(contents.contains("store://a"));
+        assertFalse(attributes.containsKey(deferred("store://a")));
+        assertTrue(attributes.containsKey(Arrays.asList(DeduplicatingContentStore.ATTR_CONTENT_URL, "store://a")));
+    }
+
+    @Test
+    public void testContentRemovedBehindTheStoreIsReplaced()
+    {
+        write("store://a", HASH);
+        contents.remove("store://a");
+
+        assertNull(write("store://b", HASH));
+        assertEquals("store://b", attributes.get(Arrays.asList(DeduplicatingContentStore.ATTR_CONTENT_HASH, "010203", 100L)));
+        assertFalse(attributes.containsKey(Arrays.asList(DeduplicatingContentStore.ATTR_CONTENT_URL, "store://a")));
+    }
+
+    @Test
+    public void testDeleteOfUnregisteredContent()
+    {
+        contents.add("store://plain");
+        assertTrue(store.delete("store://plain"));
+        assertFalse(contents.contains("store://plain"));
+    }
+
+    @Test
+    public void testContentIsKeptWithoutTheLock()
+    {
+        write("store://a", HASH);
+        when(jobLockService.getLock(any(QName.class), anyLong(), anyLong(), anyInt()))
+                    .thenThrow(LockAcquisitionException.class);
+
+        assertNull(write("store://b", HASH));
+        assertTrue(deletedAfterCommit.isEmpty());
+        assertFalse(store.delete("store://a"));
+        assertTrue(contents.contains("store://a"));
+    }
+
+    @Test
+    public void testWriterPassesTheMimetypeServiceOn()
+    {
+        ContentWriter writer = mock(ContentWriter.class, Mockito.withSettings().extraInterfaces(MimetypeServiceAware.class));
+        MimetypeService mimetypeService = mock(MimetypeService.class);
+
+        new DeduplicatingContentWriter(store, writer, null).setMimetypeService(mimetypeService);
+        Mockito.verify((MimetypeServiceAware) writer).setMimetypeService(mimetypeService);
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.content;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.attributes.AttributeService.AttributeQueryCallback;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.transaction.TransactionService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileCopyUtils;
+
+/**
+ * Tests that versions re-encoded by the {@link VersionDeltaContentStore} read back byte for byte, and that bases are
+ * kept until the deltas on them are deleted.
+ * 
+ * @since 6.2.2
+ */
+public class VersionDeltaContentStoreTest
+{
+    private static final NodeRef NODE = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "document");
+
+    private final Map<String, byte[]> contents = new ConcurrentHashMap<>();
+    private final Map<List<Serializable>, Serializable> attributes = new ConcurrentHashMap<>();
+    private final AtomicInteger nextUrl = new AtomicInteger();
+    private String currentUrl;
+    private ContentStore delegate;
+    private AttributeService attributeService;
+    private NodeService nodeService;
+    private TransactionService transactionService;
+    private VersionDeltaContentStore store;
+
+    @Before
+    public void setUp() throws Throwable
+    {
+        delegate = mock(ContentStore.class);
+        when(delegate.exists(anyString())).thenAnswer(inv -> contents.containsKey(inv.getArgument(0)));
+        when(delegate.delete(anyString())).thenAnswer(inv -> contents.remove(inv.getArgument(0)) != null);
+        when(delegate.getReader(anyString())).thenAnswer(inv -> reader(inv.getArgument(0)));
+        when(delegate.getWriter(any())).thenAnswer(inv -> writer("store://delta" + nextUrl.incrementAndGet()));
+
+        // Varargs keys, so the attributes are answered by method name
+        attributeService = mock(AttributeService.class, inv ->
+        {
+            Object[] args = inv.getArguments();
+            switch (inv.getMethod().getName())
+            {
+                case "getAttribute":
+                    return attributes.get(key(args, 0));
+                case "setAttribute":
+                    attributes.put(key(args, 1), (Serializable) args[0]);
+                    return null;
+                case "removeAttribute":
+                    attributes.remove(key(args, 0));
+                    return null;
+                case "getAttributes":
+                    AttributeQueryCallback callback = (AttributeQueryCallback) args[0];
+                    List<Serializable> prefix = key(args, 1);
+                    for (Map.Entry<List<Serializable>, Serializable> entry : attributes.entrySet())
+                    {
+                        List<Serializable> keys = entry.getKey();
+                        if (keys.size() > prefix.size() && keys.subList(0, prefix.size()).equals(prefix))
+                        {
+                            callback.handleAttribute(0L, entry.getValue(), keys.toArray(new Serializable[0]));
+                        }
+                    }
+                    return null;
+                default:
+                    return null;
+            }
+        });
+
+        nodeService = mock(NodeService.class);
+        when(nodeService.exists(NODE)).thenReturn(true);
+        when(nodeService.hasAspect(NODE, ContentModel.ASPECT_VERSIONABLE)).thenReturn(true);
+        when(nodeService.getProperty(NODE, ContentModel.PROP_CONTENT))
+                    .thenAnswer(inv -> new ContentData(currentUrl, "text/plain", contents.get(currentUrl).length, "UTF-8"));
+
+        RetryingTransactionHelper txnHelper = mock(RetryingTransactionHelper.class);
+        when(txnHelper.doInTransaction(any(), anyBoolean(), anyBoolean()))
+                    .thenAnswer(inv -> ((RetryingTransactionCallback<?>) inv.getArgument(0)).execute());
+        transactionService = mock(TransactionService.class);
+        when(transactionService.getRetryingTransactionHelper()).thenReturn(txnHelper);
+
+        store = newStore();
+    }
+
+    /**
+     * A store over the same content and rows, as another server would have
+     */
+    private VersionDeltaContentStore newStore()
+    {
+        VersionDeltaContentStore store = new VersionDeltaContentStore(delegate, () -> attributeService,
+                    () -> nodeService, () -> transactionService);
+        store.setSnapshotInterval(10);
+        return store;
+    }
+
+    /**
+     * Deletes the full content of the encoded versions, as the purge job does once their retention is over
+     */
+    private void purge(VersionDeltaContentStore store)
+    {
+        store.setSupersededRetentionMillis(-1);
+        store.purgeSuperseded();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        store.destroy();
+    }
+
+    private static List<Serializable> key(Object[] args, int from)
+    {
+        List<Serializable> key = new ArrayList<>();
+        for (int i = from; i < args.length; i++)
+        {
+            key.add((Serializable) args[i]);
+        }
+        return key;
+    }
+
+    private ContentReader reader(String contentUrl)
+    {
+        ContentReader reader = mock(ContentReader.class);
+        when(reader.getContentInputStream()).thenAnswer(inv -> new ByteArrayInputStream(contents.get(contentUrl)));
+        return reader;
+    }
+
+    private ContentWriter writer(String contentUrl)
+    {
+        ContentWriter writer = mock(ContentWriter.class);
+        when(writer.getContentUrl()).thenReturn(contentUrl);
+        doAnswer(inv ->
+        {
+            contents.put(contentUrl, FileCopyUtils.copyToByteArray((InputStream) inv.getArgument(0)));
+            return null;
+        }).when(writer).putContent(any(InputStream.class));
+        return writer;
+    }
+
+    private static byte[] version(int number)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+        {
+            sb.append("Paragraph ").append(i).append(i % 500 == number ? " was edited in this version" : "").append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Replaces the content of the node with the next version and encodes the replaced one
+     */
+    private void replace(String newUrl, byte[] content)
+    {
+        String replacedUrl = currentUrl;
+        contents.put(newUrl, content);
+        currentUrl = newUrl;
+        if (replacedUrl != null)
+        {
+            store.encode(NODE, ContentModel.PROP_CONTENT, replacedUrl, newUrl);
+        }
+    }
+
+    private byte[] read(String contentUrl) throws IOException
+    {
+        return FileCopyUtils.copyToByteArray(store.getReader(contentUrl).getContentInputStream());
+    }
+
+    @Test
+    public void testVersionsReadBackIdentical() throws IOException
+    {
+        replace("store://v1", version(1));
+        replace("store://v2", version(2));
+        replace("store://v3", version(3));
+
+        // The older versions are now deltas, the full content is only gone from the underlying store once purged
+        assertTrue(contents.containsKey("store://v1"));
+        purge(store);
+        assertFalse(contents.containsKey("store://v1"));
+        assertFalse(contents.containsKey("store://v2"));
+        assertTrue(store.exists("store://v1"));
+        assertArrayEquals(version(1), read("store://v1"));
+        assertArrayEquals(version(2), read("store://v2"));
+        assertArrayEquals(version(3), read("store://v3"));
+        // From the rebuilt cache
+        assertArrayEquals(version(1), read("store://v1"));
+    }
+
+    @Test
+    public void testBaseKeptUntilItsDeltasAreDeleted() throws IOException
+    {
+        replace("store://v1", version(1));
+        replace("store://v2", version(2));
+        replace("store://v3", version(3));
+
+        // v2 is the base of v1
+        assertTrue(store.delete("store://v2"));
+        assertFalse(store.exists("store://v2"));
+        assertArrayEquals(version(1), read("store://v1"));
+
+        assertTrue(store.delete("store://v1"));
+        assertFalse(store.exists("store://v1"));
+        assertFalse(store.exists("store://v2"));
+        purge(store);
+        // Only the current content is left
+        assertTrue(contents.containsKey("store://v3"));
+        assertEquals(1, contents.size());
+        assertArrayEquals(version(3), read("store://v3"));
+    }
+
+    @Test
+    public void testReaderOpenedBeforeEncodingStillReads() throws IOException
+    {
+        replace("store://v1", version(1));
+        ContentReader reader = store.getReader("store://v1");
+        replace("store://v2", version(2));
+
+        assertArrayEquals(version(1), FileCopyUtils.copyToByteArray(reader.getContentInputStream()));
+    }
+
+    @Test
+    public void testDeltasEncodedByAnotherServer() throws Exception
+    {
+        VersionDeltaContentStore other = newStore();
+        try
+        {
+            // Loaded before the versions are encoded
+            assertFalse(other.exists("store://v1"));
+            replace("store://v1", version(1));
+            replace("store://v2", version(2));
+            replace("store://v3", version(3));
+            purge(store);
+
+            assertTrue(other.exists("store://v1"));
+            assertArrayEquals(version(1),
+                        FileCopyUtils.copyToByteArray(other.getReader("store://v1").getContentInputStream()));
+
+            // v2 is the base of v1, which the other server learns from the rows
+            assertTrue(other.delete("store://v2"));
+            assertFalse(other.exists("store://v2"));
+            assertArrayEquals(version(1), read("store://v1"));
+
+            // v2 is released by whichever server deletes v1
+            assertTrue(store.delete("store://v1"));
+            assertFalse(store.exists("store://v2"));
+            assertEquals(1, contents.size());
+            // Only the chain length of the node is left
+            assertTrue(attributes.keySet().stream()
+                        .allMatch(key -> VersionDeltaContentStore.ATTR_CHAIN.equals(key.get(0))));
+        }
+        finally
+        {
+            other.destroy();
+        }
+    }
+
+    @Test
+    public void testMappingIsReloaded() throws Exception
+    {
+        replace("store://v1", version(1));
+        replace("store://v2", version(2));
+        store.destroy();
+
+        ContentStore delegate = mock(ContentStore.class);
+        when(delegate.exists(anyString())).thenAnswer(inv -> contents.containsKey(inv.getArgument(0)));
+        when(delegate.getReader(anyString())).thenAnswer(inv -> reader(inv.getArgument(0)));
+        RetryingTransactionHelper txnHelper = mock(RetryingTransactionHelper.class);
+        when(txnHelper.doInTransaction(any(), anyBoolean(), anyBoolean()))
+                    .thenAnswer(inv -> ((RetryingTransactionCallback<?>) inv.getArgument(0)).execute());
+        TransactionService transactionService = mock(TransactionService.class);
+        when(transactionService.getRetryingTransactionHelper()).thenReturn(txnHelper);
+        attributeService = mock(AttributeService.class, inv ->
+        {
+            if ("getAttributes".equals(inv.getMethod().getName()))
+            {
+                AttributeQueryCallback callback = (AttributeQueryCallback) inv.getArguments()[0];
+                for (Map.Entry<List<Serializable>, Serializable> entry : attributes.entrySet())
+                {
+                    if (entry.getKey().get(0).equals(inv.getArguments()[1]))
+                    {
+                        callback.handleAttribute(0L, entry.getValue(), entry.getKey().toArray(new Serializable[0]));
+                    }
+                }
+            }
+            return null;
+        });
+
+        store = new VersionDeltaContentStore(delegate, () -> attributeService, () -> mock(NodeService.class),
+                    () -> transactionService);
+        assertTrue(store.exists("store://v1"));
+        assertArrayEquals(version(1), read("store://v1"));
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.download;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletResponse;
+
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.download.DownloadService;
+import org.alfresco.service.cmr.download.DownloadStatus;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the {@link DownloadProgressPublisher} writes status events, and that a subscriber whose connection
+ * does not take any more data neither holds up the others nor stays subscribed.
+ * 
+ * @since 6.2.2
+ */
+public class DownloadProgressPublisherTest
+{
+    private static final NodeRef DOWNLOAD = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "download1");
+
+    private DownloadProgressPublisher publisher;
+    private DownloadService downloadService;
+    private final CountDownLatch unblock = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Throwable
+    {
+        RetryingTransactionHelper txnHelper = mock(RetryingTransactionHelper.class);
+        when(txnHelper.doInTransaction(any(), anyBoolean(), anyBoolean()))
+                .thenAnswer(invocation -> ((RetryingTransactionCallback<?>) invocation.getArgument(0)).execute());
+        NodeService nodeService = mock(NodeService.class);
+        when(nodeService.exists(DOWNLOAD)).thenReturn(true);
+        downloadService = mock(DownloadService.class);
+        status(DownloadStatus.Status.IN_PROGRESS, 10);
+
+        publisher = new DownloadProgressPublisher();
+        publisher.setEnabled(true);
+        // published by the test
+        publisher.setPollInterval(3600000L);
+        publisher.setWriteTimeout(100L);
+        publisher.setWriterThreads(2);
+        publisher.setDownloadService(downloadService);
+        publisher.setNodeService(nodeService);
+        publisher.setTransactionHelper(txnHelper);
+        publisher.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown()
+    {
+        unblock.countDown();
+        publisher.destroy();
+    }
+
+    @Test
+    public void testStatusEventsUntilDone() throws Exception
+    {
+        StringWriter events = new StringWriter();
+        AsyncContext client = subscribe(new PrintWriter(events));
+
+        publisher.publish();
+        await(() -> events.toString().contains("\"bytesAdded\":10"));
+        status(DownloadStatus.Status.DONE, 100);
+        publisher.publish();
+        await(() -> events.toString().contains("\"status\":\"DONE\""));
+
+        verify(client, org.mockito.Mockito.timeout(1000)).complete();
+        assertTrue(events.toString().startsWith("retry: 2000\n\nevent: status\ndata: {\"id\":\"download1\""));
+    }
+
+    @Test
+    public void testSlowSubscriberIsDroppedWithoutHoldingUpTheOthers() throws Exception
+    {
+        AsyncContext slow = subscribe(new PrintWriter(new BlockingWriter()));
+        StringWriter events = new StringWriter();
+        AsyncContext fast = subscribe(new PrintWriter(events));
+
+        publisher.publish();
+        await(() -> events.toString().contains("\"bytesAdded\":10"));
+        status(DownloadStatus.Status.IN_PROGRESS, 20);
+        publisher.publish();
+        await(() -> events.toString().contains("\"bytesAdded\":20"));
+        assertEquals(2, publisher.getSubscriberCount());
+
+        Thread.sleep(150L);
+        publisher.publish();
+
+        verify(slow).complete();
+        verify(fast, never()).complete();
+        assertEquals(1, publisher.getSubscriberCount());
+    }
+
+    private void status(DownloadStatus.Status status, long done)
+    {
+        when(downloadService.getDownloadStatus(DOWNLOAD)).thenReturn(new DownloadStatus(status, done, 100, 1, 10));
+    }
+
+    private AsyncContext subscribe(PrintWriter writer) throws IOException
+    {
+        ServletResponse response = mock(ServletResponse.class);
+        when(response.getWriter()).thenReturn(writer);
+        AsyncContext asyncContext = mock(AsyncContext.class);
+        when(asyncContext.getResponse()).thenReturn(response);
+        assertTrue(publisher.subscribe(DOWNLOAD, asyncContext));
+        return asyncContext;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!condition.getAsBoolean())
+        {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5L);
+        }
+    }
+
+    /**
+     * A client that has stopped reading: the subscription is written, after that every write blocks
+     */
+    private final class BlockingWriter extends Writer
+    {
+        private boolean subscribed;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException
+        {
+            if (!subscribed)
+            {
+                subscribed = true;
+                return;
+            }
+            try
+            {
+                unblock.await();
+            }
+            catch (InterruptedException e)
+            {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void flush()
+        {
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.download;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.download.DownloadStorage;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.download.DownloadRequest;
+import org.alfresco.service.cmr.download.DownloadStatus;
+import org.alfresco.service.cmr.model.FileFolderService;
+import org.alfresco.service.cmr.model.FileInfo;
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentService;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.web.app.metrics.MetricsRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.BeanFactory;
+
+/**
+ * Tests the archives built by the {@link ParallelDownloadArchiver}: their entries and content, that files are read
+ * ahead of the writer by several threads while the entries keep the order of the listing, and failed reads.
+ * 
+ * @since 6.2.2
+ */
+public class ParallelDownloadArchiverTest
+{
+    private static final NodeRef DOWNLOAD = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "download1");
+    private static final NodeRef FOLDER = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "folder1");
+    private static final String OWNER = "owner1";
+
+    private BeanFactory beanFactory;
+    private FileFolderService fileFolderService;
+    private ContentService contentService;
+    private final List<DownloadStatus.Status> statuses = new CopyOnWriteArrayList<>();
+    private final List<String> users = new CopyOnWriteArrayList<>();
+    private byte[] archive;
+    private final List<ParallelDownloadArchiver> archivers = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Throwable
+    {
+        RetryingTransactionHelper txnHelper = mock(RetryingTransactionHelper.class);
+        when(txnHelper.doInTransaction(any(), anyBoolean(), anyBoolean()))
+                .thenAnswer(invocation -> ((RetryingTransactionCallback<?>) invocation.getArgument(0)).execute());
+        DownloadRequest request = mock(DownloadRequest.class);
+        when(request.getRequetedNodeRefs()).thenReturn(new NodeRef[] {FOLDER});
+        when(request.getOwner()).thenReturn(OWNER);
+        DownloadStorage downloadStorage = mock(DownloadStorage.class);
+        when(downloadStorage.getDownloadRequest(DOWNLOAD)).thenReturn(request);
+        doAnswer(invocation -> statuses.add(((DownloadStatus) invocation.getArgument(1)).getStatus()))
+                .when(downloadStorage).updateStatus(eq(DOWNLOAD), any(DownloadStatus.class));
+
+        fileFolderService = mock(FileFolderService.class);
+        FileInfo folder = fileInfo(FOLDER, "docs", true);
+        when(fileFolderService.getFileInfo(FOLDER)).thenAnswer(invocation -> {
+            users.add(AuthenticationUtil.getRunAsUser());
+            return folder;
+        });
+        contentService = mock(ContentService.class);
+        ContentWriter writer = mock(ContentWriter.class);
+        doAnswer(invocation -> archive = Files.readAllBytes(((File) invocation.getArgument(0)).toPath()))
+                .when(writer).putContent(any(File.class));
+        when(contentService.getWriter(DOWNLOAD, ContentModel.PROP_CONTENT, true)).thenReturn(writer);
+
+        beanFactory = mock(BeanFactory.class);
+        when(beanFactory.getBean("downloadStorage", DownloadStorage.class)).thenReturn(downloadStorage);
+        when(beanFactory.getBean("retryingTransactionHelper", RetryingTransactionHelper.class)).thenReturn(txnHelper);
+        when(beanFactory.getBean("FileFolderService", FileFolderService.class)).thenReturn(fileFolderService);
+        when(beanFactory.getBean("ContentService", ContentService.class)).thenReturn(contentService);
+        when(beanFactory.getBean("contentService", ContentService.class)).thenReturn(contentService);
+        when(beanFactory.getBean("metricsRegistry", MetricsRegistry.class)).thenReturn(new MetricsRegistry());
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (ParallelDownloadArchiver archiver : archivers)
+        {
+            archiver.shutdown();
+        }
+    }
+
+    private ParallelDownloadArchiver newArchiver(int threads, int readAhead)
+    {
+        ParallelDownloadArchiver archiver = new ParallelDownloadArchiver(beanFactory, threads, readAhead, 1024, -1,
+                60000);
+        archivers.add(archiver);
+        return archiver;
+    }
+
+    @Test
+    public void testArchiveIsBuiltAsTheOwner() throws IOException
+    {
+        byte[] jpeg = "not really a jpeg".getBytes(StandardCharsets.UTF_8);
+        byte[] text = "hello hello hello hello".getBytes(StandardCharsets.UTF_8);
+        byte[] video = new byte[4096];
+        children(file("a.txt", text, "text/plain"), file("b.jpg", jpeg, "image/jpeg"),
+                file("c.mp4", video, "video/mp4"));
+        newArchiver(2, 4).archive(DOWNLOAD);
+
+        assertEquals(List.of(OWNER), users);
+        assertEquals(DownloadStatus.Status.DONE, statuses.get(statuses.size() - 1));
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive)))
+        {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null)
+            {
+                names.add(entry.getName());
+                byte[] content = zip.readAllBytes();
+                if (entry.getName().endsWith(".jpg") || entry.getName().endsWith(".mp4"))
+                {
+                    assertEquals(ZipEntry.STORED, entry.getMethod());
+                    CRC32 crc = new CRC32();
+                    crc.update(content);
+                    assertEquals(crc.getValue(), entry.getCrc());
+                }
+                else if (entry.getName().endsWith(".txt"))
+                {
+                    assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+                    assertEquals(new String(text, StandardCharsets.UTF_8), new String(content, StandardCharsets.UTF_8));
+                }
+            }
+        }
+        assertEquals(List.of("docs/", "docs/a.txt", "docs/b.jpg", "docs/c.mp4"), names);
+    }
+
+    @Test
+    public void testFailedReadEndsTheDownload()
+    {
+        FileInfo broken = file("broken.txt", new byte[10], "text/plain");
+        ContentReader reader = contentService.getReader(broken.getNodeRef(), ContentModel.PROP_CONTENT);
+        when(reader.getContentInputStream()).thenThrow(new ContentIOException("Content store unavailable"));
+        children(file("a.txt", new byte[10], "text/plain"), broken);
+
+        try
+        {
+            newArchiver(2, 4).archive(DOWNLOAD);
+            fail("The archive cannot be built");
+        }
+        catch (ContentIOException e)
+        {
+            // expected
+        }
+
+        assertEquals(DownloadStatus.Status.CANCELLED, statuses.get(statuses.size() - 1));
+    }
+
+    @Test
+    public void testFilesAreReadAheadAndWrittenInOrder() throws IOException
+    {
+        // the first file can only be read once the read of the fourth has started, so the reads must overlap
+        CountDownLatch fourthRead = new CountDownLatch(1);
+        FileInfo[] files = new FileInfo[8];
+        for (int i = 0; i < files.length; i++)
+        {
+            byte[] content = ("content of file " + i).getBytes(StandardCharsets.UTF_8);
+            Action onRead = i == 3 ? fourthRead::countDown : null;
+            if (i == 0)
+            {
+                onRead = () -> {
+                    if (!fourthRead.await(10, TimeUnit.SECONDS))
+                    {
+                        throw new ContentIOException("The files are read one at a time");
+                    }
+                };
+            }
+            files[i] = file("file" + i + ".txt", content, "text/plain", onRead);
+        }
+        children(files);
+
+        newArchiver(4, 4).archive(DOWNLOAD);
+
+        assertEquals(DownloadStatus.Status.DONE, statuses.get(statuses.size() - 1));
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive)))
+        {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null)
+            {
+                names.add(entry.getName());
+                if (!entry.isDirectory())
+                {
+                    String i = entry.getName().substring("docs/file".length(), entry.getName().indexOf('.'));
+                    assertEquals("content of file " + i, new String(zip.readAllBytes(), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        List<String> expected = new ArrayList<>(List.of("docs/"));
+        for (int i = 0; i < files.length; i++)
+        {
+            expected.add("docs/file" + i + ".txt");
+        }
+        assertEquals(expected, names);
+    }
+
+    private void children(FileInfo... children)
+    {
+        List<FileInfo> list = new ArrayList<>(List.of(children));
+        when(fileFolderService.list(FOLDER)).thenAnswer(invocation -> new ArrayList<>(list));
+    }
+
+    private FileInfo file(String name, byte[] content, String mimetype)
+    {
+        return file(name, content, mimetype, null);
+    }
+
+    /**
+     * @param onRead    run each time the content is opened, or <tt>null</tt>
+     */
+    private FileInfo file(String name, byte[] content, String mimetype, Action onRead)
+    {
+        NodeRef nodeRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, name);
+        ContentReader reader = mock(ContentReader.class);
+        when(reader.exists()).thenReturn(true);
+        when(reader.getSize()).thenReturn((long) content.length);
+        when(reader.getMimetype()).thenReturn(mimetype);
+        when(reader.getReader()).thenReturn(reader);
+        when(reader.getContentInputStream()).thenAnswer(invocation -> {
+            if (onRead != null)
+            {
+                onRead.run();
+            }
+            return new ByteArrayInputStream(content);
+        });
+        when(contentService.getReader(nodeRef, ContentModel.PROP_CONTENT)).thenReturn(reader);
+        return fileInfo(nodeRef, name, false);
+    }
+
+    private static FileInfo fileInfo(NodeRef nodeRef, String name, boolean folder)
+    {
+        FileInfo info = mock(FileInfo.class);
+        when(info.getNodeRef()).thenReturn(nodeRef);
+        when(info.getName()).thenReturn(name);
+        when(info.isFolder()).thenReturn(folder);
+        return info;
+    }
+
+    private interface Action
+    {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.logging;
+
+import static org.alfresco.web.app.logging.BoundedAsyncAppenderTest.event;
+import static org.alfresco.web.app.logging.BoundedAsyncAppenderTest.newAsyncAppender;
+
+import java.util.Arrays;
+
+import org.alfresco.web.app.logging.BoundedAsyncAppenderTest.RecordingAppender;
+import org.apache.log4j.Level;
+import org.junit.Test;
+
+/**
+ * Measures the caller latency of logging through an appender that takes 2 ms per event, directly and behind a
+ * {@link BoundedAsyncAppender}. Only reports the figures.
+ * <p>
+ * Not part of the unit tests, which are the <code>*Test</code> classes; run it with
+ * <code>mvn test -Dtest=BoundedAsyncAppenderBenchmark</code>.
+ * 
+ * @since 6.2.2
+ */
+public class BoundedAsyncAppenderBenchmark
+{
+    private static final int EVENTS = 1000;
+    private static final long SLOW_APPENDER_MILLIS = 2;
+
+    @Test
+    public void testCallerLatencyAgainstSynchronousLogging() throws Exception
+    {
+        RecordingAppender synchronous = new RecordingAppender(SLOW_APPENDER_MILLIS);
+        long[] syncNanos = new long[EVENTS];
+        for (int i = 0; i < EVENTS; i++)
+        {
+            long start = System.nanoTime();
+            synchronous.doAppend(event(Level.INFO, "sync " + i));
+            syncNanos[i] = System.nanoTime() - start;
+        }
+
+        BoundedAsyncAppender async = newAsyncAppender(EVENTS * 2, new RecordingAppender(SLOW_APPENDER_MILLIS));
+        long[] asyncNanos = new long[EVENTS];
+        try
+        {
+            for (int i = 0; i < EVENTS; i++)
+            {
+                long start = System.nanoTime();
+                async.doAppend(event(Level.INFO, "async " + i));
+                asyncNanos[i] = System.nanoTime() - start;
+            }
+        }
+        finally
+        {
+            async.close();
+        }
+
+        System.out.println("Caller latency p50/p99 (us): synchronous " + percentile(syncNanos, 0.5) / 1000 + "/"
+                + percentile(syncNanos, 0.99) / 1000 + ", asynchronous " + percentile(asyncNanos, 0.5) / 1000 + "/"
+                + percentile(asyncNanos, 0.99) / 1000);
+    }
+
+    private static long percentile(long[] nanos, double percentile)
+    {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * percentile))];
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Hierarchy;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.RootLogger;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the {@link BoundedAsyncAppender}, the profile applied by {@link AsyncPropertyConfigurator} and the
+ * {@link ReusableSanitizingPatternLayout}.
+ * 
+ * @since 6.2.2
+ */
+public class BoundedAsyncAppenderTest
+{
+    private static final Logger LOGGER = Logger.getLogger(BoundedAsyncAppenderTest.class);
+    private static final int EVENTS = 200;
+
+    private BoundedAsyncAppender async;
+
+    @After
+    public void tearDown()
+    {
+        if (async != null)
+        {
+            async.close();
+        }
+    }
+
+    @Test
+    public void testEventsAreDispatchedInOrder() throws Exception
+    {
+        RecordingAppender recording = new RecordingAppender(0);
+        async = newAsyncAppender(64, recording);
+
+        for (int i = 0; i < EVENTS; i++)
+        {
+            async.doAppend(event(Level.INFO, "message " + i));
+        }
+        async.stop();
+
+        assertEquals(EVENTS, recording.messages.size());
+        for (int i = 0; i < EVENTS; i++)
+        {
+            assertEquals("message " + i, recording.messages.get(i));
+        }
+    }
+
+    @Test
+    public void testLowLevelEventsAreDiscardedWhenFull() throws Exception
+    {
+        RecordingAppender recording = new RecordingAppender(0);
+        recording.block = new CountDownLatch(1);
+        async = newAsyncAppender(4, recording);
+        async.setMaxBlockMillis(10);
+
+        for (int i = 0; i < 20; i++)
+        {
+            async.doAppend(event(Level.DEBUG, "debug " + i));
+        }
+        assertTrue(async.getDiscardedCount() > 0);
+        assertTrue(async.getQueueSize() <= 4);
+
+        recording.block.countDown();
+        async.stop();
+        assertEquals(20, recording.messages.size() + async.getDiscardedCount());
+    }
+
+    @Test
+    public void testStopStopsDispatcherWithoutClosingAppenders() throws Exception
+    {
+        RecordingAppender recording = new RecordingAppender(0);
+        async = newAsyncAppender(16, recording);
+        async.doAppend(event(Level.INFO, "before stop"));
+
+        async.stop();
+
+        assertFalse(BoundedAsyncAppender.getActiveAppenders().contains(async));
+        assertFalse(recording.closed);
+        assertEquals(Arrays.asList("before stop"), recording.messages);
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+        {
+            assertFalse(thread.getName(), thread.getName().equals("log4j-async-" + async.getName()));
+        }
+    }
+
+    @Test
+    public void testProfileIsReappliedAndRemoved()
+    {
+        Hierarchy hierarchy = new Hierarchy(new RootLogger(Level.INFO));
+        Properties properties = new Properties();
+        properties.setProperty("log4j.rootLogger", "INFO, Slow");
+        properties.setProperty("log4j.appender.Slow", RecordingAppender.class.getName());
+        properties.setProperty("log4j.async.appenders", "Slow");
+        new AsyncPropertyConfigurator().doConfigure(properties, hierarchy);
+
+        Logger root = hierarchy.getRootLogger();
+        async = (BoundedAsyncAppender) root.getAppender("Async");
+        assertNotNull(async);
+        assertNull(root.getAppender("Slow"));
+        assertNotNull(async.getAppender("Slow"));
+
+        // Log4JHierarchyInit resets the root logger with the plain configurator
+        Properties extension = new Properties();
+        extension.setProperty("log4j.rootLogger", "INFO, Slow");
+        extension.setProperty("log4j.appender.Slow", RecordingAppender.class.getName());
+        new org.apache.log4j.PropertyConfigurator().doConfigure(extension, hierarchy);
+        assertNull(root.getAppender("Async"));
+
+        AsyncPropertyConfigurator.reapply(hierarchy);
+        async = (BoundedAsyncAppender) root.getAppender("Async");
+        assertNotNull(async);
+        assertNull(root.getAppender("Slow"));
+        RecordingAppender slow = (RecordingAppender) async.getAppender("Slow");
+
+        AsyncPropertyConfigurator.removeProfile(hierarchy);
+        assertNull(root.getAppender("Async"));
+        assertSame(slow, root.getAppender("Slow"));
+        assertFalse(slow.closed);
+        assertFalse(BoundedAsyncAppender.getActiveAppenders().contains(async));
+    }
+
+    @Test
+    public void testLayoutReplacesLineBreaks()
+    {
+        ReusableSanitizingPatternLayout layout = new ReusableSanitizingPatternLayout("%p %m%n");
+        assertEquals("INFO a_b__c" + System.lineSeparator(), layout.format(event(Level.INFO, "a\nb\r\nc")));
+        assertEquals("INFO plain" + System.lineSeparator(), layout.format(event(Level.INFO, "plain")));
+    }
+
+    /**
+     * The caller hands the event over and returns while the appender behind is still busy with an earlier one.
+     */
+    @Test
+    public void testCallerDoesNotWaitForTheAppender() throws Exception
+    {
+        RecordingAppender recording = new RecordingAppender(0);
+        recording.block = new CountDownLatch(1);
+        async = newAsyncAppender(EVENTS * 2, recording);
+
+        for (int i = 0; i < EVENTS; i++)
+        {
+            async.doAppend(event(Level.INFO, "message " + i));
+        }
+        assertTrue(recording.messages.isEmpty());
+        assertEquals(0, async.getDiscardedCount());
+
+        recording.block.countDown();
+        async.stop();
+        assertEquals(EVENTS, recording.messages.size());
+    }
+
+    static BoundedAsyncAppender newAsyncAppender(int bufferSize, RecordingAppender appender)
+    {
+        BoundedAsyncAppender async = new BoundedAsyncAppender();
+        async.setName("Test" + System.nanoTime());
+        async.setBufferSize(bufferSize);
+        async.addAppender(appender);
+        async.activateOptions();
+        return async;
+    }
+
+    static LoggingEvent event(Level level, String message)
+    {
+        return new LoggingEvent(Logger.class.getName(), LOGGER, level, message, null);
+    }
+
+    public static class RecordingAppender extends AppenderSkeleton
+    {
+        final List<String> messages = new CopyOnWriteArrayList<>();
+        final long delayMillis;
+        volatile CountDownLatch block;
+        volatile boolean closed;
+
+        public RecordingAppender()
+        {
+            this(0);
+        }
+
+        RecordingAppender(long delayMillis)
+        {
+            this.delayMillis = delayMillis;
+            setName("Slow");
+        }
+
+        @Override
+        protected void append(LoggingEvent event)
+        {
+            try
+            {
+                if (block != null)
+                {
+                    block.await(5, TimeUnit.SECONDS);
+                }
+                if (delayMillis > 0)
+                {
+                    Thread.sleep(delayMillis);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            messages.add(event.getRenderedMessage());
+        }
+
+        @Override
+        public void close()
+        {
+            closed = true;
+        }
+
+        @Override
+        public boolean requiresLayout()
+        {
+            return false;
+        }
+    }
+}
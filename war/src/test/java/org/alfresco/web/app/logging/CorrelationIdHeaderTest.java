@@ -0,0 +1,116 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.params.DefaultHttpParams;
+import org.apache.commons.httpclient.params.HostParams;
+import org.apache.commons.httpclient.params.HttpParams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that {@link CorrelationIdHeader} only adds the header on threads with a correlation ID bound.
+ * 
+ * @since 6.2.2
+ */
+public class CorrelationIdHeaderTest
+{
+    private HttpParams defaults;
+    private Object previous;
+
+    @Before
+    public void setUp()
+    {
+        defaults = DefaultHttpParams.getDefaultParams();
+        previous = defaults.getParameter(HostParams.DEFAULT_HEADERS);
+        defaults.setParameter(HostParams.DEFAULT_HEADERS,
+                new ArrayList<>(Collections.singletonList(new Header("X-Configured", "yes"))));
+        CorrelationIdHeader.install();
+    }
+
+    @After
+    public void tearDown()
+    {
+        CorrelationId.clear();
+        defaults.setParameter(HostParams.DEFAULT_HEADERS, previous);
+    }
+
+    @Test
+    public void testNoHeaderWithoutCorrelationId()
+    {
+        List<Header> headers = defaultHeaders();
+        assertEquals(1, headers.size());
+        assertEquals("X-Configured", headers.get(0).getName());
+    }
+
+    @Test
+    public void testHeaderCarriesBoundCorrelationId()
+    {
+        CorrelationId.set("abc-123");
+        List<Header> headers = defaultHeaders();
+        assertEquals(2, headers.size());
+        assertEquals("X-Configured", headers.get(0).getName());
+        assertEquals(CorrelationId.HEADER, headers.get(1).getName());
+        assertEquals("abc-123", headers.get(1).getValue());
+    }
+
+    @Test
+    public void testOtherThreadsSendNoHeader() throws Exception
+    {
+        CorrelationId.set("abc-123");
+        List<List<Header>> seen = new ArrayList<>();
+        Thread background = new Thread(() -> seen.add(defaultHeaders()));
+        background.start();
+        background.join();
+        assertEquals(1, seen.get(0).size());
+    }
+
+    @Test
+    public void testInstallIsIdempotent()
+    {
+        Object installed = defaults.getParameter(HostParams.DEFAULT_HEADERS);
+        CorrelationIdHeader.install();
+        assertSame(installed, defaults.getParameter(HostParams.DEFAULT_HEADERS));
+        assertTrue(installed instanceof CorrelationIdHeader.DefaultHeaders);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Header> defaultHeaders()
+    {
+        return new ArrayList<>((Collection<Header>) defaults.getParameter(HostParams.DEFAULT_HEADERS));
+    }
+}
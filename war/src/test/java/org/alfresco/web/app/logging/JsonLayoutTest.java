@@ -0,0 +1,98 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.log4j.Layout;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+import org.apache.log4j.NDC;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the fields and the escaping of the {@link JsonLayout}.
+ * 
+ * @since 6.2.2
+ */
+public class JsonLayoutTest
+{
+    private final JsonLayout layout = new JsonLayout();
+
+    @After
+    public void tearDown()
+    {
+        MDC.remove(CorrelationId.MDC_KEY);
+        NDC.remove();
+    }
+
+    @Test
+    public void testFields()
+    {
+        String line = layout.format(event("Node created", null));
+        assertEquals("{\"timestamp\":\"2020-06-01T10:15:30.123Z\",\"level\":\"WARN\",\"logger\":\"org.alfresco.test\","
+                + "\"thread\":\"" + Thread.currentThread().getName() + "\",\"message\":\"Node created\"}"
+                + Layout.LINE_SEP, line);
+    }
+
+    @Test
+    public void testCorrelationIdAndContext()
+    {
+        MDC.put(CorrelationId.MDC_KEY, "5f2b9c");
+        NDC.push("Tenant::acme User:admin");
+        String line = layout.format(event("Node created", null));
+        assertTrue(line, line.contains(",\"correlationId\":\"5f2b9c\",\"context\":\"Tenant::acme User:admin\","));
+    }
+
+    @Test
+    public void testValuesCannotForgeLines()
+    {
+        String line = layout.format(event("a\"b\\c\nWARN forged\r\t\u0001", null));
+        assertTrue(line, line.contains("\"message\":\"a\\\"b\\\\c\\nWARN forged\\r\\t\\u0001\""));
+        String object = line.substring(0, line.length() - Layout.LINE_SEP.length());
+        assertFalse(object, object.contains("\n") || object.contains("\r"));
+    }
+
+    @Test
+    public void testExceptionIsPartOfTheObject()
+    {
+        String line = layout.format(event("Failed", new IllegalStateException("broken")));
+        assertTrue(line, line.contains(",\"exception\":\"java.lang.IllegalStateException: broken\\n\\tat "));
+        assertTrue(line, line.endsWith("\"}" + Layout.LINE_SEP));
+        assertFalse(layout.ignoresThrowable());
+    }
+
+    private static LoggingEvent event(String message, Throwable throwable)
+    {
+        return new LoggingEvent(JsonLayoutTest.class.getName(), Logger.getLogger("org.alfresco.test"),
+                1590999330123L, Level.WARN, message, throwable);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+/**
+ * Tests the OpenMetrics output of the {@link MetricsRegistry}, its families and collectors.
+ * 
+ * @since 6.2.2
+ */
+public class MetricsRegistryTest
+{
+    @Test
+    public void testCounterAndHistogramFamilies() throws IOException
+    {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("test_requests", "Requests", "servlet").labels("api").inc(3);
+        registry.histogram("test_latency_seconds", "Latency", new double[] {0.1, 1}, "servlet").labels("api")
+                .observeNanos(500_000_000L);
+
+        String output = scrape(registry);
+
+        assertTrue(output, output.contains("# TYPE test_requests counter\n# HELP test_requests Requests\n"));
+        assertTrue(output, output.contains("test_requests_total{servlet=\"api\"} 3\n"));
+        assertTrue(output, output.contains("test_latency_seconds_bucket{servlet=\"api\",le=\"0.1\"} 0\n"));
+        assertTrue(output, output.contains("test_latency_seconds_bucket{servlet=\"api\",le=\"1\"} 1\n"));
+        assertTrue(output, output.contains("test_latency_seconds_bucket{servlet=\"api\",le=\"+Inf\"} 1\n"));
+        assertTrue(output, output.contains("test_latency_seconds_count{servlet=\"api\"} 1\n"));
+        assertTrue(output, output.contains("test_latency_seconds_sum{servlet=\"api\"} 0.5\n"));
+        assertTrue(output, output.endsWith("# EOF\n"));
+    }
+
+    @Test
+    public void testSameFamilyIsReturnedForSameName()
+    {
+        MetricsRegistry registry = new MetricsRegistry();
+        MetricFamily<Counter> first = registry.counter("test_total", "Test");
+        MetricFamily<Counter> second = registry.counter("test_total", "Test");
+        first.labels().inc();
+        assertEquals(1, second.labels().get());
+    }
+
+    @Test
+    public void testLabelValuesAreEscaped() throws IOException
+    {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("test_escaped", "Escaped", "path").labels("a\"b\\c\nd").inc();
+
+        String output = scrape(registry);
+
+        assertTrue(output, output.contains("test_escaped_total{path=\"a\\\"b\\\\c\\nd\"} 1\n"));
+    }
+
+    @Test
+    public void testFailingCollectorLeavesNoPartialFamily() throws IOException
+    {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.register(writer -> {
+            writer.beginGauge("test_complete", "Written in full");
+            writer.sample("test_complete", 1);
+            writer.beginGauge("test_partial", "Fails half way");
+            writer.sample("test_partial", "name", "first", 1);
+            throw new IllegalStateException("source went away");
+        });
+        registry.register(writer -> {
+            writer.beginGauge("test_after", "Collected after the failure");
+            writer.sample("test_after", 2);
+        });
+
+        String output = scrape(registry);
+
+        assertTrue(output, output.contains("test_complete 1\n"));
+        assertFalse(output, output.contains("test_partial"));
+        assertTrue(output, output.contains("test_after 2\n"));
+        assertTrue(output, output.endsWith("# EOF\n"));
+    }
+
+    @Test
+    public void testCollectorFailingBeforeItsFirstFamilyKeepsTheRegistryFamilies() throws IOException
+    {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("test_registered", "Owned by the registry").labels().inc();
+        registry.register(writer -> {
+            throw new IllegalStateException("source went away");
+        });
+
+        String output = scrape(registry);
+
+        assertTrue(output, output.contains("test_registered_total 1\n"));
+        assertTrue(output, output.endsWith("# EOF\n"));
+    }
+
+    @Test
+    public void testValueFormatting()
+    {
+        assertEquals("+Inf", OpenMetricsWriter.formatValue(Double.POSITIVE_INFINITY));
+        assertEquals("NaN", OpenMetricsWriter.formatValue(Double.NaN));
+        assertEquals("42", OpenMetricsWriter.formatValue(42));
+        assertEquals("0.25", OpenMetricsWriter.formatValue(0.25));
+    }
+
+    private static String scrape(MetricsRegistry registry) throws IOException
+    {
+        StringWriter out = new StringWriter();
+        registry.scrape(out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.profiling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.alfresco.web.app.metrics.StatementTimingInterceptor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the {@link SlowRequestMonitor} samples and records only requests running past the threshold.
+ * 
+ * @since 6.2.2
+ */
+public class SlowRequestMonitorTest
+{
+    private SlowRequestMonitor monitor;
+
+    @Before
+    public void setUp()
+    {
+        monitor = new SlowRequestMonitor();
+        monitor.setEnabled(true);
+        monitor.setThresholdMs(20);
+        monitor.setSampleIntervalMs(5);
+        monitor.setBufferSize(2);
+        monitor.setStatementTimingInterceptor(new StatementTimingInterceptor());
+        monitor.init();
+    }
+
+    @After
+    public void tearDown()
+    {
+        monitor.destroy();
+    }
+
+    @Test
+    public void testFastRequestIsNotRecorded()
+    {
+        monitor.end(monitor.begin("GET", "/fast", null), 200);
+        assertTrue(monitor.getRecords(10, 0).isEmpty());
+    }
+
+    @Test
+    public void testSlowRequestIsRecordedWithStacks() throws Exception
+    {
+        InFlightRequest request = monitor.begin("GET", "/slow", "abc");
+        Thread.sleep(200);
+        monitor.end(request, 200);
+
+        List<SlowRequestRecord> records = monitor.getRecords(10, 0);
+        assertEquals(1, records.size());
+        SlowRequestRecord record = records.get(0);
+        assertEquals("/slow", record.getUri());
+        assertEquals("abc", record.getCorrelationId());
+        assertTrue(record.getDurationMs() >= 200);
+        assertTrue(record.getSampleCount() > 0);
+        assertTrue(record.getStacks().get(0).getStack(),
+                record.getStacks().get(0).getStack().contains("testSlowRequestIsRecordedWithStacks"));
+        assertTrue(monitor.getRecords(10, 10_000).isEmpty());
+    }
+
+    @Test
+    public void testOldestRecordsAreOverwritten() throws Exception
+    {
+        for (String uri : new String[] {"/first", "/second", "/third"})
+        {
+            InFlightRequest request = monitor.begin("GET", uri, null);
+            Thread.sleep(60);
+            monitor.end(request, 200);
+        }
+
+        List<SlowRequestRecord> records = monitor.getRecords(10, 0);
+        assertEquals(2, records.size());
+        assertEquals("/third", records.get(0).getUri());
+        assertEquals("/second", records.get(1).getUri());
+        assertEquals(1, monitor.getRecords(1, 0).size());
+    }
+}
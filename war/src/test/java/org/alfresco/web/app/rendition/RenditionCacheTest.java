@@ -0,0 +1,147 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.rendition;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.util.TempFileProvider;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the memory and disk tiers of the {@link RenditionCache}, and that their files are written without holding
+ * the cache's monitor.
+ * 
+ * @since 6.2.2
+ */
+public class RenditionCacheTest
+{
+    private static final NodeRef SOURCE = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "source1");
+
+    private RenditionCache cache;
+
+    private RenditionCache cache(RenditionCache cache) throws IOException
+    {
+        cache.setEnabled(true);
+        cache.setMemoryMaxBytes(100);
+        cache.setDiskMaxBytes(1000);
+        cache.setMaxEntrySize(100);
+        cache.setPolicyComponent(mock(PolicyComponent.class));
+        cache.setNodeService(mock(NodeService.class));
+        cache.afterPropertiesSet();
+        this.cache = cache;
+        return cache;
+    }
+
+    @After
+    public void tearDown()
+    {
+        cache.destroy();
+    }
+
+    private static byte[] bytes(int value)
+    {
+        byte[] bytes = new byte[60];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    private static String[] files()
+    {
+        return TempFileProvider.getLongLifeTempDir("rendition-cache").list();
+    }
+
+    @Test
+    public void testEvictedEntryIsServedFromDisk() throws IOException
+    {
+        cache(new RenditionCache());
+        cache.put("a", SOURCE, "image/png", null, bytes(1));
+        cache.put("b", SOURCE, "image/png", null, bytes(2));
+        assertEquals(1, files().length);
+
+        // Moved back to memory, which moves b to disk
+        assertArrayEquals(bytes(1), cache.get("a").getBytes());
+        assertArrayEquals(bytes(2), cache.get("b").getBytes());
+
+        cache.invalidate(SOURCE);
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(0, files().length);
+    }
+
+    @Test(timeout = 10000)
+    public void testFileIsWrittenWithoutTheMonitor() throws Exception
+    {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch written = new CountDownLatch(1);
+        cache(new RenditionCache()
+        {
+            @Override
+            void writeFile(File file, byte[] bytes) throws IOException
+            {
+                writing.countDown();
+                try
+                {
+                    written.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                super.writeFile(file, bytes);
+            }
+        });
+        cache.put("a", SOURCE, "image/png", null, bytes(1));
+        Thread spiller = new Thread(() -> cache.put("b", SOURCE, "image/png", null, bytes(2)));
+        spiller.start();
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+        // Served from memory while its file is written, and dropped before it reaches the disk tier
+        assertArrayEquals(bytes(1), cache.get("a").getBytes());
+        assertArrayEquals(bytes(2), cache.get("b").getBytes());
+        cache.invalidate(SOURCE);
+        assertTrue(spiller.isAlive());
+
+        written.countDown();
+        spiller.join();
+        assertNull(cache.get("a"));
+        assertEquals(0, files().length);
+    }
+}
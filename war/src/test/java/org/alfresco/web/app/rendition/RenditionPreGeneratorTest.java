@@ -0,0 +1,135 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.rendition;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+
+import java.util.List;
+import java.util.Set;
+
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.repo.rendition2.RenditionService2;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.web.app.rendition.RenditionPreGenerator.Priority;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the queue of the {@link RenditionPreGenerator}, without worker threads.
+ * 
+ * @since 6.2.2
+ */
+public class RenditionPreGeneratorTest
+{
+    private static final NodeRef NODE = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "node1");
+
+    private RenditionPreGenerator preGenerator;
+
+    @Before
+    public void setUp()
+    {
+        preGenerator = new RenditionPreGenerator();
+        preGenerator.setEnabled(true);
+        preGenerator.setThreads(0);
+        preGenerator.setRenditionNames(new String[] {"doclib", "pdf", "imgpreview"});
+        preGenerator.setPolicyComponent(mock(PolicyComponent.class));
+        preGenerator.setNodeService(mock(NodeService.class));
+        preGenerator.setRenditionService2(mock(RenditionService2.class));
+        preGenerator.setTransactionService(mock(TransactionService.class));
+        preGenerator.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown()
+    {
+        preGenerator.destroy();
+    }
+
+    @Test
+    public void testEnqueueQueuesAllRenditions()
+    {
+        preGenerator.enqueue(NODE, Priority.BACKGROUND);
+
+        assertEquals(Set.of("doclib", "pdf", "imgpreview"), preGenerator.getQueuedRenditions(NODE));
+    }
+
+    @Test
+    public void testCancelRemovesOnlyTheNamedRenditions()
+    {
+        preGenerator.enqueue(NODE, Priority.BACKGROUND);
+
+        preGenerator.cancel(NODE, List.of("pdf"));
+
+        assertEquals(Set.of("doclib", "imgpreview"), preGenerator.getQueuedRenditions(NODE));
+    }
+
+    @Test
+    public void testCancelOfAllRenditionsRemovesTheNode()
+    {
+        preGenerator.enqueue(NODE, Priority.BACKGROUND);
+
+        preGenerator.cancel(NODE, List.of("pdf", "doclib"));
+        preGenerator.cancel(NODE, List.of("imgpreview"));
+
+        assertNull(preGenerator.getQueuedRenditions(NODE));
+    }
+
+    @Test
+    public void testCancelKeepsTheRenditionsThroughPrioritise()
+    {
+        preGenerator.enqueue(NODE, Priority.BACKGROUND);
+        preGenerator.prioritise(NODE);
+
+        preGenerator.cancel(NODE, List.of("doclib"));
+
+        assertEquals(Set.of("pdf", "imgpreview"), preGenerator.getQueuedRenditions(NODE));
+    }
+
+    @Test
+    public void testNewContentQueuesCancelledRenditionsAgain()
+    {
+        preGenerator.enqueue(NODE, Priority.BACKGROUND);
+        preGenerator.cancel(NODE, List.of("doclib"));
+
+        preGenerator.enqueue(NODE, Priority.BACKGROUND);
+
+        assertEquals(Set.of("doclib", "pdf", "imgpreview"), preGenerator.getQueuedRenditions(NODE));
+    }
+
+    @Test
+    public void testCancelOfUnknownNodeIsIgnored()
+    {
+        preGenerator.cancel(NODE, List.of("doclib"));
+
+        assertNull(preGenerator.getQueuedRenditions(NODE));
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.rendition;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.repo.rendition2.RenditionDefinition2;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.web.app.rendition.RenditionRequestCoalescingPostProcessor.CoalescingInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the single-flight bookkeeping of the {@link RenditionRequestRegistry} and how the coalescing interceptor
+ * feeds it.
+ * 
+ * @since 6.2.2
+ */
+public class RenditionRequestRegistryTest
+{
+    private static final NodeRef SOURCE = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "source1");
+
+    private RenditionRequestRegistry registry;
+    private NodeService nodeService;
+
+    @Before
+    public void setUp()
+    {
+        nodeService = mock(NodeService.class);
+        when(nodeService.getProperty(SOURCE, ContentModel.PROP_CONTENT))
+                .thenReturn(new ContentData("store://1.bin", "application/pdf", 100L, "UTF-8"));
+        registry = new RenditionRequestRegistry();
+        registry.setEnabled(true);
+        registry.setPolicyComponent(mock(PolicyComponent.class));
+        registry.setNodeService(nodeService);
+        registry.afterPropertiesSet();
+    }
+
+    @Test
+    public void testSecondRequestIsCoalesced()
+    {
+        assertTrue(registry.begin(SOURCE, "doclib"));
+        assertFalse(registry.begin(SOURCE, "doclib"));
+        assertTrue(registry.begin(SOURCE, "pdf"));
+        assertTrue(registry.isInFlight(SOURCE, "doclib"));
+    }
+
+    @Test
+    public void testNewContentIsRequestedAgain()
+    {
+        assertTrue(registry.begin(SOURCE, "doclib"));
+        when(nodeService.getProperty(SOURCE, ContentModel.PROP_CONTENT))
+                .thenReturn(new ContentData("store://2.bin", "application/pdf", 100L, "UTF-8"));
+
+        assertTrue(registry.begin(SOURCE, "doclib"));
+    }
+
+    @Test
+    public void testExpiredRequestIsNotInFlight() throws Exception
+    {
+        registry.setTimeout(1L);
+        registry.begin(SOURCE, "doclib");
+        Thread.sleep(5L);
+
+        assertFalse(registry.isInFlight(SOURCE, "doclib"));
+        assertFalse(registry.await(SOURCE, "doclib", 1000L));
+        assertTrue(registry.begin(SOURCE, "doclib"));
+    }
+
+    @Test
+    public void testFailureReleasesWaiters() throws Exception
+    {
+        registry.begin(SOURCE, "doclib");
+        CompletableFuture<Boolean> waiter = CompletableFuture.supplyAsync(() -> registry.await(SOURCE, "doclib", 10000L));
+        Thread.sleep(50L);
+
+        registry.fail(SOURCE, "doclib");
+
+        assertTrue(waiter.get(1, TimeUnit.SECONDS));
+        assertFalse(registry.isInFlight(SOURCE, "doclib"));
+        assertTrue(registry.begin(SOURCE, "doclib"));
+    }
+
+    @Test
+    public void testAwaitWithoutRequestReturnsAtOnce()
+    {
+        assertFalse(registry.await(SOURCE, "doclib", 10000L));
+    }
+
+    @Test
+    public void testInterceptorCoalescesRender() throws Throwable
+    {
+        CoalescingInterceptor interceptor = new CoalescingInterceptor(() -> registry);
+        MethodInvocation first = invocation("render", SOURCE, "doclib");
+        MethodInvocation second = invocation("render", SOURCE, "doclib");
+
+        interceptor.invoke(first);
+        interceptor.invoke(second);
+
+        verify(first).proceed();
+        verify(second, never()).proceed();
+    }
+
+    @Test
+    public void testInterceptorCompletesFailedTransform() throws Throwable
+    {
+        CoalescingInterceptor interceptor = new CoalescingInterceptor(() -> registry);
+        registry.begin(SOURCE, "doclib");
+        RenditionDefinition2 definition = mock(RenditionDefinition2.class);
+        when(definition.getRenditionName()).thenReturn("doclib");
+
+        interceptor.invoke(invocation("consume", SOURCE, null, definition, 1));
+
+        assertFalse(registry.isInFlight(SOURCE, "doclib"));
+    }
+
+    @Test
+    public void testInterceptorLeavesSuccessfulTransformToTheContentUpdate() throws Throwable
+    {
+        CoalescingInterceptor interceptor = new CoalescingInterceptor(() -> registry);
+        registry.begin(SOURCE, "doclib");
+        RenditionDefinition2 definition = mock(RenditionDefinition2.class);
+        when(definition.getRenditionName()).thenReturn("doclib");
+
+        interceptor.invoke(invocation("consume", SOURCE, new ByteArrayInputStream(new byte[1]), definition, 1));
+
+        assertTrue(registry.isInFlight(SOURCE, "doclib"));
+    }
+
+    private static MethodInvocation invocation(String methodName, Object... args) throws Exception
+    {
+        Method method = null;
+        for (Method candidate : RenditionCalls.class.getMethods())
+        {
+            if (candidate.getName().equals(methodName))
+            {
+                method = candidate;
+            }
+        }
+        MethodInvocation invocation = mock(MethodInvocation.class);
+        when(invocation.getMethod()).thenReturn(method);
+        when(invocation.getArguments()).thenReturn(args);
+        return invocation;
+    }
+
+    /**
+     * The methods of the rendition service implementation the interceptor looks at
+     */
+    private interface RenditionCalls
+    {
+        void render(NodeRef sourceNodeRef, String renditionName);
+
+        void consume(NodeRef sourceNodeRef, InputStream transformInputStream, RenditionDefinition2 renditionDefinition,
+                int transformContentHashCode);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.alfresco.service.cmr.search.QueryConsistency;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests which <code>/queries</code> requests the {@link DatabaseQueryRouter} routes, and the query each route
+ * searches with.
+ * 
+ * @since 6.2.2
+ */
+public class DatabaseQueryRouterTest
+{
+    private static final String QUERIES = "/-default-/public/alfresco/versions/1/queries/";
+
+    private DatabaseQueryRouter router;
+
+    @Before
+    public void setUp()
+    {
+        router = new DatabaseQueryRouter();
+        router.setEnabled(true);
+    }
+
+    @After
+    public void tearDown()
+    {
+        router.end();
+    }
+
+    @Test
+    public void testNodesRoute()
+    {
+        String query = routedQuery("nodes", Map.of("term", "report*", "maxItems", "10"));
+        assertTrue(query, query.startsWith("(TYPE:\"cm:content\" OR TYPE:\"cm:folder\") AND (=cm:name:\"report*\""));
+        for (String excluded : List.of("NOT TYPE:\"cm:thumbnail\"", "NOT TYPE:\"cm:failedThumbnail\"",
+                "NOT TYPE:\"cm:rating\"", "NOT TYPE:\"fm:post\"", "NOT ASPECT:\"sys:hidden\"",
+                "NOT =cm:creator:\"System\""))
+        {
+            assertTrue(excluded, query.contains(excluded));
+        }
+    }
+
+    @Test
+    public void testSitesRoute()
+    {
+        assertEquals("TYPE:\"st:site\" AND (=cm:name:\"Marketing*\" OR =cm:name:\"marketing*\""
+                + " OR =cm:name:\"MARKETING*\")", routedQuery("sites", Map.of("term", "Marketing")));
+    }
+
+    @Test
+    public void testPeopleRoute()
+    {
+        String query = routedQuery("people", Map.of("term", "jon", "fields", "id"));
+        assertTrue(query, query.startsWith("TYPE:\"cm:person\" AND (=cm:userName:\"jon*\""));
+        for (String match : List.of("=cm:userName:\"Jon*\"", "=cm:firstName:\"JON*\"", "=cm:lastName:\"jon*\""))
+        {
+            assertTrue(match, query.contains(match));
+        }
+    }
+
+    @Test
+    public void testCaseVariants()
+    {
+        assertEquals(List.of("mYRep", "myrep", "MYREP", "Myrep"), List.copyOf(DatabaseQueryRouter.caseVariants("mYRep")));
+        assertEquals(List.of("abc", "ABC", "Abc"), List.copyOf(DatabaseQueryRouter.caseVariants("abc")));
+    }
+
+    @Test
+    public void testRequestsThatAreNotRouted()
+    {
+        assertFalse(router.begin(request("GET", QUERIES + "nodes", Map.of("term", "report", "orderBy", "name"))));
+        assertFalse(router.begin(request("GET", QUERIES + "nodes", Map.of("term", "ab"))));
+        assertFalse(router.begin(request("GET", QUERIES + "nodes", Map.of("term", "two words"))));
+        assertFalse(router.begin(request("POST", QUERIES + "nodes", Map.of("term", "report"))));
+        assertFalse(router.begin(request("GET", QUERIES + "groups", Map.of("term", "report"))));
+
+        router.setEnabled(false);
+        assertFalse(router.begin(request("GET", QUERIES + "nodes", Map.of("term", "report"))));
+    }
+
+    @Test
+    public void testOnlyTheFirstSearchIsRouted()
+    {
+        assertTrue(router.begin(request("GET", QUERIES + "sites", Map.of("term", "marketing"))));
+        router.route(new SearchParameters());
+        SearchParameters sp = new SearchParameters();
+        assertSame(sp, router.route(sp));
+    }
+
+    private String routedQuery(String route, Map<String, String> parameters)
+    {
+        assertTrue(router.begin(request("GET", QUERIES + route, parameters)));
+        SearchParameters sp = new SearchParameters();
+        sp.setLanguage(SearchService.LANGUAGE_CMIS_ALFRESCO);
+        sp.setQuery("original");
+        SearchParameters routed = router.route(sp);
+        assertEquals(SearchService.LANGUAGE_FTS_ALFRESCO, routed.getLanguage());
+        assertEquals(QueryConsistency.TRANSACTIONAL_IF_POSSIBLE, routed.getQueryConsistency());
+        assertEquals("original", sp.getQuery());
+        return routed.getQuery();
+    }
+
+    private static HttpServletRequest request(String method, String pathInfo, Map<String, String> parameters)
+    {
+        HttpServletRequest req = mock(HttpServletRequest.class);
+        when(req.getMethod()).thenReturn(method);
+        when(req.getPathInfo()).thenReturn(pathInfo);
+        when(req.getParameterNames()).thenReturn(Collections.enumeration(parameters.keySet()));
+        parameters.forEach((name, value) -> when(req.getParameter(name)).thenReturn(value));
+        return req;
+    }
+}
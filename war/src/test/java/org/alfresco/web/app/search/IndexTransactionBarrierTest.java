@@ -0,0 +1,124 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the {@link IndexTransactionBarrier} releases waiters in the order Solr tracks transactions, that of
+ * their commit time.
+ * 
+ * @since 6.2.2
+ */
+public class IndexTransactionBarrierTest
+{
+    private final Map<Long, Long> commitTimes = new HashMap<>();
+    private long lastIndexedTxnId = -1L;
+    private IndexTransactionBarrier barrier;
+
+    @Before
+    public void setUp()
+    {
+        barrier = new IndexTransactionBarrier()
+        {
+            @Override
+            long queryLastIndexedTxnId()
+            {
+                return lastIndexedTxnId;
+            }
+
+            @Override
+            Long getCommitTime(long txnId)
+            {
+                return commitTimes.get(txnId);
+            }
+        };
+        commitTimes.put(10L, 1000L);
+        // started after 10 but committed first
+        commitTimes.put(11L, 900L);
+        commitTimes.put(12L, 1100L);
+    }
+
+    @Test
+    public void testTransactionWithLowerIdCommittedLaterIsNotTracked()
+    {
+        CompletableFuture<Boolean> future = barrier.await(10L);
+        lastIndexedTxnId = 11L;
+        barrier.poll();
+        assertFalse(future.isDone());
+        assertEquals(11L, barrier.getLastIndexedTxnId());
+
+        lastIndexedTxnId = 12L;
+        barrier.poll();
+        assertTrue(future.getNow(false));
+    }
+
+    @Test
+    public void testTrackedTransactionCompletesAtOnce()
+    {
+        lastIndexedTxnId = 10L;
+        barrier.readLastIndexedTxnId();
+        assertTrue(barrier.await(11L).getNow(false));
+        assertTrue(barrier.await(10L).getNow(false));
+        assertFalse(barrier.await(12L).isDone());
+    }
+
+    @Test
+    public void testIndexDoesNotGoBack()
+    {
+        lastIndexedTxnId = 12L;
+        barrier.readLastIndexedTxnId();
+        lastIndexedTxnId = 10L;
+        barrier.readLastIndexedTxnId();
+        assertEquals(12L, barrier.getLastIndexedTxnId());
+    }
+
+    @Test
+    public void testUnknownTransactionIsNotTracked()
+    {
+        CompletableFuture<Boolean> future = barrier.await(99L);
+        assertTrue(future.isDone());
+        assertFalse(future.getNow(true));
+    }
+
+    @Test
+    public void testDatabaseSearchesReleaseAllWaiters()
+    {
+        CompletableFuture<Boolean> future = barrier.await(12L);
+        lastIndexedTxnId = Long.MAX_VALUE;
+        barrier.poll();
+        assertTrue(future.getNow(false));
+    }
+}
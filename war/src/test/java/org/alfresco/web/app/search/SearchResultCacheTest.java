@@ -0,0 +1,257 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.repo.search.impl.solr.SolrJSONResultSet;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.QueryConsistency;
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchParameters.FieldFacet;
+import org.alfresco.service.cmr.search.SearchService;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the keys of the {@link SearchResultCache}, and that hits are answered with result sets of their own.
+ * 
+ * @since 6.2.2
+ */
+public class SearchResultCacheTest
+{
+    private static final NodeRef NODE1 = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "node1");
+    private static final NodeRef NODE2 = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "node2");
+
+    private SearchResultCache cache;
+    private PermissionService permissionService;
+
+    @Before
+    public void setUp()
+    {
+        AuthenticationUtil.setRunAsUser("alice");
+        // as the permission service answers, the user and the authorities of the user
+        permissionService = mock(PermissionService.class);
+        when(permissionService.getAuthorisations())
+                .thenAnswer(inv -> Set.of("GROUP_EVERYONE", "ROLE_AUTHENTICATED", AuthenticationUtil.getRunAsUser()));
+        cache = new SearchResultCache();
+        cache.setEnabled(true);
+        cache.setPermissionService(permissionService);
+        cache.setNodeService(mock(NodeService.class));
+        cache.setNodeDAO(mock(NodeDAO.class));
+        cache.begin();
+    }
+
+    @After
+    public void tearDown()
+    {
+        cache.end();
+        AuthenticationUtil.clearCurrentSecurityContext();
+    }
+
+    @Test
+    public void testSearchesDifferingInOneParameterHaveDifferentKeys()
+    {
+        String key = cache.key(search());
+        assertEquals(key, cache.key(search()));
+
+        List<Consumer<SearchParameters>> changes = List.of(
+                sp -> sp.addFilterQuery("TYPE:\"cm:content\""),
+                sp -> sp.addFieldFacet(new FieldFacet("cm:creator")),
+                sp -> sp.addFacetQuery("cm:modified:[NOW/DAY-7DAYS TO NOW]"),
+                sp -> sp.addSort("cm:name", true),
+                sp -> sp.addSort("cm:name", false),
+                sp -> sp.setTimezone("Europe/London"),
+                sp -> sp.setSkipCount(10),
+                sp -> sp.setMaxItems(5),
+                sp -> sp.addLocale(Locale.FRENCH),
+                sp -> sp.setSpellCheck(true),
+                sp -> sp.setDefaultFieldName("cm:name"),
+                sp -> sp.setQuery("budget 2020"));
+        for (int i = 0; i < changes.size(); i++)
+        {
+            SearchParameters changed = search();
+            changes.get(i).accept(changed);
+            assertNotEquals("change " + i, key, cache.key(changed));
+        }
+        SearchParameters ascending = search();
+        ascending.addSort("cm:name", true);
+        SearchParameters descending = search();
+        descending.addSort("cm:name", false);
+        assertNotEquals(cache.key(ascending), cache.key(descending));
+    }
+
+    @Test
+    public void testQueryWhitespaceIsNormalised()
+    {
+        SearchParameters spaced = search();
+        spaced.setQuery("  budget   ");
+        assertEquals(cache.key(search()), cache.key(spaced));
+    }
+
+    @Test
+    public void testKeyDependsOnAuthorisations()
+    {
+        String key = cache.key(search());
+        when(permissionService.getAuthorisations()).thenReturn(Set.of("GROUP_EVERYONE", "GROUP_finance", "alice"));
+        assertNotEquals(key, cache.key(search()));
+    }
+
+    @Test
+    public void testUsersWithTheSameGroupsDoNotShareEntries()
+    {
+        String alice = cache.key(search());
+        AuthenticationUtil.setRunAsUser("bob");
+        assertNotEquals(alice, cache.key(search()));
+
+        // Solr also filters on owner, so the user decides even when the authorisations are the same
+        when(permissionService.getAuthorisations()).thenReturn(Set.of("GROUP_EVERYONE", "ROLE_AUTHENTICATED"));
+        String bob = cache.key(search());
+        AuthenticationUtil.setRunAsUser("alice");
+        assertNotEquals(bob, cache.key(search()));
+    }
+
+    @Test
+    public void testSearchRoutedToTheDatabaseIsNotCached()
+    {
+        HttpServletRequest req = mock(HttpServletRequest.class);
+        when(req.getMethod()).thenReturn("GET");
+        when(req.getPathInfo()).thenReturn("/-default-/public/alfresco/versions/1/queries/nodes");
+        when(req.getParameterNames()).thenReturn(Collections.enumeration(Set.of("term")));
+        when(req.getParameter("term")).thenReturn("report");
+        DatabaseQueryRouter router = new DatabaseQueryRouter();
+        router.setEnabled(true);
+        assertTrue(router.begin(req));
+        try
+        {
+            // whether or not the cache's proxy is outside the router's
+            assertNull(cache.key(search()));
+        }
+        finally
+        {
+            router.end();
+        }
+        assertNotNull(cache.key(search()));
+    }
+
+    @Test
+    public void testUncacheableSearches()
+    {
+        SearchParameters transactional = search();
+        transactional.setQueryConsistency(QueryConsistency.TRANSACTIONAL_IF_POSSIBLE);
+        assertNull(cache.key(transactional));
+
+        cache.end();
+        assertNull(cache.key(search()));
+    }
+
+    @Test
+    public void testHitsGetResultSetsOfTheirOwn()
+    {
+        SearchParameters sp = search();
+        String key = cache.key(sp);
+        assertNull(cache.get(key, sp));
+        SolrJSONResultSet results = results(11L);
+        cache.put(key, results);
+
+        ResultSet first = cache.get(key, sp);
+        ResultSet second = cache.get(key, sp);
+        assertNotSame(results, first);
+        assertNotSame(first, second);
+        first.close();
+        for (ResultSet hit : List.of(first, second))
+        {
+            assertTrue(hit instanceof SolrJSONResultSet);
+            assertEquals(2, hit.length());
+            assertEquals(List.of(NODE1, NODE2), hit.getNodeRefs());
+            assertEquals(0.5f, hit.getScore(1), 0f);
+            assertEquals(42L, hit.getNumberFound());
+            assertTrue(hit.hasMore());
+            assertEquals(Map.of("cm:modified:[NOW/DAY-7DAYS TO NOW]", 3), ((SolrJSONResultSet) hit).getFacetQueries());
+        }
+    }
+
+    @Test
+    public void testEntriesAreDroppedWhenTheIndexChanges()
+    {
+        SearchParameters sp = search();
+        String key = cache.key(sp);
+        cache.put(key, results(11L));
+
+        // the index tracks in commit time order, so it can move on to a lower id
+        SearchParameters other = search();
+        other.setQuery("other");
+        cache.put(cache.key(other), results(10L));
+        assertNull(cache.get(key, sp));
+    }
+
+    private static SearchParameters search()
+    {
+        SearchParameters sp = new SearchParameters();
+        sp.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+        sp.setLanguage(SearchService.LANGUAGE_FTS_ALFRESCO);
+        sp.setQuery("budget");
+        return sp;
+    }
+
+    private static SolrJSONResultSet results(long lastIndexedTxId)
+    {
+        SolrJSONResultSet results = mock(SolrJSONResultSet.class);
+        when(results.length()).thenReturn(2);
+        when(results.getNodeRef(0)).thenReturn(NODE1);
+        when(results.getNodeRef(1)).thenReturn(NODE2);
+        when(results.getScore(0)).thenReturn(1f);
+        when(results.getScore(1)).thenReturn(0.5f);
+        when(results.getNumberFound()).thenReturn(42L);
+        when(results.hasMore()).thenReturn(true);
+        when(results.getLastIndexedTxId()).thenReturn(lastIndexedTxId);
+        when(results.getFacetQueries()).thenReturn(Map.of("cm:modified:[NOW/DAY-7DAYS TO NOW]", 3));
+        return results;
+    }
+}
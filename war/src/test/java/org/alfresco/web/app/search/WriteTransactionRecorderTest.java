@@ -0,0 +1,136 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.search;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+/**
+ * Tests that the {@link WriteTransactionRecorder} reports a transaction only once it has committed.
+ * 
+ * @since 6.2.2
+ */
+public class WriteTransactionRecorderTest
+{
+    private static final NodeRef NODE = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "node1");
+
+    private WriteTransactionRecorder recorder;
+    private NodeDAO nodeDAO;
+    private HttpServletResponse response;
+
+    @Before
+    public void setUp()
+    {
+        nodeDAO = mock(NodeDAO.class);
+        response = mock(HttpServletResponse.class);
+        recorder = new WriteTransactionRecorder();
+        recorder.setNodeDAO(nodeDAO);
+        recorder.begin(response);
+    }
+
+    @After
+    public void tearDown()
+    {
+        recorder.end();
+        if (TransactionSynchronizationManager.isSynchronizationActive())
+        {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void testHeaderIsSetAfterCommit()
+    {
+        when(nodeDAO.getCurrentTransactionId(true)).thenReturn(42L);
+        TransactionSynchronizationManager.initSynchronization();
+        recorder.onUpdateNode(NODE);
+        recorder.onAddAspect(NODE, null);
+        verify(response, never()).setHeader(anyString(), anyString());
+
+        end(TransactionSynchronization.STATUS_COMMITTED);
+        verify(response).setHeader(WriteTransactionRecorder.HEADER, "42");
+        verify(nodeDAO, times(1)).getCurrentTransactionId(true);
+    }
+
+    @Test
+    public void testRolledBackTransactionIsNotReported()
+    {
+        when(nodeDAO.getCurrentTransactionId(true)).thenReturn(42L);
+        TransactionSynchronizationManager.initSynchronization();
+        recorder.onUpdateNode(NODE);
+
+        end(TransactionSynchronization.STATUS_ROLLED_BACK);
+        verify(response, never()).setHeader(anyString(), anyString());
+    }
+
+    @Test
+    public void testLastCommittedTransactionIsReported()
+    {
+        when(nodeDAO.getCurrentTransactionId(true)).thenReturn(43L, 42L);
+        TransactionSynchronizationManager.initSynchronization();
+        recorder.onUpdateNode(NODE);
+        end(TransactionSynchronization.STATUS_COMMITTED);
+        TransactionSynchronizationManager.initSynchronization();
+        recorder.onUpdateNode(NODE);
+        end(TransactionSynchronization.STATUS_COMMITTED);
+
+        verify(response).setHeader(WriteTransactionRecorder.HEADER, "43");
+        verify(response).setHeader(WriteTransactionRecorder.HEADER, "42");
+    }
+
+    @Test
+    public void testWritesOutsideRequestsAreNotRecorded()
+    {
+        recorder.end();
+        TransactionSynchronizationManager.initSynchronization();
+        recorder.onUpdateNode(NODE);
+        end(TransactionSynchronization.STATUS_COMMITTED);
+        verify(nodeDAO, never()).getCurrentTransactionId(true);
+    }
+
+    private static void end(int status)
+    {
+        TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(),
+                status);
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+}
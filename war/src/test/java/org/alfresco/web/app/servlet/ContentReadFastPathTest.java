@@ -0,0 +1,211 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.servlet;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.tenant.TenantService;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.dictionary.DictionaryService;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.AuthenticationService;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.web.app.metrics.MetricsRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests which content reads the {@link ContentReadFastPath} serves, and that the transaction, and so the database
+ * connection, is released before the content is streamed.
+ * 
+ * @since 6.2.2
+ */
+public class ContentReadFastPathTest
+{
+    private static final String NODE_ID = "0d3b26ff-c4c1-4680-8622-8608ea7ab4b2";
+    private static final NodeRef NODE = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, NODE_ID);
+
+    private final AtomicBoolean inTransaction = new AtomicBoolean();
+    private final AtomicBoolean streamedInTransaction = new AtomicBoolean();
+    private RetryingTransactionHelper txnHelper;
+    private NodeService nodeService;
+    private PermissionService permissionService;
+    private ContentReader reader;
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+    private ContentReadFastPath fastPath;
+
+    @Before
+    public void setUp() throws Throwable
+    {
+        txnHelper = mock(RetryingTransactionHelper.class);
+        when(txnHelper.doInTransaction(any(), anyBoolean(), anyBoolean())).thenAnswer(invocation ->
+        {
+            inTransaction.set(true);
+            try
+            {
+                return ((RetryingTransactionCallback<?>) invocation.getArgument(0)).execute();
+            }
+            finally
+            {
+                inTransaction.set(false);
+            }
+        });
+        TransactionService transactionService = mock(TransactionService.class);
+        when(transactionService.getRetryingTransactionHelper()).thenReturn(txnHelper);
+
+        nodeService = mock(NodeService.class);
+        when(nodeService.exists(NODE)).thenReturn(true);
+        when(nodeService.getType(NODE)).thenReturn(ContentModel.TYPE_CONTENT);
+        when(nodeService.getProperty(NODE, ContentModel.PROP_NAME)).thenReturn("report.txt");
+        DictionaryService dictionaryService = mock(DictionaryService.class);
+        when(dictionaryService.isSubClass(ContentModel.TYPE_CONTENT, ContentModel.TYPE_CONTENT)).thenReturn(true);
+        permissionService = mock(PermissionService.class);
+        when(permissionService.hasPermission(NODE, PermissionService.READ_CONTENT)).thenReturn(AccessStatus.ALLOWED);
+
+        reader = mock(ContentReader.class);
+        when(reader.exists()).thenReturn(true);
+        when(reader.getMimetype()).thenReturn("text/plain");
+        when(reader.getEncoding()).thenReturn("UTF-8");
+        when(reader.getSize()).thenReturn(1024L);
+        doAnswer(invocation ->
+        {
+            streamedInTransaction.set(inTransaction.get());
+            return null;
+        }).when(reader).getContent(any(OutputStream.class));
+        ContentService contentService = mock(ContentService.class);
+        when(contentService.getReader(NODE, ContentModel.PROP_CONTENT)).thenReturn(reader);
+
+        fastPath = new ContentReadFastPath();
+        fastPath.setTransactionService(transactionService);
+        fastPath.setAuthenticationService(mock(AuthenticationService.class));
+        fastPath.setTenantService(mock(TenantService.class));
+        fastPath.setNodeService(nodeService);
+        fastPath.setPermissionService(permissionService);
+        fastPath.setContentService(contentService);
+        fastPath.setDictionaryService(dictionaryService);
+        fastPath.setMetricsRegistry(new MetricsRegistry());
+        fastPath.afterPropertiesSet();
+        fastPath.setEnabled(true);
+
+        request = mock(HttpServletRequest.class);
+        when(request.getParameter("alf_ticket")).thenReturn("TICKET_1");
+        when(request.getDateHeader(anyString())).thenReturn(-1L);
+        response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(mock(ServletOutputStream.class));
+    }
+
+    @Test
+    public void testDisabledByDefault() throws IOException
+    {
+        ContentReadFastPath defaults = new ContentReadFastPath();
+        assertFalse(defaults.isEnabled());
+        fastPath.setEnabled(false);
+        assertFalse(fastPath.serve(request, response, NODE_ID, false));
+        verify(response, never()).getOutputStream();
+    }
+
+    @Test
+    public void testPlainReadIsServed() throws IOException
+    {
+        assertTrue(fastPath.serve(request, response, NODE_ID, true));
+        verify(response).setContentType("text/plain;charset=UTF-8");
+        verify(response).setHeader("Content-Length", "1024");
+        verify(response).setHeader("Content-Disposition",
+                "attachment; filename=\"report.txt\"; filename*=UTF-8''report.txt");
+        verify(reader).getContent(any(ServletOutputStream.class));
+    }
+
+    @Test
+    public void testOtherRequestsAreDeclined() throws IOException
+    {
+        when(request.getHeader("Range")).thenReturn("bytes=0-10");
+        assertFalse(fastPath.serve(request, response, NODE_ID, false));
+
+        when(request.getHeader("Range")).thenReturn(null);
+        when(request.getParameter("alf_ticket")).thenReturn(null);
+        assertFalse(fastPath.serve(request, response, NODE_ID, false));
+
+        when(request.getParameter("alf_ticket")).thenReturn("TICKET_1");
+        when(permissionService.hasPermission(NODE, PermissionService.READ_CONTENT)).thenReturn(AccessStatus.DENIED);
+        assertFalse(fastPath.serve(request, response, NODE_ID, false));
+
+        when(permissionService.hasPermission(NODE, PermissionService.READ_CONTENT)).thenReturn(AccessStatus.ALLOWED);
+        when(reader.getMimetype()).thenReturn("text/html");
+        assertFalse(fastPath.serve(request, response, NODE_ID, false));
+
+        verify(response, never()).getOutputStream();
+    }
+
+    @Test
+    public void testNotModified() throws IOException
+    {
+        Date modified = new Date(1_600_000_000_000L);
+        when(nodeService.getProperty(NODE, ContentModel.PROP_MODIFIED)).thenReturn(modified);
+        when(request.getDateHeader("If-Modified-Since")).thenReturn(modified.getTime());
+
+        assertTrue(fastPath.serve(request, response, NODE_ID, false));
+        verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(reader, never()).getContent(any(ServletOutputStream.class));
+    }
+
+    @Test
+    public void testContentIsStreamedAfterTheTransaction() throws IOException
+    {
+        assertTrue(fastPath.serve(request, response, NODE_ID, false));
+
+        verify(txnHelper).doInTransaction(any(), eq(true), eq(false));
+        verify(reader).getContent(any(ServletOutputStream.class));
+        assertFalse(streamedInTransaction.get());
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.web.app.api.nodes.NodesBatchWriteEntityResource;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.springframework.util.FileCopyUtils;
+
+/**
+ * Tests that the {@link NodesBatchWriteFilter} passes a batch write to the API once per chunk and only sends the
+ * response of the last pass.
+ * 
+ * @since 6.2.2
+ */
+public class NodesBatchWriteFilterTest
+{
+    private static final String BATCH_WRITE_PATH = "/-default-/public/alfresco/versions/1/nodes-batch-write";
+    private static final String BODY = "[{\"op\":\"create\",\"parentId\":\"p\",\"node\":{\"name\":\"a\"}}]";
+
+    private NodesBatchWriteEntityResource resource;
+    private NodesBatchWriteFilter filter;
+    private HttpServletResponse response;
+    private final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    private final List<String> replayed = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException
+    {
+        resource = mock(NodesBatchWriteEntityResource.class);
+        filter = new NodesBatchWriteFilter();
+        filter.setNodesBatchWrite(resource);
+        response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream()
+        {
+            @Override
+            public void write(int b)
+            {
+                sent.write(b);
+            }
+        });
+    }
+
+    @Test
+    public void testEachChunkIsAPassAndOnlyTheLastIsSent() throws Exception
+    {
+        when(resource.hasMoreChunks()).thenReturn(true, true, false);
+
+        filter.doFilter(mock(ServletContext.class), post(), response, chain(HttpServletResponse.SC_OK));
+
+        assertEquals(List.of(BODY, BODY, BODY), replayed);
+        assertEquals("pass 3", sent.toString(StandardCharsets.UTF_8));
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+        verify(response).setHeader("X-Pass", "3");
+        verify(response, never()).setHeader("X-Pass", "1");
+        InOrder order = inOrder(resource);
+        order.verify(resource).beginChunks();
+        order.verify(resource).endChunks();
+    }
+
+    @Test
+    public void testFailedPassEndsTheBatch() throws Exception
+    {
+        when(resource.hasMoreChunks()).thenReturn(true);
+
+        filter.doFilter(mock(ServletContext.class), post(), response, chain(HttpServletResponse.SC_BAD_REQUEST));
+
+        assertEquals(1, replayed.size());
+        assertEquals("pass 1", sent.toString(StandardCharsets.UTF_8));
+        verify(response).setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        verify(resource).endChunks();
+    }
+
+    @Test
+    public void testOtherRequestsAreNotChunked() throws Exception
+    {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getPathInfo()).thenReturn("/-default-/public/alfresco/versions/1/nodes/-root-/children");
+        FilterChain chain = mock(FilterChain.class);
+
+        filter.doFilter(mock(ServletContext.class), request, response, chain);
+
+        verify(chain).doFilter(request, response);
+        verify(resource, never()).beginChunks();
+    }
+
+    private HttpServletRequest post() throws IOException
+    {
+        final ByteArrayInputStream bytes = new ByteArrayInputStream(BODY.getBytes(StandardCharsets.UTF_8));
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("POST");
+        when(request.getPathInfo()).thenReturn(BATCH_WRITE_PATH);
+        when(request.getInputStream()).thenReturn(new ServletInputStream()
+        {
+            @Override
+            public int read()
+            {
+                return bytes.read();
+            }
+        });
+        return request;
+    }
+
+    /**
+     * Stands in for the API: reads the body and answers with the number of the pass
+     */
+    private FilterChain chain(int status) throws Exception
+    {
+        FilterChain chain = mock(FilterChain.class);
+        doAnswer(invocation -> {
+            ServletRequest request = invocation.getArgument(0);
+            HttpServletResponse pass = invocation.getArgument(1);
+            replayed.add(new String(FileCopyUtils.copyToByteArray(request.getInputStream()), StandardCharsets.UTF_8));
+            pass.setStatus(status);
+            pass.setHeader("X-Pass", String.valueOf(replayed.size()));
+            pass.getOutputStream().write(("pass " + replayed.size()).getBytes(StandardCharsets.UTF_8));
+            pass.flushBuffer();
+            return null;
+        }).when(chain).doFilter(any(), any());
+        return chain;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.servlet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.repo.tenant.TenantService;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.quickshare.QuickShareService;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.security.AuthenticationService;
+import org.alfresco.service.cmr.security.AuthorityService;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.Pair;
+import org.alfresco.web.app.rendition.RenditionCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the {@link RenditionCacheFilter} only makes successful responses cacheable, and answers later requests
+ * from the {@link RenditionCache}.
+ * 
+ * @since 6.2.2
+ */
+public class RenditionCacheFilterTest
+{
+    private static final String NODE_ID = "5f3e0d2a-7b41-4c59-9b0e-2f1c7f0d4a11";
+    private static final NodeRef NODE = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, NODE_ID);
+    private static final String CONTENT_URL = "store://2020/1/1/content.bin";
+    private static final String SHARED_PATH = "/-default-/public/alfresco/versions/1/shared-links/shared1/renditions/doclib/content";
+    private static final byte[] THUMBNAIL = "thumbnail".getBytes(StandardCharsets.UTF_8);
+
+    private RenditionCache renditionCache;
+    private RenditionCacheFilter filter;
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+    private ByteArrayOutputStream written;
+    private int status;
+
+    @Before
+    public void setUp() throws Throwable
+    {
+        renditionCache = new RenditionCache();
+        renditionCache.setEnabled(true);
+        renditionCache.setPolicyComponent(mock(PolicyComponent.class));
+        renditionCache.setNodeService(mock(NodeService.class));
+        renditionCache.afterPropertiesSet();
+
+        RetryingTransactionHelper txnHelper = mock(RetryingTransactionHelper.class);
+        when(txnHelper.doInTransaction(any(), anyBoolean(), anyBoolean()))
+                .thenAnswer(invocation -> ((RetryingTransactionCallback<?>) invocation.getArgument(0)).execute());
+        TransactionService transactionService = mock(TransactionService.class);
+        when(transactionService.getRetryingTransactionHelper()).thenReturn(txnHelper);
+        NodeService nodeService = mock(NodeService.class);
+        when(nodeService.exists(NODE)).thenReturn(true);
+        when(nodeService.getProperty(NODE, ContentModel.PROP_CONTENT))
+                .thenReturn(new ContentData(CONTENT_URL, "application/pdf", 1000L, "UTF-8"));
+        QuickShareService quickShareService = mock(QuickShareService.class);
+        when(quickShareService.getTenantNodeRefFromSharedId("shared1")).thenReturn(new Pair<>("", NODE));
+
+        filter = new RenditionCacheFilter();
+        filter.setRenditionCache(renditionCache);
+        filter.setTransactionService(transactionService);
+        filter.setAuthenticationService(mock(AuthenticationService.class));
+        filter.setAuthorityService(mock(AuthorityService.class));
+        filter.setTenantService(mock(TenantService.class));
+        filter.setNodeService(nodeService);
+        filter.setPermissionService(mock(PermissionService.class));
+        filter.setQuickShareService(quickShareService);
+        filter.setMaxAge(60);
+        filter.afterPropertiesSet();
+
+        request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getPathInfo()).thenReturn(SHARED_PATH);
+        when(request.getParameterNames()).thenReturn(Collections.emptyEnumeration());
+
+        written = new ByteArrayOutputStream();
+        status = HttpServletResponse.SC_OK;
+        response = mock(HttpServletResponse.class);
+        doAnswer(invocation -> status = invocation.getArgument(0)).when(response).setStatus(anyInt());
+        doAnswer(invocation -> status = invocation.getArgument(0)).when(response).sendError(anyInt());
+        when(response.getStatus()).thenAnswer(invocation -> status);
+        ServletOutputStream out = mock(ServletOutputStream.class);
+        doAnswer(invocation ->
+        {
+            written.write((byte[]) invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2));
+            return null;
+        }).when(out).write(any(byte[].class), anyInt(), anyInt());
+        doAnswer(invocation ->
+        {
+            written.write((byte[]) invocation.getArgument(0));
+            return null;
+        }).when(out).write(any(byte[].class));
+        when(response.getOutputStream()).thenReturn(out);
+    }
+
+    @After
+    public void tearDown()
+    {
+        renditionCache.destroy();
+    }
+
+    private static String key()
+    {
+        return RenditionCache.key(NODE, CONTENT_URL, "doclib", true);
+    }
+
+    @Test
+    public void testSuccessfulResponseIsCachedWithTheFilterHeaders() throws Exception
+    {
+        FilterChain chain = mock(FilterChain.class);
+        doAnswer(invocation ->
+        {
+            HttpServletResponse res = invocation.getArgument(1);
+            res.setHeader("Cache-Control", "no-cache");
+            res.setContentType("image/png");
+            res.getOutputStream().write(THUMBNAIL, 0, THUMBNAIL.length);
+            return null;
+        }).when(chain).doFilter(any(), any());
+
+        filter.doFilter(mock(ServletContext.class), request, response, chain);
+
+        verify(response).setHeader("ETag", RenditionCache.etag(key()));
+        verify(response).setHeader("Cache-Control", "public, max-age=60");
+        verify(response, never()).setHeader("Cache-Control", "no-cache");
+        assertNotNull(renditionCache.get(key()));
+    }
+
+    @Test
+    public void testErrorResponseKeepsTheApiHeaders() throws Exception
+    {
+        FilterChain chain = mock(FilterChain.class);
+        doAnswer(invocation ->
+        {
+            HttpServletResponse res = invocation.getArgument(1);
+            res.setHeader("Cache-Control", "no-cache");
+            res.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return null;
+        }).when(chain).doFilter(any(), any());
+
+        filter.doFilter(mock(ServletContext.class), request, response, chain);
+
+        verify(response, never()).setHeader(eq("ETag"), anyString());
+        verify(response).setHeader("Cache-Control", "no-cache");
+        assertNull(renditionCache.get(key()));
+    }
+
+    @Test
+    public void testStatusSetWithoutABody() throws Exception
+    {
+        FilterChain chain = mock(FilterChain.class);
+        doAnswer(invocation ->
+        {
+            ((HttpServletResponse) invocation.getArgument(1)).setStatus(HttpServletResponse.SC_ACCEPTED);
+            return null;
+        }).when(chain).doFilter(any(), any());
+
+        filter.doFilter(mock(ServletContext.class), request, response, chain);
+
+        verify(response, never()).setHeader(eq("ETag"), anyString());
+        verify(response, never()).setHeader(eq("Cache-Control"), anyString());
+    }
+
+    @Test
+    public void testHitIsAnsweredFromTheCache() throws Exception
+    {
+        renditionCache.put(key(), NODE, "image/png", null, THUMBNAIL);
+        FilterChain chain = mock(FilterChain.class);
+
+        filter.doFilter(mock(ServletContext.class), request, response, chain);
+
+        verify(chain, never()).doFilter(any(), any());
+        verify(response).setHeader("ETag", RenditionCache.etag(key()));
+        verify(response).setContentType("image/png");
+        assertArrayEquals(THUMBNAIL, written.toByteArray());
+    }
+}
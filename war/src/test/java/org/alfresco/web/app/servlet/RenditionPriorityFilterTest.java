@@ -0,0 +1,153 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.web.app.rendition.RenditionPreGenerator;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileCopyUtils;
+
+/**
+ * Tests that the {@link RenditionPriorityFilter} takes only the renditions a POST requests off the queue.
+ * 
+ * @since 6.2.2
+ */
+public class RenditionPriorityFilterTest
+{
+    private static final String NODE_ID = "5f3e0d2a-7b41-4c59-9b0e-2f1c7f0d4a11";
+    private static final NodeRef NODE = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, NODE_ID);
+    private static final String RENDITIONS_PATH = "/-default-/public/alfresco/versions/1/nodes/" + NODE_ID + "/renditions";
+
+    private RenditionPreGenerator preGenerator;
+    private RenditionPriorityFilter filter;
+    private HttpServletResponse response;
+    private String replayed;
+
+    @Before
+    public void setUp()
+    {
+        preGenerator = mock(RenditionPreGenerator.class);
+        when(preGenerator.isEnabled()).thenReturn(true);
+        filter = new RenditionPriorityFilter();
+        filter.setRenditionPreGenerator(preGenerator);
+        response = mock(HttpServletResponse.class);
+    }
+
+    @Test
+    public void testParseSingleAndListBodies()
+    {
+        assertEquals(Set.of("doclib"), RenditionPriorityFilter.parseRenditionIds("{\"id\": \"doclib\"}"));
+        assertEquals(Set.of("doclib", "pdf"),
+                RenditionPriorityFilter.parseRenditionIds("[{\"id\":\"doclib\"}, {\"id\" : \"pdf\"}]"));
+        assertEquals(Set.of(), RenditionPriorityFilter.parseRenditionIds("{}"));
+    }
+
+    @Test
+    public void testPostCancelsTheRequestedRenditions() throws Exception
+    {
+        when(response.getStatus()).thenReturn(HttpServletResponse.SC_ACCEPTED);
+        String body = "[{\"id\":\"pdf\"}]";
+
+        filter.doFilter(mock(ServletContext.class), post(body), response, chain());
+
+        assertEquals(body, replayed);
+        verify(preGenerator).cancel(NODE, Set.of("pdf"));
+    }
+
+    @Test
+    public void testRejectedPostCancelsNothing() throws Exception
+    {
+        when(response.getStatus()).thenReturn(HttpServletResponse.SC_BAD_REQUEST);
+
+        filter.doFilter(mock(ServletContext.class), post("{\"id\":\"pdf\"}"), response, chain());
+
+        verify(preGenerator, never()).cancel(any(), anyCollection());
+    }
+
+    @Test
+    public void testGetPrioritisesTheNode() throws Exception
+    {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getPathInfo()).thenReturn(RENDITIONS_PATH + "/doclib/content");
+
+        filter.doFilter(mock(ServletContext.class), request, response, mock(FilterChain.class));
+
+        verify(preGenerator).prioritise(NODE);
+        verify(preGenerator, never()).cancel(any(), anyCollection());
+    }
+
+    private HttpServletRequest post(String body) throws IOException
+    {
+        final ByteArrayInputStream bytes = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("POST");
+        when(request.getPathInfo()).thenReturn(RENDITIONS_PATH);
+        when(request.getInputStream()).thenReturn(new ServletInputStream()
+        {
+            @Override
+            public int read()
+            {
+                return bytes.read();
+            }
+        });
+        return request;
+    }
+
+    private FilterChain chain() throws Exception
+    {
+        FilterChain chain = mock(FilterChain.class);
+        doAnswer(invocation -> {
+            ServletRequest request = invocation.getArgument(0);
+            replayed = new String(FileCopyUtils.copyToByteArray(request.getInputStream()), StandardCharsets.UTF_8);
+            return null;
+        }).when(chain).doFilter(any(), any());
+        return chain;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.servlet;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.AuthenticationService;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.web.app.rendition.RenditionRequestRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the {@link RenditionRequestWaitFilter} only holds requests of users who can read the node.
+ * 
+ * @since 6.2.2
+ */
+public class RenditionRequestWaitFilterTest
+{
+    private static final String NODE_ID = "5f3e0d2a-7b41-4c59-9b0e-2f1c7f0d4a11";
+    private static final NodeRef NODE = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, NODE_ID);
+    private static final String CONTENT_PATH = "/-default-/public/alfresco/versions/1/nodes/" + NODE_ID
+            + "/renditions/doclib/content";
+
+    private RenditionRequestRegistry registry;
+    private PermissionService permissionService;
+    private RenditionRequestWaitFilter filter;
+    private FilterChain chain;
+
+    @Before
+    public void setUp() throws Throwable
+    {
+        registry = mock(RenditionRequestRegistry.class);
+        when(registry.isEnabled()).thenReturn(true);
+        when(registry.isInFlight(NODE, "doclib")).thenReturn(true);
+        permissionService = mock(PermissionService.class);
+        RetryingTransactionHelper txnHelper = mock(RetryingTransactionHelper.class);
+        when(txnHelper.doInTransaction(any(), anyBoolean(), anyBoolean()))
+                .thenAnswer(invocation -> ((RetryingTransactionCallback<?>) invocation.getArgument(0)).execute());
+        TransactionService transactionService = mock(TransactionService.class);
+        when(transactionService.getRetryingTransactionHelper()).thenReturn(txnHelper);
+
+        filter = new RenditionRequestWaitFilter();
+        filter.setRenditionRequestRegistry(registry);
+        filter.setAuthenticationService(mock(AuthenticationService.class));
+        filter.setPermissionService(permissionService);
+        filter.setTransactionService(transactionService);
+        filter.afterPropertiesSet();
+        chain = mock(FilterChain.class);
+    }
+
+    @Test
+    public void testReaderWaitsForTheRenditionInFlight() throws Exception
+    {
+        when(permissionService.hasPermission(NODE, PermissionService.READ)).thenReturn(AccessStatus.ALLOWED);
+        HttpServletRequest request = request(true);
+
+        filter.doFilter(mock(ServletContext.class), request, mock(HttpServletResponse.class), chain);
+
+        verify(registry).await(NODE, "doclib", 5000L);
+        verify(chain).doFilter(any(), any());
+    }
+
+    @Test
+    public void testAnonymousRequestIsNotHeld() throws Exception
+    {
+        HttpServletRequest request = request(false);
+
+        filter.doFilter(mock(ServletContext.class), request, mock(HttpServletResponse.class), chain);
+
+        verify(registry, never()).await(any(), anyString(), anyLong());
+        verify(chain).doFilter(any(), any());
+    }
+
+    @Test
+    public void testUserWithoutReadPermissionIsNotHeld() throws Exception
+    {
+        when(permissionService.hasPermission(NODE, PermissionService.READ)).thenReturn(AccessStatus.DENIED);
+        HttpServletRequest request = request(true);
+
+        filter.doFilter(mock(ServletContext.class), request, mock(HttpServletResponse.class), chain);
+
+        verify(registry, never()).await(any(), anyString(), anyLong());
+        verify(chain).doFilter(any(), any());
+    }
+
+    @Test
+    public void testNothingInFlightSkipsAuthentication() throws Exception
+    {
+        when(registry.isInFlight(NODE, "doclib")).thenReturn(false);
+        HttpServletRequest request = request(true);
+
+        filter.doFilter(mock(ServletContext.class), request, mock(HttpServletResponse.class), chain);
+
+        verify(permissionService, never()).hasPermission(any(NodeRef.class), anyString());
+        verify(registry, never()).await(any(), anyString(), anyLong());
+    }
+
+    private static HttpServletRequest request(boolean credentials)
+    {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getPathInfo()).thenReturn(CONTENT_PATH);
+        if (credentials)
+        {
+            when(request.getHeader("Authorization")).thenReturn("Basic "
+                    + Base64.getEncoder().encodeToString("reader:secret".getBytes(StandardCharsets.UTF_8)));
+        }
+        return request;
+    }
+}
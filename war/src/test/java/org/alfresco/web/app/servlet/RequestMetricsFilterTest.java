@@ -0,0 +1,153 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRegistration;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.web.app.metrics.Histogram;
+import org.alfresco.web.app.metrics.MetricsRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Tests that the {@link RequestMetricsFilter} records synchronous requests when they return and asynchronous ones
+ * when they complete.
+ * 
+ * @since 6.2.2
+ */
+public class RequestMetricsFilterTest
+{
+    private MetricsRegistry metricsRegistry;
+    private RequestMetricsFilter filter;
+    private ServletContext context;
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+
+    @Before
+    public void setUp()
+    {
+        metricsRegistry = new MetricsRegistry();
+        filter = new RequestMetricsFilter();
+        filter.setMetricsRegistry(metricsRegistry);
+        filter.init();
+
+        ServletRegistration registration = mock(ServletRegistration.class);
+        when(registration.getName()).thenReturn("publicapiServlet");
+        when(registration.getMappings()).thenReturn(Collections.singletonList("/api/*"));
+        context = mock(ServletContext.class);
+        Map<String, ServletRegistration> registrations = Collections.singletonMap("publicapiServlet", registration);
+        when(context.getServletRegistrations()).then(invocation -> registrations);
+
+        request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getServletPath()).thenReturn("/api");
+        response = mock(HttpServletResponse.class);
+    }
+
+    @Test
+    public void testSynchronousRequestIsRecordedOnReturn() throws Exception
+    {
+        when(response.getStatus()).thenReturn(404);
+
+        filter.doFilter(context, request, response, mock(FilterChain.class));
+
+        assertEquals(1, histogram("4xx").getCount());
+    }
+
+    @Test
+    public void testAsynchronousRequestIsRecordedOnCompletion() throws Exception
+    {
+        AsyncContext asyncContext = mock(AsyncContext.class);
+        when(request.isAsyncStarted()).thenReturn(true);
+        when(request.getAsyncContext()).thenReturn(asyncContext);
+        when(response.getStatus()).thenReturn(200);
+
+        filter.doFilter(context, request, response, mock(FilterChain.class));
+
+        assertEquals(0, histogram("2xx").getCount());
+        ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+        verify(asyncContext).addListener(listener.capture());
+
+        AsyncEvent event = new AsyncEvent(asyncContext, request, response);
+        listener.getValue().onComplete(event);
+        listener.getValue().onComplete(event);
+
+        assertEquals(1, histogram("2xx").getCount());
+    }
+
+    @Test
+    public void testAsynchronousTimeoutIsRecordedAsUnavailable() throws Exception
+    {
+        AsyncContext asyncContext = mock(AsyncContext.class);
+        when(request.isAsyncStarted()).thenReturn(true);
+        when(request.getAsyncContext()).thenReturn(asyncContext);
+
+        filter.doFilter(context, request, response, mock(FilterChain.class));
+
+        ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+        verify(asyncContext).addListener(listener.capture());
+        AsyncEvent event = new AsyncEvent(asyncContext, request, response);
+        listener.getValue().onTimeout(event);
+        listener.getValue().onComplete(event);
+
+        assertEquals(1, histogram("5xx").getCount());
+    }
+
+    @Test
+    public void testNothingIsRecordedWhenDisabled() throws Exception
+    {
+        metricsRegistry.setEnabled(false);
+        FilterChain chain = mock(FilterChain.class);
+
+        filter.doFilter(context, request, response, chain);
+
+        verify(chain).doFilter(any(), any());
+        assertEquals(0, histogram("2xx").getCount());
+    }
+
+    private Histogram histogram(String status)
+    {
+        return metricsRegistry.histogram("http_server_request_seconds", "Latency of HTTP requests per servlet",
+                "servlet", "method", "status").labels("publicapiServlet", "GET", status);
+    }
+}
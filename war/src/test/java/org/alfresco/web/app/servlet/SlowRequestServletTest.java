@@ -0,0 +1,125 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.servlet;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.alfresco.service.cmr.security.AuthenticationService;
+import org.alfresco.service.cmr.security.AuthorityService;
+import org.alfresco.web.app.profiling.SlowRequestMonitor;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.web.context.WebApplicationContext;
+
+/**
+ * Tests that the {@link SlowRequestServlet} only answers administrators.
+ * 
+ * @since 6.2.2
+ */
+public class SlowRequestServletTest
+{
+    private SlowRequestServlet servlet;
+    private AuthorityService authorityService;
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        SlowRequestMonitor monitor = new SlowRequestMonitor();
+        monitor.setEnabled(true);
+        authorityService = mock(AuthorityService.class);
+
+        WebApplicationContext applicationContext = mock(WebApplicationContext.class);
+        when(applicationContext.getBean("slowRequestMonitor")).thenReturn(monitor);
+        when(applicationContext.getBean("AuthenticationService")).thenReturn(mock(AuthenticationService.class));
+        when(applicationContext.getBean("AuthorityService")).thenReturn(authorityService);
+        ServletContext servletContext = mock(ServletContext.class);
+        when(servletContext.getAttribute(WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE))
+                .thenReturn(applicationContext);
+        ServletConfig config = mock(ServletConfig.class);
+        when(config.getServletContext()).thenReturn(servletContext);
+        servlet = new SlowRequestServlet();
+        servlet.init(config);
+
+        request = mock(HttpServletRequest.class);
+        response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(mock(ServletOutputStream.class));
+    }
+
+    @Test
+    public void testAnonymousRequestIsChallenged() throws Exception
+    {
+        servlet.doGet(request, response);
+
+        verify(response).setHeader("WWW-Authenticate", "Basic realm=\"Alfresco\"");
+        verify(response).sendError(HttpServletResponse.SC_UNAUTHORIZED);
+        verify(response, never()).setContentType(any());
+    }
+
+    @Test
+    public void testNonAdministratorIsChallenged() throws Exception
+    {
+        when(request.getHeader("Authorization")).thenReturn(basic("user", "secret"));
+        when(authorityService.hasAdminAuthority()).thenReturn(false);
+
+        servlet.doGet(request, response);
+
+        verify(response).sendError(HttpServletResponse.SC_UNAUTHORIZED);
+    }
+
+    @Test
+    public void testAdministratorGetsRecords() throws Exception
+    {
+        when(request.getHeader("Authorization")).thenReturn(basic("admin", "admin"));
+        when(authorityService.hasAdminAuthority()).thenReturn(true);
+
+        servlet.doGet(request, response);
+
+        verify(response, never()).sendError(anyInt());
+        verify(response).setContentType("application/json;charset=UTF-8");
+    }
+
+    private static String basic(String userName, String password)
+    {
+        byte[] credentials = (userName + ":" + password).getBytes(StandardCharsets.UTF_8);
+        return "Basic " + Base64.getEncoder().encodeToString(credentials);
+    }
+}
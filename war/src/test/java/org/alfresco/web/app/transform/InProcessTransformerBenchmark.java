@@ -0,0 +1,106 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.transform;
+
+import static org.alfresco.web.app.transform.InProcessTransformerTest.THUMBNAIL_OPTIONS;
+import static org.alfresco.web.app.transform.InProcessTransformerTest.png;
+import static org.alfresco.web.app.transform.InProcessTransformerTest.text;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.alfresco.web.app.metrics.MetricsRegistry;
+import org.junit.Test;
+
+/**
+ * Measures the throughput of a mix of small image thumbnails and text re-encodings done by the
+ * {@link InProcessTransformer} from 16 threads. Only reports the figure, to be set against the transforms per second
+ * of a T-Engine measured on the same hardware.
+ * <p>
+ * Not part of the unit tests, which are the <code>*Test</code> classes; run it with
+ * <code>mvn test -Dtest=InProcessTransformerBenchmark</code>.
+ * 
+ * @since 6.2.2
+ */
+public class InProcessTransformerBenchmark
+{
+    private static final int CLIENTS = 16;
+    private static final int REQUESTS = 400;
+
+    @Test
+    public void testThroughput() throws Exception
+    {
+        InProcessTransformer transformer = new InProcessTransformer();
+        transformer.setEnabled(true);
+        transformer.setMetricsRegistry(new MetricsRegistry());
+        transformer.afterPropertiesSet();
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        byte[] png = png();
+        byte[] text = text();
+
+        List<Callable<Object>> requests = new ArrayList<>(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++)
+        {
+            // every other request is a thumbnail of the image, the rest re-encode the text
+            requests.add(i % 2 == 0
+                    ? () -> transformer.transform(png, "image/png", null, "image/png", THUMBNAIL_OPTIONS)
+                    : () -> transformer.transform(text, "text/csv", "ISO-8859-1", "text/plain",
+                            Map.of("targetEncoding", "UTF-8")));
+        }
+        try
+        {
+            // warm up
+            await(clients.invokeAll(requests));
+            double perSecond = 0;
+            for (int run = 0; run < 3; run++)
+            {
+                long start = System.nanoTime();
+                await(clients.invokeAll(requests));
+                perSecond = Math.max(perSecond, REQUESTS * 1e9 / (System.nanoTime() - start));
+            }
+            System.out.println(CLIENTS + " clients, mixed small images and text: " + Math.round(perSecond)
+                    + " transforms/s in the JVM");
+        }
+        finally
+        {
+            clients.shutdownNow();
+            transformer.destroy();
+        }
+    }
+
+    private static void await(List<Future<Object>> done) throws Exception
+    {
+        for (Future<Object> future : done)
+        {
+            future.get();
+        }
+    }
+}
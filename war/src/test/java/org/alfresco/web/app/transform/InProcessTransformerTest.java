@@ -0,0 +1,200 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.transform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import org.alfresco.web.app.metrics.MetricsRegistry;
+import org.alfresco.web.app.transform.TransformEngineClient.TransformResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the whitelist and the transforms of the {@link InProcessTransformer}, alone and from many threads at once.
+ * 
+ * @since 6.2.2
+ */
+public class InProcessTransformerTest
+{
+    private static final int CLIENTS = 16;
+    private static final int REQUESTS = 200;
+    static final Map<String, String> THUMBNAIL_OPTIONS = Map.of("resizeWidth", "100", "resizeHeight", "100",
+            "maintainAspectRatio", "true", "thumbnail", "true");
+
+    private InProcessTransformer transformer;
+    private ExecutorService clients;
+    private byte[] png;
+    private byte[] text;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        transformer = new InProcessTransformer();
+        transformer.setEnabled(true);
+        transformer.setMetricsRegistry(new MetricsRegistry());
+        transformer.afterPropertiesSet();
+        clients = Executors.newFixedThreadPool(CLIENTS);
+
+        png = png();
+        text = text();
+    }
+
+    @After
+    public void tearDown()
+    {
+        clients.shutdownNow();
+        transformer.destroy();
+    }
+
+    @Test
+    public void testWhitelist()
+    {
+        assertTrue(transformer.isSupported("image/png", png.length, "image/png", THUMBNAIL_OPTIONS));
+        assertTrue(transformer.isSupported("text/csv", text.length, "text/plain", Collections.emptyMap()));
+        assertFalse(transformer.isSupported("application/pdf", 1000, "image/png", THUMBNAIL_OPTIONS));
+        assertFalse(transformer.isSupported("image/png", 2 * 1024 * 1024, "image/png", THUMBNAIL_OPTIONS));
+        assertFalse(transformer.isSupported("image/png", png.length, "image/png", Map.of("cropGravity", "North")));
+        assertFalse(transformer.isSupported("image/jpeg", 1000, "image/png", Map.of("autoOrient", "true")));
+        assertFalse(transformer.isSupported("image/png", png.length, "image/png", Map.of("startPage", "2")));
+    }
+
+    @Test
+    public void testImageIsScaledKeepingTheAspectRatio() throws IOException
+    {
+        TransformResult result = transformer.transform(png, "image/png", null, "image/png", THUMBNAIL_OPTIONS);
+
+        assertNotNull(result);
+        try (InputStream in = result.open())
+        {
+            BufferedImage thumbnail = ImageIO.read(in);
+            assertEquals(100, thumbnail.getWidth());
+            assertEquals(75, thumbnail.getHeight());
+        }
+    }
+
+    @Test
+    public void testTextIsReencoded() throws IOException
+    {
+        byte[] latin1 = "caf\u00e9".getBytes(StandardCharsets.ISO_8859_1);
+
+        TransformResult result = transformer.transform(latin1, "text/plain", "ISO-8859-1", "text/plain",
+                Map.of("targetEncoding", "UTF-8"));
+
+        try (InputStream in = result.open())
+        {
+            assertEquals("caf\u00e9", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testImageOverPixelLimitIsDeclined()
+    {
+        transformer.setMaxPixels(1000);
+
+        assertNull(transformer.transform(png, "image/png", null, "image/png", THUMBNAIL_OPTIONS));
+    }
+
+    @Test
+    public void testConcurrentTransformsDoNotShareState() throws Exception
+    {
+        List<Callable<Boolean>> requests = new ArrayList<>(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++)
+        {
+            final int request = i;
+            requests.add(() -> inProcess(request));
+        }
+        for (Future<Boolean> done : clients.invokeAll(requests))
+        {
+            assertTrue(done.get());
+        }
+    }
+
+    /**
+     * Every other request is a thumbnail of the image, the rest re-encode the text
+     * 
+     * @return whether the result is the expected rendition
+     */
+    private boolean inProcess(int i) throws IOException
+    {
+        if (i % 2 == 0)
+        {
+            TransformResult result = transformer.transform(png, "image/png", null, "image/png", THUMBNAIL_OPTIONS);
+            try (InputStream in = result.open())
+            {
+                BufferedImage thumbnail = ImageIO.read(in);
+                return thumbnail.getWidth() == 100 && thumbnail.getHeight() == 75;
+            }
+        }
+        TransformResult result = transformer.transform(text, "text/csv", "ISO-8859-1", "text/plain",
+                Map.of("targetEncoding", "UTF-8"));
+        try (InputStream in = result.open())
+        {
+            return Arrays.equals(text, in.readAllBytes());
+        }
+    }
+
+    static byte[] png() throws IOException
+    {
+        BufferedImage image = new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.RED, 320, 240, Color.BLUE));
+        graphics.fillRect(0, 0, 320, 240);
+        graphics.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    static byte[] text()
+    {
+        return "Quarterly report\nRevenue;Costs\n1000;800\n".repeat(50).getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
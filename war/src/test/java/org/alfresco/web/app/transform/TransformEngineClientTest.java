@@ -0,0 +1,205 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.transform;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.web.app.metrics.MetricsRegistry;
+import org.alfresco.web.app.transform.TransformEngineClient.TransformResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the {@link TransformEngineClient} against a T-Engine simulated with the JDK HTTP server: transformer routing,
+ * the per transformer concurrency limit, and which failures count as the T-Engine being unavailable.
+ * 
+ * @since 6.2.2
+ */
+public class TransformEngineClientTest
+{
+    private static final byte[] RESULT = "transformed".getBytes(StandardCharsets.UTF_8);
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private String engineUrl;
+    private volatile int status = 200;
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile boolean block;
+    private final CountDownLatch received = new CountDownLatch(1);
+    private TransformEngineClient client;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.createContext("/transform", exchange -> {
+            try (InputStream in = exchange.getRequestBody())
+            {
+                in.readAllBytes();
+                received.countDown();
+                if (block)
+                {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+                exchange.sendResponseHeaders(status, RESULT.length);
+                try (OutputStream out = exchange.getResponseBody())
+                {
+                    out.write(RESULT);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.start();
+        engineUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+
+        client = new TransformEngineClient();
+        client.setMetricsRegistry(new MetricsRegistry());
+        client.setConcurrency(new String[] {"imagemagick:1"});
+        client.afterPropertiesSet();
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown()
+    {
+        release.countDown();
+        executor.shutdownNow();
+        client.destroy();
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    @Test
+    public void testTransformerRouting()
+    {
+        assertEquals("imagemagick", TransformEngineClient.getTransformer("image/png", "image/jpeg"));
+        assertEquals("pdfrenderer", TransformEngineClient.getTransformer("application/pdf", "image/png"));
+        assertEquals("tika", TransformEngineClient.getTransformer("application/pdf", "text/plain"));
+        assertEquals("libreoffice", TransformEngineClient.getTransformer(
+                "application/vnd.openxmlformats-officedocument.wordprocessingml.document", "application/pdf"));
+        assertEquals("libreoffice", TransformEngineClient.getTransformer("text/csv", "application/pdf"));
+        assertEquals("misc", TransformEngineClient.getTransformer("message/rfc822", "application/pdf"));
+    }
+
+    @Test
+    public void testResultIsRead() throws IOException
+    {
+        TransformResult result = transform(5000L);
+        try (InputStream in = result.open())
+        {
+            assertEquals(RESULT.length, result.getSize());
+            assertArrayEquals(RESULT, in.readAllBytes());
+        }
+        finally
+        {
+            result.release();
+        }
+    }
+
+    @Test
+    public void testFailedTransformIsNotUnavailability()
+    {
+        status = 500;
+        try
+        {
+            transform(5000L);
+            fail("Expected the transform to fail");
+        }
+        catch (ContentIOException e)
+        {
+            assertFalse(e instanceof TransformEngineUnavailableException);
+            assertTrue(e.getMessage(), e.getMessage().contains("returned 500"));
+        }
+    }
+
+    @Test(expected = TransformEngineUnavailableException.class)
+    public void testUnreachableEngineIsUnavailable() throws IOException
+    {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0))
+        {
+            port = socket.getLocalPort();
+        }
+        engineUrl = "http://127.0.0.1:" + port + "/";
+        transform(5000L);
+    }
+
+    @Test
+    public void testConcurrencyLimitRejectsWhenNoTransformerIsFree() throws Exception
+    {
+        block = true;
+        Future<TransformResult> first = executor.submit(() -> transform(5000L));
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        try
+        {
+            transform(100L);
+            fail("Expected no imagemagick transformer to be available");
+        }
+        catch (TransformEngineUnavailableException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().contains("imagemagick"));
+        }
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS).release();
+
+        // the slot is free again
+        transform(5000L).release();
+    }
+
+    private TransformResult transform(long timeoutMs)
+    {
+        return client.transform(engineUrl, new ByteArrayInputStream(new byte[] {1, 2, 3}), "image/png", "png",
+                "image/jpeg", "jpeg", Map.of("resizeWidth", "100"), timeoutMs);
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.transform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.rendition2.RenditionDefinition2;
+import org.alfresco.repo.rendition2.RenditionService2Impl;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentService;
+import org.alfresco.service.cmr.repository.MimetypeService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.web.app.transform.TransformEngineClient.TransformResult;
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.stubbing.OngoingStubbing;
+import org.springframework.beans.factory.BeanFactory;
+
+/**
+ * Tests which failures of the {@link TransformEngineRenditionInterceptor} are passed on to the original transform
+ * client and which are reported as failed renditions.
+ * 
+ * @since 6.2.2
+ */
+public class TransformEngineRenditionInterceptorTest
+{
+    private static final NodeRef SOURCE = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "source1");
+    private static final String ENGINE_URL = "http://transform-core-aio:8090/";
+
+    private TransformEngineRenditionInterceptor interceptor;
+    private TransformEngineClient engineClient;
+    private RenditionService2Impl renditionService2;
+    private RenditionDefinition2 renditionDefinition;
+    private OriginalClient originalClient;
+    private Method transformMethod;
+    private Object[] args;
+
+    @Before
+    public void setUp() throws Throwable
+    {
+        RetryingTransactionHelper txnHelper = mock(RetryingTransactionHelper.class);
+        when(txnHelper.doInTransaction(any(), anyBoolean(), anyBoolean()))
+                .thenAnswer(invocation -> ((RetryingTransactionCallback<?>) invocation.getArgument(0)).execute());
+        TransactionService transactionService = mock(TransactionService.class);
+        when(transactionService.getRetryingTransactionHelper()).thenReturn(txnHelper);
+        ContentReader reader = mock(ContentReader.class);
+        when(reader.exists()).thenReturn(true);
+        when(reader.getMimetype()).thenReturn("application/pdf");
+        when(reader.getSize()).thenReturn(1000L);
+        when(reader.getContentInputStream()).thenReturn(new ByteArrayInputStream(new byte[1000]));
+        ContentService contentService = mock(ContentService.class);
+        when(contentService.getReader(SOURCE, ContentModel.PROP_CONTENT)).thenReturn(reader);
+        engineClient = mock(TransformEngineClient.class);
+        renditionService2 = mock(RenditionService2Impl.class);
+
+        BeanFactory beanFactory = mock(BeanFactory.class);
+        when(beanFactory.getBean("TransactionService", TransactionService.class)).thenReturn(transactionService);
+        when(beanFactory.getBean("contentService", ContentService.class)).thenReturn(contentService);
+        when(beanFactory.getBean("mimetypeService", MimetypeService.class)).thenReturn(mock(MimetypeService.class));
+        when(beanFactory.getBean("inProcessTransformer", InProcessTransformer.class))
+                .thenReturn(mock(InProcessTransformer.class));
+        when(beanFactory.getBean("transformResultCache", TransformResultCache.class))
+                .thenReturn(mock(TransformResultCache.class));
+        when(beanFactory.getBean("transformEngineClient", TransformEngineClient.class)).thenReturn(engineClient);
+        when(beanFactory.getBean("renditionService2", RenditionService2Impl.class)).thenReturn(renditionService2);
+
+        renditionDefinition = mock(RenditionDefinition2.class);
+        when(renditionDefinition.getRenditionName()).thenReturn("doclib");
+        when(renditionDefinition.getTargetMimetype()).thenReturn("image/png");
+        when(renditionDefinition.getTransformOptions()).thenReturn(Collections.emptyMap());
+
+        interceptor = new TransformEngineRenditionInterceptor(beanFactory, ENGINE_URL, 1000L, 1, 1);
+        originalClient = new OriginalClient();
+        transformMethod = OriginalClient.class.getMethod("transform", NodeRef.class, RenditionDefinition2.class,
+                String.class, int.class);
+        args = new Object[] {SOURCE, renditionDefinition, "admin", 7};
+    }
+
+    @Test
+    public void testResultIsConsumed() throws Exception
+    {
+        engineTransform().thenReturn(TransformResult.of(new byte[] {1, 2, 3}));
+
+        interceptor.transform(transformMethod, originalClient, args);
+
+        verify(renditionService2).consume(eq(SOURCE), any(InputStream.class), eq(renditionDefinition), eq(7));
+        assertEquals(0, originalClient.calls.get());
+    }
+
+    @Test
+    public void testUnavailableEngineFallsBackToTheOriginalClient()
+    {
+        engineTransform().thenThrow(new TransformEngineUnavailableException("Unable to reach " + ENGINE_URL,
+                new ConnectException("Connection refused")));
+
+        interceptor.transform(transformMethod, originalClient, args);
+
+        assertEquals(1, originalClient.calls.get());
+        verify(renditionService2, never()).consume(any(), any(), any(), eq(7));
+    }
+
+    @Test
+    public void testFailedTransformIsReportedNotRepeated()
+    {
+        engineTransform().thenThrow(new ContentIOException("Transform request to " + ENGINE_URL + " returned 500"));
+
+        interceptor.transform(transformMethod, originalClient, args);
+
+        assertEquals(0, originalClient.calls.get());
+        verify(renditionService2).consume(eq(SOURCE), isNull(), eq(renditionDefinition), eq(7));
+    }
+
+    @Test
+    public void testFailedConsumeIsReportedNotRepeated()
+    {
+        engineTransform().thenReturn(TransformResult.of(new byte[] {1, 2, 3}));
+        doThrow(new ContentIOException("Unable to write the rendition")).when(renditionService2)
+                .consume(eq(SOURCE), any(InputStream.class), eq(renditionDefinition), eq(7));
+
+        interceptor.transform(transformMethod, originalClient, args);
+
+        assertEquals(0, originalClient.calls.get());
+        verify(renditionService2).consume(eq(SOURCE), isNull(), eq(renditionDefinition), eq(7));
+    }
+
+    @Test
+    public void testConnectionFailuresAreRecognised()
+    {
+        assertTrue(TransformEngineClient.isConnectionFailure(new ConnectException("refused")));
+        assertTrue(TransformEngineClient.isConnectionFailure(new UnknownHostException("engine")));
+        assertFalse(TransformEngineClient.isConnectionFailure(new SocketTimeoutException("read")));
+    }
+
+    @Test
+    public void testTransformsAfterDestroyGoToTheOriginalClient() throws Throwable
+    {
+        interceptor.destroy();
+        MethodInvocation invocation = mock(MethodInvocation.class);
+        when(invocation.getMethod()).thenReturn(transformMethod);
+        when(invocation.getArguments()).thenReturn(args);
+
+        interceptor.invoke(invocation);
+
+        verify(invocation).proceed();
+    }
+
+    private OngoingStubbing<TransformResult> engineTransform()
+    {
+        return when(engineClient.transform(eq(ENGINE_URL), any(), anyString(), any(), anyString(), any(), anyMap(),
+                anyLong()));
+    }
+
+    /**
+     * Stands in for the transform client that is proxied
+     */
+    public static class OriginalClient
+    {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        public void transform(NodeRef sourceNodeRef, RenditionDefinition2 renditionDefinition, String user,
+                int sourceContentHashCode)
+        {
+            calls.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * #%L
+ * Alfresco Repository WAR Community
+ * %%
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.app.transform;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.alfresco.web.app.transform.TransformEngineClient.TransformResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the keys, eviction and persistence of the {@link TransformResultCache}.
+ * 
+ * @since 6.2.2
+ */
+public class TransformResultCacheTest
+{
+    private File directory;
+    private TransformResultCache cache;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory("transform-cache-test").toFile();
+        cache = newCache(1000);
+    }
+
+    @After
+    public void tearDown()
+    {
+        File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private TransformResultCache newCache(long maxBytes)
+    {
+        TransformResultCache resultCache = new TransformResultCache();
+        resultCache.setEnabled(true);
+        resultCache.setDirectory(directory.getPath());
+        resultCache.setMaxBytes(maxBytes);
+        resultCache.setMaxEntrySize(600);
+        resultCache.afterPropertiesSet();
+        return resultCache;
+    }
+
+    @Test
+    public void testKeyIgnoresTimeoutAndOptionOrder()
+    {
+        String key = TransformResultCache.key("abc", "image/png", Map.of("resizeWidth", "100", "resizeHeight", "100"),
+                "2.3.6");
+
+        assertEquals(key, TransformResultCache.key("abc", "image/png",
+                Map.of("resizeHeight", "100", "resizeWidth", "100", "timeout", "5000"), "2.3.6"));
+        assertNotEquals(key, TransformResultCache.key("abc", "image/png",
+                Map.of("resizeWidth", "100", "resizeHeight", "100"), "2.3.7"));
+        assertNotEquals(key, TransformResultCache.key("abc", "image/jpeg",
+                Map.of("resizeWidth", "100", "resizeHeight", "100"), "2.3.6"));
+    }
+
+    @Test
+    public void testResultIsReturned() throws IOException
+    {
+        byte[] bytes = {1, 2, 3};
+        cache.put("k1", TransformResult.of(bytes));
+
+        TransformResult cached = cache.get("k1");
+
+        assertNotNull(cached);
+        try (InputStream in = cached.open())
+        {
+            assertArrayEquals(bytes, in.readAllBytes());
+        }
+        assertNull(cache.get("k2"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted()
+    {
+        cache.put("k1", TransformResult.of(new byte[400]));
+        cache.put("k2", TransformResult.of(new byte[400]));
+        assertNotNull(cache.get("k1"));
+
+        cache.put("k3", TransformResult.of(new byte[400]));
+
+        assertNotNull(cache.get("k1"));
+        assertNull(cache.get("k2"));
+        assertNotNull(cache.get("k3"));
+        assertFalse(new File(directory, "k2.bin").exists());
+    }
+
+    @Test
+    public void testLargeResultIsNotKept()
+    {
+        cache.put("k1", TransformResult.of(new byte[601]));
+
+        assertNull(cache.get("k1"));
+    }
+
+    @Test
+    public void testResultsSurviveRestart()
+    {
+        cache.put("k1", TransformResult.of(new byte[10]));
+
+        TransformResultCache restarted = newCache(1000);
+
+        assertNotNull(restarted.get("k1"));
+        assertTrue(new File(directory, "k1.bin").exists());
+    }
+}